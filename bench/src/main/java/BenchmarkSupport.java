@@ -0,0 +1,49 @@
+// BenchmarkSupport.java  (warmup + measured rounds for the plain-Java benchmarks in bench/)
+public class BenchmarkSupport
+{
+    public interface Operation
+    {
+        // Runs one round and returns a value derived from the work so it cannot be optimised away
+        long run() throws Exception;
+    }
+
+    // results are folded in here so the JIT has to keep every round's work alive
+    private static volatile long sink = 0;
+
+    public static void measure(String name, int warmupRounds, int measuredRounds, long operationsPerRound, Operation operation) throws Exception
+    {
+        int round = 0;
+        while (round < warmupRounds)
+        {
+            sink = sink + operation.run();
+            round = round + 1;
+        }
+
+        long totalNanos = 0;
+        long bestNanos = Long.MAX_VALUE;
+        long worstNanos = 0;
+        round = 0;
+        while (round < measuredRounds)
+        {
+            long startNanos = System.nanoTime();
+            sink = sink + operation.run();
+            long elapsedNanos = System.nanoTime() - startNanos;
+
+            totalNanos = totalNanos + elapsedNanos;
+            if (elapsedNanos < bestNanos) bestNanos = elapsedNanos;
+            if (elapsedNanos > worstNanos) worstNanos = elapsedNanos;
+            round = round + 1;
+        }
+
+        double meanNanosPerOp = (double) totalNanos / ((double) measuredRounds * operationsPerRound);
+        double operationsPerSecond = 1000000000.0 / meanNanosPerOp;
+        System.out.println(String.format("%-40s %12.1f ns/op %14.0f ops/s   (best round %d ms, worst %d ms)",
+                name, meanNanosPerOp, operationsPerSecond, bestNanos / 1000000, worstNanos / 1000000));
+    }
+
+    public static int intArgument(String[] args, int index, int defaultValue)
+    {
+        if (args.length <= index) return defaultValue;
+        return Integer.parseInt(args[index]);
+    }
+}
@@ -0,0 +1,147 @@
+// ImportBenchmark.java  (rows/sec for bulk imports against the same rows as batched register lines)
+//
+// mvn -B package
+// java -cp bench/target/benchmarks.jar ImportBenchmark [rowCount] [scriptRowCount] [measuredRounds]
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+
+public class ImportBenchmark
+{
+    private static final int AGENT_COUNT = 10000;
+    private static final int BOOK_COUNT = 10000;
+
+    public static void main(String[] args) throws Exception
+    {
+        final int rowCount = BenchmarkSupport.intArgument(args, 0, 10000000);
+        final int scriptRowCount = BenchmarkSupport.intArgument(args, 1, 1000000);
+        int measuredRounds = BenchmarkSupport.intArgument(args, 2, 1);
+
+        final File agentFile = temporaryFile("import-agents", ".txt");
+        final File customerFile = temporaryFile("import-customers", ".txt");
+        final File customerCsvFile = temporaryFile("import-customers", ".csv");
+        final File scriptFile = temporaryFile("import-script", ".txt");
+        writeAgents(agentFile, rowCount);
+        writeCustomers(customerFile, rowCount, false);
+        writeCustomers(customerCsvFile, rowCount, true);
+        writeCustomerScript(scriptFile, scriptRowCount);
+
+        File databaseFile = temporaryFile("import-benchmark", ".db");
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getAbsolutePath()))
+        {
+            final Statement statement = connection.createStatement();
+
+            BenchmarkSupport.measure("import Agents (pipe, benefits)", 0, measuredRounds, rowCount, new BenchmarkSupport.Operation()
+            {
+                public long run() throws Exception
+                {
+                    return importInto(statement, 1, agentFile, BulkImporter.FORMAT_PIPE);
+                }
+            });
+
+            BenchmarkSupport.measure("import Customers (pipe, links)", 0, measuredRounds, rowCount, new BenchmarkSupport.Operation()
+            {
+                public long run() throws Exception
+                {
+                    return importInto(statement, 4, customerFile, BulkImporter.FORMAT_PIPE);
+                }
+            });
+
+            BenchmarkSupport.measure("import Customers (CSV, links)", 0, measuredRounds, rowCount, new BenchmarkSupport.Operation()
+            {
+                public long run() throws Exception
+                {
+                    return importInto(statement, 4, customerCsvFile, BulkImporter.FORMAT_CSV);
+                }
+            });
+
+            // the same customer rows as 1|4| register lines, for comparison
+            BenchmarkSupport.measure("script 1|4| lines, --batch 10000", 0, measuredRounds, scriptRowCount, new BenchmarkSupport.Operation()
+            {
+                public long run() throws Exception
+                {
+                    Main.dropAllTables(statement);
+                    Main.initializeTables(statement);
+                    ScriptSource scriptSource = ScriptSource.open(scriptFile.getAbsolutePath());
+                    Main.executeScript(scriptSource, statement, true, 10000);
+                    scriptSource.close();
+                    return scriptSource.getLineNumber();
+                }
+            });
+
+            Main.closeStatementCache();
+        }
+    }
+
+    private static long importInto(Statement statement, int subtype, File file, int format) throws Exception
+    {
+        Main.dropAllTables(statement);
+        Main.initializeTables(statement);
+        BulkImporter importer = new BulkImporter(statement);
+        if (!importer.importFile(subtype, file.getAbsolutePath(), format)) throw new IllegalStateException("Import failed");
+        return importer.getImportedRowCount();
+    }
+
+    // ----------------------------
+    // Input files
+    // ----------------------------
+    private static File temporaryFile(String prefix, String suffix) throws IOException
+    {
+        File file = File.createTempFile(prefix, suffix);
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static void writeAgents(File file, int rowCount) throws IOException
+    {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file), 1 << 20))
+        {
+            int rowIndex = 0;
+            while (rowIndex < rowCount)
+            {
+                // every other agent has 10+ years and gets benefits
+                writer.write("Agent " + rowIndex + "|555-" + (rowIndex % 10000) + "|" + (rowIndex % 20));
+                writer.newLine();
+                rowIndex = rowIndex + 1;
+            }
+        }
+    }
+
+    private static void writeCustomers(File file, int rowCount, boolean csv) throws IOException
+    {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file), 1 << 20))
+        {
+            if (csv)
+            {
+                writer.write("AgentID,BookID,Name,PhoneNumber");
+                writer.newLine();
+            }
+            String separator = csv ? "," : "|";
+            int rowIndex = 0;
+            while (rowIndex < rowCount)
+            {
+                writer.write((1 + rowIndex % AGENT_COUNT) + separator + (1 + rowIndex % BOOK_COUNT) + separator + "Customer " + rowIndex + separator + "444-" + (rowIndex % 10000));
+                writer.newLine();
+                rowIndex = rowIndex + 1;
+            }
+        }
+    }
+
+    private static void writeCustomerScript(File file, int rowCount) throws IOException
+    {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file), 1 << 20))
+        {
+            int rowIndex = 0;
+            while (rowIndex < rowCount)
+            {
+                writer.write("1|4|" + (1 + rowIndex % AGENT_COUNT) + "|" + (1 + rowIndex % BOOK_COUNT) + "|Customer " + rowIndex + "|444-" + (rowIndex % 10000));
+                writer.newLine();
+                rowIndex = rowIndex + 1;
+            }
+        }
+    }
+}
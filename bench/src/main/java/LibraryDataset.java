@@ -0,0 +1,179 @@
+// LibraryDataset.java  (synthetic agents, books, authors, customers and salaries for the benchmarks)
+//
+// A dataset is sized by its customer count; agents and books are a hundredth of that, authors a
+// thousandth. Each size is generated once into the temp directory and reused by every later
+// benchmark fork and run, so a 10M-customer dataset is only built the first time.
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+
+public class LibraryDataset
+{
+    private static final int CHUNK_SIZE = 50000;
+
+    public static int agentCount(int customerCount)
+    {
+        return Math.max(10, customerCount / 100);
+    }
+
+    public static int bookCount(int customerCount)
+    {
+        return Math.max(10, customerCount / 100);
+    }
+
+    public static int authorCount(int customerCount)
+    {
+        return Math.max(10, customerCount / 1000);
+    }
+
+    // The dataset file for customerCount, generating it first if this is the first time
+    public static synchronized File prepare(int customerCount) throws Exception
+    {
+        File directory = new File(System.getProperty("java.io.tmpdir"), "sqlproject-bench");
+        directory.mkdirs();
+        File datasetFile = new File(directory, "library-" + customerCount + ".db");
+        if (datasetFile.exists()) return datasetFile;
+
+        // built under another name and moved into place, so a run killed halfway leaves nothing behind
+        File partialFile = new File(directory, "library-" + customerCount + ".db.partial");
+        partialFile.delete();
+        long startNanos = System.nanoTime();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + partialFile.getAbsolutePath()))
+        {
+            Statement statement = connection.createStatement();
+            Main.initializeTables(statement);
+            Main.dropManagedIndexes(statement);
+            load(connection, statement, customerCount);
+            Main.createManagedIndexes(statement);
+            Main.closeStatementCache();
+            Main.invalidateCaches();
+        }
+        Files.move(partialFile.toPath(), datasetFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        System.out.println("Generated " + datasetFile + " (" + customerCount + " customers, " + datasetFile.length() / (1024 * 1024) + " MB) in "
+                + (System.nanoTime() - startNanos) / 1000000 + " ms");
+        return datasetFile;
+    }
+
+    private static void load(Connection connection, Statement statement, int customerCount) throws Exception
+    {
+        int agentCount = agentCount(customerCount);
+        int bookCount = bookCount(customerCount);
+        int authorCount = authorCount(customerCount);
+        connection.setAutoCommit(false);
+
+        int rowIndex = 0;
+        while (rowIndex < authorCount)
+        {
+            int rowCount = Math.min(CHUNK_SIZE, authorCount - rowIndex);
+            String[][] authorRows = new String[rowCount][];
+            int chunkIndex = 0;
+            while (chunkIndex < rowCount)
+            {
+                int authorId = rowIndex + chunkIndex + 1;
+                authorRows[chunkIndex] = new String[]{"Author " + authorId, "666-" + authorId, String.valueOf(20 + authorId % 30)};
+                chunkIndex = chunkIndex + 1;
+            }
+            Main.insertRows("Authors", new String[]{"Name", "PhoneNumber", "HourlyCharge"}, authorRows, statement);
+            rowIndex = rowIndex + rowCount;
+        }
+
+        rowIndex = 0;
+        while (rowIndex < bookCount)
+        {
+            int rowCount = Math.min(CHUNK_SIZE, bookCount - rowIndex);
+            String[][] bookRows = new String[rowCount][];
+            String[][] linkRows = new String[rowCount][];
+            int chunkIndex = 0;
+            while (chunkIndex < rowCount)
+            {
+                int bookId = rowIndex + chunkIndex + 1;
+                String authorId = String.valueOf(bookId % authorCount + 1);
+                bookRows[chunkIndex] = new String[]{authorId, "Book " + bookId, String.valueOf(1000 + bookId % 4000)};
+                linkRows[chunkIndex] = new String[]{String.valueOf(bookId), authorId};
+                chunkIndex = chunkIndex + 1;
+            }
+            Main.insertRows("Books", new String[]{"AuthorID", "Name", "Cost"}, bookRows, statement);
+            Main.insertRows("BookAuthor", new String[]{"BookID", "AuthorID"}, linkRows, statement);
+            rowIndex = rowIndex + rowCount;
+        }
+
+        // every agent gets a salary; those with 10+ years also get the benefits registerAgent would add
+        rowIndex = 0;
+        int benefitId = 0;
+        while (rowIndex < agentCount)
+        {
+            int rowCount = Math.min(CHUNK_SIZE, agentCount - rowIndex);
+            String[][] agentRows = new String[rowCount][];
+            String[][] salaryRows = new String[rowCount][];
+            String[][] salaryLinkRows = new String[rowCount][];
+            int benefitCount = 0;
+            int chunkIndex = 0;
+            while (chunkIndex < rowCount)
+            {
+                int agentId = rowIndex + chunkIndex + 1;
+                int experience = agentId % 20;
+                agentRows[chunkIndex] = new String[]{"Agent " + agentId, "555-" + agentId, String.valueOf(experience)};
+                salaryRows[chunkIndex] = new String[]{String.valueOf(30000 + experience * 2500), String.valueOf(experience)};
+                salaryLinkRows[chunkIndex] = new String[]{String.valueOf(agentId), String.valueOf(agentId)};
+                if (experience >= 10) benefitCount = benefitCount + 1;
+                chunkIndex = chunkIndex + 1;
+            }
+
+            String[][] benefitRows = new String[benefitCount][];
+            String[][] benefitLinkRows = new String[benefitCount][];
+            int benefitIndex = 0;
+            chunkIndex = 0;
+            while (chunkIndex < rowCount)
+            {
+                int agentId = rowIndex + chunkIndex + 1;
+                if (agentId % 20 >= 10)
+                {
+                    benefitId = benefitId + 1;
+                    benefitRows[benefitIndex] = new String[]{String.valueOf(agentId), "0", "14"};
+                    benefitLinkRows[benefitIndex] = new String[]{String.valueOf(agentId), String.valueOf(benefitId)};
+                    benefitIndex = benefitIndex + 1;
+                }
+                chunkIndex = chunkIndex + 1;
+            }
+
+            Main.insertRows("Agents", new String[]{"Name", "PhoneNumber", "Experience"}, agentRows, statement);
+            Main.insertRows("Salaries", new String[]{"Salary", "Experience"}, salaryRows, statement);
+            Main.insertRows("AgentSalary", new String[]{"AgentID", "SalaryID"}, salaryLinkRows, statement);
+            if (benefitCount > 0)
+            {
+                Main.insertRows("WorkBenefits", new String[]{"AgentID", "SalaryBonus", "PaidLeaveDuration"}, benefitRows, statement);
+                Main.insertRows("AgentBenefit", new String[]{"AgentID", "BenefitID"}, benefitLinkRows, statement);
+            }
+            rowIndex = rowIndex + rowCount;
+        }
+
+        // customers and their link rows go in chunk by chunk to keep the String arrays small
+        rowIndex = 0;
+        while (rowIndex < customerCount)
+        {
+            int rowCount = Math.min(CHUNK_SIZE, customerCount - rowIndex);
+            String[][] customerRows = new String[rowCount][];
+            String[][] linkRows = new String[rowCount][];
+            int chunkIndex = 0;
+            while (chunkIndex < rowCount)
+            {
+                int customerId = rowIndex + chunkIndex + 1;
+                String agentId = String.valueOf(customerId % agentCount + 1);
+                String bookId = String.valueOf(customerId % bookCount + 1);
+                customerRows[chunkIndex] = new String[]{agentId, bookId, "Customer " + customerId, "444-" + customerId % 10000};
+                linkRows[chunkIndex] = new String[]{String.valueOf(customerId), agentId, bookId};
+                chunkIndex = chunkIndex + 1;
+            }
+            Main.insertRows("Customers", new String[]{"AgentID", "BookID", "Name", "PhoneNumber"}, customerRows, statement);
+            Main.insertRows("CustomerAgentBook", new String[]{"CustomerID", "AgentID", "BookID"}, linkRows, statement);
+            connection.commit();
+            rowIndex = rowIndex + rowCount;
+        }
+
+        connection.commit();
+        connection.setAutoCommit(true);
+    }
+}
@@ -0,0 +1,161 @@
+// LibraryWorkloads.java  (jmh.LibraryWorkload on top of Main, against a disk or in-memory copy of a dataset)
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+
+public class LibraryWorkloads implements jmh.LibraryWorkload
+{
+    private static final String[] CUSTOMER_COLUMNS = {"AgentID", "BookID", "Name", "PhoneNumber"};
+
+    private Connection connection = null;
+    private Statement statement = null;
+    private File databaseFile = null;
+    private File scriptFile = null;
+    private ResultRenderer discardingRenderer = null;
+    private final PipeTokenizer tokenizer = new PipeTokenizer();
+
+    private int agentCount;
+    private int bookCount;
+    private int customersPerAgent;
+    private long insertCount = 0;
+
+    public void open(String storage, int customerCount) throws Exception
+    {
+        File datasetFile = LibraryDataset.prepare(customerCount);
+        if (storage.equals("memory"))
+        {
+            connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+            statement = connection.createStatement();
+            statement.executeUpdate("restore from \"" + datasetFile.getAbsolutePath() + "\"");
+        }
+        else if (storage.equals("disk"))
+        {
+            // a copy per trial, so the writes of one trial never carry over into the next
+            databaseFile = File.createTempFile("library-benchmark", ".db");
+            Files.copy(datasetFile.toPath(), databaseFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getAbsolutePath());
+            statement = connection.createStatement();
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unknown storage " + storage + "; expected disk or memory");
+        }
+
+        agentCount = LibraryDataset.agentCount(customerCount);
+        bookCount = LibraryDataset.bookCount(customerCount);
+        customersPerAgent = Math.max(1, customerCount / agentCount);
+        discardingRenderer = ResultRenderer.toWriter(Writer.nullWriter(), ResultRenderer.FORMAT_PIPE, 1024);
+        scriptFile = File.createTempFile("library-benchmark", ".txt");
+        writeScript(scriptFile);
+    }
+
+    public void close() throws Exception
+    {
+        Main.closeStatementCache();
+        Main.invalidateCaches();
+        if (connection != null) connection.close();
+        if (databaseFile != null) databaseFile.delete();
+        if (scriptFile != null) scriptFile.delete();
+    }
+
+    // ----------------------------
+    // Operations
+    // ----------------------------
+    public long executeScript() throws Exception
+    {
+        ScriptSource scriptSource = ScriptSource.open(scriptFile.getAbsolutePath());
+        Main.executeScript(scriptSource, statement, true, SCRIPT_LINE_COUNT);
+        scriptSource.close();
+        return scriptSource.getLineNumber();
+    }
+
+    public long parseScriptLine(String line)
+    {
+        ScriptCommand scriptCommand = Main.parseScriptLine(tokenizer, line);
+        if (scriptCommand == null) return -1;
+        if (scriptCommand.values == null) return scriptCommand.command;
+        return scriptCommand.command + scriptCommand.values.length;
+    }
+
+    public long insertCustomer()
+    {
+        insertCount = insertCount + 1;
+        String[] values = {String.valueOf(insertCount % agentCount + 1), String.valueOf(insertCount % bookCount + 1), "Inserted " + insertCount, "333-" + insertCount % 10000};
+        return Main.insertIntoTableAndReturnId("Customers", CUSTOMER_COLUMNS, values, statement);
+    }
+
+    public int prepareAgentPurge() throws Exception
+    {
+        connection.setAutoCommit(false);
+        int agentId = Main.insertIntoTableAndReturnId("Agents", new String[]{"Name", "PhoneNumber", "Experience"}, new String[]{"Purged agent", "555-0000", "12"}, statement);
+        String agentIdString = String.valueOf(agentId);
+        String[][] customerRows = new String[customersPerAgent][];
+        int rowIndex = 0;
+        while (rowIndex < customersPerAgent)
+        {
+            customerRows[rowIndex] = new String[]{agentIdString, String.valueOf(rowIndex % bookCount + 1), "Purged customer " + rowIndex, "222-" + rowIndex};
+            rowIndex = rowIndex + 1;
+        }
+        int[] customerIds = Main.insertRowsAndReturnIds("Customers", CUSTOMER_COLUMNS, customerRows, statement);
+
+        String[][] linkRows = new String[customersPerAgent][];
+        rowIndex = 0;
+        while (rowIndex < customersPerAgent)
+        {
+            linkRows[rowIndex] = new String[]{String.valueOf(customerIds[rowIndex]), agentIdString, customerRows[rowIndex][1]};
+            rowIndex = rowIndex + 1;
+        }
+        Main.insertRows("CustomerAgentBook", new String[]{"CustomerID", "AgentID", "BookID"}, linkRows, statement);
+        Main.addBenefitsToAgent(statement, agentId, 0, 14);
+        connection.commit();
+        connection.setAutoCommit(true);
+        return agentId;
+    }
+
+    public void cascadeDeleteAgent(int agentId)
+    {
+        Main.cascadeDeleteAgent(statement, agentId);
+    }
+
+    public long displayTable(String tableName) throws Exception
+    {
+        return Main.renderTable(discardingRenderer, connection, tableName);
+    }
+
+    public String compute(boolean cold) throws Exception
+    {
+        if (cold) Main.invalidateCaches();
+        StatsEngine statsEngine = Main.getStatsEngine(statement);
+        return statsEngine.summary(StatsEngine.AGENT_EXPERIENCE) + statsEngine.summary(StatsEngine.BOOK_COST);
+    }
+
+    // ----------------------------
+    // Script
+    // ----------------------------
+    // Mostly customer registrations, with agents, books and experience updates mixed in
+    private void writeScript(File file) throws IOException
+    {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file)))
+        {
+            int lineIndex = 0;
+            while (lineIndex < SCRIPT_LINE_COUNT)
+            {
+                int agentId = lineIndex % agentCount + 1;
+                int kind = lineIndex % 10;
+                if (kind == 0) writer.write("1|1|Script agent " + lineIndex + "|555-" + lineIndex + "|" + lineIndex % 20);
+                else if (kind == 1) writer.write("1|2|Script book " + lineIndex + "|" + (lineIndex % 10 + 1) + "|" + (1000 + lineIndex));
+                else if (kind == 2) writer.write("2|1|" + agentId + "|Experience|" + lineIndex % 20);
+                else writer.write("1|4|" + agentId + "|" + (lineIndex % bookCount + 1) + "|Script customer " + lineIndex + "|444-" + lineIndex);
+                writer.newLine();
+                lineIndex = lineIndex + 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+// ProfileBenchmark.java  (the sample script under each connection profile, each on a fresh database file)
+//
+// mvn -B package
+// java -cp bench/target/benchmarks.jar ProfileBenchmark [scriptPath] [batchSize] [measuredRounds]
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+
+public class ProfileBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        final String scriptPath = args.length > 0 ? args[0] : "user_inputs.txt";
+        final int batchSize = BenchmarkSupport.intArgument(args, 1, 1);
+        int measuredRounds = BenchmarkSupport.intArgument(args, 2, 20);
+
+        // script lines per round, so ns/op is per line
+        ScriptSource countingSource = ScriptSource.open(scriptPath);
+        while (countingSource.nextLine() != null)
+        {
+        }
+        countingSource.close();
+        long lineCount = countingSource.getLineNumber();
+
+        int profileIndex = 0;
+        while (profileIndex < ConnectionProfile.PROFILES.length)
+        {
+            ConnectionProfile profile = ConnectionProfile.PROFILES[profileIndex];
+            File databaseFile = File.createTempFile("profile-benchmark", ".db");
+            databaseFile.deleteOnExit();
+
+            try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getAbsolutePath()))
+            {
+                final Statement statement = connection.createStatement();
+                System.out.println(profile.apply(statement, true));
+
+                BenchmarkSupport.measure(profile.name + ", --batch " + batchSize, 3, measuredRounds, lineCount, new BenchmarkSupport.Operation()
+                {
+                    public long run() throws Exception
+                    {
+                        Main.dropAllTables(statement);
+                        Main.initializeTables(statement);
+                        ScriptSource scriptSource = ScriptSource.open(scriptPath);
+                        Main.executeScript(scriptSource, statement, true, batchSize);
+                        scriptSource.close();
+                        return scriptSource.getLineNumber();
+                    }
+                });
+
+                Main.closeStatementCache();
+            }
+            new File(databaseFile.getAbsolutePath() + "-wal").delete();
+            new File(databaseFile.getAbsolutePath() + "-shm").delete();
+            profileIndex = profileIndex + 1;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+// PurgeBenchmark.java  (agent purge latency with and without the managed indexes, per ID and per range)
+//
+// mvn -B package
+// java -cp bench/target/benchmarks.jar PurgeBenchmark [customerCount] [agentCount] [purgesPerRound] [measuredRounds]
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+
+public class PurgeBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int customerCount = BenchmarkSupport.intArgument(args, 0, 1000000);
+        int agentCount = BenchmarkSupport.intArgument(args, 1, 10000);
+        final int purgesPerRound = BenchmarkSupport.intArgument(args, 2, 10);
+        int measuredRounds = BenchmarkSupport.intArgument(args, 3, 5);
+
+        File databaseFile = File.createTempFile("purge-benchmark", ".db");
+        databaseFile.deleteOnExit();
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getAbsolutePath()))
+        {
+            final Statement statement = connection.createStatement();
+            Main.dropAllTables(statement);
+            Main.initializeTables(statement);
+
+            // load without indexes, then time building them once
+            Main.dropManagedIndexes(statement);
+            long loadStartNanos = System.nanoTime();
+            load(connection, statement, customerCount, agentCount);
+            long loadMillis = (System.nanoTime() - loadStartNanos) / 1000000;
+            System.out.println("Loaded " + customerCount + " customers across " + agentCount + " agents in " + loadMillis + " ms");
+
+            // agents are purged in increasing ID order, each round picks up where the last stopped
+            final int[] nextAgentId = {1};
+            BenchmarkSupport.Operation purgeRound = new BenchmarkSupport.Operation()
+            {
+                public long run()
+                {
+                    int purgeIndex = 0;
+                    while (purgeIndex < purgesPerRound)
+                    {
+                        Main.cascadeDeleteAgent(statement, nextAgentId[0]);
+                        nextAgentId[0] = nextAgentId[0] + 1;
+                        purgeIndex = purgeIndex + 1;
+                    }
+                    return nextAgentId[0];
+                }
+            };
+
+            BenchmarkSupport.measure("cascadeDeleteAgent, no indexes", 1, measuredRounds, purgesPerRound, purgeRound);
+
+            long indexStartNanos = System.nanoTime();
+            Main.createManagedIndexes(statement);
+            System.out.println("Built managed indexes in " + (System.nanoTime() - indexStartNanos) / 1000000 + " ms");
+
+            BenchmarkSupport.measure("cascadeDeleteAgent, managed indexes", 1, measuredRounds, purgesPerRound, purgeRound);
+
+            // the same number of agents per round, purged as one range
+            BenchmarkSupport.measure("cascadeDeleteAgents, one range", 1, measuredRounds, purgesPerRound, new BenchmarkSupport.Operation()
+            {
+                public long run()
+                {
+                    int firstId = nextAgentId[0];
+                    nextAgentId[0] = nextAgentId[0] + purgesPerRound;
+                    Main.cascadeDeleteAgents(statement, PurgeSelection.range(firstId, nextAgentId[0] - 1));
+                    return nextAgentId[0];
+                }
+            });
+
+            Main.closeStatementCache();
+        }
+    }
+
+    private static void load(Connection connection, Statement statement, int customerCount, int agentCount) throws Exception
+    {
+        connection.setAutoCommit(false);
+
+        String[][] agentRows = new String[agentCount][];
+        int agentIndex = 0;
+        while (agentIndex < agentCount)
+        {
+            agentRows[agentIndex] = new String[]{"Agent" + agentIndex, "555-" + agentIndex, String.valueOf(agentIndex % 20)};
+            agentIndex = agentIndex + 1;
+        }
+        Main.insertRows("Agents", new String[]{"Name", "PhoneNumber", "Experience"}, agentRows, statement);
+
+        // customers and their link rows go in chunk by chunk to keep the String arrays small
+        int chunkSize = 50000;
+        int customerIndex = 0;
+        while (customerIndex < customerCount)
+        {
+            int rowCount = Math.min(chunkSize, customerCount - customerIndex);
+            String[][] customerRows = new String[rowCount][];
+            String[][] linkRows = new String[rowCount][];
+            int rowIndex = 0;
+            while (rowIndex < rowCount)
+            {
+                int customerId = customerIndex + rowIndex + 1;
+                String agentId = String.valueOf(customerId % agentCount + 1);
+                String bookId = String.valueOf(customerId % 997 + 1);
+                customerRows[rowIndex] = new String[]{agentId, bookId, "Customer" + customerId, "111-" + customerId};
+                linkRows[rowIndex] = new String[]{String.valueOf(customerId), agentId, bookId};
+                rowIndex = rowIndex + 1;
+            }
+            Main.insertRows("Customers", new String[]{"AgentID", "BookID", "Name", "PhoneNumber"}, customerRows, statement);
+            Main.insertRows("CustomerAgentBook", new String[]{"CustomerID", "AgentID", "BookID"}, linkRows, statement);
+            customerIndex = customerIndex + rowCount;
+        }
+
+        connection.commit();
+        connection.setAutoCommit(true);
+    }
+}
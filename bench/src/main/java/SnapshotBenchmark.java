@@ -0,0 +1,108 @@
+// SnapshotBenchmark.java  (columnar export and restore against replaying the script that built the tables)
+//
+// mvn -B package
+// java -cp bench/target/benchmarks.jar SnapshotBenchmark [customerCount] [measuredRounds]
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+
+public class SnapshotBenchmark
+{
+    private static final int AGENT_COUNT = 1000;
+    private static final int BOOK_COUNT = 1000;
+
+    public static void main(String[] args) throws Exception
+    {
+        int customerCount = BenchmarkSupport.intArgument(args, 0, 1000000);
+        int measuredRounds = BenchmarkSupport.intArgument(args, 1, 3);
+
+        final File scriptFile = temporaryFile("snapshot-script", ".txt");
+        final File snapshotFile = temporaryFile("snapshot-benchmark", ".snap");
+        File databaseFile = temporaryFile("snapshot-benchmark", ".db");
+        final long lineCount = writeScript(scriptFile, customerCount);
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getAbsolutePath()))
+        {
+            final Statement statement = connection.createStatement();
+
+            BenchmarkSupport.measure("replay script, --batch 10000", 0, measuredRounds, lineCount, new BenchmarkSupport.Operation()
+            {
+                public long run() throws Exception
+                {
+                    Main.dropAllTables(statement);
+                    Main.initializeTables(statement);
+                    ScriptSource scriptSource = ScriptSource.open(scriptFile.getAbsolutePath());
+                    Main.executeScript(scriptSource, statement, true, 10000);
+                    scriptSource.close();
+                    return scriptSource.getLineNumber();
+                }
+            });
+
+            BenchmarkSupport.measure("export snapshot", 1, measuredRounds, lineCount, new BenchmarkSupport.Operation()
+            {
+                public long run() throws Exception
+                {
+                    return new ColumnarSnapshot(statement).exportTo(snapshotFile.getAbsolutePath());
+                }
+            });
+            System.out.println("Snapshot " + snapshotFile.length() + " bytes, database " + databaseFile.length() + " bytes");
+
+            BenchmarkSupport.measure("restore snapshot", 1, measuredRounds, lineCount, new BenchmarkSupport.Operation()
+            {
+                public long run() throws Exception
+                {
+                    return new ColumnarSnapshot(statement).restoreFrom(snapshotFile.getAbsolutePath());
+                }
+            });
+
+            Main.closeStatementCache();
+        }
+    }
+
+    private static File temporaryFile(String prefix, String suffix) throws IOException
+    {
+        File file = File.createTempFile(prefix, suffix);
+        file.deleteOnExit();
+        return file;
+    }
+
+    // Agents, books and authors first, then customers spread over them; returns the line count
+    private static long writeScript(File file, int customerCount) throws IOException
+    {
+        long lineCount = 0;
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file), 1 << 20))
+        {
+            int rowIndex = 0;
+            while (rowIndex < AGENT_COUNT)
+            {
+                writer.write("1|1|Agent " + rowIndex + "|555-" + rowIndex + "|" + (rowIndex % 20));
+                writer.newLine();
+                writer.write("1|3|Author " + rowIndex + "|666-" + rowIndex + "|" + (20 + rowIndex % 30));
+                writer.newLine();
+                lineCount = lineCount + 2;
+                rowIndex = rowIndex + 1;
+            }
+            rowIndex = 0;
+            while (rowIndex < BOOK_COUNT)
+            {
+                writer.write("1|2|Book " + rowIndex + "|" + (1 + rowIndex % AGENT_COUNT) + "|" + (10 + rowIndex % 40));
+                writer.newLine();
+                lineCount = lineCount + 1;
+                rowIndex = rowIndex + 1;
+            }
+            rowIndex = 0;
+            while (rowIndex < customerCount)
+            {
+                writer.write("1|4|" + (1 + rowIndex % AGENT_COUNT) + "|" + (1 + rowIndex % BOOK_COUNT) + "|Customer " + rowIndex + "|444-" + (rowIndex % 10000));
+                writer.newLine();
+                lineCount = lineCount + 1;
+                rowIndex = rowIndex + 1;
+            }
+        }
+        return lineCount;
+    }
+}
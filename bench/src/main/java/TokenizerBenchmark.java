@@ -0,0 +1,118 @@
+// TokenizerBenchmark.java  (PipeTokenizer against the old splitByPipe/trimSimple on script-shaped lines)
+//
+// mvn -B package
+// java -cp bench/target/benchmarks.jar TokenizerBenchmark [lineCount] [measuredRounds]
+public class TokenizerBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int lineCount = BenchmarkSupport.intArgument(args, 0, 100000);
+        int measuredRounds = BenchmarkSupport.intArgument(args, 1, 10);
+        final String[] lines = buildLines(lineCount);
+
+        BenchmarkSupport.measure("legacy splitByPipe + isInteger", 5, measuredRounds, lineCount, new BenchmarkSupport.Operation()
+        {
+            public long run()
+            {
+                long checksum = 0;
+                int lineIndex = 0;
+                while (lineIndex < lines.length)
+                {
+                    String[] tokens = legacySplitByPipe(legacyTrimSimple(lines[lineIndex]));
+                    if (tokens.length > 2 && Main.isInteger(tokens[2])) checksum = checksum + Main.stringToInt(tokens[2]);
+                    checksum = checksum + tokens.length;
+                    lineIndex = lineIndex + 1;
+                }
+                return checksum;
+            }
+        });
+
+        final PipeTokenizer tokenizer = new PipeTokenizer();
+        BenchmarkSupport.measure("PipeTokenizer", 5, measuredRounds, lineCount, new BenchmarkSupport.Operation()
+        {
+            public long run()
+            {
+                long checksum = 0;
+                int lineIndex = 0;
+                while (lineIndex < lines.length)
+                {
+                    tokenizer.reset(lines[lineIndex]);
+                    if (tokenizer.fieldCount() > 2 && tokenizer.isInteger(2)) checksum = checksum + tokenizer.intField(2);
+                    checksum = checksum + tokenizer.fieldCount();
+                    lineIndex = lineIndex + 1;
+                }
+                return checksum;
+            }
+        });
+    }
+
+    // Mostly customer registrations, as in the nightly loads, with agents, updates and purges mixed in
+    private static String[] buildLines(int lineCount)
+    {
+        String[] lines = new String[lineCount];
+        int lineIndex = 0;
+        while (lineIndex < lineCount)
+        {
+            int kind = lineIndex % 10;
+            if (kind < 7) lines[lineIndex] = "1|4|" + (lineIndex % 500 + 1) + "|" + (lineIndex % 2000 + 1) + "|Customer Number " + lineIndex + "|444-" + (1000 + lineIndex % 9000);
+            else if (kind == 7) lines[lineIndex] = "1|1|Agent Name " + lineIndex + "|555-" + (1000 + lineIndex % 9000) + "|" + (lineIndex % 30);
+            else if (kind == 8) lines[lineIndex] = "2|1|" + (lineIndex % 500 + 1) + "|Experience|" + (lineIndex % 25);
+            else lines[lineIndex] = " 3 | 4 | " + (lineIndex % 100000 + 1) + " ";
+            lineIndex = lineIndex + 1;
+        }
+        return lines;
+    }
+
+    // ----------------------------
+    // The implementation PipeTokenizer replaced, kept here as the baseline
+    // ----------------------------
+    private static String[] legacySplitByPipe(String inputString)
+    {
+        int pipeCount = 1;
+        int charIndex = 0;
+        while (charIndex < inputString.length())
+        {
+            if (inputString.charAt(charIndex) == '|') pipeCount = pipeCount + 1;
+            charIndex = charIndex + 1;
+        }
+
+        String[] parts = new String[pipeCount];
+        String currentToken = "";
+        int partIndex = 0;
+        charIndex = 0;
+        while (charIndex < inputString.length())
+        {
+            char currentChar = inputString.charAt(charIndex);
+            if (currentChar == '|')
+            {
+                parts[partIndex] = legacyTrimSimple(currentToken);
+                partIndex = partIndex + 1;
+                currentToken = "";
+            }
+            else
+            {
+                currentToken = currentToken + currentChar;
+            }
+            charIndex = charIndex + 1;
+        }
+        parts[partIndex] = legacyTrimSimple(currentToken);
+        return parts;
+    }
+
+    private static String legacyTrimSimple(String text)
+    {
+        int startIndex = 0;
+        int endIndex = text.length() - 1;
+        while (startIndex <= endIndex && text.charAt(startIndex) == ' ') startIndex = startIndex + 1;
+        while (endIndex >= startIndex && text.charAt(endIndex) == ' ') endIndex = endIndex - 1;
+        if (endIndex < startIndex) return "";
+        String resultString = "";
+        int charIndex = startIndex;
+        while (charIndex <= endIndex)
+        {
+            resultString = resultString + text.charAt(charIndex);
+            charIndex = charIndex + 1;
+        }
+        return resultString;
+    }
+}
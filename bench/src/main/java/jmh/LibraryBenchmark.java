@@ -0,0 +1,98 @@
+// LibraryBenchmark.java  (script ingestion, inserts, cascades, display and compute against each dataset size)
+//
+// Every benchmark runs once per customer count and per storage: a copy of the dataset on disk,
+// or restored into an in-memory database. A full run covers 10M customers and takes a while;
+// pass -p customers=10000 for a quick one.
+package jmh;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class LibraryBenchmark
+{
+    @Param({"10000", "1000000", "10000000"})
+    public int customers;
+
+    @Param({"disk", "memory"})
+    public String storage;
+
+    private LibraryWorkload workload;
+
+    @Setup(Level.Trial)
+    public void open() throws Exception
+    {
+        workload = LibraryWorkload.create();
+        workload.open(storage, customers);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Exception
+    {
+        workload.close();
+    }
+
+    // A fresh agent and its customers for each purge, added outside the timed call
+    @State(Scope.Thread)
+    public static class PurgeTarget
+    {
+        int agentId;
+
+        @Setup(Level.Invocation)
+        public void prepare(LibraryBenchmark benchmark) throws Exception
+        {
+            agentId = benchmark.workload.prepareAgentPurge();
+        }
+    }
+
+    // ----------------------------
+    // Benchmarks
+    // ----------------------------
+    // Time per script line, applied in one batch
+    @Benchmark
+    @OperationsPerInvocation(LibraryWorkload.SCRIPT_LINE_COUNT)
+    public long executeScript() throws Exception
+    {
+        return workload.executeScript();
+    }
+
+    // One customer row, committed on its own
+    @Benchmark
+    public long insertIntoTableAndReturnId()
+    {
+        return workload.insertCustomer();
+    }
+
+    @Benchmark
+    public void cascadeDeleteAgent(PurgeTarget target)
+    {
+        workload.cascadeDeleteAgent(target.agentId);
+    }
+
+    // Every customer row rendered as pipe text into a discarding writer
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long displayTable() throws Exception
+    {
+        return workload.displayTable("Customers");
+    }
+
+    // Agents' experience and books' cost from the running aggregates
+    @Benchmark
+    public String computeRunning() throws Exception
+    {
+        return workload.compute(false);
+    }
+
+    // The same after the aggregates are dropped, so both are reloaded from their tables
+    @Benchmark
+    public String computeCold() throws Exception
+    {
+        return workload.compute(true);
+    }
+}
@@ -0,0 +1,38 @@
+// LibraryWorkload.java  (the operations the JMH benchmarks time, implemented next to Main)
+//
+// JMH does not accept benchmarks in the default package, and a named package cannot refer to
+// Main, so the benchmarks here call through this interface. LibraryWorkloads, in the default
+// package, implements it on top of Main and is loaded by name.
+package jmh;
+
+public interface LibraryWorkload
+{
+    // Script lines applied per executeScript call
+    int SCRIPT_LINE_COUNT = 1000;
+
+    // storage is "disk" or "memory"; customerCount picks the LibraryDataset size
+    void open(String storage, int customerCount) throws Exception;
+
+    void close() throws Exception;
+
+    long executeScript() throws Exception;
+
+    long parseScriptLine(String line);
+
+    long insertCustomer();
+
+    // Adds an agent with a dataset-sized share of customers and returns its ID
+    int prepareAgentPurge() throws Exception;
+
+    void cascadeDeleteAgent(int agentId);
+
+    long displayTable(String tableName) throws Exception;
+
+    // Compute from the running aggregates, or with them dropped so they are reloaded from the table
+    String compute(boolean cold) throws Exception;
+
+    static LibraryWorkload create() throws ReflectiveOperationException
+    {
+        return (LibraryWorkload) Class.forName("LibraryWorkloads").getDeclaredConstructor().newInstance();
+    }
+}
@@ -0,0 +1,43 @@
+// RunBenchmarks.java  (JMH's command line, writing JSON results under bench-results/ by default)
+//
+// java -jar bench/target/benchmarks.jar [JMH options]
+// Without -rf/-rff every run writes bench-results/jmh-<date>-<time>.json, so two runs can be
+// compared file to file (e.g. with jmh.morethan.io). Any other JMH option works as usual,
+// e.g. -p customers=10000 -p storage=memory LibraryBenchmark.
+package jmh;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class RunBenchmarks
+{
+    public static void main(String[] args) throws Exception
+    {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        if (commandLineOptions.shouldHelp() || commandLineOptions.shouldList() || commandLineOptions.shouldListWithParams()
+                || commandLineOptions.shouldListProfilers() || commandLineOptions.shouldListResultFormats())
+        {
+            // listing and help are handled by JMH's own entry point
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions);
+        if (!commandLineOptions.getResultFormat().hasValue() && !commandLineOptions.getResult().hasValue())
+        {
+            File resultDirectory = new File("bench-results");
+            resultDirectory.mkdirs();
+            String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+            File resultFile = new File(resultDirectory, "jmh-" + stamp + ".json");
+            options.resultFormat(ResultFormatType.JSON).result(resultFile.getPath());
+            System.out.println("Results will be written to " + resultFile.getPath());
+        }
+        new Runner(options.build()).run();
+    }
+}
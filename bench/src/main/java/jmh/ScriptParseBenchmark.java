@@ -0,0 +1,49 @@
+// ScriptParseBenchmark.java  (splitting and validating script lines, the step before any database work)
+package jmh;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScriptParseBenchmark
+{
+    // one line of each common kind, as they appear in user_inputs.txt
+    private static final String[] LINES = {
+            "1|1|Alice Johnson|555-0101|12",
+            "1|2|Deep Java|1|3000",
+            "1|3|Eve Summers|555-0201|50",
+            "1|4|3|2|Customer Name|444-1234",
+            "1|5|52000|12|3",
+            "2|1|2|Experience|11",
+            "3|2|3",
+            "4|4"
+    };
+
+    private LibraryWorkload workload;
+
+    @Setup(Level.Trial)
+    public void create() throws Exception
+    {
+        workload = LibraryWorkload.create();
+    }
+
+    // Time per line
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public long parseScriptLine()
+    {
+        long result = 0;
+        int lineIndex = 0;
+        while (lineIndex < LINES.length)
+        {
+            result = result + workload.parseScriptLine(LINES[lineIndex]);
+            lineIndex = lineIndex + 1;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,314 @@
+// BulkImporter.java  (loads a pipe-delimited or CSV file straight into one entity table)
+//
+// Each record holds the fields of the matching register line without the "1|n|" prefix. Rows go
+// in with multi-row INSERTs, ROWS_PER_TRANSACTION to a transaction, and the side effects a register
+// line would have had (book and customer links, benefits for experienced agents, salary links)
+// are then applied to the whole chunk with a few set-based statements in the same transaction.
+import java.io.IOException;
+import java.sql.*;
+import java.util.Arrays;
+
+public class BulkImporter
+{
+    public static final int FORMAT_PIPE = 0;
+    public static final int FORMAT_CSV = 1;
+
+    // index + 1 is the register subtype
+    public static final String[] TABLES = {"Agents", "Books", "Authors", "Customers", "Salaries"};
+
+    // field order of an import record; also what an optional header line looks like
+    private static final String[][] RECORD_COLUMNS = {
+            {"Name", "PhoneNumber", "Experience"},
+            {"Name", "AuthorID", "Cost"},
+            {"Name", "PhoneNumber", "HourlyCharge"},
+            {"AgentID", "BookID", "Name", "PhoneNumber"},
+            {"Salary", "Experience", "AgentID"}
+    };
+
+    private static final int ROWS_PER_TRANSACTION = 65536;
+
+    private final Statement statement;
+    private final Connection connection;
+
+    private long importedRowCount = 0;
+    private long rejectedLineCount = 0;
+
+    public BulkImporter(Statement statement) throws SQLException
+    {
+        this.statement = statement;
+        this.connection = statement.getConnection();
+    }
+
+    // Register subtype (1-5) for a table name, or 0
+    public static int subtypeFor(String tableName)
+    {
+        int tableIndex = 0;
+        while (tableIndex < TABLES.length)
+        {
+            if (TABLES[tableIndex].equalsIgnoreCase(tableName)) return tableIndex + 1;
+            tableIndex = tableIndex + 1;
+        }
+        return 0;
+    }
+
+    // FORMAT_* for "pipe" or "csv"; null or anything else picks by extension (.csv, .csv.gz)
+    public static int formatFor(String formatName, String path)
+    {
+        if (formatName != null && formatName.equalsIgnoreCase("csv")) return FORMAT_CSV;
+        if (formatName != null && formatName.equalsIgnoreCase("pipe")) return FORMAT_PIPE;
+        String lowerPath = path.toLowerCase();
+        if (lowerPath.endsWith(".csv") || lowerPath.endsWith(".csv.gz")) return FORMAT_CSV;
+        return FORMAT_PIPE;
+    }
+
+    public long getImportedRowCount()
+    {
+        return importedRowCount;
+    }
+
+    public long getRejectedLineCount()
+    {
+        return rejectedLineCount;
+    }
+
+    // ----------------------------
+    // Import
+    // ----------------------------
+    // Imports every valid record of path into the table for subtype. Lines that fail the register
+    // checks are counted and skipped; a chunk that fails in SQL is rolled back and ends the import.
+    // Returns false if the file could not be read or a chunk failed.
+    public boolean importFile(int subtype, String path, int format)
+    {
+        String tableName = TABLES[subtype - 1];
+        long startNanos = System.nanoTime();
+        long importedBefore = importedRowCount;
+        long rejectedBefore = rejectedLineCount;
+        boolean completed = false;
+
+        ScriptSource source;
+        try
+        {
+            source = ScriptSource.open(path);
+        }
+        catch (IOException exception)
+        {
+            System.out.println("Unable to read import file: " + path);
+            System.out.println(exception.toString());
+            return false;
+        }
+
+        boolean wasAutoCommit = true;
+        try
+        {
+            wasAutoCommit = connection.getAutoCommit();
+            if (!wasAutoCommit) connection.commit();
+            connection.setAutoCommit(false);
+
+            PipeTokenizer tokenizer = new PipeTokenizer();
+            String[][] chunkRows = new String[ROWS_PER_TRANSACTION][];
+            boolean firstRecord = true;
+
+            while (true)
+            {
+                int chunkRowCount = 0;
+                String rawLine = null;
+                while (chunkRowCount < ROWS_PER_TRANSACTION)
+                {
+                    rawLine = source.nextLine();
+                    if (rawLine == null) break;
+
+                    if (format == FORMAT_CSV) tokenizer.resetCsv(rawLine);
+                    else tokenizer.reset(rawLine);
+                    if (tokenizer.isBlank() || (format == FORMAT_PIPE && tokenizer.lineStartsWith("#"))) continue;
+
+                    String[] values = Main.registerValuesOf(tokenizer, subtype, 0);
+                    if (values == null)
+                    {
+                        // a header line is allowed before the first record
+                        if (!(firstRecord && tokenizer.fieldString(0).equalsIgnoreCase(RECORD_COLUMNS[subtype - 1][0])))
+                        {
+                            rejectedLineCount = rejectedLineCount + 1;
+                        }
+                    }
+                    else
+                    {
+                        chunkRows[chunkRowCount] = values;
+                        chunkRowCount = chunkRowCount + 1;
+                    }
+                    firstRecord = false;
+                }
+
+                if (chunkRowCount > 0)
+                {
+                    String[][] rows = chunkRowCount == chunkRows.length ? chunkRows : Arrays.copyOf(chunkRows, chunkRowCount);
+                    importChunk(subtype, rows);
+                    connection.commit();
+                    importedRowCount = importedRowCount + chunkRowCount;
+                }
+                if (rawLine == null) break;
+            }
+            completed = true;
+        }
+        catch (SQLException exception)
+        {
+            System.out.println("Error importing " + path + " into " + tableName + ": " + exception.toString());
+            rollback();
+        }
+        catch (IOException exception)
+        {
+            System.out.println("Unable to read import file " + path + " after line " + source.getLineNumber() + ": " + exception.toString());
+            rollback();
+        }
+        finally
+        {
+            source.close();
+            restoreAutoCommit(wasAutoCommit);
+
+            // the set-based side effects bypass the per-agent link flags
+            Main.invalidateEntityCache();
+        }
+
+        long importedRows = importedRowCount - importedBefore;
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long rowsPerSecond = 0;
+        if (elapsedNanos > 0) rowsPerSecond = importedRows * 1000000000L / elapsedNanos;
+        System.out.println("Imported " + importedRows + " rows into " + tableName + " from " + path + " in " + (elapsedNanos / 1000000) + " ms ("
+                + rowsPerSecond + " rows/sec), " + (rejectedLineCount - rejectedBefore) + " lines rejected");
+        return completed;
+    }
+
+    // ----------------------------
+    // One chunk: rows, then side effects for the IDs the rows received
+    // ----------------------------
+    private void importChunk(int subtype, String[][] rows) throws SQLException
+    {
+        if (subtype == 1)
+        {
+            long lastAgentId = maxId("Agents", "AgentID");
+            insertRows("Agents", new String[]{"Name", "PhoneNumber", "Experience"}, rows);
+
+            long lastBenefitId = maxId("WorkBenefits", "BenefitID");
+            executeForNewIds("INSERT INTO WorkBenefits (AgentID, SalaryBonus, PaidLeaveDuration) "
+                    + "SELECT AgentID, 0, 14 FROM Agents WHERE AgentID > ? AND Experience >= 10 ORDER BY AgentID;", lastAgentId);
+            executeForNewIds("INSERT INTO AgentBenefit (AgentID, BenefitID) "
+                    + "SELECT AgentID, BenefitID FROM WorkBenefits WHERE BenefitID > ? ORDER BY BenefitID;", lastBenefitId);
+        }
+        else if (subtype == 2)
+        {
+            long lastBookId = maxId("Books", "BookID");
+            String[][] values = new String[rows.length][];
+            int rowIndex = 0;
+            while (rowIndex < rows.length)
+            {
+                values[rowIndex] = new String[]{rows[rowIndex][1], rows[rowIndex][0], rows[rowIndex][2]};
+                rowIndex = rowIndex + 1;
+            }
+            insertRows("Books", new String[]{"AuthorID", "Name", "Cost"}, values);
+
+            executeForNewIds("INSERT INTO BookAuthor (BookID, AuthorID) "
+                    + "SELECT BookID, AuthorID FROM Books WHERE BookID > ? AND AuthorID <> 0 ORDER BY BookID;", lastBookId);
+        }
+        else if (subtype == 3)
+        {
+            insertRows("Authors", new String[]{"Name", "PhoneNumber", "HourlyCharge"}, rows);
+        }
+        else if (subtype == 4)
+        {
+            long lastCustomerId = maxId("Customers", "CustomerID");
+            insertRows("Customers", new String[]{"AgentID", "BookID", "Name", "PhoneNumber"}, rows);
+
+            executeForNewIds("INSERT INTO CustomerAgentBook (CustomerID, AgentID, BookID) "
+                    + "SELECT CustomerID, AgentID, BookID FROM Customers WHERE CustomerID > ? ORDER BY CustomerID;", lastCustomerId);
+        }
+        else if (subtype == 5)
+        {
+            importSalaries(rows);
+        }
+    }
+
+    // Salaries do not store the AgentID, so the links are written from the rows themselves; the
+    // first salary offered to an agent wins, as with addAgentSalaryLink.
+    private void importSalaries(String[][] rows) throws SQLException
+    {
+        String[][] values = new String[rows.length][];
+        int rowIndex = 0;
+        while (rowIndex < rows.length)
+        {
+            values[rowIndex] = new String[]{rows[rowIndex][0], rows[rowIndex][1]};
+            rowIndex = rowIndex + 1;
+        }
+        int[] newSalaryIds = Main.insertRowsAndReturnIds("Salaries", new String[]{"Salary", "Experience"}, values, statement);
+        if (newSalaryIds == null) throw new SQLException("Salaries rows were not inserted");
+
+        PreparedStatement linkStatement = Main.getStatementCache(statement).prepare(
+                "INSERT INTO AgentSalary (AgentID, SalaryID) SELECT ?, ? WHERE NOT EXISTS (SELECT 1 FROM AgentSalary WHERE AgentID = ?);");
+        int batchedCount = 0;
+        rowIndex = 0;
+        while (rowIndex < rows.length)
+        {
+            int agentId = Main.stringToInt(rows[rowIndex][2]);
+            if (agentId != 0)
+            {
+                linkStatement.setInt(1, agentId);
+                linkStatement.setInt(2, newSalaryIds[rowIndex]);
+                linkStatement.setInt(3, agentId);
+                linkStatement.addBatch();
+                batchedCount = batchedCount + 1;
+            }
+            rowIndex = rowIndex + 1;
+        }
+        if (batchedCount > 0) linkStatement.executeBatch();
+    }
+
+    // ----------------------------
+    // Helpers
+    // ----------------------------
+    private void insertRows(String tableName, String[] columns, String[][] rows) throws SQLException
+    {
+        if (!Main.insertRows(tableName, columns, rows, statement)) throw new SQLException(tableName + " rows were not inserted");
+    }
+
+    // AUTOINCREMENT keys only grow, so every row inserted after this call has a larger ID
+    private long maxId(String tableName, String idColumnName) throws SQLException
+    {
+        PreparedStatement maxStatement = Main.getStatementCache(statement).prepare("SELECT COALESCE(MAX(" + idColumnName + "), 0) FROM " + tableName + ";");
+        ResultSet resultSet = maxStatement.executeQuery();
+        long maxId = 0;
+        if (resultSet.next()) maxId = resultSet.getLong(1);
+        resultSet.close();
+        return maxId;
+    }
+
+    private void executeForNewIds(String sql, long lastIdBefore) throws SQLException
+    {
+        PreparedStatement sideEffectStatement = Main.getStatementCache(statement).prepare(sql);
+        sideEffectStatement.setLong(1, lastIdBefore);
+        sideEffectStatement.executeUpdate();
+    }
+
+    private void rollback()
+    {
+        // rows of the failed chunk were already counted into the running aggregates
+        Main.invalidateCaches();
+        try
+        {
+            connection.rollback();
+        }
+        catch (SQLException exception)
+        {
+            System.out.println("Error rolling back import: " + exception.toString());
+        }
+    }
+
+    private void restoreAutoCommit(boolean wasAutoCommit)
+    {
+        try
+        {
+            connection.setAutoCommit(wasAutoCommit);
+        }
+        catch (SQLException exception)
+        {
+            System.out.println("Error restoring autocommit after import: " + exception.toString());
+        }
+    }
+}
@@ -0,0 +1,775 @@
+// ColumnarSnapshot.java  (exports all ten tables to a compact columnar file and restores them from it)
+//
+// File layout, all counts and lengths as unsigned varints:
+//   "SQLPSNAP" version tableCount
+//   per table:  name columnCount columnNames... autoincrementSequence
+//               row groups of up to ROWS_PER_GROUP rows: rowCount, then per column
+//               encoding byteLength bytes; a rowCount of 0 ends the table
+// Integer columns are zigzag varint deltas behind a null bitmap, text columns a per-group
+// dictionary (lengths + UTF-8 bytes) plus one dictionary index per row. A column holding values
+// of more than one type (e.g. text written into an INTEGER column by a raw SQL line) falls back
+// to one type tag per value, so a restore always gives back exactly what was exported.
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class ColumnarSnapshot
+{
+    // in initializeTables order
+    public static final String[] TABLES = {"Agents", "Salaries", "Books", "Authors", "Customers", "WorkBenefits",
+            "CustomerAgentBook", "AgentSalary", "AgentBenefit", "BookAuthor"};
+
+    private static final byte[] MAGIC = {'S', 'Q', 'L', 'P', 'S', 'N', 'A', 'P'};
+    private static final int VERSION = 1;
+
+    private static final int ROWS_PER_GROUP = 65536;
+    private static final int IO_BUFFER_SIZE = 1024 * 1024;
+
+    private static final int ENCODING_INTEGER = 0;
+    private static final int ENCODING_TEXT = 1;
+    private static final int ENCODING_MIXED = 2;
+
+    // value tags of ENCODING_MIXED
+    private static final int TAG_NULL = 0;
+    private static final int TAG_INTEGER = 1;
+    private static final int TAG_REAL = 2;
+    private static final int TAG_TEXT = 3;
+    private static final int TAG_BLOB = 4;
+
+    private final Statement statement;
+    private final Connection connection;
+
+    public ColumnarSnapshot(Statement statement) throws SQLException
+    {
+        this.statement = statement;
+        this.connection = statement.getConnection();
+    }
+
+    // ----------------------------
+    // Export
+    // ----------------------------
+    // Writes every table to path, replacing the file. Returns the number of rows written.
+    public long exportTo(String path) throws SQLException, IOException
+    {
+        long startNanos = System.nanoTime();
+        long rowCount = 0;
+
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            ByteSink header = new ByteSink(64);
+            header.putBytes(MAGIC, 0, MAGIC.length);
+            header.putVarint(VERSION);
+            header.putVarint(TABLES.length);
+            header.writeTo(channel);
+
+            int tableIndex = 0;
+            while (tableIndex < TABLES.length)
+            {
+                rowCount = rowCount + exportTable(TABLES[tableIndex], channel);
+                tableIndex = tableIndex + 1;
+            }
+            channel.force(false);
+        }
+
+        long elapsedMillis = (System.nanoTime() - startNanos) / 1000000;
+        System.out.println("Exported " + rowCount + " rows from " + TABLES.length + " tables to " + path + " ("
+                + Files.size(Paths.get(path)) + " bytes) in " + elapsedMillis + " ms");
+        return rowCount;
+    }
+
+    private long exportTable(String tableName, FileChannel channel) throws SQLException, IOException
+    {
+        long rowCount = 0;
+        try (Statement queryStatement = connection.createStatement())
+        {
+            queryStatement.setFetchSize(ROWS_PER_GROUP);
+            try (ResultSet resultSet = queryStatement.executeQuery("SELECT * FROM " + tableName + " ORDER BY rowid;"))
+            {
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                int columnCount = metaData.getColumnCount();
+
+                ByteSink tableHeader = new ByteSink(256);
+                tableHeader.putString(tableName);
+                tableHeader.putVarint(columnCount);
+                int columnIndex = 0;
+                while (columnIndex < columnCount)
+                {
+                    tableHeader.putString(metaData.getColumnName(columnIndex + 1));
+                    columnIndex = columnIndex + 1;
+                }
+                tableHeader.putVarint(autoincrementSequence(tableName));
+                tableHeader.writeTo(channel);
+
+                Object[][] columns = new Object[columnCount][ROWS_PER_GROUP];
+                ByteSink block = new ByteSink(IO_BUFFER_SIZE);
+                int groupRowCount = 0;
+                boolean moreRows = resultSet.next();
+                while (moreRows)
+                {
+                    columnIndex = 0;
+                    while (columnIndex < columnCount)
+                    {
+                        columns[columnIndex][groupRowCount] = resultSet.getObject(columnIndex + 1);
+                        columnIndex = columnIndex + 1;
+                    }
+                    groupRowCount = groupRowCount + 1;
+                    rowCount = rowCount + 1;
+                    moreRows = resultSet.next();
+
+                    if (groupRowCount == ROWS_PER_GROUP || !moreRows)
+                    {
+                        writeGroup(columns, groupRowCount, block, channel);
+                        groupRowCount = 0;
+                    }
+                }
+
+                ByteSink tableEnd = new ByteSink(8);
+                tableEnd.putVarint(0);
+                tableEnd.writeTo(channel);
+            }
+        }
+        return rowCount;
+    }
+
+    private long autoincrementSequence(String tableName) throws SQLException
+    {
+        PreparedStatement sequenceStatement = Main.getStatementCache(statement).prepare("SELECT seq FROM sqlite_sequence WHERE name = ?;");
+        sequenceStatement.setString(1, tableName);
+        ResultSet resultSet = sequenceStatement.executeQuery();
+        long sequence = 0;
+        if (resultSet.next()) sequence = resultSet.getLong(1);
+        resultSet.close();
+        return sequence;
+    }
+
+    private static void writeGroup(Object[][] columns, int rowCount, ByteSink block, FileChannel channel) throws IOException
+    {
+        ByteSink groupHeader = new ByteSink(8);
+        groupHeader.putVarint(rowCount);
+        groupHeader.writeTo(channel);
+
+        int columnIndex = 0;
+        while (columnIndex < columns.length)
+        {
+            Object[] values = columns[columnIndex];
+            block.clear();
+            int encoding = encodingFor(values, rowCount);
+            if (encoding == ENCODING_INTEGER) encodeIntegers(values, rowCount, block);
+            else if (encoding == ENCODING_TEXT) encodeText(values, rowCount, block);
+            else encodeMixed(values, rowCount, block);
+
+            ByteSink blockHeader = new ByteSink(16);
+            blockHeader.putVarint(encoding);
+            blockHeader.putVarint(block.length());
+            blockHeader.writeTo(channel);
+            block.writeTo(channel);
+
+            Arrays.fill(values, 0, rowCount, null);
+            columnIndex = columnIndex + 1;
+        }
+    }
+
+    private static int encodingFor(Object[] values, int rowCount)
+    {
+        boolean allIntegers = true;
+        boolean allText = true;
+        int rowIndex = 0;
+        while (rowIndex < rowCount)
+        {
+            Object value = values[rowIndex];
+            if (value != null)
+            {
+                if (!(value instanceof Integer || value instanceof Long)) allIntegers = false;
+                if (!(value instanceof String)) allText = false;
+            }
+            rowIndex = rowIndex + 1;
+        }
+        if (allIntegers) return ENCODING_INTEGER;
+        if (allText) return ENCODING_TEXT;
+        return ENCODING_MIXED;
+    }
+
+    // has-nulls flag, optional null bitmap, then zigzag deltas from the previous non-null value
+    private static void encodeIntegers(Object[] values, int rowCount, ByteSink block)
+    {
+        boolean hasNulls = false;
+        int rowIndex = 0;
+        while (rowIndex < rowCount && !hasNulls)
+        {
+            if (values[rowIndex] == null) hasNulls = true;
+            rowIndex = rowIndex + 1;
+        }
+
+        block.putVarint(hasNulls ? 1 : 0);
+        if (hasNulls)
+        {
+            int bitmapByte = 0;
+            rowIndex = 0;
+            while (rowIndex < rowCount)
+            {
+                if (values[rowIndex] == null) bitmapByte = bitmapByte | (1 << (rowIndex & 7));
+                if ((rowIndex & 7) == 7 || rowIndex == rowCount - 1)
+                {
+                    block.putByte(bitmapByte);
+                    bitmapByte = 0;
+                }
+                rowIndex = rowIndex + 1;
+            }
+        }
+
+        long previous = 0;
+        rowIndex = 0;
+        while (rowIndex < rowCount)
+        {
+            if (values[rowIndex] != null)
+            {
+                long value = ((Number) values[rowIndex]).longValue();
+                block.putVarint(zigzag(value - previous));
+                previous = value;
+            }
+            rowIndex = rowIndex + 1;
+        }
+    }
+
+    // dictionary size, each entry's UTF-8 length and bytes, then per row 0 for NULL or entry + 1
+    private static void encodeText(Object[] values, int rowCount, ByteSink block)
+    {
+        HashMap<String, Integer> dictionary = new HashMap<String, Integer>();
+        String[] entries = new String[rowCount];
+        int[] rowEntries = new int[rowCount];
+        int rowIndex = 0;
+        while (rowIndex < rowCount)
+        {
+            String value = (String) values[rowIndex];
+            if (value != null)
+            {
+                Integer entry = dictionary.get(value);
+                if (entry == null)
+                {
+                    entry = dictionary.size();
+                    dictionary.put(value, entry);
+                    entries[entry] = value;
+                }
+                rowEntries[rowIndex] = entry + 1;
+            }
+            rowIndex = rowIndex + 1;
+        }
+
+        int entryCount = dictionary.size();
+        byte[][] entryBytes = new byte[entryCount][];
+        block.putVarint(entryCount);
+        int entryIndex = 0;
+        while (entryIndex < entryCount)
+        {
+            entryBytes[entryIndex] = entries[entryIndex].getBytes(StandardCharsets.UTF_8);
+            block.putVarint(entryBytes[entryIndex].length);
+            entryIndex = entryIndex + 1;
+        }
+        entryIndex = 0;
+        while (entryIndex < entryCount)
+        {
+            block.putBytes(entryBytes[entryIndex], 0, entryBytes[entryIndex].length);
+            entryIndex = entryIndex + 1;
+        }
+
+        rowIndex = 0;
+        while (rowIndex < rowCount)
+        {
+            block.putVarint(rowEntries[rowIndex]);
+            rowIndex = rowIndex + 1;
+        }
+    }
+
+    private static void encodeMixed(Object[] values, int rowCount, ByteSink block)
+    {
+        int rowIndex = 0;
+        while (rowIndex < rowCount)
+        {
+            Object value = values[rowIndex];
+            if (value == null)
+            {
+                block.putByte(TAG_NULL);
+            }
+            else if (value instanceof Integer || value instanceof Long)
+            {
+                block.putByte(TAG_INTEGER);
+                block.putVarint(zigzag(((Number) value).longValue()));
+            }
+            else if (value instanceof Number)
+            {
+                block.putByte(TAG_REAL);
+                block.putLong(Double.doubleToRawLongBits(((Number) value).doubleValue()));
+            }
+            else if (value instanceof byte[])
+            {
+                byte[] bytes = (byte[]) value;
+                block.putByte(TAG_BLOB);
+                block.putVarint(bytes.length);
+                block.putBytes(bytes, 0, bytes.length);
+            }
+            else
+            {
+                block.putByte(TAG_TEXT);
+                block.putString(value.toString());
+            }
+            rowIndex = rowIndex + 1;
+        }
+    }
+
+    // ----------------------------
+    // Restore
+    // ----------------------------
+    // Replaces every table with the snapshot's contents in one transaction, loading with the
+    // managed indexes dropped and building them once at the end. Returns the rows restored.
+    public long restoreFrom(String path) throws SQLException, IOException
+    {
+        long startNanos = System.nanoTime();
+        long rowCount = 0;
+
+        boolean wasAutoCommit = connection.getAutoCommit();
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ))
+        {
+            ByteSource source = new ByteSource(channel);
+            source.require(MAGIC.length);
+            int magicIndex = 0;
+            while (magicIndex < MAGIC.length)
+            {
+                if (source.buffer.get() != MAGIC[magicIndex]) throw new IOException(path + " is not a table snapshot");
+                magicIndex = magicIndex + 1;
+            }
+            long version = source.getVarint();
+            if (version != VERSION) throw new IOException("Unsupported snapshot version " + version + " in " + path);
+            long tableCount = source.getVarint();
+
+            if (!wasAutoCommit) connection.commit();
+            connection.setAutoCommit(false);
+            try
+            {
+                Main.dropAllTables(statement);
+                Main.initializeTables(statement);
+                Main.dropManagedIndexes(statement);
+
+                long tableIndex = 0;
+                while (tableIndex < tableCount)
+                {
+                    rowCount = rowCount + restoreTable(source);
+                    tableIndex = tableIndex + 1;
+                }
+
+                Main.createManagedIndexes(statement);
+                connection.commit();
+            }
+            catch (SQLException | IOException | RuntimeException exception)
+            {
+                connection.rollback();
+                throw exception;
+            }
+            finally
+            {
+                // the tables were rebuilt underneath the caches, or rolled back after they saw the load
+                Main.invalidateCaches();
+                connection.setAutoCommit(wasAutoCommit);
+            }
+        }
+
+        long elapsedMillis = (System.nanoTime() - startNanos) / 1000000;
+        System.out.println("Restored " + rowCount + " rows into " + TABLES.length + " tables from " + path + " in " + elapsedMillis + " ms");
+        return rowCount;
+    }
+
+    private long restoreTable(ByteSource source) throws SQLException, IOException
+    {
+        String tableName = source.getString();
+        if (!isSnapshotTable(tableName)) throw new IOException("Unknown table " + tableName + " in snapshot");
+
+        int columnCount = (int) source.getVarint();
+        String[] columnNames = new String[columnCount];
+        int columnIndex = 0;
+        while (columnIndex < columnCount)
+        {
+            columnNames[columnIndex] = source.getString();
+            columnIndex = columnIndex + 1;
+        }
+        long sequence = source.getVarint();
+
+        long rowCount = 0;
+        long[][] integerColumns = new long[columnCount][];
+        boolean[][] nullColumns = new boolean[columnCount][];
+        Object[][] objectColumns = new Object[columnCount][];
+        int[] encodings = new int[columnCount];
+
+        while (true)
+        {
+            int groupRowCount = (int) source.getVarint();
+            if (groupRowCount == 0) break;
+
+            columnIndex = 0;
+            while (columnIndex < columnCount)
+            {
+                encodings[columnIndex] = (int) source.getVarint();
+                int blockLength = (int) source.getVarint();
+                source.require(blockLength);
+                int blockEnd = source.buffer.position() + blockLength;
+
+                if (encodings[columnIndex] == ENCODING_INTEGER)
+                {
+                    if (integerColumns[columnIndex] == null || integerColumns[columnIndex].length < groupRowCount)
+                    {
+                        integerColumns[columnIndex] = new long[groupRowCount];
+                        nullColumns[columnIndex] = new boolean[groupRowCount];
+                    }
+                    decodeIntegers(source.buffer, groupRowCount, integerColumns[columnIndex], nullColumns[columnIndex]);
+                }
+                else
+                {
+                    if (objectColumns[columnIndex] == null || objectColumns[columnIndex].length < groupRowCount)
+                    {
+                        objectColumns[columnIndex] = new Object[groupRowCount];
+                    }
+                    if (encodings[columnIndex] == ENCODING_TEXT) decodeText(source.buffer, groupRowCount, objectColumns[columnIndex]);
+                    else if (encodings[columnIndex] == ENCODING_MIXED) decodeMixed(source.buffer, groupRowCount, objectColumns[columnIndex]);
+                    else throw new IOException("Unknown column encoding " + encodings[columnIndex] + " in " + tableName);
+                }
+                if (source.buffer.position() != blockEnd) throw new IOException("Corrupt column block for " + tableName + "." + columnNames[columnIndex]);
+                columnIndex = columnIndex + 1;
+            }
+
+            insertGroup(tableName, columnNames, groupRowCount, encodings, integerColumns, nullColumns, objectColumns);
+            rowCount = rowCount + groupRowCount;
+        }
+
+        // keeps AUTOINCREMENT from reusing IDs that were handed out before the export
+        if (sequence > 0)
+        {
+            PreparedStatement deleteSequence = Main.getStatementCache(statement).prepare("DELETE FROM sqlite_sequence WHERE name = ?;");
+            deleteSequence.setString(1, tableName);
+            deleteSequence.executeUpdate();
+            PreparedStatement insertSequence = Main.getStatementCache(statement).prepare("INSERT INTO sqlite_sequence (name, seq) VALUES (?, ?);");
+            insertSequence.setString(1, tableName);
+            insertSequence.setLong(2, sequence);
+            insertSequence.executeUpdate();
+        }
+        return rowCount;
+    }
+
+    private static boolean isSnapshotTable(String tableName)
+    {
+        int tableIndex = 0;
+        while (tableIndex < TABLES.length)
+        {
+            if (TABLES[tableIndex].equals(tableName)) return true;
+            tableIndex = tableIndex + 1;
+        }
+        return false;
+    }
+
+    // Multi-row INSERTs in power-of-two chunks, like Main.insertRows, but bound with the stored types
+    private void insertGroup(String tableName, String[] columnNames, int rowCount, int[] encodings,
+                             long[][] integerColumns, boolean[][] nullColumns, Object[][] objectColumns) throws SQLException
+    {
+        StatementCache cache = Main.getStatementCache(statement);
+        int maxRowsPerStatement = Main.MAX_BOUND_PARAMETERS / columnNames.length;
+        int rowIndex = 0;
+        while (rowIndex < rowCount)
+        {
+            int chunkRows = 1;
+            while (chunkRows * 2 <= maxRowsPerStatement && chunkRows * 2 <= rowCount - rowIndex) chunkRows = chunkRows * 2;
+
+            PreparedStatement insertStatement = cache.prepareMultiRowInsert(tableName, columnNames, chunkRows, null);
+            int parameterIndex = 1;
+            int chunkIndex = 0;
+            while (chunkIndex < chunkRows)
+            {
+                int row = rowIndex + chunkIndex;
+                int columnIndex = 0;
+                while (columnIndex < columnNames.length)
+                {
+                    if (encodings[columnIndex] == ENCODING_INTEGER)
+                    {
+                        if (nullColumns[columnIndex][row]) insertStatement.setNull(parameterIndex, Types.INTEGER);
+                        else insertStatement.setLong(parameterIndex, integerColumns[columnIndex][row]);
+                    }
+                    else
+                    {
+                        bindObject(insertStatement, parameterIndex, objectColumns[columnIndex][row]);
+                    }
+                    parameterIndex = parameterIndex + 1;
+                    columnIndex = columnIndex + 1;
+                }
+                chunkIndex = chunkIndex + 1;
+            }
+            insertStatement.executeUpdate();
+            rowIndex = rowIndex + chunkRows;
+        }
+    }
+
+    private static void bindObject(PreparedStatement insertStatement, int parameterIndex, Object value) throws SQLException
+    {
+        if (value == null) insertStatement.setNull(parameterIndex, Types.NULL);
+        else if (value instanceof Long) insertStatement.setLong(parameterIndex, (Long) value);
+        else if (value instanceof Double) insertStatement.setDouble(parameterIndex, (Double) value);
+        else if (value instanceof byte[]) insertStatement.setBytes(parameterIndex, (byte[]) value);
+        else insertStatement.setString(parameterIndex, (String) value);
+    }
+
+    private static void decodeIntegers(ByteBuffer buffer, int rowCount, long[] values, boolean[] nulls)
+    {
+        boolean hasNulls = getVarint(buffer) != 0;
+        Arrays.fill(nulls, 0, rowCount, false);
+        if (hasNulls)
+        {
+            int rowIndex = 0;
+            int bitmapByte = 0;
+            while (rowIndex < rowCount)
+            {
+                if ((rowIndex & 7) == 0) bitmapByte = buffer.get() & 0xff;
+                nulls[rowIndex] = (bitmapByte & (1 << (rowIndex & 7))) != 0;
+                rowIndex = rowIndex + 1;
+            }
+        }
+
+        long previous = 0;
+        int rowIndex = 0;
+        while (rowIndex < rowCount)
+        {
+            if (!nulls[rowIndex])
+            {
+                previous = previous + unzigzag(getVarint(buffer));
+                values[rowIndex] = previous;
+            }
+            rowIndex = rowIndex + 1;
+        }
+    }
+
+    private static void decodeText(ByteBuffer buffer, int rowCount, Object[] values)
+    {
+        int entryCount = (int) getVarint(buffer);
+        int[] entryLengths = new int[entryCount];
+        int entryIndex = 0;
+        while (entryIndex < entryCount)
+        {
+            entryLengths[entryIndex] = (int) getVarint(buffer);
+            entryIndex = entryIndex + 1;
+        }
+
+        String[] entries = new String[entryCount];
+        entryIndex = 0;
+        while (entryIndex < entryCount)
+        {
+            entries[entryIndex] = getUtf8(buffer, entryLengths[entryIndex]);
+            entryIndex = entryIndex + 1;
+        }
+
+        int rowIndex = 0;
+        while (rowIndex < rowCount)
+        {
+            int entry = (int) getVarint(buffer);
+            values[rowIndex] = entry == 0 ? null : entries[entry - 1];
+            rowIndex = rowIndex + 1;
+        }
+    }
+
+    private static void decodeMixed(ByteBuffer buffer, int rowCount, Object[] values) throws IOException
+    {
+        int rowIndex = 0;
+        while (rowIndex < rowCount)
+        {
+            int tag = buffer.get();
+            if (tag == TAG_NULL) values[rowIndex] = null;
+            else if (tag == TAG_INTEGER) values[rowIndex] = unzigzag(getVarint(buffer));
+            else if (tag == TAG_REAL) values[rowIndex] = Double.longBitsToDouble(buffer.getLong());
+            else if (tag == TAG_TEXT) values[rowIndex] = getUtf8(buffer, (int) getVarint(buffer));
+            else if (tag == TAG_BLOB)
+            {
+                byte[] bytes = new byte[(int) getVarint(buffer)];
+                buffer.get(bytes);
+                values[rowIndex] = bytes;
+            }
+            else throw new IOException("Unknown value tag " + tag);
+            rowIndex = rowIndex + 1;
+        }
+    }
+
+    // ----------------------------
+    // Varints
+    // ----------------------------
+    private static long zigzag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long getVarint(ByteBuffer buffer)
+    {
+        long value = 0;
+        int shift = 0;
+        while (true)
+        {
+            int nextByte = buffer.get();
+            value = value | ((long) (nextByte & 0x7f) << shift);
+            if ((nextByte & 0x80) == 0) return value;
+            shift = shift + 7;
+        }
+    }
+
+    private static String getUtf8(ByteBuffer buffer, int length)
+    {
+        String text;
+        if (buffer.hasArray())
+        {
+            text = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        }
+        else
+        {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        buffer.position(buffer.position() + length);
+        return text;
+    }
+
+    // ----------------------------
+    // Buffers over the file channel
+    // ----------------------------
+    // Growable write buffer; each block is built here and then written to the channel in one go
+    private static class ByteSink
+    {
+        private ByteBuffer buffer;
+
+        ByteSink(int initialCapacity)
+        {
+            buffer = ByteBuffer.allocate(initialCapacity);
+        }
+
+        void clear()
+        {
+            buffer.clear();
+        }
+
+        int length()
+        {
+            return buffer.position();
+        }
+
+        void putByte(int value)
+        {
+            ensure(1);
+            buffer.put((byte) value);
+        }
+
+        void putLong(long value)
+        {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void putVarint(long value)
+        {
+            ensure(10);
+            while ((value & ~0x7fL) != 0)
+            {
+                buffer.put((byte) ((value & 0x7f) | 0x80));
+                value = value >>> 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void putBytes(byte[] bytes, int offset, int length)
+        {
+            ensure(length);
+            buffer.put(bytes, offset, length);
+        }
+
+        void putString(String text)
+        {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            putVarint(bytes.length);
+            putBytes(bytes, 0, bytes.length);
+        }
+
+        void writeTo(FileChannel channel) throws IOException
+        {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+
+        private void ensure(int extraBytes)
+        {
+            if (buffer.remaining() >= extraBytes) return;
+            int newCapacity = buffer.capacity() * 2;
+            while (newCapacity - buffer.position() < extraBytes) newCapacity = newCapacity * 2;
+            ByteBuffer grown = ByteBuffer.allocate(newCapacity);
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+
+    // Read buffer that is refilled from the channel whenever a block needs more than it holds
+    private static class ByteSource
+    {
+        private final FileChannel channel;
+        ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_SIZE);
+
+        ByteSource(FileChannel channel)
+        {
+            this.channel = channel;
+            buffer.limit(0);
+        }
+
+        // makes at least byteCount unread bytes available at buffer.position()
+        void require(int byteCount) throws IOException
+        {
+            if (buffer.remaining() >= byteCount) return;
+            if (buffer.capacity() < byteCount)
+            {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(byteCount, buffer.capacity() * 2));
+                grown.put(buffer);
+                buffer = grown;
+            }
+            else
+            {
+                buffer.compact();
+            }
+            while (buffer.position() < byteCount)
+            {
+                if (channel.read(buffer) < 0) throw new IOException("Snapshot ends unexpectedly");
+            }
+            buffer.flip();
+        }
+
+        long getVarint() throws IOException
+        {
+            long value = 0;
+            int shift = 0;
+            while (true)
+            {
+                require(1);
+                int nextByte = buffer.get();
+                value = value | ((long) (nextByte & 0x7f) << shift);
+                if ((nextByte & 0x80) == 0) return value;
+                shift = shift + 7;
+            }
+        }
+
+        String getString() throws IOException
+        {
+            int length = (int) getVarint();
+            require(length);
+            return getUtf8(buffer, length);
+        }
+    }
+}
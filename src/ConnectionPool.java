@@ -0,0 +1,121 @@
+// ConnectionPool.java  (one writer connection plus a fixed set of read-only reader connections)
+//
+// With readers the database is switched to WAL, so a reader sees the last committed state
+// without waiting for the writer and the writer never waits for a reader. Readers are opened
+// read-only through the driver's open_mode property and handed out one caller at a time.
+import java.sql.*;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ConnectionPool implements AutoCloseable
+{
+    // SQLITE_OPEN_READONLY
+    private static final String READ_ONLY_OPEN_MODE = "1";
+
+    private final Connection writer;
+    private final Connection[] readers;
+    private final ArrayBlockingQueue<Connection> idleReaders;
+
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong waitCount = new AtomicLong();
+
+    public ConnectionPool(String databaseUrl, int readerCount) throws SQLException
+    {
+        writer = DriverManager.getConnection(databaseUrl);
+        readers = new Connection[Math.max(0, readerCount)];
+        idleReaders = new ArrayBlockingQueue<Connection>(Math.max(1, readers.length));
+        if (readers.length == 0) return;
+
+        try
+        {
+            try (Statement writerStatement = writer.createStatement())
+            {
+                writerStatement.execute("PRAGMA journal_mode = WAL;");
+            }
+
+            Properties readerProperties = new Properties();
+            readerProperties.setProperty("open_mode", READ_ONLY_OPEN_MODE);
+            int readerIndex = 0;
+            while (readerIndex < readers.length)
+            {
+                readers[readerIndex] = DriverManager.getConnection(databaseUrl, readerProperties);
+                idleReaders.add(readers[readerIndex]);
+                readerIndex = readerIndex + 1;
+            }
+        }
+        catch (SQLException exception)
+        {
+            close();
+            throw exception;
+        }
+    }
+
+    public Connection getWriter()
+    {
+        return writer;
+    }
+
+    public int getReaderCount()
+    {
+        return readers.length;
+    }
+
+    // ----------------------------
+    // Readers
+    // ----------------------------
+    // Waits for an idle reader; null when the pool has none. Every reader borrowed must be returned.
+    public Connection borrowReader() throws SQLException
+    {
+        if (readers.length == 0) return null;
+
+        borrowCount.incrementAndGet();
+        Connection reader = idleReaders.poll();
+        if (reader != null) return reader;
+
+        waitCount.incrementAndGet();
+        try
+        {
+            return idleReaders.take();
+        }
+        catch (InterruptedException exception)
+        {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a reader connection");
+        }
+    }
+
+    public void returnReader(Connection reader)
+    {
+        if (reader != null) idleReaders.add(reader);
+    }
+
+    public String describe()
+    {
+        return "Connection pool: 1 writer, " + readers.length + " readers, " + borrowCount.get() + " reads borrowed, " + waitCount.get() + " waited";
+    }
+
+    public void close()
+    {
+        int readerIndex = 0;
+        while (readerIndex < readers.length)
+        {
+            closeQuietly(readers[readerIndex]);
+            readerIndex = readerIndex + 1;
+        }
+        closeQuietly(writer);
+    }
+
+    private static void closeQuietly(Connection connection)
+    {
+        if (connection == null) return;
+        try
+        {
+            connection.close();
+        }
+        catch (SQLException exception)
+        {
+            System.out.println("Error closing connection: " + exception.toString());
+        }
+    }
+}
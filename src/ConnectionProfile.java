@@ -0,0 +1,127 @@
+// ConnectionProfile.java  (a named set of SQLite pragmas: journal mode, sync level, caches, page size)
+//
+// Profiles are applied outside any transaction, since SQLite will not change the journal mode
+// inside one. page_size only takes effect when the file is rebuilt, so it is applied with a
+// VACUUM when the caller says a rebuild is cheap (right after the tables were dropped) and is
+// otherwise left for the next VACUUM.
+import java.sql.*;
+
+public class ConnectionProfile
+{
+    // SQLite's own defaults, so a script can switch back to them
+    public static final ConnectionProfile DEFAULT = new ConnectionProfile("default", "DELETE", "FULL", -2000, 0, "DEFAULT", 4096);
+
+    // Loads that can be redone from their input: no sync, an in-memory journal and a large cache
+    public static final ConnectionProfile BULK_LOAD = new ConnectionProfile("bulk-load", "MEMORY", "OFF", -262144, 268435456L, "MEMORY", 16384);
+
+    // Menu and small scripts: WAL so each commit is one append, synced at checkpoints only
+    public static final ConnectionProfile INTERACTIVE = new ConnectionProfile("interactive", "WAL", "NORMAL", -65536, 67108864L, "MEMORY", 4096);
+
+    // Displays, joins and Compute over large tables: WAL with the file mapped and a large cache
+    public static final ConnectionProfile READ_HEAVY = new ConnectionProfile("read-heavy", "WAL", "NORMAL", -524288, 1073741824L, "MEMORY", 8192);
+
+    public static final ConnectionProfile[] PROFILES = {DEFAULT, BULK_LOAD, INTERACTIVE, READ_HEAVY};
+
+    public final String name;
+    public final String journalMode;
+    public final String synchronous;
+
+    // negative = KiB, positive = pages, as PRAGMA cache_size takes it
+    public final int cacheSize;
+    public final long mmapSize;
+    public final String tempStore;
+    public final int pageSize;
+
+    private ConnectionProfile(String name, String journalMode, String synchronous, int cacheSize, long mmapSize, String tempStore, int pageSize)
+    {
+        this.name = name;
+        this.journalMode = journalMode;
+        this.synchronous = synchronous;
+        this.cacheSize = cacheSize;
+        this.mmapSize = mmapSize;
+        this.tempStore = tempStore;
+        this.pageSize = pageSize;
+    }
+
+    // The profile called profileName (ignoring case), or null
+    public static ConnectionProfile forName(String profileName)
+    {
+        int profileIndex = 0;
+        while (profileIndex < PROFILES.length)
+        {
+            if (PROFILES[profileIndex].name.equalsIgnoreCase(profileName)) return PROFILES[profileIndex];
+            profileIndex = profileIndex + 1;
+        }
+        return null;
+    }
+
+    // "default, bulk-load, ..." for usage messages
+    public static String profileNames()
+    {
+        StringBuilder names = new StringBuilder();
+        int profileIndex = 0;
+        while (profileIndex < PROFILES.length)
+        {
+            if (profileIndex > 0) names.append(", ");
+            names.append(PROFILES[profileIndex].name);
+            profileIndex = profileIndex + 1;
+        }
+        return names.toString();
+    }
+
+    // ----------------------------
+    // Apply
+    // ----------------------------
+    // Sets every pragma on the statement's connection, which must not be inside a transaction.
+    // rebuildPages = true runs a VACUUM when the page size differs. Returns the settings read back.
+    public String apply(Statement statement, boolean rebuildPages) throws SQLException
+    {
+        if (rebuildPages && queryPragma(statement, "page_size") != pageSize)
+        {
+            // a WAL database keeps its page size, so leave WAL for the rebuild
+            if (queryPragmaText(statement, "journal_mode").equalsIgnoreCase("wal")) statement.execute("PRAGMA journal_mode = DELETE;");
+            statement.execute("PRAGMA page_size = " + pageSize + ";");
+            statement.execute("VACUUM;");
+        }
+        else if (!rebuildPages)
+        {
+            statement.execute("PRAGMA page_size = " + pageSize + ";");
+        }
+
+        statement.execute("PRAGMA journal_mode = " + journalMode + ";");
+        statement.execute("PRAGMA synchronous = " + synchronous + ";");
+        statement.execute("PRAGMA cache_size = " + cacheSize + ";");
+        statement.execute("PRAGMA mmap_size = " + mmapSize + ";");
+        statement.execute("PRAGMA temp_store = " + tempStore + ";");
+        return describe(statement);
+    }
+
+    // What the connection is actually running with; SQLite may clamp or refuse a setting
+    public String describe(Statement statement) throws SQLException
+    {
+        return "Connection profile " + name + ": journal_mode=" + queryPragmaText(statement, "journal_mode")
+                + ", synchronous=" + queryPragma(statement, "synchronous")
+                + ", cache_size=" + queryPragma(statement, "cache_size")
+                + ", mmap_size=" + queryPragma(statement, "mmap_size")
+                + ", temp_store=" + queryPragma(statement, "temp_store")
+                + ", page_size=" + queryPragma(statement, "page_size");
+    }
+
+    private static long queryPragma(Statement statement, String pragmaName) throws SQLException
+    {
+        try (ResultSet resultSet = statement.executeQuery("PRAGMA " + pragmaName + ";"))
+        {
+            if (resultSet.next()) return resultSet.getLong(1);
+            return 0;
+        }
+    }
+
+    private static String queryPragmaText(Statement statement, String pragmaName) throws SQLException
+    {
+        try (ResultSet resultSet = statement.executeQuery("PRAGMA " + pragmaName + ";"))
+        {
+            if (resultSet.next()) return resultSet.getString(1);
+            return "";
+        }
+    }
+}
@@ -0,0 +1,195 @@
+// DisplayPage.java  (filters and one page of a Display or Join, fetched by keyset on the view's key)
+//
+// Filters are written "ID=100-200,AgentID=42,Experience=5-10": each is one value or an inclusive
+// range, over the view's own ID and its AgentID, BookID, Experience or Cost column. A page is
+// "WHERE key > last key shown ORDER BY key LIMIT size", so page N starts from the primary key
+// index where page N-1 stopped and costs the same as page 1, where OFFSET would skip N-1 pages.
+public class DisplayPage
+{
+    // a view's columns, in this order: {key column, key header, then one column per filter (null where it has none)}
+    public static final int KEY_COLUMN = 0;
+    public static final int KEY_HEADER = 1;
+    private static final int FIRST_FILTER_COLUMN = 2;
+
+    // as written in scripts and the menu
+    private static final String[] FILTER_NAMES = {"ID", "AgentID", "BookID", "Experience", "Cost"};
+
+    private static final int NO_KEY = -1;
+
+    private final String[] viewColumns;
+    private final int[] lowerBounds = new int[FILTER_NAMES.length];
+    private final int[] upperBounds = new int[FILTER_NAMES.length];
+    private final boolean[] filtered = new boolean[FILTER_NAMES.length];
+
+    // rows per page, 0 for every matching row
+    private final int pageSize;
+    // the page starts after this key; NO_KEY for the first page
+    private final int afterKey;
+
+    private DisplayPage(String[] viewColumns, int pageSize, int afterKey)
+    {
+        this.viewColumns = viewColumns;
+        this.pageSize = pageSize;
+        this.afterKey = afterKey;
+    }
+
+    // ----------------------------
+    // Parse the filter list, page size and key to continue after; empty or null text means none.
+    // Returns null when any part is malformed or names a filter the view does not have.
+    // ----------------------------
+    public static DisplayPage parse(String filterText, String pageSizeText, String afterKeyText, String[] viewColumns)
+    {
+        int pageSize = 0;
+        if (pageSizeText != null && pageSizeText.length() > 0)
+        {
+            if (!Main.isInteger(pageSizeText) || pageSizeText.length() > 9) return null;
+            pageSize = Main.stringToInt(pageSizeText);
+            if (pageSize == 0) return null;
+        }
+
+        int afterKey = NO_KEY;
+        if (afterKeyText != null && afterKeyText.length() > 0)
+        {
+            if (!Main.isInteger(afterKeyText) || afterKeyText.length() > 9) return null;
+            afterKey = Main.stringToInt(afterKeyText);
+        }
+
+        DisplayPage page = new DisplayPage(viewColumns, pageSize, afterKey);
+        if (filterText == null || filterText.trim().length() == 0) return page;
+
+        String[] filters = filterText.split(",");
+        int filterIndex = 0;
+        while (filterIndex < filters.length)
+        {
+            if (!page.addFilter(filters[filterIndex].trim())) return null;
+            filterIndex = filterIndex + 1;
+        }
+        return page;
+    }
+
+    // "Name=value" or "Name=low-high"
+    private boolean addFilter(String filter)
+    {
+        int equalsIndex = filter.indexOf('=');
+        if (equalsIndex <= 0) return false;
+        String name = filter.substring(0, equalsIndex).trim();
+        String value = filter.substring(equalsIndex + 1).trim();
+
+        int filterIndex = 0;
+        while (filterIndex < FILTER_NAMES.length && !FILTER_NAMES[filterIndex].equalsIgnoreCase(name))
+        {
+            filterIndex = filterIndex + 1;
+        }
+        if (filterIndex == FILTER_NAMES.length || viewColumns[FIRST_FILTER_COLUMN + filterIndex] == null) return false;
+
+        String lowText = value;
+        String highText = value;
+        int dashIndex = value.indexOf('-');
+        if (dashIndex >= 0)
+        {
+            lowText = value.substring(0, dashIndex);
+            highText = value.substring(dashIndex + 1);
+        }
+        if (!Main.isInteger(lowText) || !Main.isInteger(highText) || lowText.length() > 9 || highText.length() > 9) return false;
+
+        int low = Main.stringToInt(lowText);
+        int high = Main.stringToInt(highText);
+        if (low > high) return false;
+
+        lowerBounds[filterIndex] = low;
+        upperBounds[filterIndex] = high;
+        filtered[filterIndex] = true;
+        return true;
+    }
+
+    // The page after this one, given the key of its last row
+    public DisplayPage after(String lastKey)
+    {
+        DisplayPage next = new DisplayPage(viewColumns, pageSize, Main.isInteger(lastKey) ? Main.stringToInt(lastKey) : afterKey);
+        System.arraycopy(lowerBounds, 0, next.lowerBounds, 0, lowerBounds.length);
+        System.arraycopy(upperBounds, 0, next.upperBounds, 0, upperBounds.length);
+        System.arraycopy(filtered, 0, next.filtered, 0, filtered.length);
+        return next;
+    }
+
+    public int getPageSize()
+    {
+        return pageSize;
+    }
+
+    public boolean isPaged()
+    {
+        return pageSize > 0;
+    }
+
+    public boolean hasFilters()
+    {
+        int filterIndex = 0;
+        while (filterIndex < FILTER_NAMES.length)
+        {
+            if (filtered[filterIndex]) return true;
+            filterIndex = filterIndex + 1;
+        }
+        return false;
+    }
+
+    // ----------------------------
+    // SQL
+    // ----------------------------
+    // selectFrom is the view's query up to the end of its FROM clause, without a semicolon
+    public String sqlFor(String selectFrom)
+    {
+        StringBuilder sql = new StringBuilder(selectFrom);
+        String keyColumn = viewColumns[KEY_COLUMN];
+
+        boolean hasCondition = false;
+        if (afterKey != NO_KEY)
+        {
+            sql.append(" WHERE ").append(keyColumn).append(" > ").append(afterKey);
+            hasCondition = true;
+        }
+
+        if (hasFilters())
+        {
+            sql.append(hasCondition ? " AND " : " WHERE ");
+            sql.append(filterCondition());
+        }
+
+        sql.append(" ORDER BY ").append(keyColumn);
+        if (pageSize > 0) sql.append(" LIMIT ").append(pageSize);
+        sql.append(';');
+        return sql.toString();
+    }
+
+    // The filters alone, joined with AND, for statements other than a display (e.g. the experience rollover)
+    public String filterCondition()
+    {
+        StringBuilder condition = new StringBuilder();
+        int filterIndex = 0;
+        while (filterIndex < FILTER_NAMES.length)
+        {
+            if (filtered[filterIndex])
+            {
+                if (condition.length() > 0) condition.append(" AND ");
+
+                String column = viewColumns[FIRST_FILTER_COLUMN + filterIndex];
+                if (lowerBounds[filterIndex] == upperBounds[filterIndex]) condition.append(column).append(" = ").append(lowerBounds[filterIndex]);
+                else condition.append(column).append(" BETWEEN ").append(lowerBounds[filterIndex]).append(" AND ").append(upperBounds[filterIndex]);
+            }
+            filterIndex = filterIndex + 1;
+        }
+        return condition.toString();
+    }
+
+    // The view's headers with its key first, where the next page's key is read from
+    public String[] headersFor(String[] headers)
+    {
+        String keyHeader = viewColumns[KEY_HEADER];
+        if (headers.length > 0 && headers[0].equals(keyHeader)) return headers;
+
+        String[] keyedHeaders = new String[headers.length + 1];
+        keyedHeaders[0] = keyHeader;
+        System.arraycopy(headers, 0, keyedHeaders, 1, headers.length);
+        return keyedHeaders;
+    }
+}
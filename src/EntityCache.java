@@ -0,0 +1,204 @@
+// EntityCache.java  (recently used rows of the five main tables plus per-agent link flags)
+//
+// Rows are kept as String[] in getColumnsForTable order, exactly as getString would return them.
+// The cache never writes to the database: Main reads through it and every write path updates
+// or drops the entries it touches.
+import java.sql.Connection;
+
+public class EntityCache
+{
+    public static final String[] TABLES = {"Agents", "Books", "Authors", "Customers", "Salaries"};
+
+    private final Connection connection;
+
+    private final IntLruMap<String[]>[] rowMaps;
+
+    // AgentID -> whether the agent has a WorkBenefits link / an AgentSalary link
+    private final IntLruMap<Boolean> benefitFlags;
+    private final IntLruMap<Boolean> salaryFlags;
+
+    public EntityCache(Connection connection, int capacityPerMap)
+    {
+        this.connection = connection;
+        this.rowMaps = newRowMaps(TABLES.length);
+        int tableIndex = 0;
+        while (tableIndex < TABLES.length)
+        {
+            rowMaps[tableIndex] = new IntLruMap<String[]>(capacityPerMap);
+            tableIndex = tableIndex + 1;
+        }
+        this.benefitFlags = new IntLruMap<Boolean>(capacityPerMap);
+        this.salaryFlags = new IntLruMap<Boolean>(capacityPerMap);
+    }
+
+    // Java cannot create a generic array directly; the array only ever holds IntLruMap<String[]>
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static IntLruMap<String[]>[] newRowMaps(int length)
+    {
+        return (IntLruMap<String[]>[]) new IntLruMap[length];
+    }
+
+    public Connection getConnection()
+    {
+        return connection;
+    }
+
+    // Index into TABLES, or -1 for tables that are not cached
+    public static int tableIndexOf(String tableName)
+    {
+        int tableIndex = 0;
+        while (tableIndex < TABLES.length)
+        {
+            if (TABLES[tableIndex].equals(tableName)) return tableIndex;
+            tableIndex = tableIndex + 1;
+        }
+        return -1;
+    }
+
+    // ----------------------------
+    // Rows
+    // ----------------------------
+    public String[] getRow(int tableIndex, int id)
+    {
+        return rowMaps[tableIndex].get(id);
+    }
+
+    // Cached row without touching the metrics, for keeping entries in step with writes
+    public String[] peekRow(int tableIndex, int id)
+    {
+        return rowMaps[tableIndex].peek(id);
+    }
+
+    public void putRow(int tableIndex, int id, String[] row)
+    {
+        rowMaps[tableIndex].put(id, row);
+    }
+
+    public void removeRow(int tableIndex, int id)
+    {
+        rowMaps[tableIndex].remove(id);
+    }
+
+    // For writes that touch an unknown set of rows (e.g. UPDATE Customers SET AgentID = 0 WHERE AgentID = ?)
+    public void clearTable(int tableIndex)
+    {
+        rowMaps[tableIndex].clear();
+    }
+
+    // Drops the purged rows: one entry for a single ID, the whole table for a range or list
+    public void removeRows(int tableIndex, PurgeSelection selection)
+    {
+        if (selection.isSingle()) removeRow(tableIndex, selection.getFirstId());
+        else clearTable(tableIndex);
+    }
+
+    // ----------------------------
+    // Agent link flags (null = not cached)
+    // ----------------------------
+    public Boolean getBenefitFlag(int agentId)
+    {
+        return benefitFlags.get(agentId);
+    }
+
+    public void putBenefitFlag(int agentId, boolean hasBenefits)
+    {
+        benefitFlags.put(agentId, hasBenefits ? Boolean.TRUE : Boolean.FALSE);
+    }
+
+    public Boolean getSalaryFlag(int agentId)
+    {
+        return salaryFlags.get(agentId);
+    }
+
+    public void putSalaryFlag(int agentId, boolean hasSalary)
+    {
+        salaryFlags.put(agentId, hasSalary ? Boolean.TRUE : Boolean.FALSE);
+    }
+
+    public void removeAgentFlags(PurgeSelection selection)
+    {
+        if (selection.isSingle())
+        {
+            benefitFlags.remove(selection.getFirstId());
+            salaryFlags.remove(selection.getFirstId());
+        }
+        else
+        {
+            benefitFlags.clear();
+            salaryFlags.clear();
+        }
+    }
+
+    // A set-based benefits change (the experience rollover) touches agents we cannot name without a query
+    public void clearBenefitFlags()
+    {
+        benefitFlags.clear();
+    }
+
+    // Removing salaries unlinks agents we cannot name without a query
+    public void clearSalaryFlags()
+    {
+        salaryFlags.clear();
+    }
+
+    public void clear()
+    {
+        int tableIndex = 0;
+        while (tableIndex < TABLES.length)
+        {
+            rowMaps[tableIndex].clear();
+            tableIndex = tableIndex + 1;
+        }
+        benefitFlags.clear();
+        salaryFlags.clear();
+    }
+
+    // ----------------------------
+    // Metrics
+    // ----------------------------
+    public long getHitCount()
+    {
+        long hits = benefitFlags.getHitCount() + salaryFlags.getHitCount();
+        int tableIndex = 0;
+        while (tableIndex < TABLES.length)
+        {
+            hits = hits + rowMaps[tableIndex].getHitCount();
+            tableIndex = tableIndex + 1;
+        }
+        return hits;
+    }
+
+    public long getMissCount()
+    {
+        long misses = benefitFlags.getMissCount() + salaryFlags.getMissCount();
+        int tableIndex = 0;
+        while (tableIndex < TABLES.length)
+        {
+            misses = misses + rowMaps[tableIndex].getMissCount();
+            tableIndex = tableIndex + 1;
+        }
+        return misses;
+    }
+
+    public String describe()
+    {
+        long lookups = getHitCount() + getMissCount();
+        long hitPercent = 0;
+        if (lookups > 0) hitPercent = getHitCount() * 100 / lookups;
+
+        String text = "Entity cache: " + getHitCount() + " hits, " + getMissCount() + " misses (" + hitPercent + "% hit rate)";
+        int tableIndex = 0;
+        while (tableIndex < TABLES.length)
+        {
+            text = text + "; " + TABLES[tableIndex] + " " + describeMap(rowMaps[tableIndex]);
+            tableIndex = tableIndex + 1;
+        }
+        text = text + "; benefit flags " + describeMap(benefitFlags) + "; salary flags " + describeMap(salaryFlags);
+        return text;
+    }
+
+    private static String describeMap(IntLruMap<?> map)
+    {
+        return map.size() + "/" + map.getCapacity() + " (" + map.getHitCount() + "h " + map.getMissCount() + "m " + map.getEvictionCount() + "e)";
+    }
+}
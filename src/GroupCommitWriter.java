@@ -0,0 +1,300 @@
+// GroupCommitWriter.java  (one writer thread that commits concurrent callers' writes together)
+//
+// Callers submit operations and get a future. The writer thread takes the first waiting
+// operation, collects whatever else arrives within the window (up to maxBatchSize), runs them
+// all in one transaction, each inside its own savepoint so a failing operation is undone alone,
+// and completes every future once the commit is done. One commit, and one sync, then covers the
+// whole group instead of one per caller.
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class GroupCommitWriter implements AutoCloseable
+{
+    public static final int DEFAULT_WINDOW_MICROS = 1000;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1024;
+
+    // Work to run on the writer connection; the result completes the caller's future.
+    // A failed operation must throw: only then is its savepoint rolled back and the failure
+    // counted. The Main helpers catch and print their own errors, so script commands go
+    // through Main.executeCheckedWrite rather than executeScriptCommand.
+    public interface Operation<T>
+    {
+        T apply(Statement statement) throws Exception;
+    }
+
+    private static final class PendingOperation
+    {
+        final Operation<?> operation;
+        final CompletableFuture<Object> future = new CompletableFuture<Object>();
+        final long submitNanos = System.nanoTime();
+        Object result = null;
+        Throwable failure = null;
+
+        PendingOperation(Operation<?> operation)
+        {
+            this.operation = operation;
+        }
+    }
+
+    // marks the end of the queue for close()
+    private static final PendingOperation END_OF_QUEUE = new PendingOperation(statement -> null);
+
+    private final Statement statement;
+    private final Connection connection;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final LinkedBlockingQueue<PendingOperation> queue = new LinkedBlockingQueue<PendingOperation>();
+    private final Thread writerThread;
+    private volatile boolean closed = false;
+
+    // written by the writer thread only, read by describe()
+    private volatile long batchCount = 0;
+    private volatile long operationCount = 0;
+    private volatile long failedOperationCount = 0;
+    private volatile int largestBatchSize = 0;
+    private volatile long totalLatencyNanos = 0;
+    private volatile long maxLatencyNanos = 0;
+    private volatile long totalCommitNanos = 0;
+
+    public GroupCommitWriter(Statement statement, int windowMicros, int maxBatchSize) throws SQLException
+    {
+        this.statement = statement;
+        this.connection = statement.getConnection();
+        this.windowNanos = Math.max(0, windowMicros) * 1000L;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.writerThread = new Thread(this::writeLoop, "group-commit-writer");
+        writerThread.start();
+    }
+
+    // ----------------------------
+    // Submit
+    // ----------------------------
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> submit(Operation<T> operation)
+    {
+        PendingOperation pending = new PendingOperation(operation);
+        if (closed)
+        {
+            pending.future.completeExceptionally(new IllegalStateException("Group commit writer is closed"));
+        }
+        else
+        {
+            queue.add(pending);
+        }
+        return (CompletableFuture<T>) pending.future;
+    }
+
+    // Runs everything already submitted, then stops the writer thread
+    public void close()
+    {
+        if (closed) return;
+        closed = true;
+        queue.add(END_OF_QUEUE);
+        try
+        {
+            writerThread.join();
+        }
+        catch (InterruptedException exception)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ----------------------------
+    // Metrics
+    // ----------------------------
+    public long getBatchCount()
+    {
+        return batchCount;
+    }
+
+    public long getOperationCount()
+    {
+        return operationCount;
+    }
+
+    public double getAverageBatchSize()
+    {
+        if (batchCount == 0) return 0;
+        return (double) operationCount / batchCount;
+    }
+
+    public int getLargestBatchSize()
+    {
+        return largestBatchSize;
+    }
+
+    // From submit to the future completing, in microseconds
+    public long getAverageLatencyMicros()
+    {
+        if (operationCount == 0) return 0;
+        return totalLatencyNanos / operationCount / 1000;
+    }
+
+    public long getMaxLatencyMicros()
+    {
+        return maxLatencyNanos / 1000;
+    }
+
+    public String describe()
+    {
+        long averageCommitMicros = 0;
+        if (batchCount > 0) averageCommitMicros = totalCommitNanos / batchCount / 1000;
+        return "Group commit: " + operationCount + " operations (" + failedOperationCount + " failed) in " + batchCount + " commits, "
+                + String.format("%.1f", getAverageBatchSize()) + " avg / " + largestBatchSize + " max per commit, latency "
+                + getAverageLatencyMicros() + " us avg / " + getMaxLatencyMicros() + " us max, commit " + averageCommitMicros + " us avg";
+    }
+
+    // ----------------------------
+    // Writer thread
+    // ----------------------------
+    private void writeLoop()
+    {
+        ArrayList<PendingOperation> batch = new ArrayList<PendingOperation>();
+        boolean running = true;
+        while (running)
+        {
+            batch.clear();
+            try
+            {
+                PendingOperation first = queue.take();
+                if (first == END_OF_QUEUE) break;
+                batch.add(first);
+
+                // everything that turns up within the window joins this commit
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatchSize)
+                {
+                    PendingOperation next = queue.poll();
+                    if (next == null)
+                    {
+                        long remainingNanos = deadline - System.nanoTime();
+                        if (remainingNanos <= 0) break;
+                        next = queue.poll(remainingNanos, TimeUnit.NANOSECONDS);
+                        if (next == null) break;
+                    }
+                    if (next == END_OF_QUEUE)
+                    {
+                        running = false;
+                        break;
+                    }
+                    batch.add(next);
+                }
+            }
+            catch (InterruptedException exception)
+            {
+                running = false;
+            }
+
+            if (!batch.isEmpty()) runBatch(batch);
+        }
+
+        // anything that raced close() is refused rather than left waiting forever
+        PendingOperation late = queue.poll();
+        while (late != null)
+        {
+            if (late != END_OF_QUEUE) late.future.completeExceptionally(new IllegalStateException("Group commit writer is closed"));
+            late = queue.poll();
+        }
+
+        try
+        {
+            connection.setAutoCommit(true);
+        }
+        catch (SQLException exception)
+        {
+            System.out.println("Error restoring autocommit after group commit: " + exception.toString());
+        }
+    }
+
+    private void runBatch(ArrayList<PendingOperation> batch)
+    {
+        boolean committed = false;
+        long commitStartNanos = 0;
+        try
+        {
+            if (connection.getAutoCommit()) connection.setAutoCommit(false);
+
+            int operationIndex = 0;
+            while (operationIndex < batch.size())
+            {
+                runOperation(batch.get(operationIndex));
+                operationIndex = operationIndex + 1;
+            }
+
+            commitStartNanos = System.nanoTime();
+            connection.commit();
+            committed = true;
+        }
+        catch (SQLException exception)
+        {
+            // rows the failed commit held may already be in the running aggregates and entity cache
+            Main.invalidateCaches();
+            try
+            {
+                connection.rollback();
+            }
+            catch (SQLException rollbackException)
+            {
+                System.out.println("Error rolling back group commit: " + rollbackException.toString());
+            }
+            int operationIndex = 0;
+            while (operationIndex < batch.size())
+            {
+                if (batch.get(operationIndex).failure == null) batch.get(operationIndex).failure = exception;
+                operationIndex = operationIndex + 1;
+            }
+        }
+
+        long doneNanos = System.nanoTime();
+        if (committed) totalCommitNanos = totalCommitNanos + (doneNanos - commitStartNanos);
+
+        int failedCount = 0;
+        int operationIndex = 0;
+        while (operationIndex < batch.size())
+        {
+            PendingOperation pending = batch.get(operationIndex);
+            long latencyNanos = doneNanos - pending.submitNanos;
+            totalLatencyNanos = totalLatencyNanos + latencyNanos;
+            if (latencyNanos > maxLatencyNanos) maxLatencyNanos = latencyNanos;
+
+            if (pending.failure == null)
+            {
+                pending.future.complete(pending.result);
+            }
+            else
+            {
+                failedCount = failedCount + 1;
+                pending.future.completeExceptionally(pending.failure);
+            }
+            operationIndex = operationIndex + 1;
+        }
+
+        operationCount = operationCount + batch.size();
+        failedOperationCount = failedOperationCount + failedCount;
+        batchCount = batchCount + 1;
+        if (batch.size() > largestBatchSize) largestBatchSize = batch.size();
+    }
+
+    private void runOperation(PendingOperation pending) throws SQLException
+    {
+        Savepoint savepoint = connection.setSavepoint();
+        try
+        {
+            pending.result = pending.operation.apply(statement);
+            connection.releaseSavepoint(savepoint);
+        }
+        catch (Exception exception)
+        {
+            // undoes every row the operation wrote before failing, e.g. a customer whose link insert failed
+            pending.failure = exception;
+            // writes undone here may already be reflected in the running aggregates and entity cache
+            Main.invalidateCaches();
+            connection.rollback(savepoint);
+            connection.releaseSavepoint(savepoint);
+        }
+    }
+}
@@ -0,0 +1,317 @@
+// Instrumentation.java  (latency histograms per command and per SQL statement shape, and a slow-statement log)
+//
+// Off unless the program starts with --instrument, --slow-ms or --slow-log. While off, start()
+// returns 0 and every record call returns straight away, so the hot paths pay one volatile read.
+// While on, each command (register agent, update Books, purge customer, display, ...) and each
+// statement shape gets a LatencyHistogram, a rows-affected counter and an error counter.
+// A statement's shape is its SQL with literals, IN lists and extra VALUES rows folded away.
+// Statements at or over the slow threshold go to the slow log file, or are kept in memory for
+// the report. Errors that script execution suppresses are counted and the latest are kept too.
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.LocalTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+public class Instrumentation
+{
+    public static final int DEFAULT_SLOW_MILLIS = 100;
+
+    public static final String DISPLAY_COMMAND = "display";
+    public static final String COMPUTE_COMMAND = "compute";
+    public static final String JOIN_COMMAND = "join";
+    public static final String SEARCH_COMMAND = "search";
+    public static final String ROLLOVER_COMMAND = "experience rollover";
+    public static final String ASSIGN_SALARIES_COMMAND = "assign salaries";
+    public static final String RAW_SQL_COMMAND = "raw sql";
+
+    // indexed by register / purge subtype
+    private static final String[] REGISTER_COMMANDS = {"register", "register agent", "register book", "register author", "register customer", "register salary"};
+    private static final String[] REGISTER_BATCH_COMMANDS = {"register batch", "register agent batch", "register book batch", "register author batch", "register customer batch", "register salary batch"};
+    private static final String[] PURGE_COMMANDS = {"purge", "purge agent", "purge book", "purge author", "purge customer", "purge salary"};
+
+    // slow statements and errors kept for the report
+    private static final int RECENT_LIMIT = 20;
+    // statement shapes listed in the report, slowest in total first
+    private static final int REPORTED_SHAPE_LIMIT = 25;
+    // distinct SQL texts whose shape is remembered; raw SQL with literals could grow it forever
+    private static final int SHAPE_CACHE_LIMIT = 4096;
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![A-Za-z_0-9])-?[0-9]+(?:\\.[0-9]+)?(?![A-Za-z_0-9])");
+    private static final Pattern IN_LIST = Pattern.compile("IN \\(\\?(?:, ?\\?)+\\)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern VALUES_ROWS = Pattern.compile("VALUES (\\([^()]*\\))(?: ?, ?\\([^()]*\\))+", Pattern.CASE_INSENSITIVE);
+
+    private static final class OperationStats
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final AtomicLong rows = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+    }
+
+    private static volatile boolean enabled = false;
+    private static volatile long slowThresholdNanos = DEFAULT_SLOW_MILLIS * 1000000L;
+
+    private static final ConcurrentHashMap<String, OperationStats> commandStats = new ConcurrentHashMap<String, OperationStats>();
+    private static final ConcurrentHashMap<String, OperationStats> statementStats = new ConcurrentHashMap<String, OperationStats>();
+    private static final ConcurrentHashMap<String, String> shapes = new ConcurrentHashMap<String, String>();
+
+    // guarded by the class lock
+    private static PrintWriter slowLog = null;
+    private static String slowLogPath = null;
+    private static long slowCount = 0;
+    private static final ArrayDeque<String> recentSlow = new ArrayDeque<String>();
+    private static final ArrayDeque<String> recentErrors = new ArrayDeque<String>();
+
+    private Instrumentation()
+    {
+    }
+
+    // ----------------------------
+    // Setup
+    // ----------------------------
+    public static void enable()
+    {
+        enabled = true;
+    }
+
+    public static boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public static void setSlowThreshold(int millis)
+    {
+        slowThresholdNanos = Math.max(0, millis) * 1000000L;
+    }
+
+    // Slow statements are appended to path from now on instead of being kept in memory
+    public static synchronized void openSlowLog(String path) throws IOException
+    {
+        closeSlowLog();
+        slowLog = new PrintWriter(new FileWriter(path, true));
+        slowLogPath = path;
+    }
+
+    public static synchronized void closeSlowLog()
+    {
+        if (slowLog == null) return;
+        slowLog.close();
+        slowLog = null;
+    }
+
+    // ----------------------------
+    // Recording
+    // ----------------------------
+    // The start time to hand to a record call, or 0 while instrumentation is off
+    public static long start()
+    {
+        if (!enabled) return 0;
+        return System.nanoTime();
+    }
+
+    public static String commandName(ScriptCommand scriptCommand)
+    {
+        if (scriptCommand.command == ScriptCommand.REGISTER) return registerCommand(scriptCommand.subtype);
+        if (scriptCommand.command == ScriptCommand.UPDATE) return updateCommand(scriptCommand.values[0]);
+        if (scriptCommand.command == ScriptCommand.PURGE) return purgeCommand(scriptCommand.subtype);
+        if (scriptCommand.command == ScriptCommand.DISPLAY) return DISPLAY_COMMAND;
+        if (scriptCommand.command == ScriptCommand.COMPUTE) return COMPUTE_COMMAND;
+        if (scriptCommand.command == ScriptCommand.JOIN) return JOIN_COMMAND;
+        if (scriptCommand.command == ScriptCommand.SEARCH) return SEARCH_COMMAND;
+        if (scriptCommand.command == ScriptCommand.ROLLOVER) return ROLLOVER_COMMAND;
+        if (scriptCommand.command == ScriptCommand.ASSIGN_SALARIES) return ASSIGN_SALARIES_COMMAND;
+        if (scriptCommand.command == ScriptCommand.RAW_SQL) return RAW_SQL_COMMAND;
+        return "command " + scriptCommand.command;
+    }
+
+    public static String registerCommand(int subtype)
+    {
+        if (subtype < 1 || subtype >= REGISTER_COMMANDS.length) return REGISTER_COMMANDS[0];
+        return REGISTER_COMMANDS[subtype];
+    }
+
+    // A run of register lines a script batch inserts together
+    public static String registerBatchCommand(int subtype)
+    {
+        if (subtype < 1 || subtype >= REGISTER_BATCH_COMMANDS.length) return REGISTER_BATCH_COMMANDS[0];
+        return REGISTER_BATCH_COMMANDS[subtype];
+    }
+
+    public static String purgeCommand(int subtype)
+    {
+        if (subtype < 1 || subtype >= PURGE_COMMANDS.length) return PURGE_COMMANDS[0];
+        return PURGE_COMMANDS[subtype];
+    }
+
+    public static String updateCommand(String tableName)
+    {
+        return "update " + tableName;
+    }
+
+    public static void recordCommand(String name, long startNanos)
+    {
+        recordCommand(name, startNanos, -1);
+    }
+
+    // rows is what the command changed or returned, or -1 when it does not say
+    public static void recordCommand(String name, long startNanos, long rows)
+    {
+        if (startNanos == 0 || !enabled) return;
+        OperationStats stats = statsFor(commandStats, name);
+        stats.histogram.record(System.nanoTime() - startNanos);
+        if (rows > 0) stats.rows.addAndGet(rows);
+    }
+
+    // An error the caller handles or suppresses; the latest ones are kept for the report
+    public static void recordError(String name, Exception exception)
+    {
+        if (!enabled) return;
+        statsFor(commandStats, name).errors.incrementAndGet();
+        synchronized (Instrumentation.class)
+        {
+            remember(recentErrors, LocalTime.now() + " " + name + ": " + exception);
+        }
+    }
+
+    // One SQL statement; rows is what it changed or returned, or -1 when not counted
+    public static void recordStatement(String sql, long startNanos, long rows)
+    {
+        if (startNanos == 0 || !enabled || sql == null) return;
+        long elapsedNanos = System.nanoTime() - startNanos;
+        OperationStats stats = statsFor(statementStats, shapeOf(sql));
+        stats.histogram.record(elapsedNanos);
+        if (rows > 0) stats.rows.addAndGet(rows);
+        if (elapsedNanos >= slowThresholdNanos) recordSlow(sql, elapsedNanos, rows);
+    }
+
+    public static void recordStatementError(String sql)
+    {
+        if (!enabled || sql == null) return;
+        statsFor(statementStats, shapeOf(sql)).errors.incrementAndGet();
+    }
+
+    public static void reset()
+    {
+        commandStats.clear();
+        statementStats.clear();
+        synchronized (Instrumentation.class)
+        {
+            slowCount = 0;
+            recentSlow.clear();
+            recentErrors.clear();
+        }
+    }
+
+    // ----------------------------
+    // Report
+    // ----------------------------
+    public static String report()
+    {
+        if (!enabled) return "Instrumentation is off; start with --instrument, --slow-ms or --slow-log";
+
+        StringBuilder report = new StringBuilder();
+        report.append("Latency by command (count, rows, errors, p50 / p90 / p99 / max in us, total ms):\n");
+        appendTable(report, sortedByName(commandStats), Integer.MAX_VALUE);
+        report.append("Latency by statement shape, slowest in total first (count, rows, errors, p50 / p90 / p99 / max in us, total ms):\n");
+        appendTable(report, sortedByTotal(statementStats), REPORTED_SHAPE_LIMIT);
+
+        synchronized (Instrumentation.class)
+        {
+            report.append("Slow statements (").append(slowThresholdNanos / 1000000).append(" ms or more): ").append(slowCount);
+            if (slowLogPath != null) report.append(", logged to ").append(slowLogPath);
+            report.append('\n');
+            for (String entry : recentSlow) report.append("  ").append(entry).append('\n');
+            if (!recentErrors.isEmpty())
+            {
+                report.append("Latest suppressed errors:\n");
+                for (String entry : recentErrors) report.append("  ").append(entry).append('\n');
+            }
+            if (slowLog != null) slowLog.flush();
+        }
+        return report.toString().stripTrailing();
+    }
+
+    // ----------------------------
+    // Internal helpers
+    // ----------------------------
+    private static OperationStats statsFor(ConcurrentHashMap<String, OperationStats> statsByName, String name)
+    {
+        OperationStats stats = statsByName.get(name);
+        if (stats != null) return stats;
+        return statsByName.computeIfAbsent(name, key -> new OperationStats());
+    }
+
+    private static synchronized void recordSlow(String sql, long elapsedNanos, long rows)
+    {
+        slowCount = slowCount + 1;
+        String entry = LocalTime.now() + " " + String.format("%.1f", elapsedNanos / 1000000.0) + " ms" + (rows >= 0 ? ", " + rows + " rows" : "") + ": " + sql;
+        if (slowLog != null) slowLog.println(entry);
+        else remember(recentSlow, entry);
+    }
+
+    private static void remember(ArrayDeque<String> recent, String entry)
+    {
+        if (recent.size() >= RECENT_LIMIT) recent.removeFirst();
+        recent.addLast(entry);
+    }
+
+    static String shapeOf(String sql)
+    {
+        String shape = shapes.get(sql);
+        if (shape != null) return shape;
+
+        shape = WHITESPACE.matcher(sql.trim()).replaceAll(" ");
+        shape = STRING_LITERAL.matcher(shape).replaceAll("?");
+        shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+        shape = IN_LIST.matcher(shape).replaceAll("IN (?, ...)");
+        shape = VALUES_ROWS.matcher(shape).replaceAll("VALUES $1, ...");
+
+        if (shapes.size() >= SHAPE_CACHE_LIMIT) shapes.clear();
+        shapes.put(sql, shape);
+        return shape;
+    }
+
+    private static ArrayList<Map.Entry<String, OperationStats>> sortedByName(ConcurrentHashMap<String, OperationStats> statsByName)
+    {
+        ArrayList<Map.Entry<String, OperationStats>> entries = new ArrayList<Map.Entry<String, OperationStats>>(statsByName.entrySet());
+        entries.sort((first, second) -> first.getKey().compareTo(second.getKey()));
+        return entries;
+    }
+
+    private static ArrayList<Map.Entry<String, OperationStats>> sortedByTotal(ConcurrentHashMap<String, OperationStats> statsByName)
+    {
+        ArrayList<Map.Entry<String, OperationStats>> entries = new ArrayList<Map.Entry<String, OperationStats>>(statsByName.entrySet());
+        entries.sort((first, second) -> Long.compare(second.getValue().histogram.getTotalNanos(), first.getValue().histogram.getTotalNanos()));
+        return entries;
+    }
+
+    private static void appendTable(StringBuilder report, ArrayList<Map.Entry<String, OperationStats>> entries, int limit)
+    {
+        if (entries.isEmpty())
+        {
+            report.append("  (none)\n");
+            return;
+        }
+
+        int entryIndex = 0;
+        while (entryIndex < entries.size() && entryIndex < limit)
+        {
+            OperationStats stats = entries.get(entryIndex).getValue();
+            LatencyHistogram histogram = stats.histogram;
+            report.append(String.format("  %9d %10d %6d %9d / %9d / %9d / %9d %10.1f  %s\n",
+                    histogram.getCount(), stats.rows.get(), stats.errors.get(),
+                    histogram.valueAtPercentile(50) / 1000, histogram.valueAtPercentile(90) / 1000,
+                    histogram.valueAtPercentile(99) / 1000, histogram.getMaxNanos() / 1000,
+                    histogram.getTotalNanos() / 1000000.0, entries.get(entryIndex).getKey()));
+            entryIndex = entryIndex + 1;
+        }
+        if (entries.size() > limit) report.append("  ... ").append(entries.size() - limit).append(" more\n");
+    }
+}
@@ -0,0 +1,237 @@
+// IntLruMap.java  (bounded int -> value map that evicts the least recently used entry)
+//
+// Keys stay primitive: an open-addressing hash table of entry indexes, with the entries in
+// parallel arrays threaded onto a recency list. Nothing is allocated after construction.
+import java.util.Arrays;
+
+public class IntLruMap<V>
+{
+    private static final int NONE = -1;
+
+    private final int capacity;
+
+    // hash slot -> entry index, NONE when the slot is unused (linear probing)
+    private final int[] slots;
+    private final int slotMask;
+
+    // entries
+    private final int[] keys;
+    private final Object[] values;
+    private final int[] olderEntries;
+    private final int[] newerEntries;
+    private int oldestEntry = NONE;
+    private int newestEntry = NONE;
+
+    private final int[] freeEntries;
+    private int freeCount;
+    private int size = 0;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    public IntLruMap(int capacity)
+    {
+        this.capacity = Math.max(1, capacity);
+
+        // at most half full so probe runs stay short
+        int slotCount = 2;
+        while (slotCount < this.capacity * 2) slotCount = slotCount * 2;
+        this.slots = new int[slotCount];
+        this.slotMask = slotCount - 1;
+
+        this.keys = new int[this.capacity];
+        this.values = new Object[this.capacity];
+        this.olderEntries = new int[this.capacity];
+        this.newerEntries = new int[this.capacity];
+        this.freeEntries = new int[this.capacity];
+        clear();
+    }
+
+    // ----------------------------
+    // Map operations
+    // ----------------------------
+    // Counts a hit or a miss and marks the entry as most recently used
+    @SuppressWarnings("unchecked")
+    public V get(int key)
+    {
+        int entry = findEntry(key);
+        if (entry == NONE)
+        {
+            missCount = missCount + 1;
+            return null;
+        }
+        hitCount = hitCount + 1;
+        moveToNewest(entry);
+        return (V) values[entry];
+    }
+
+    // Lookup for write paths: no hit/miss counting and no change of recency
+    @SuppressWarnings("unchecked")
+    public V peek(int key)
+    {
+        int entry = findEntry(key);
+        if (entry == NONE) return null;
+        return (V) values[entry];
+    }
+
+    public void put(int key, V value)
+    {
+        int entry = findEntry(key);
+        if (entry != NONE)
+        {
+            values[entry] = value;
+            moveToNewest(entry);
+            return;
+        }
+
+        if (freeCount == 0)
+        {
+            removeEntry(oldestEntry);
+            evictionCount = evictionCount + 1;
+        }
+
+        freeCount = freeCount - 1;
+        entry = freeEntries[freeCount];
+        keys[entry] = key;
+        values[entry] = value;
+
+        int slot = homeSlot(key);
+        while (slots[slot] != NONE) slot = (slot + 1) & slotMask;
+        slots[slot] = entry;
+
+        linkAsNewest(entry);
+        size = size + 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(int key)
+    {
+        int entry = findEntry(key);
+        if (entry == NONE) return null;
+        V value = (V) values[entry];
+        removeEntry(entry);
+        return value;
+    }
+
+    public void clear()
+    {
+        Arrays.fill(slots, NONE);
+        Arrays.fill(values, null);
+        int entry = 0;
+        while (entry < capacity)
+        {
+            freeEntries[entry] = capacity - 1 - entry;
+            entry = entry + 1;
+        }
+        freeCount = capacity;
+        oldestEntry = NONE;
+        newestEntry = NONE;
+        size = 0;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public long getHitCount()
+    {
+        return hitCount;
+    }
+
+    public long getMissCount()
+    {
+        return missCount;
+    }
+
+    public long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+    // ----------------------------
+    // Hash table
+    // ----------------------------
+    private int homeSlot(int key)
+    {
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & slotMask;
+    }
+
+    private int findSlot(int key)
+    {
+        int slot = homeSlot(key);
+        while (slots[slot] != NONE)
+        {
+            if (keys[slots[slot]] == key) return slot;
+            slot = (slot + 1) & slotMask;
+        }
+        return NONE;
+    }
+
+    private int findEntry(int key)
+    {
+        int slot = findSlot(key);
+        if (slot == NONE) return NONE;
+        return slots[slot];
+    }
+
+    private void removeEntry(int entry)
+    {
+        // backward-shift deletion keeps every probe run unbroken without tombstones
+        int hole = findSlot(keys[entry]);
+        int slot = (hole + 1) & slotMask;
+        while (slots[slot] != NONE)
+        {
+            int home = homeSlot(keys[slots[slot]]);
+            if (((slot - home) & slotMask) >= ((slot - hole) & slotMask))
+            {
+                slots[hole] = slots[slot];
+                hole = slot;
+            }
+            slot = (slot + 1) & slotMask;
+        }
+        slots[hole] = NONE;
+
+        unlink(entry);
+        values[entry] = null;
+        freeEntries[freeCount] = entry;
+        freeCount = freeCount + 1;
+        size = size - 1;
+    }
+
+    // ----------------------------
+    // Recency list
+    // ----------------------------
+    private void moveToNewest(int entry)
+    {
+        if (entry == newestEntry) return;
+        unlink(entry);
+        linkAsNewest(entry);
+    }
+
+    private void linkAsNewest(int entry)
+    {
+        olderEntries[entry] = newestEntry;
+        newerEntries[entry] = NONE;
+        if (newestEntry != NONE) newerEntries[newestEntry] = entry;
+        newestEntry = entry;
+        if (oldestEntry == NONE) oldestEntry = entry;
+    }
+
+    private void unlink(int entry)
+    {
+        int older = olderEntries[entry];
+        int newer = newerEntries[entry];
+        if (older != NONE) newerEntries[older] = newer;
+        else oldestEntry = newer;
+        if (newer != NONE) olderEntries[newer] = older;
+        else newestEntry = older;
+    }
+}
@@ -0,0 +1,104 @@
+// LatencyHistogram.java  (log-linear latency buckets in the style of HdrHistogram, ~3% precision)
+//
+// Values below 64 ns get a bucket each; above that every power of two is split into 32 equal
+// buckets, so a recorded value is off by at most 1/32 of itself. Recording is one array
+// increment, and the array is a fixed 1,248 longs however many values go in.
+import java.util.Arrays;
+
+public class LatencyHistogram
+{
+    // 2^5 buckets per power of two
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_HALF = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_COUNT = SUB_BUCKET_HALF * 2;
+
+    // values up to 2^42 ns (about 73 minutes); anything longer lands in the last bucket
+    private static final int HIGHEST_BIT = 42;
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (HIGHEST_BIT - SUB_BUCKET_BITS) * SUB_BUCKET_HALF;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount = 0;
+    private long totalNanos = 0;
+    private long minNanos = Long.MAX_VALUE;
+    private long maxNanos = 0;
+
+    public synchronized void record(long nanos)
+    {
+        if (nanos < 0) nanos = 0;
+        int bucket = bucketOf(nanos);
+        counts[bucket] = counts[bucket] + 1;
+        totalCount = totalCount + 1;
+        totalNanos = totalNanos + nanos;
+        if (nanos < minNanos) minNanos = nanos;
+        if (nanos > maxNanos) maxNanos = nanos;
+    }
+
+    public synchronized long getCount()
+    {
+        return totalCount;
+    }
+
+    public synchronized long getTotalNanos()
+    {
+        return totalNanos;
+    }
+
+    public synchronized long getMaxNanos()
+    {
+        return maxNanos;
+    }
+
+    public synchronized long getMinNanos()
+    {
+        return totalCount == 0 ? 0 : minNanos;
+    }
+
+    // The highest value in the bucket holding the given percentile (0-100), capped at the maximum
+    public synchronized long valueAtPercentile(double percentile)
+    {
+        if (totalCount == 0) return 0;
+        long targetCount = (long) Math.ceil(percentile / 100.0 * totalCount);
+        if (targetCount < 1) targetCount = 1;
+
+        long seenCount = 0;
+        int bucket = 0;
+        while (bucket < BUCKET_COUNT)
+        {
+            seenCount = seenCount + counts[bucket];
+            if (seenCount >= targetCount) return Math.min(highestValueIn(bucket), maxNanos);
+            bucket = bucket + 1;
+        }
+        return maxNanos;
+    }
+
+    public synchronized void reset()
+    {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        totalNanos = 0;
+        minNanos = Long.MAX_VALUE;
+        maxNanos = 0;
+    }
+
+    // ----------------------------
+    // Bucket arithmetic
+    // ----------------------------
+    private static int bucketOf(long nanos)
+    {
+        if (nanos < SUB_BUCKET_COUNT) return (int) nanos;
+        int highestBit = 63 - Long.numberOfLeadingZeros(nanos);
+        if (highestBit > HIGHEST_BIT) return BUCKET_COUNT - 1;
+        // shift brings the value into [SUB_BUCKET_HALF, SUB_BUCKET_COUNT)
+        int shift = highestBit - SUB_BUCKET_BITS;
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (int) ((nanos >> shift) - SUB_BUCKET_HALF);
+    }
+
+    private static long highestValueIn(int bucket)
+    {
+        if (bucket < SUB_BUCKET_COUNT) return bucket;
+        int offset = bucket - SUB_BUCKET_COUNT;
+        int shift = offset / SUB_BUCKET_HALF + 1;
+        long subBucket = offset % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -1,11 +1,97 @@
 // Main.java  (updated: enforce one salary per agent; each salary may be shared by many agents)
-import java.io.FileReader;
 import java.io.IOException;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Scanner;
 
 public class Main
 {
+    private static final int STATEMENT_CACHE_CAPACITY = 128;
+
+    // SQLite's historical limit on bound parameters per statement
+    public static final int MAX_BOUND_PARAMETERS = 999;
+
+    // {table, column definitions...} for each table created by initializeTables, in creation order
+    private static final String[][] TABLE_DEFINITIONS = {
+            {"Agents", "AgentID INTEGER PRIMARY KEY AUTOINCREMENT", "Name TEXT", "PhoneNumber TEXT", "Experience INTEGER"},
+            {"Salaries", "SalaryID INTEGER PRIMARY KEY AUTOINCREMENT", "Salary INTEGER", "Experience INTEGER"},
+            {"Books", "BookID INTEGER PRIMARY KEY AUTOINCREMENT", "AuthorID INTEGER", "Name TEXT", "Cost INTEGER"},
+            {"Authors", "AuthorID INTEGER PRIMARY KEY AUTOINCREMENT", "Name TEXT", "PhoneNumber TEXT", "HourlyCharge INTEGER"},
+            {"Customers", "CustomerID INTEGER PRIMARY KEY AUTOINCREMENT", "AgentID INTEGER", "BookID INTEGER", "Name TEXT", "PhoneNumber TEXT"},
+            {"WorkBenefits", "BenefitID INTEGER PRIMARY KEY AUTOINCREMENT", "AgentID INTEGER", "SalaryBonus INTEGER", "PaidLeaveDuration INTEGER"},
+            {"CustomerAgentBook", "Link INTEGER PRIMARY KEY AUTOINCREMENT", "CustomerID INTEGER", "AgentID INTEGER", "BookID INTEGER"},
+            {"AgentSalary", "Link INTEGER PRIMARY KEY AUTOINCREMENT", "AgentID INTEGER", "SalaryID INTEGER"},
+            {"AgentBenefit", "Link INTEGER PRIMARY KEY AUTOINCREMENT", "AgentID INTEGER", "BenefitID INTEGER"},
+            {"BookAuthor", "Link INTEGER PRIMARY KEY AUTOINCREMENT", "BookID INTEGER", "AuthorID INTEGER"}
+    };
+
+    // {table, column} for each secondary index created by initializeTables
+    private static final String[][] MANAGED_INDEXES = {
+            {"AgentBenefit", "AgentID"},
+            {"AgentSalary", "AgentID"},
+            {"AgentSalary", "SalaryID"},
+            {"BookAuthor", "BookID"},
+            {"BookAuthor", "AuthorID"},
+            {"CustomerAgentBook", "CustomerID"},
+            {"CustomerAgentBook", "AgentID"},
+            {"CustomerAgentBook", "BookID"},
+            {"Customers", "AgentID"},
+            {"Customers", "BookID"},
+            {"Books", "AuthorID"},
+            {"WorkBenefits", "AgentID"}
+    };
+
+    // Shared across every helper that runs against the script/menu connection
+    private static StatementCache statementCache = null;
+
+    // Running MIN/AVG/MAX for the Compute menu; created the first time someone asks
+    private static StatsEngine statsEngine = null;
+
+    // Salaries by Experience for automatic salary assignment; loaded by the first assignment
+    private static SalaryBandIndex salaryBandIndex = null;
+
+    // Rows and agent link flags read by validation and derived logic
+    private static final int ENTITY_CACHE_CAPACITY = 4096;
+    private static EntityCache entityCache = null;
+
+    // While a checked write runs on this thread (see executeCheckedWrite), the first write error a
+    // helper caught and printed; null outside one, where the helpers only print as before
+    private static final ThreadLocal<SQLException[]> caughtWriteError = new ThreadLocal<SQLException[]>();
+
+    // Where displays and joins go; the console in pipe format unless --output/--format/#OUTPUT say otherwise
+    private static final int DEFAULT_FETCH_SIZE = 1024;
+    private static int resultFetchSize = DEFAULT_FETCH_SIZE;
+    private static int resultFormat = ResultRenderer.FORMAT_PIPE;
+    private static ResultRenderer resultRenderer = null;
+
+    // Writer plus read-only readers; displays and joins borrow a reader when there is one
+    private static ConnectionPool connectionPool = null;
+
+    // {sql up to the end of FROM, column headers} for the three join views; scripts offer the first two.
+    // Each also selects the unique key its pages follow, which only a paged join shows.
+    private static final String[][] JOIN_QUERIES = {
+            {"SELECT Customers.CustomerID, Customers.Name AS CustomerName, Agents.AgentID, Agents.Name AS AgentName " +
+                    "FROM Customers LEFT JOIN Agents ON Customers.AgentID = Agents.AgentID",
+                    "CustomerID", "CustomerName", "AgentID", "AgentName"},
+            {"SELECT Agents.AgentID, Agents.Name AS AgentName, WorkBenefits.SalaryBonus, WorkBenefits.PaidLeaveDuration, WorkBenefits.BenefitID " +
+                    "FROM Agents JOIN WorkBenefits ON Agents.AgentID = WorkBenefits.AgentID",
+                    "AgentID", "AgentName", "SalaryBonus", "PaidLeaveDuration"},
+            {"SELECT Agents.AgentID, Agents.Name AS AgentName, Salaries.Salary, Salaries.Experience AS SalaryExperience, AgentSalary.Link AS SalaryLink " +
+                    "FROM Agents JOIN AgentSalary ON Agents.AgentID = AgentSalary.AgentID JOIN Salaries ON AgentSalary.SalaryID = Salaries.SalaryID",
+                    "AgentID", "AgentName", "Salary", "SalaryExperience"}
+    };
+
+    // Filterable columns of each join in DisplayPage order: {key, key header, ID, AgentID, BookID, Experience, Cost}
+    private static final String[][] JOIN_VIEW_COLUMNS = {
+            {"Customers.CustomerID", "CustomerID", "Customers.CustomerID", "Customers.AgentID", "Customers.BookID", "Agents.Experience", null},
+            {"WorkBenefits.BenefitID", "BenefitID", "Agents.AgentID", "Agents.AgentID", null, "Agents.Experience", null},
+            {"AgentSalary.Link", "SalaryLink", "Agents.AgentID", "Agents.AgentID", null, "Agents.Experience", null}
+    };
+
+    // shown under the Display and Joins menus
+    private static final String PAGE_HINT = "Add |filters|page size to narrow it, e.g. 4|AgentID=42|20 (filters ID, AgentID, BookID, Experience, Cost as n or low-high)";
+
     // ----------------------------
     // Entry point
     // ----------------------------
@@ -13,23 +99,270 @@ public class Main
     {
         String databaseUrl = "jdbc:sqlite:libraryDB.db";
         String scriptFilePath = "user_inputs.txt";
-        String[] scriptLines = readFileLines(scriptFilePath);
+        int batchSize = 1;
+        int parserCount = 0;
+        boolean deferIndexes = false;
+        String outputPath = null;
+        ArrayList<String[]> imports = new ArrayList<String[]>();
+        boolean scriptGiven = false;
+        String restorePath = null;
+        String exportPath = null;
+        ConnectionProfile connectionProfile = null;
+        boolean persistent = false;
+        int readerCount = 0;
+        String serveAddress = null;
+        int groupWindowMicros = GroupCommitWriter.DEFAULT_WINDOW_MICROS;
+        int groupMaxBatchSize = GroupCommitWriter.DEFAULT_MAX_BATCH_SIZE;
+        int checkpointLines = ScriptWatermark.DEFAULT_CHECKPOINT_LINES;
+        int checkpointSeconds = ScriptWatermark.DEFAULT_CHECKPOINT_SECONDS;
+
+        // --batch n groups n script lines into one transaction (1 = autocommit every line)
+        int argIndex = 0;
+        while (argIndex < args.length)
+        {
+            if (args[argIndex].equals("--batch") && argIndex + 1 < args.length && isInteger(args[argIndex + 1]))
+            {
+                batchSize = stringToInt(args[argIndex + 1]);
+                argIndex = argIndex + 1;
+            }
+            // --parallel n parses the script on n worker threads while this thread writes
+            else if (args[argIndex].equals("--parallel") && argIndex + 1 < args.length && isInteger(args[argIndex + 1]))
+            {
+                parserCount = stringToInt(args[argIndex + 1]);
+                argIndex = argIndex + 1;
+            }
+            // --defer-indexes drops the managed indexes while the script loads and rebuilds them after;
+            // searches inside that script see the names as they were before it started
+            else if (args[argIndex].equals("--defer-indexes"))
+            {
+                deferIndexes = true;
+            }
+            // --script path reads the script from path ("-" for stdin, gzip is detected automatically)
+            else if (args[argIndex].equals("--script") && argIndex + 1 < args.length)
+            {
+                scriptFilePath = args[argIndex + 1];
+                scriptGiven = true;
+                argIndex = argIndex + 1;
+            }
+            // --import table path bulk loads a pipe or CSV file before the script runs (repeatable)
+            else if (args[argIndex].equals("--import") && argIndex + 2 < args.length && BulkImporter.subtypeFor(args[argIndex + 1]) > 0)
+            {
+                imports.add(new String[]{args[argIndex + 1], args[argIndex + 2]});
+                argIndex = argIndex + 2;
+            }
+            // --restore path loads a snapshot instead of replaying the default script
+            else if (args[argIndex].equals("--restore") && argIndex + 1 < args.length)
+            {
+                restorePath = args[argIndex + 1];
+                argIndex = argIndex + 1;
+            }
+            // --export path writes a snapshot of every table once the script has run
+            else if (args[argIndex].equals("--export") && argIndex + 1 < args.length)
+            {
+                exportPath = args[argIndex + 1];
+                argIndex = argIndex + 1;
+            }
+            // --persistent keeps the tables from the last run and replays only the script lines it has not applied
+            else if (args[argIndex].equals("--persistent"))
+            {
+                persistent = true;
+            }
+            // --checkpoint-lines n / --checkpoint-seconds n: how often a persistent run commits its script position
+            else if (args[argIndex].equals("--checkpoint-lines") && argIndex + 1 < args.length && isInteger(args[argIndex + 1]))
+            {
+                checkpointLines = stringToInt(args[argIndex + 1]);
+                argIndex = argIndex + 1;
+            }
+            else if (args[argIndex].equals("--checkpoint-seconds") && argIndex + 1 < args.length && isInteger(args[argIndex + 1]))
+            {
+                checkpointSeconds = stringToInt(args[argIndex + 1]);
+                argIndex = argIndex + 1;
+            }
+            // --readers n opens n read-only connections (and switches to WAL) for displays and joins
+            else if (args[argIndex].equals("--readers") && argIndex + 1 < args.length && isInteger(args[argIndex + 1]))
+            {
+                readerCount = stringToInt(args[argIndex + 1]);
+                argIndex = argIndex + 1;
+            }
+            // --serve port|socketPath answers script-format commands from local clients instead of the menu
+            else if (args[argIndex].equals("--serve") && argIndex + 1 < args.length)
+            {
+                serveAddress = args[argIndex + 1];
+                argIndex = argIndex + 1;
+            }
+            // --group-window us / --group-max n: how long the server's writer waits for more writes to share
+            // a commit, and how many one commit may hold
+            else if (args[argIndex].equals("--group-window") && argIndex + 1 < args.length && isInteger(args[argIndex + 1]))
+            {
+                groupWindowMicros = stringToInt(args[argIndex + 1]);
+                argIndex = argIndex + 1;
+            }
+            else if (args[argIndex].equals("--group-max") && argIndex + 1 < args.length && isInteger(args[argIndex + 1]))
+            {
+                groupMaxBatchSize = stringToInt(args[argIndex + 1]);
+                argIndex = argIndex + 1;
+            }
+            // --instrument records latency per command and statement shape, reported after a script and from the menu;
+            // --slow-ms n and --slow-log path set the slow-statement threshold and log file, and turn it on as well
+            else if (args[argIndex].equals("--instrument"))
+            {
+                Instrumentation.enable();
+            }
+            else if (args[argIndex].equals("--slow-ms") && argIndex + 1 < args.length && isInteger(args[argIndex + 1]))
+            {
+                Instrumentation.enable();
+                Instrumentation.setSlowThreshold(stringToInt(args[argIndex + 1]));
+                argIndex = argIndex + 1;
+            }
+            else if (args[argIndex].equals("--slow-log") && argIndex + 1 < args.length)
+            {
+                try
+                {
+                    Instrumentation.openSlowLog(args[argIndex + 1]);
+                    Instrumentation.enable();
+                }
+                catch (IOException exception)
+                {
+                    System.out.println("Cannot open slow log " + args[argIndex + 1] + ": " + exception.toString());
+                }
+                argIndex = argIndex + 1;
+            }
+            // --profile name applies a set of pragmas (journal mode, sync, caches) when the connection opens
+            else if (args[argIndex].equals("--profile") && argIndex + 1 < args.length && ConnectionProfile.forName(args[argIndex + 1]) != null)
+            {
+                connectionProfile = ConnectionProfile.forName(args[argIndex + 1]);
+                argIndex = argIndex + 1;
+            }
+            // --output path appends displays and joins to path instead of printing them
+            else if (args[argIndex].equals("--output") && argIndex + 1 < args.length)
+            {
+                outputPath = args[argIndex + 1];
+                argIndex = argIndex + 1;
+            }
+            // --format pipe|csv|jsonl picks how displays and joins are written
+            else if (args[argIndex].equals("--format") && argIndex + 1 < args.length && ResultRenderer.formatFor(args[argIndex + 1]) >= 0)
+            {
+                resultFormat = ResultRenderer.formatFor(args[argIndex + 1]);
+                argIndex = argIndex + 1;
+            }
+            // --fetch-size n asks the driver for n rows at a time while rendering
+            else if (args[argIndex].equals("--fetch-size") && argIndex + 1 < args.length && isInteger(args[argIndex + 1]))
+            {
+                resultFetchSize = stringToInt(args[argIndex + 1]);
+                argIndex = argIndex + 1;
+            }
+            else
+            {
+                System.out.println("Ignoring unknown argument: " + args[argIndex]);
+            }
+            argIndex = argIndex + 1;
+        }
 
-        try (Connection connection = DriverManager.getConnection(databaseUrl))
+        if (outputPath != null) setResultOutput(outputPath, resultFormat);
+        if (serveAddress != null && readerCount == 0) readerCount = QueryServer.DEFAULT_READERS;
+
+        // a restored database already holds what user_inputs.txt would add
+        ScriptSource scriptSource = null;
+        if (restorePath == null || scriptGiven) scriptSource = openScriptSource(scriptFilePath);
+
+        try (ConnectionPool pool = new ConnectionPool(databaseUrl, readerCount))
         {
-            Statement statement = connection.createStatement();
+            connectionPool = pool;
+            Statement statement = pool.getWriter().createStatement();
+
+            ScriptWatermark watermark = null;
+            if (persistent)
+            {
+                if (connectionProfile != null) applyConnectionProfile(statement, connectionProfile, false);
+                try
+                {
+                    int previousVersion = SchemaVersion.migrate(statement);
+                    if (scriptSource != null)
+                    {
+                        // rows left by a start without --persistent come with no record of which lines made them
+                        if (previousVersion == 0 && SchemaVersion.holdsRows(statement))
+                        {
+                            System.out.println("Tables were filled without --persistent, so how much of " + scriptSource.getName() + " they hold is unknown; not replaying it");
+                        }
+                        else
+                        {
+                            watermark = ScriptWatermark.resume(statement, scriptSource);
+                            if (watermark != null) watermark.setCheckpointInterval(checkpointLines, checkpointSeconds);
+                        }
+                        if (watermark == null)
+                        {
+                            scriptSource.close();
+                            scriptSource = null;
+                        }
+                    }
+                }
+                catch (SQLException | IOException exception)
+                {
+                    System.out.println("Unable to resume persistent database: " + exception.toString());
+                    if (scriptSource != null) scriptSource.close();
+                    return;
+                }
+            }
+            else
+            {
+                // You might wanna use this.
+                dropAllTables(statement);
+                SchemaVersion.forget(statement);
 
-            // You might wanna use this.
-            dropAllTables(statement);
-            initializeTables(statement);
+                // with the tables gone a page size change costs next to nothing
+                if (connectionProfile != null) applyConnectionProfile(statement, connectionProfile, true);
+
+                initializeTables(statement);
+            }
+
+            if (restorePath != null) restoreSnapshot(statement, restorePath);
+
+            if (!imports.isEmpty())
+            {
+                BulkImporter importer = new BulkImporter(statement);
+                int importIndex = 0;
+                while (importIndex < imports.size())
+                {
+                    String[] tableAndPath = imports.get(importIndex);
+                    importer.importFile(BulkImporter.subtypeFor(tableAndPath[0]), tableAndPath[1], BulkImporter.formatFor(null, tableAndPath[1]));
+                    importIndex = importIndex + 1;
+                }
+            }
 
-            if (scriptLines != null)
+            if (scriptSource != null)
             {
                 // silentMode = true so script lines do not print while running
-                executeScript(scriptLines, statement, true);
+                if (deferIndexes) dropManagedIndexes(statement);
+
+                if (parserCount > 0)
+                {
+                    new ScriptPipeline(scriptSource, parserCount).execute(statement, true, batchSize, watermark);
+                }
+                else
+                {
+                    executeScript(scriptSource, statement, true, batchSize, watermark);
+                }
+                scriptSource.close();
+
+                if (deferIndexes) createManagedIndexes(statement);
             }
 
-            menuLoop(statement, new Scanner(System.in));
+            if (exportPath != null) exportSnapshot(statement, exportPath);
+
+            if (serveAddress != null)
+            {
+                serve(new QueryServer(pool, statement, groupWindowMicros, groupMaxBatchSize), serveAddress);
+            }
+            // a script piped through stdin has already used up the menu's input
+            else if (!scriptFilePath.equals("-"))
+            {
+                menuLoop(statement, new Scanner(System.in));
+            }
+            if (readerCount > 0) System.out.println(pool.describe());
+            closeStatementCache();
+            closeResultRenderer();
+            Instrumentation.closeSlowLog();
+            connectionPool = null;
         }
         catch (SQLException exception)
         {
@@ -38,43 +371,95 @@ public class Main
     }
 
     // ----------------------------
-    // Read file lines (two-pass, no advanced APIs)
+    // Server mode (see QueryServer); runs until the process is told to stop
     // ----------------------------
-    public static String[] readFileLines(String filePath)
+    public static void serve(QueryServer server, String address)
     {
-        try
+        Thread mainThread = Thread.currentThread();
+        Thread shutdownHook = new Thread(() ->
         {
-            FileReader firstReader = new FileReader(filePath);
-            Scanner firstScanner = new Scanner(firstReader);
-
-            int lineCount = 0;
-
-            while (firstScanner.hasNextLine())
+            server.stop();
+            try
             {
-                firstScanner.nextLine();
-                lineCount = lineCount + 1;
+                // let main finish the pending writes and close the database
+                mainThread.join(60000);
             }
+            catch (InterruptedException exception)
+            {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
 
-            firstScanner.close();
-            firstReader.close();
-
-            FileReader secondReader = new FileReader(filePath);
-            Scanner secondScanner = new Scanner(secondReader);
-
-            String[] lines = new String[lineCount];
-
-            int lineIndex = 0;
+        try
+        {
+            server.serve(address);
+        }
+        catch (IOException exception)
+        {
+            System.out.println("Server error on " + address + ": " + exception.toString());
+        }
+    }
 
-            while (secondScanner.hasNextLine())
+    // ----------------------------
+    // Connection profiles (see ConnectionProfile)
+    // ----------------------------
+    // Commits anything pending first, since SQLite only switches journal modes outside a transaction.
+    // rebuildPages = true lets a page size change VACUUM the database.
+    public static void applyConnectionProfile(Statement statement, ConnectionProfile profile, boolean rebuildPages)
+    {
+        try
+        {
+            Connection connection = statement.getConnection();
+            if (!connection.getAutoCommit())
             {
-                lines[lineIndex] = secondScanner.nextLine();
-                lineIndex = lineIndex + 1;
+                connection.commit();
+                connection.setAutoCommit(true);
             }
+            System.out.println(profile.apply(statement, rebuildPages));
+        }
+        catch (SQLException exception)
+        {
+            System.out.println("Error applying connection profile " + profile.name + ": " + exception.toString());
+        }
+    }
+
+    // ----------------------------
+    // Snapshots (see ColumnarSnapshot)
+    // ----------------------------
+    public static void exportSnapshot(Statement statement, String path)
+    {
+        try
+        {
+            new ColumnarSnapshot(statement).exportTo(path);
+        }
+        catch (SQLException | IOException exception)
+        {
+            System.out.println("Error exporting snapshot to " + path + ": " + exception.toString());
+        }
+    }
 
-            secondScanner.close();
-            secondReader.close();
+    // On failure the tables are left as they were before the restore started
+    public static void restoreSnapshot(Statement statement, String path)
+    {
+        try
+        {
+            new ColumnarSnapshot(statement).restoreFrom(path);
+        }
+        catch (SQLException | IOException exception)
+        {
+            System.out.println("Error restoring snapshot from " + path + ": " + exception.toString());
+        }
+    }
 
-            return lines;
+    // ----------------------------
+    // Open the script as a one-pass line stream
+    // ----------------------------
+    public static ScriptSource openScriptSource(String filePath)
+    {
+        try
+        {
+            return ScriptSource.open(filePath);
         }
         catch (IOException exception)
         {
@@ -86,653 +471,717 @@ public class Main
 
     // ----------------------------
     // Execute script lines (silent for script execution)
+    // batchSize > 1 groups that many lines into one transaction; every line runs inside
+    // its own savepoint so a failing line is rolled back alone and the batch carries on.
     // ----------------------------
-    public static void executeScript(String[] scriptLines, Statement statement, boolean silentMode)
+    public static void executeScript(ScriptSource scriptSource, Statement statement, boolean silentMode, int batchSize)
+    {
+        executeScript(scriptSource, statement, silentMode, batchSize, null);
+    }
+
+    // watermark != null records how far the script got with every commit (see ScriptWatermark)
+    public static void executeScript(ScriptSource scriptSource, Statement statement, boolean silentMode, int batchSize, ScriptWatermark watermark)
+    {
+        if (scriptSource == null) return;
+
+        ScriptExecutor executor;
+        try
+        {
+            executor = new ScriptExecutor(statement, silentMode, batchSize, watermark);
+        }
+        catch (SQLException exception)
+        {
+            System.out.println("Script error: " + exception.toString());
+            return;
+        }
+
+        PipeTokenizer tokenizer = new PipeTokenizer();
+
+        while (true)
+        {
+            long lineStart = scriptSource.getByteOffset();
+            String rawLine = readScriptLine(scriptSource);
+            if (rawLine == null) break;
+
+            ScriptCommand scriptCommand = parseScriptLine(tokenizer, rawLine);
+            if (!executor.applyLine(scriptCommand, scriptSource.getLineNumber(), lineStart, scriptSource.getByteOffset(), rawLine)) break;
+        }
+
+        executor.finish();
+    }
+
+    // Returns null at the end of the script or when it can no longer be read
+    public static String readScriptLine(ScriptSource scriptSource)
     {
-        if (scriptLines == null) return;
+        try
+        {
+            return scriptSource.nextLine();
+        }
+        catch (IOException exception)
+        {
+            System.out.println("Unable to read script " + scriptSource.getName() + " after line " + scriptSource.getLineNumber() + ": " + exception.toString());
+            return null;
+        }
+    }
 
-        int lineIndex = 0;
+    // ----------------------------
+    // Parse one script line
+    // Does every check that needs no database, so it is safe to run on any thread.
+    // Returns null for blank lines, comments and lines that would be skipped anyway.
+    // ----------------------------
+    public static ScriptCommand parseScriptLine(PipeTokenizer tokenizer, String rawLine)
+    {
+        tokenizer.reset(rawLine);
 
-        while (lineIndex < scriptLines.length)
+        if (tokenizer.isBlank())
         {
-            String rawLine = scriptLines[lineIndex];
+            return null;
+        }
 
-            if (rawLine == null)
+        if (tokenizer.lineStartsWith("#"))
+        {
+            // "#BATCH n" directive: commit what is pending and switch to the new batch size
+            if (tokenizer.lineStartsWith("#BATCH "))
+            {
+                String batchSizeString = tokenizer.lineFrom(7).trim();
+                if (isInteger(batchSizeString))
+                {
+                    return new ScriptCommand(ScriptCommand.BATCH_DIRECTIVE, 0, stringToInt(batchSizeString), null);
+                }
+            }
+            // "#IMPORT table path [pipe|csv]" bulk loads a file into Agents, Books, Authors, Customers or Salaries
+            if (tokenizer.lineStartsWith("#IMPORT "))
             {
-                lineIndex = lineIndex + 1;
-                continue;
+                return parseImportDirective(tokenizer.lineFrom(8));
             }
+            // "#EXPORT path" snapshots every table, "#RESTORE path" replaces them all from a snapshot
+            if (tokenizer.lineStartsWith("#EXPORT ") && tokenizer.lineFrom(8).trim().length() > 0)
+            {
+                return new ScriptCommand(ScriptCommand.EXPORT_DIRECTIVE, 0, 0, new String[]{tokenizer.lineFrom(8).trim()});
+            }
+            if (tokenizer.lineStartsWith("#RESTORE ") && tokenizer.lineFrom(9).trim().length() > 0)
+            {
+                return new ScriptCommand(ScriptCommand.RESTORE_DIRECTIVE, 0, 0, new String[]{tokenizer.lineFrom(9).trim()});
+            }
+            // "#PROFILE name" switches the connection to another pragma profile
+            if (tokenizer.lineStartsWith("#PROFILE ") && ConnectionProfile.forName(tokenizer.lineFrom(9).trim()) != null)
+            {
+                return new ScriptCommand(ScriptCommand.PROFILE_DIRECTIVE, 0, 0, new String[]{tokenizer.lineFrom(9).trim()});
+            }
+            // "#OUTPUT path [pipe|csv|jsonl]" sends displays and joins to path; "#OUTPUT" alone goes back to the console
+            if (tokenizer.lineStartsWith("#OUTPUT"))
+            {
+                return parseOutputDirective(tokenizer.lineFrom(7));
+            }
+            return null;
+        }
 
-            String trimmedLine = trimSimple(rawLine);
-
-            if (trimmedLine.length() == 0)
+        // Allow a raw SQL passthrough line starting with "SQL|"
+        if (tokenizer.lineStartsWith("SQL|"))
+        {
+            String rawSql = tokenizer.lineFrom(4);
+            if (rawSql.length() == 0)
             {
-                lineIndex = lineIndex + 1;
-                continue;
+                return null;
             }
+            return new ScriptCommand(ScriptCommand.RAW_SQL, 0, 0, new String[]{rawSql});
+        }
+
+        if (tokenizer.fieldEquals(0, "0"))
+        {
+            // silent stop
+            return new ScriptCommand(ScriptCommand.STOP, 0, 0, null);
+        }
 
-            if (trimmedLine.charAt(0) == '#')
+        else if (tokenizer.fieldEquals(0, "1")) // Register
+        {
+            int subtype = tableTokenOf(tokenizer, 5);
+            if (subtype == 0)
             {
-                lineIndex = lineIndex + 1;
-                continue;
+                return null;
             }
 
-            // Allow a raw SQL passthrough line starting with "SQL|"
-            if (trimmedLine.length() > 4 && trimmedLine.substring(0,4).equals("SQL|"))
+            String[] values = registerValuesOf(tokenizer, subtype, 2);
+            if (values == null)
             {
-                String rawSql = trimmedLine.substring(4);
-                try
-                {
-                    statement.executeUpdate(rawSql);
-                }
-                catch (SQLException e)
-                {
-                    // suppressed in silent script mode
-                }
-                lineIndex = lineIndex + 1;
-                continue;
+                return null;
             }
+            return new ScriptCommand(ScriptCommand.REGISTER, subtype, 0, values);
+        }
 
-            String[] tokens = splitByPipe(trimmedLine);
+        // UPDATE: 2|table|id|column|newValue
+        else if (tokenizer.fieldEquals(0, "2"))
+        {
+            if (tokenizer.fieldCount() != 5)
+            {
+                return null;
+            }
 
-            if (tokens.length == 0)
+            if (!tokenizer.isInteger(2))
             {
-                lineIndex = lineIndex + 1;
-                continue;
+                return null;
             }
 
-            String command = tokens[0];
+            String tableName = null;
+            String idColumnName = null;
 
-            try
+            if (tokenizer.fieldEquals(1, "1"))
             {
-                if (command.equals("0"))
-                {
-                    // silent stop
-                    break;
-                }
+                tableName = "Agents";
+                idColumnName = "AgentID";
+            }
+            else if (tokenizer.fieldEquals(1, "2"))
+            {
+                tableName = "Books";
+                idColumnName = "BookID";
+            }
+            else if (tokenizer.fieldEquals(1, "3"))
+            {
+                tableName = "Authors";
+                idColumnName = "AuthorID";
+            }
+            else if (tokenizer.fieldEquals(1, "4"))
+            {
+                tableName = "Customers";
+                idColumnName = "CustomerID";
+            }
+            else if (tokenizer.fieldEquals(1, "5"))
+            {
+                tableName = "Salaries";
+                idColumnName = "SalaryID";
+            }
+            else
+            {
+                return null;
+            }
 
-                else if (command.equals("1")) // Register
-                {
-                    if (tokens.length < 2)
-                    {
-                        lineIndex = lineIndex + 1;
-                        continue;
-                    }
+            String columnName = tokenizer.fieldString(3);
+            boolean numericColumn = isNumericColumn(tableName, columnName);
 
-                    String registerSubtype = tokens[1];
+            if (numericColumn && !tokenizer.isInteger(4))
+            {
+                return null;
+            }
 
-                    // 1|1|Name|PhoneNumber|Experience   -> Agents
-                    if (registerSubtype.equals("1"))
-                    {
-                        if (tokens.length != 5)
-                        {
-                            lineIndex = lineIndex + 1;
-                            continue;
-                        }
+            String[] values = {tableName, idColumnName, columnName, tokenizer.fieldString(4)};
+            return new ScriptCommand(ScriptCommand.UPDATE, tokenizer.intField(1), tokenizer.intField(2), values);
+        }
 
-                        String name = tokens[2];
-                        String phoneNumber = tokens[3];
-                        String experienceString = tokens[4];
+        // PURGE (delete): 3|table|id, 3|table|firstId-lastId or 3|table|id,id,...
+        else if (tokenizer.fieldEquals(0, "3"))
+        {
+            if (tokenizer.fieldCount() != 3)
+            {
+                return null;
+            }
 
-                        if (!isInteger(experienceString))
-                        {
-                            lineIndex = lineIndex + 1;
-                            continue;
-                        }
+            int tableToken = tableTokenOf(tokenizer, 5);
+            PurgeSelection purgeSelection = PurgeSelection.parse(tokenizer.field(2));
+            if (tableToken == 0 || purgeSelection == null)
+            {
+                return null;
+            }
 
-                        String[] columns = {"Name", "PhoneNumber", "Experience"};
-                        String[] values = {name, phoneNumber, experienceString};
-                        int newAgentId = insertIntoTableAndReturnId("Agents", columns, values, statement);
+            return new ScriptCommand(ScriptCommand.PURGE, tableToken, purgeSelection.getFirstId(), null, purgeSelection);
+        }
 
-                        int experienceYears = stringToInt(experienceString);
-                        if (experienceYears >= 10)
-                        {
-                            addBenefitsToAgent(statement, newAgentId, 0, 14);
-                        }
-                    }
+        // DISPLAY: 4|tableToken, optionally |filters|page size|key to continue after (see DisplayPage)
+        // (note: script display tokens may differ from interactive)
+        else if (tokenizer.fieldEquals(0, "4"))
+        {
+            if (tokenizer.fieldCount() < 2 || tokenizer.fieldCount() > 5)
+            {
+                return null;
+            }
 
-                    // 1|2|BookName|AuthorID|Cost  -> Books + BookAuthor
-                    else if (registerSubtype.equals("2"))
-                    {
-                        if (tokens.length != 5)
-                        {
-                            lineIndex = lineIndex + 1;
-                            continue;
-                        }
+            String tableName = null;
 
-                        String bookName = tokens[2];
-                        String authorIdString = tokens[3];
-                        String costString = tokens[4];
+            if (tokenizer.fieldEquals(1, "1")) tableName = "Agents";
+            else if (tokenizer.fieldEquals(1, "2")) tableName = "Books";
+            else if (tokenizer.fieldEquals(1, "3")) tableName = "Authors";
+            else if (tokenizer.fieldEquals(1, "4")) tableName = "Customers";
+            else if (tokenizer.fieldEquals(1, "5")) tableName = "Salaries";
+            else if (tokenizer.fieldEquals(1, "6")) tableName = "WorkBenefits";
 
-                        if (!isInteger(authorIdString) || !isInteger(costString))
-                        {
-                            lineIndex = lineIndex + 1;
-                            continue;
-                        }
+            else
+            {
+                return null;
+            }
 
-                        String[] columns = {"AuthorID", "Name", "Cost"};
-                        String[] values = {authorIdString, bookName, costString};
-                        int newBookId = insertIntoTableAndReturnId("Books", columns, values, statement);
+            DisplayPage displayPage = null;
+            if (tokenizer.fieldCount() > 2)
+            {
+                displayPage = displayPageOf(tokenizer, getViewColumnsForTable(tableName));
+                if (displayPage == null) return null;
+            }
 
-                        if (stringToInt(authorIdString) != 0)
-                        {
-                            String[] linkColumns = {"BookID", "AuthorID"};
-                            String[] linkValues = {integerToString(newBookId), authorIdString};
-                            insertIntoTable("BookAuthor", linkColumns, linkValues, statement);
-                        }
-                    }
+            return new ScriptCommand(ScriptCommand.DISPLAY, tokenizer.intField(1), 0, new String[]{tableName}, null, displayPage);
+        }
 
-                    // 1|3|Name|PhoneNumber|HourlyCharge -> Authors
-                    else if (registerSubtype.equals("3"))
-                    {
-                        if (tokens.length != 5)
-                        {
-                            lineIndex = lineIndex + 1;
-                            continue;
-                        }
+        // COMPUTE: 5|1 or 5|2 (kept as-is)
+        else if (tokenizer.fieldEquals(0, "5"))
+        {
+            int choice = 0;
+            if (tokenizer.fieldCount() == 2) choice = tableTokenOf(tokenizer, 2);
+            if (choice == 0)
+            {
+                return null;
+            }
 
-                        String name = tokens[2];
-                        String phoneNumber = tokens[3];
-                        String hourlyChargeString = tokens[4];
+            return new ScriptCommand(ScriptCommand.COMPUTE, choice, 0, null);
+        }
 
-                        if (!isInteger(hourlyChargeString))
-                        {
-                            lineIndex = lineIndex + 1;
-                            continue;
-                        }
+        // DISPLAY COMBINATIONS: 6|1 or 6|2, optionally |filters|page size|key to continue after
+        else if (tokenizer.fieldEquals(0, "6"))
+        {
+            int choice = 0;
+            if (tokenizer.fieldCount() >= 2 && tokenizer.fieldCount() <= 5) choice = tableTokenOf(tokenizer, 2);
+            if (choice == 0)
+            {
+                return null;
+            }
 
-                        String[] columns = {"Name", "PhoneNumber", "HourlyCharge"};
-                        String[] values = {name, phoneNumber, hourlyChargeString};
-                        insertIntoTable("Authors", columns, values, statement);
-                    }
+            DisplayPage displayPage = null;
+            if (tokenizer.fieldCount() > 2)
+            {
+                displayPage = displayPageOf(tokenizer, JOIN_VIEW_COLUMNS[choice - 1]);
+                if (displayPage == null) return null;
+            }
 
-                    // 1|4|AgentID|BookID|CustomerName|Phone -> Customers + CustomerAgentBook
-                    else if (registerSubtype.equals("4"))
-                    {
-                        if (tokens.length != 6)
-                        {
-                            lineIndex = lineIndex + 1;
-                            continue;
-                        }
+            return new ScriptCommand(ScriptCommand.JOIN, choice, 0, null, null, displayPage);
+        }
 
-                        String agentIdString = tokens[2];
-                        String bookIdString = tokens[3];
-                        String customerName = tokens[4];
-                        String customerPhone = tokens[5];
+        // SEARCH: 8|tableToken|words or phone digits, optionally |page (1-based)
+        else if (tokenizer.fieldEquals(0, "8"))
+        {
+            if (tokenizer.fieldCount() != 3 && tokenizer.fieldCount() != 4)
+            {
+                return null;
+            }
 
-                        if (!isInteger(agentIdString) || !isInteger(bookIdString))
-                        {
-                            lineIndex = lineIndex + 1;
-                            continue;
-                        }
+            int tableToken = tableTokenOf(tokenizer, 4);
+            String terms = tokenizer.fieldString(2).trim();
+            if (tableToken == 0 || terms.length() == 0)
+            {
+                return null;
+            }
 
-                        String[] columns = {"AgentID", "BookID", "Name", "PhoneNumber"};
-                        String[] values = {agentIdString, bookIdString, customerName, customerPhone};
-                        int newCustomerId = insertIntoTableAndReturnId("Customers", columns, values, statement);
+            int page = 1;
+            if (tokenizer.fieldCount() == 4)
+            {
+                if (!tokenizer.isInteger(3) || tokenizer.intField(3) < 1) return null;
+                page = tokenizer.intField(3);
+            }
 
-                        String[] linkCols = {"CustomerID", "AgentID", "BookID"};
-                        String[] linkVals = {integerToString(newCustomerId), agentIdString, bookIdString};
-                        insertIntoTable("CustomerAgentBook", linkCols, linkVals, statement);
-                    }
+            String[] tableNames = {null, "Agents", "Books", "Authors", "Customers"};
+            return new ScriptCommand(ScriptCommand.SEARCH, tableToken, page, new String[]{tableNames[tableToken], terms});
+        }
 
-                    // 1|5|Salary|Experience|AgentID(optional) -> Salaries and optional AgentSalary link
-                    else if (registerSubtype.equals("5"))
-                    {
-                        // allowed formats:
-                        // 1|5|Salary|Experience
-                        // 1|5|Salary|Experience|AgentID
-                        if (tokens.length != 4 && tokens.length != 5)
-                        {
-                            lineIndex = lineIndex + 1;
-                            continue;
-                        }
+        // EXPERIENCE ROLLOVER: 9|years, optionally |filters over the Agents view (e.g. ID=1-500,Experience=5-9)
+        else if (tokenizer.fieldEquals(0, "9"))
+        {
+            if (tokenizer.fieldCount() != 2 && tokenizer.fieldCount() != 3)
+            {
+                return null;
+            }
 
-                        String salaryString = tokens[2];
-                        String experienceString = tokens[3];
-                        String agentIdString = "0";
-                        if (tokens.length == 5) agentIdString = tokens[4];
+            if (!tokenizer.isInteger(1) || tokenizer.fieldString(1).length() > 4 || tokenizer.intField(1) < 1)
+            {
+                return null;
+            }
 
-                        if (!isInteger(salaryString) || !isInteger(experienceString) || !isInteger(agentIdString))
-                        {
-                            lineIndex = lineIndex + 1;
-                            continue;
-                        }
+            DisplayPage agentFilter = null;
+            if (tokenizer.fieldCount() == 3)
+            {
+                agentFilter = DisplayPage.parse(tokenizer.fieldString(2), null, null, getViewColumnsForTable("Agents"));
+                if (agentFilter == null) return null;
+            }
 
-                        String[] columns = {"Salary", "Experience"};
-                        String[] values = {salaryString, experienceString};
-                        int newSalaryId = insertIntoTableAndReturnId("Salaries", columns, values, statement);
+            return new ScriptCommand(ScriptCommand.ROLLOVER, 0, tokenizer.intField(1), null, null, agentFilter);
+        }
 
-                        int linkAgentId = stringToInt(agentIdString);
-                        if (linkAgentId != 0)
-                        {
-                            // addAgentSalaryLink will only link if the agent has no existing salary link
-                            addAgentSalaryLink(statement, linkAgentId, newSalaryId);
-                        }
-                    }
+        // ASSIGN SALARIES: 10 links every agent without a salary to the best salary of its band
+        else if (tokenizer.fieldEquals(0, "10"))
+        {
+            if (tokenizer.fieldCount() != 1)
+            {
+                return null;
+            }
 
-                    else
-                    {
-                        lineIndex = lineIndex + 1;
-                        continue;
-                    }
-                }
+            return new ScriptCommand(ScriptCommand.ASSIGN_SALARIES, 0, 0, null);
+        }
 
-                // UPDATE: 2|table|id|column|newValue
-                else if (command.equals("2"))
-                {
-                    if (tokens.length != 5)
-                    {
-                        lineIndex = lineIndex + 1;
-                        continue;
-                    }
+        return null;
+    }
 
-                    String tableToken = tokens[1];
-                    String idString = tokens[2];
-                    String columnName = tokens[3];
-                    String newValue = tokens[4];
+    // ----------------------------
+    // Execute one parsed script line against the database
+    // ----------------------------
+    public static void executeScriptCommand(ScriptCommand scriptCommand, Statement statement, boolean silentMode) throws Exception
+    {
+        long startNanos = Instrumentation.start();
+        if (startNanos == 0)
+        {
+            applyScriptCommand(scriptCommand, statement, silentMode);
+            return;
+        }
 
-                    if (!isInteger(idString))
-                    {
-                        lineIndex = lineIndex + 1;
-                        continue;
-                    }
+        String commandName = Instrumentation.commandName(scriptCommand);
+        try
+        {
+            applyScriptCommand(scriptCommand, statement, silentMode);
+        }
+        catch (Exception exception)
+        {
+            Instrumentation.recordError(commandName, exception);
+            throw exception;
+        }
+        finally
+        {
+            Instrumentation.recordCommand(commandName, startNanos);
+        }
+    }
 
-                    String tableName = null;
-                    String idColumnName = null;
+    // executeScriptCommand for callers that must not report a failed write as done (the server's
+    // writer): the errors the helpers catch and print are thrown from here instead, so the caller's
+    // savepoint undoes whatever part of the command did get written
+    public static void executeCheckedWrite(ScriptCommand scriptCommand, Statement statement) throws Exception
+    {
+        SQLException[] firstError = new SQLException[1];
+        caughtWriteError.set(firstError);
+        try
+        {
+            executeScriptCommand(scriptCommand, statement, true);
+        }
+        finally
+        {
+            caughtWriteError.remove();
+        }
+        if (firstError[0] != null) throw firstError[0];
+    }
 
-                    if (tableToken.equals("1"))
-                    {
-                        tableName = "Agents";
-                        idColumnName = "AgentID";
-                    }
-                    else if (tableToken.equals("2"))
-                    {
-                        tableName = "Books";
-                        idColumnName = "BookID";
-                    }
-                    else if (tableToken.equals("3"))
-                    {
-                        tableName = "Authors";
-                        idColumnName = "AuthorID";
-                    }
-                    else if (tableToken.equals("4"))
-                    {
-                        tableName = "Customers";
-                        idColumnName = "CustomerID";
-                    }
-                    else if (tableToken.equals("5"))
-                    {
-                        tableName = "Salaries";
-                        idColumnName = "SalaryID";
-                    }
-                    else
-                    {
-                        lineIndex = lineIndex + 1;
-                        continue;
-                    }
+    // Called by every write helper that catches its own SQLException
+    private static void noteWriteError(SQLException exception)
+    {
+        SQLException[] firstError = caughtWriteError.get();
+        if (firstError != null && firstError[0] == null) firstError[0] = exception;
+    }
 
-                    boolean numericColumn = isNumericColumn(tableName, columnName);
+    private static void applyScriptCommand(ScriptCommand scriptCommand, Statement statement, boolean silentMode) throws Exception
+    {
+        if (scriptCommand.command == ScriptCommand.RAW_SQL)
+        {
+            try
+            {
+                timedUpdate(statement, scriptCommand.values[0]);
+            }
+            catch (SQLException e)
+            {
+                // suppressed in silent script mode
+                Instrumentation.recordError(Instrumentation.RAW_SQL_COMMAND, e);
+                noteWriteError(e);
+            }
+        }
 
-                    if (numericColumn && !isInteger(newValue))
-                    {
-                        lineIndex = lineIndex + 1;
-                        continue;
-                    }
+        else if (scriptCommand.command == ScriptCommand.REGISTER)
+        {
+            String[] values = scriptCommand.values;
+            int newId = 0;
 
-                    String updateSql = "UPDATE " + tableName + " SET " + columnName + " = ";
-                    if (numericColumn) updateSql = updateSql + newValue;
-                    else updateSql = updateSql + "'" + escapeSingleQuotes(newValue) + "'";
-                    updateSql = updateSql + " WHERE " + idColumnName + " = " + idString + ";";
+            if (scriptCommand.subtype == 1) newId = registerAgent(statement, values[0], values[1], values[2]);
+            else if (scriptCommand.subtype == 2) newId = registerBook(statement, values[0], values[1], values[2]);
+            else if (scriptCommand.subtype == 4) newId = registerCustomer(statement, values[0], values[1], values[2], values[3]);
+            else if (scriptCommand.subtype == 5) newId = registerSalary(statement, values[0], values[1], values[2]);
+            else if (scriptCommand.subtype == 3)
+            {
+                String[] columns = {"Name", "PhoneNumber", "HourlyCharge"};
+                if (!insertIntoTable("Authors", columns, values, statement)) newId = -1;
+            }
 
-                    try
-                    {
-                        statement.executeUpdate(updateSql);
+            // the insert's own error when it had one, or this when no ID came back
+            if (newId == -1) noteWriteError(new SQLException("Register failed: " + Instrumentation.registerCommand(scriptCommand.subtype)));
+        }
 
-                        // Special handling: if we updated customer's AgentID or BookID adjust CustomerAgentBook link
-                        if (tableName.equals("Customers") && (columnName.equals("AgentID") || columnName.equals("BookID")))
-                        {
-                            // Recreate CustomerAgentBook link for this Customer row
-                            // First remove existing links for this customer
-                            int customerId = stringToInt(idString);
-                            statement.executeUpdate("DELETE FROM CustomerAgentBook WHERE CustomerID = " + customerId + ";");
-
-                            // Retrieve new AgentID and BookID to reinsert link if both present
-                            ResultSet rs = statement.executeQuery("SELECT AgentID, BookID FROM Customers WHERE CustomerID = " + customerId + ";");
-                            if (rs.next())
-                            {
-                                int newAgent = rs.getInt("AgentID");
-                                int newBook = rs.getInt("BookID");
-                                // insert link even if agent or book is 0 (keeps consistency)
-                                String[] linkCols = {"CustomerID", "AgentID", "BookID"};
-                                String[] linkVals = {integerToString(customerId), integerToString(newAgent), integerToString(newBook)};
-                                insertIntoTable("CustomerAgentBook", linkCols, linkVals, statement);
-                            }
-                            rs.close();
-                        }
+        else if (scriptCommand.command == ScriptCommand.UPDATE)
+        {
+            String tableName = scriptCommand.values[0];
+            String columnName = scriptCommand.values[2];
+            String newValue = scriptCommand.values[3];
+            int rowId = scriptCommand.id;
 
-                        // Special handling: if we updated agents.Experience then maintain benefits
-                        if (tableName.equals("Agents") && columnName.equals("Experience"))
-                        {
-                            int newExperienceYears = stringToInt(newValue);
-                            int agentId = stringToInt(idString);
-                            if (newExperienceYears >= 10)
-                            {
-                                if (!agentHasBenefits(statement, agentId))
-                                {
-                                    addBenefitsToAgent(statement, agentId, 0, 14);
-                                }
-                            }
-                            else
-                            {
-                                if (agentHasBenefits(statement, agentId))
-                                {
-                                    removeBenefitsFromAgent(statement, agentId);
-                                }
-                            }
-                        }
-                    }
-                    catch (SQLException exception)
-                    {
-                        // suppress script update errors
-                    }
-                }
+            try
+            {
+                updateColumnById(statement, tableName, scriptCommand.values[1], rowId, columnName, newValue);
 
-                // PURGE (delete): 3|table|id
-                else if (command.equals("3"))
+                // Special handling: if we updated customer's AgentID or BookID adjust CustomerAgentBook link
+                if (tableName.equals("Customers") && (columnName.equals("AgentID") || columnName.equals("BookID")))
                 {
-                    if (tokens.length != 3)
-                    {
-                        lineIndex = lineIndex + 1;
-                        continue;
-                    }
-
-                    String tableToken = tokens[1];
-                    String idString = tokens[2];
-
-                    if (!isInteger(idString))
-                    {
-                        lineIndex = lineIndex + 1;
-                        continue;
-                    }
+                    refreshCustomerLink(statement, rowId);
+                }
 
-                    if (tableToken.equals("1"))
-                    {
-                        int agentId = stringToInt(idString);
-                        cascadeDeleteAgent(statement, agentId);
-                    }
-                    else if (tableToken.equals("2"))
-                    {
-                        int bookId = stringToInt(idString);
-                        cascadeDeleteBook(statement, bookId);
-                    }
-                    else if (tableToken.equals("3"))
-                    {
-                        int authorId = stringToInt(idString);
-                        cascadeDeleteAuthor(statement, authorId);
-                    }
-                    else if (tableToken.equals("4"))
+                // Special handling: if we updated agents.Experience then maintain benefits
+                if (tableName.equals("Agents") && columnName.equals("Experience"))
+                {
+                    int newExperienceYears = stringToInt(newValue);
+                    if (newExperienceYears >= 10)
                     {
-                        int customerId = stringToInt(idString);
-                        cascadeDeleteCustomer(statement, customerId);
+                        if (!agentHasBenefits(statement, rowId))
+                        {
+                            addBenefitsToAgent(statement, rowId, 0, 14);
+                        }
                     }
-                    else if (tableToken.equals("5"))
+                    else
                     {
-                        int salaryId = stringToInt(idString);
-                        cascadeDeleteSalary(statement, salaryId);
+                        if (agentHasBenefits(statement, rowId))
+                        {
+                            removeBenefitsFromAgent(statement, rowId);
+                        }
                     }
                 }
+            }
+            catch (SQLException exception)
+            {
+                // suppress script update errors
+                Instrumentation.recordError(Instrumentation.updateCommand(tableName), exception);
+                noteWriteError(exception);
+            }
+        }
 
-                // DISPLAY: 4|tableToken  (note: script display tokens may differ from interactive)
-                else if (command.equals("4"))
-                {
-                    if (tokens.length != 2)
-                    {
-                        lineIndex = lineIndex + 1;
-                        continue;
-                    }
-
-                    String tableToken = tokens[1];
-                    String tableName = null;
+        else if (scriptCommand.command == ScriptCommand.PURGE)
+        {
+            PurgeSelection purgeSelection = scriptCommand.purgeSelection;
 
-                    if (tableToken.equals("1")) tableName = "Agents";
-                    else if (tableToken.equals("2")) tableName = "Books";
-                    else if (tableToken.equals("3")) tableName = "Authors";
-                    else if (tableToken.equals("4")) tableName = "Customers";
-                    else if (tableToken.equals("5")) tableName = "Salaries";
-                    else if (tableToken.equals("6")) tableName = "WorkBenefits";
+            if (scriptCommand.subtype == 1) cascadeDeleteAgents(statement, purgeSelection);
+            else if (scriptCommand.subtype == 2) cascadeDeleteBooks(statement, purgeSelection);
+            else if (scriptCommand.subtype == 3) cascadeDeleteAuthors(statement, purgeSelection);
+            else if (scriptCommand.subtype == 4) cascadeDeleteCustomers(statement, purgeSelection);
+            else if (scriptCommand.subtype == 5) cascadeDeleteSalaries(statement, purgeSelection);
+        }
 
-                    else
-                    {
-                        lineIndex = lineIndex + 1;
-                        continue;
-                    }
+        else if (scriptCommand.command == ScriptCommand.DISPLAY)
+        {
+            // silent mode keeps the console quiet; output sent to a file is still written
+            if (!silentMode || getResultRenderer().isFileOutput())
+            {
+                displayTable(statement, scriptCommand.values[0], scriptCommand.displayPage);
+            }
+        }
 
+        else if (scriptCommand.command == ScriptCommand.COMPUTE)
+        {
+            // answered from the running aggregates, not a table scan
+            try
+            {
+                if (scriptCommand.subtype == 1)
+                {
+                    String summary = getStatsEngine(statement).summary(StatsEngine.AGENT_EXPERIENCE);
                     if (!silentMode)
                     {
-                        displayTable(statement, tableName);
+                        System.out.println("Agents Experience -> " + summary);
                     }
                 }
-
-                // COMPUTE: 5|1 or 5|2 (kept as-is)
-                else if (command.equals("5"))
+                else if (scriptCommand.subtype == 2)
                 {
-                    if (tokens.length != 2)
-                    {
-                        lineIndex = lineIndex + 1;
-                        continue;
-                    }
-
-                    String sub = tokens[1];
-
-                    if (sub.equals("1"))
-                    {
-                        String sql = "SELECT MIN(Experience) AS minExp, AVG(Experience) AS avgExp, MAX(Experience) AS maxExp FROM Agents;";
-                        try
-                        {
-                            ResultSet rs = statement.executeQuery(sql);
-                            if (rs.next())
-                            {
-                                String min = rs.getString("minExp");
-                                String avg = rs.getString("avgExp");
-                                String max = rs.getString("maxExp");
-                                if (!silentMode)
-                                {
-                                    System.out.println("Agents Experience -> MIN: " + min + "  AVG: " + avg + "  MAX: " + max);
-                                }
-                            }
-                            rs.close();
-                        }
-                        catch (SQLException ex) { /* suppressed */ }
-                    }
-                    else if (sub.equals("2"))
+                    String summary = getStatsEngine(statement).summary(StatsEngine.BOOK_COST);
+                    if (!silentMode)
                     {
-                        String sql = "SELECT MIN(Cost) AS minCost, AVG(Cost) AS avgCost, MAX(Cost) AS maxCost FROM Books;";
-                        try
-                        {
-                            ResultSet rs = statement.executeQuery(sql);
-                            if (rs.next())
-                            {
-                                String min = rs.getString("minCost");
-                                String avg = rs.getString("avgCost");
-                                String max = rs.getString("maxCost");
-                                if (!silentMode)
-                                {
-                                    System.out.println("Books Cost -> MIN: " + min + "  AVG: " + avg + "  MAX: " + max);
-                                }
-                            }
-                            rs.close();
-                        }
-                        catch (SQLException ex) { /* suppressed */ }
+                        System.out.println("Books Cost -> " + summary);
                     }
                 }
+            }
+            catch (SQLException ex)
+            {
+                // suppressed
+                Instrumentation.recordError(Instrumentation.COMPUTE_COMMAND, ex);
+            }
+        }
 
-                // DISPLAY COMBINATIONS: 6|1 or 6|2
-                else if (command.equals("6"))
+        else if (scriptCommand.command == ScriptCommand.JOIN)
+        {
+            if (!silentMode || getResultRenderer().isFileOutput())
+            {
+                try
                 {
-                    if (tokens.length != 2)
-                    {
-                        lineIndex = lineIndex + 1;
-                        continue;
-                    }
-
-                    String sub = tokens[1];
-
-                    if (sub.equals("1"))
-                    {
-                        String sql = "SELECT Customers.CustomerID, Customers.Name AS CustomerName, Agents.AgentID, Agents.Name AS AgentName " +
-                                "FROM Customers LEFT JOIN Agents ON Customers.AgentID = Agents.AgentID;";
-                        try
-                        {
-                            ResultSet rs = statement.executeQuery(sql);
-                            if (!silentMode)
-                            {
-                                String[] outputColumns = {"CustomerID", "CustomerName", "AgentID", "AgentName"};
-                                int headerIndex = 0;
-                                while (headerIndex < outputColumns.length)
-                                {
-                                    System.out.print(outputColumns[headerIndex]);
-                                    if (headerIndex < outputColumns.length - 1) System.out.print(" | ");
-                                    headerIndex = headerIndex + 1;
-                                }
-                                System.out.println();
-
-                                while (rs.next())
-                                {
-                                    int columnIndex = 1;
-                                    while (columnIndex <= outputColumns.length)
-                                    {
-                                        String value = rs.getString(columnIndex);
-                                        if (value == null) value = "NULL";
-                                        System.out.print(value);
-                                        if (columnIndex < outputColumns.length) System.out.print(" | ");
-                                        columnIndex = columnIndex + 1;
-                                    }
-                                    System.out.println();
-                                }
-                            }
-                            rs.close();
-                        }
-                        catch (SQLException ex) { /* suppressed */ }
-                    }
-                    else if (sub.equals("2"))
-                    {
-                        String sql = "SELECT Agents.AgentID, Agents.Name AS AgentName, WorkBenefits.SalaryBonus, WorkBenefits.PaidLeaveDuration " +
-                                "FROM Agents JOIN WorkBenefits ON Agents.AgentID = WorkBenefits.AgentID;";
-                        try
-                        {
-                            ResultSet rs = statement.executeQuery(sql);
-                            if (!silentMode)
-                            {
-                                String[] outputColumns = {"AgentID", "AgentName", "SalaryBonus", "PaidLeaveDuration"};
-                                int headerIndex = 0;
-                                while (headerIndex < outputColumns.length)
-                                {
-                                    System.out.print(outputColumns[headerIndex]);
-                                    if (headerIndex < outputColumns.length - 1) System.out.print(" | ");
-                                    headerIndex = headerIndex + 1;
-                                }
-                                System.out.println();
-
-                                while (rs.next())
-                                {
-                                    int columnIndex = 1;
-                                    while (columnIndex <= outputColumns.length)
-                                    {
-                                        String value = rs.getString(columnIndex);
-                                        if (value == null) value = "NULL";
-                                        System.out.print(value);
-                                        if (columnIndex < outputColumns.length) System.out.print(" | ");
-                                        columnIndex = columnIndex + 1;
-                                    }
-                                    System.out.println();
-                                }
-                            }
-                            rs.close();
-                        }
-                        catch (SQLException ex) { /* suppressed */ }
-                    }
+                    renderJoin(statement, scriptCommand.subtype, scriptCommand.displayPage);
+                }
+                catch (SQLException | IOException exception)
+                {
+                    // suppressed
+                    Instrumentation.recordError(Instrumentation.JOIN_COMMAND, exception);
                 }
             }
-            catch (Exception exception)
+        }
+
+        else if (scriptCommand.command == ScriptCommand.SEARCH)
+        {
+            if (!silentMode || getResultRenderer().isFileOutput())
             {
-                // suppressed for script execution
+                searchTable(statement, scriptCommand.values[0], scriptCommand.values[1], scriptCommand.id);
             }
+        }
 
-            lineIndex = lineIndex + 1;
+        else if (scriptCommand.command == ScriptCommand.ROLLOVER)
+        {
+            int[] rolloverCounts = rolloverExperience(statement, scriptCommand.id, scriptCommand.displayPage);
+            if (!silentMode && rolloverCounts != null) printRollover(scriptCommand.id, rolloverCounts);
+        }
+
+        else if (scriptCommand.command == ScriptCommand.ASSIGN_SALARIES)
+        {
+            int[] assignCounts = assignSalariesToAgents(statement);
+            if (!silentMode && assignCounts != null) printSalaryAssignment(assignCounts);
         }
     }
 
-    private static boolean isNumericColumn(String tableName, String columnName)
+    // Fields 2-4 of a display or join line; null when they do not parse or name a filter the view lacks
+    private static DisplayPage displayPageOf(PipeTokenizer tokenizer, String[] viewColumns)
     {
-        boolean numericColumn = false;
-        if (tableName.equals("Agents") && columnName.equals("Experience")) numericColumn = true;
-        if (tableName.equals("Books") && (columnName.equals("AuthorID") || columnName.equals("Cost"))) numericColumn = true;
-        if (tableName.equals("Authors") && columnName.equals("HourlyCharge")) numericColumn = true;
-        if (tableName.equals("Customers") && (columnName.equals("AgentID") || columnName.equals("BookID"))) numericColumn = true;
-        if (tableName.equals("Salaries") && (columnName.equals("Salary") || columnName.equals("Experience"))) numericColumn = true;
-        return numericColumn;
+        String filterText = tokenizer.fieldString(2);
+        String pageSizeText = null;
+        String afterKeyText = null;
+        if (tokenizer.fieldCount() > 3) pageSizeText = tokenizer.fieldString(3).trim();
+        if (tokenizer.fieldCount() > 4) afterKeyText = tokenizer.fieldString(4).trim();
+        return DisplayPage.parse(filterText, pageSizeText, afterKeyText, viewColumns);
     }
 
-    // ----------------------------
-    // Split and trim helpers
-    // ----------------------------
-    public static String[] splitByPipe(String inputString)
+    // Validates the fields of one register row starting at firstField (2 for a script line,
+    // 0 for a bulk import file) and returns them in ScriptCommand.values order, or null.
+    public static String[] registerValuesOf(PipeTokenizer tokenizer, int subtype, int firstField)
     {
-        if (inputString == null) return new String[0];
+        int valueCount = tokenizer.fieldCount() - firstField;
 
-        int pipeCount = 1;
-        int charIndex = 0;
-        while (charIndex < inputString.length())
+        // 1|1|Name|PhoneNumber|Experience   -> Agents
+        if (subtype == 1)
         {
-            if (inputString.charAt(charIndex) == '|') pipeCount = pipeCount + 1;
-            charIndex = charIndex + 1;
+            if (valueCount != 3 || !tokenizer.isInteger(firstField + 2)) return null;
+            return new String[]{tokenizer.fieldString(firstField), tokenizer.fieldString(firstField + 1), tokenizer.fieldString(firstField + 2)};
         }
 
-        String[] parts = new String[pipeCount];
-        String currentToken = "";
-        int partIndex = 0;
-        charIndex = 0;
-        while (charIndex < inputString.length())
+        // 1|2|BookName|AuthorID|Cost  -> Books + BookAuthor
+        if (subtype == 2)
         {
-            char currentChar = inputString.charAt(charIndex);
-            if (currentChar == '|')
-            {
-                parts[partIndex] = trimSimple(currentToken);
-                partIndex = partIndex + 1;
-                currentToken = "";
-            }
-            else
+            if (valueCount != 3 || !tokenizer.isInteger(firstField + 1) || !tokenizer.isInteger(firstField + 2)) return null;
+            return new String[]{tokenizer.fieldString(firstField), tokenizer.fieldString(firstField + 1), tokenizer.fieldString(firstField + 2)};
+        }
+
+        // 1|3|Name|PhoneNumber|HourlyCharge -> Authors
+        if (subtype == 3)
+        {
+            if (valueCount != 3 || !tokenizer.isInteger(firstField + 2)) return null;
+            return new String[]{tokenizer.fieldString(firstField), tokenizer.fieldString(firstField + 1), tokenizer.fieldString(firstField + 2)};
+        }
+
+        // 1|4|AgentID|BookID|CustomerName|Phone -> Customers + CustomerAgentBook
+        if (subtype == 4)
+        {
+            if (valueCount != 4 || !tokenizer.isInteger(firstField) || !tokenizer.isInteger(firstField + 1)) return null;
+            return new String[]{tokenizer.fieldString(firstField), tokenizer.fieldString(firstField + 1), tokenizer.fieldString(firstField + 2), tokenizer.fieldString(firstField + 3)};
+        }
+
+        // 1|5|Salary|Experience|AgentID(optional) -> Salaries and optional AgentSalary link
+        if (subtype == 5)
+        {
+            if (valueCount != 2 && valueCount != 3) return null;
+            if (!tokenizer.isInteger(firstField) || !tokenizer.isInteger(firstField + 1)) return null;
+            if (valueCount == 3 && !tokenizer.isInteger(firstField + 2)) return null;
+
+            String agentIdString = "0";
+            if (valueCount == 3) agentIdString = tokenizer.fieldString(firstField + 2);
+            return new String[]{tokenizer.fieldString(firstField), tokenizer.fieldString(firstField + 1), agentIdString};
+        }
+
+        return null;
+    }
+
+    // values {path}, subtype = register subtype of the table, id = BulkImporter format; null when invalid
+    private static ScriptCommand parseImportDirective(String directiveText)
+    {
+        String text = directiveText.trim();
+        int firstSpace = text.indexOf(' ');
+        if (firstSpace < 0) return null;
+
+        int subtype = BulkImporter.subtypeFor(text.substring(0, firstSpace));
+        if (subtype == 0) return null;
+
+        String importPath = text.substring(firstSpace + 1).trim();
+        String formatName = null;
+        int lastSpace = importPath.lastIndexOf(' ');
+        if (lastSpace > 0)
+        {
+            String lastWord = importPath.substring(lastSpace + 1);
+            if (lastWord.equalsIgnoreCase("csv") || lastWord.equalsIgnoreCase("pipe"))
             {
-                currentToken = currentToken + currentChar;
+                formatName = lastWord;
+                importPath = importPath.substring(0, lastSpace).trim();
             }
-            charIndex = charIndex + 1;
         }
-        parts[partIndex] = trimSimple(currentToken);
-        return parts;
+        if (importPath.length() == 0) return null;
+
+        return new ScriptCommand(ScriptCommand.IMPORT_DIRECTIVE, subtype, BulkImporter.formatFor(formatName, importPath), new String[]{importPath});
     }
 
-    public static String trimSimple(String text)
+    // values {path or null for the console}, subtype = format; null when the text is not a directive
+    private static ScriptCommand parseOutputDirective(String directiveText)
     {
-        if (text == null) return "";
-        int startIndex = 0;
-        int endIndex = text.length() - 1;
-        while (startIndex <= endIndex && text.charAt(startIndex) == ' ') startIndex = startIndex + 1;
-        while (endIndex >= startIndex && text.charAt(endIndex) == ' ') endIndex = endIndex - 1;
-        if (endIndex < startIndex) return "";
-        String resultString = "";
-        int charIndex = startIndex;
-        while (charIndex <= endIndex)
+        if (directiveText.length() > 0 && directiveText.charAt(0) != ' ') return null;
+
+        String outputPath = directiveText.trim();
+        int format = ResultRenderer.FORMAT_PIPE;
+        int lastSpace = outputPath.lastIndexOf(' ');
+        if (lastSpace > 0 && ResultRenderer.formatFor(outputPath.substring(lastSpace + 1)) >= 0)
         {
-            resultString = resultString + text.charAt(charIndex);
-            charIndex = charIndex + 1;
+            format = ResultRenderer.formatFor(outputPath.substring(lastSpace + 1));
+            outputPath = outputPath.substring(0, lastSpace).trim();
         }
-        return resultString;
+        else if (lastSpace < 0 && ResultRenderer.formatFor(outputPath) >= 0)
+        {
+            // "#OUTPUT csv" switches the console format
+            format = ResultRenderer.formatFor(outputPath);
+            outputPath = "";
+        }
+        if (outputPath.length() == 0 || outputPath.equals("-")) outputPath = null;
+
+        return new ScriptCommand(ScriptCommand.OUTPUT_DIRECTIVE, format, 0, new String[]{outputPath});
+    }
+
+    // 1..maxToken when the second field is exactly that digit, otherwise 0
+    private static int tableTokenOf(PipeTokenizer tokenizer, int maxToken)
+    {
+        if (tokenizer.fieldCount() < 2 || tokenizer.fieldLength(1) != 1 || !tokenizer.isInteger(1)) return 0;
+        int token = tokenizer.intField(1);
+        if (token < 1 || token > maxToken) return 0;
+        return token;
+    }
+
+    private static boolean isNumericColumn(String tableName, String columnName)
+    {
+        boolean numericColumn = false;
+        if (tableName.equals("Agents") && columnName.equals("Experience")) numericColumn = true;
+        if (tableName.equals("Books") && (columnName.equals("AuthorID") || columnName.equals("Cost"))) numericColumn = true;
+        if (tableName.equals("Authors") && columnName.equals("HourlyCharge")) numericColumn = true;
+        if (tableName.equals("Customers") && (columnName.equals("AgentID") || columnName.equals("BookID"))) numericColumn = true;
+        if (tableName.equals("Salaries") && (columnName.equals("Salary") || columnName.equals("Experience"))) numericColumn = true;
+        return numericColumn;
     }
 
     // ----------------------------
     // Table creation helpers
     // ----------------------------
     public static void createTable(String[] parameters, Statement statement)
+    {
+        try
+        {
+            createTableOrThrow(parameters, statement);
+        }
+        catch (SQLException exception)
+        {
+            System.out.println("Error creating table " + parameters[0] + ": " + exception.toString());
+        }
+    }
+
+    // The *OrThrow variants are for schema migrations (SchemaVersion), which must not record a
+    // version whose tables or indexes are missing
+    public static void createTableOrThrow(String[] parameters, Statement statement) throws SQLException
     {
         if (parameters == null || parameters.length == 0) return;
 
@@ -744,189 +1193,873 @@ public class Main
             if (paramIndex < parameters.length - 1) creationSql = creationSql + ", ";
             paramIndex = paramIndex + 1;
         }
-        creationSql = creationSql + ");";
+        creationSql = creationSql + ");";
+
+        statement.execute(creationSql);
+    }
+
+    public static void initializeTables(Statement statement)
+    {
+        int tableIndex = 0;
+        while (tableIndex < TABLE_DEFINITIONS.length)
+        {
+            createTable(TABLE_DEFINITIONS[tableIndex], statement);
+            tableIndex = tableIndex + 1;
+        }
+
+        createManagedIndexes(statement);
+    }
+
+    public static void initializeTablesOrThrow(Statement statement) throws SQLException
+    {
+        int tableIndex = 0;
+        while (tableIndex < TABLE_DEFINITIONS.length)
+        {
+            createTableOrThrow(TABLE_DEFINITIONS[tableIndex], statement);
+            tableIndex = tableIndex + 1;
+        }
+
+        createManagedIndexesOrThrow(statement);
+    }
+
+    // ----------------------------
+    // Managed secondary indexes
+    // Every link and foreign-key column that the lookups, updates and cascades filter on.
+    // ----------------------------
+    public static void createIndex(String tableName, String columnName, Statement statement)
+    {
+        try
+        {
+            createIndexOrThrow(tableName, columnName, statement);
+        }
+        catch (SQLException exception)
+        {
+            System.out.println("Error creating index on " + tableName + "." + columnName + ": " + exception.toString());
+        }
+    }
+
+    public static void createIndexOrThrow(String tableName, String columnName, Statement statement) throws SQLException
+    {
+        statement.execute("CREATE INDEX IF NOT EXISTS " + indexName(tableName, columnName) + " ON " + tableName + " (" + columnName + ");");
+    }
+
+    public static void dropIndex(String tableName, String columnName, Statement statement)
+    {
+        try
+        {
+            statement.execute("DROP INDEX IF EXISTS " + indexName(tableName, columnName) + ";");
+        }
+        catch (SQLException exception)
+        {
+            System.out.println("Drop index error: " + exception.toString());
+        }
+    }
+
+    public static void createManagedIndexes(Statement statement)
+    {
+        int indexIndex = 0;
+        while (indexIndex < MANAGED_INDEXES.length)
+        {
+            createIndex(MANAGED_INDEXES[indexIndex][0], MANAGED_INDEXES[indexIndex][1], statement);
+            indexIndex = indexIndex + 1;
+        }
+        SearchIndex.createSearchIndexes(statement);
+    }
+
+    public static void createManagedIndexesOrThrow(Statement statement) throws SQLException
+    {
+        int indexIndex = 0;
+        while (indexIndex < MANAGED_INDEXES.length)
+        {
+            createIndexOrThrow(MANAGED_INDEXES[indexIndex][0], MANAGED_INDEXES[indexIndex][1], statement);
+            indexIndex = indexIndex + 1;
+        }
+        SearchIndex.createSearchIndexesOrThrow(statement);
+    }
+
+    // For bulk loads: appending rows without indexes and building each index once afterwards
+    // is much cheaper than updating every index on every insert.
+    public static void dropManagedIndexes(Statement statement)
+    {
+        int indexIndex = 0;
+        while (indexIndex < MANAGED_INDEXES.length)
+        {
+            dropIndex(MANAGED_INDEXES[indexIndex][0], MANAGED_INDEXES[indexIndex][1], statement);
+            indexIndex = indexIndex + 1;
+        }
+        SearchIndex.dropSearchTriggers(statement);
+    }
+
+    private static String indexName(String tableName, String columnName)
+    {
+        return "idx_" + tableName + "_" + columnName;
+    }
+
+    public static void dropTable(String tableName, Statement statement)
+    {
+        try
+        {
+            statement.execute("DROP TABLE IF EXISTS " + tableName + ";");
+        }
+        catch (SQLException exception)
+        {
+            System.out.println("Drop table error: " + exception.toString());
+        }
+    }
+
+    public static void dropAllTables(Statement statement)
+    {
+        SearchIndex.dropSearchTables(statement);
+
+        dropTable("CustomerAgentBook", statement);
+        dropTable("AgentSalary", statement);
+        dropTable("AgentBenefit", statement);
+        dropTable("BookAuthor", statement);
+
+        dropTable("Customers", statement);
+        dropTable("Agents", statement);
+        dropTable("Books", statement);
+        dropTable("Authors", statement);
+        dropTable("Salaries", statement);
+        dropTable("WorkBenefits", statement);
+
+        invalidateCaches();
+    }
+
+    // ----------------------------
+    // Insert helpers
+    // ----------------------------
+    // Returns false when the row could not be inserted
+    public static boolean insertIntoTable(String tableName, String[] columns, String[] values, Statement statement)
+    {
+        if (tableName == null) return false;
+        if (columns == null || values == null) return false;
+        if (columns.length != values.length) return false;
+
+        try
+        {
+            StatementCache cache = getStatementCache(statement);
+            PreparedStatement insertStatement = cache.prepareInsert(tableName, columns);
+            bindValues(insertStatement, values, 0);
+            timedUpdate(cache, insertStatement);
+            recordInsertedValues(statement, tableName, columns, values, -1);
+        }
+        catch (SQLException exception)
+        {
+            System.out.println("Insert error into " + tableName + ": " + exception.toString());
+            noteWriteError(exception);
+            return false;
+        }
+        return true;
+    }
+
+    public static int insertIntoTableAndReturnId(String tableName, String[] columns, String[] values, Statement statement)
+    {
+        if (tableName == null) return -1;
+        if (columns == null || values == null) return -1;
+        if (columns.length != values.length) return -1;
+
+        int newGeneratedId = -1;
+
+        // The generated key comes from this connection's own insert, so other writers cannot leak in
+        try
+        {
+            StatementCache cache = getStatementCache(statement);
+            PreparedStatement insertStatement = cache.prepareInsertReturningId(tableName, columns);
+            bindValues(insertStatement, values, 0);
+            timedUpdate(cache, insertStatement);
+
+            ResultSet generatedKeys = insertStatement.getGeneratedKeys();
+            if (generatedKeys.next())
+            {
+                newGeneratedId = generatedKeys.getInt(1);
+            }
+            generatedKeys.close();
+            recordInsertedValues(statement, tableName, columns, values, newGeneratedId);
+        }
+        catch (SQLException exception)
+        {
+            System.out.println("Error inserting row: " + exception.toString());
+            noteWriteError(exception);
+            return -1;
+        }
+
+        return newGeneratedId;
+    }
+
+    // ----------------------------
+    // Bulk insert helpers (multi-row INSERT ... VALUES (...),(...))
+    // ----------------------------
+    public static boolean insertRows(String tableName, String[] columns, String[][] rows, Statement statement)
+    {
+        return insertRowsInChunks(tableName, columns, rows, null, statement);
+    }
+
+    // Returns the new IDs in the same order as rows, or null if the insert failed.
+    public static int[] insertRowsAndReturnIds(String tableName, String[] columns, String[][] rows, Statement statement)
+    {
+        if (rows == null) return null;
+        int[] newIds = new int[rows.length];
+        if (!insertRowsInChunks(tableName, columns, rows, newIds, statement)) return null;
+        return newIds;
+    }
+
+    private static boolean insertRowsInChunks(String tableName, String[] columns, String[][] rows, int[] newIds, Statement statement)
+    {
+        if (tableName == null) return false;
+        if (columns == null || rows == null) return false;
+        if (columns.length == 0) return false;
+
+        String primaryKeyColumn = null;
+        if (newIds != null) primaryKeyColumn = getColumnsForTable(tableName)[0];
+
+        int maxRowsPerStatement = MAX_BOUND_PARAMETERS / columns.length;
+        int rowIndex = 0;
+
+        try
+        {
+            StatementCache cache = getStatementCache(statement);
+
+            while (rowIndex < rows.length)
+            {
+                // power-of-two chunk sizes keep the number of distinct cached statements small
+                int chunkRows = 1;
+                while (chunkRows * 2 <= maxRowsPerStatement && chunkRows * 2 <= rows.length - rowIndex) chunkRows = chunkRows * 2;
+
+                PreparedStatement insertStatement = cache.prepareMultiRowInsert(tableName, columns, chunkRows, primaryKeyColumn);
+                int chunkIndex = 0;
+                while (chunkIndex < chunkRows)
+                {
+                    String[] row = rows[rowIndex + chunkIndex];
+                    if (row.length != columns.length) throw new SQLException("Row " + (rowIndex + chunkIndex) + " has " + row.length + " values for " + columns.length + " columns");
+                    bindValues(insertStatement, row, chunkIndex * columns.length);
+                    chunkIndex = chunkIndex + 1;
+                }
+
+                if (newIds == null)
+                {
+                    timedUpdate(cache, insertStatement);
+                }
+                else
+                {
+                    // RETURNING row order is unspecified, but AUTOINCREMENT hands out increasing
+                    // IDs in VALUES order, so the sorted IDs line up with the chunk's rows.
+                    int returnedCount = 0;
+                    long startNanos = Instrumentation.start();
+                    ResultSet returnedIds = insertStatement.executeQuery();
+                    while (returnedIds.next() && returnedCount < chunkRows)
+                    {
+                        newIds[rowIndex + returnedCount] = returnedIds.getInt(1);
+                        returnedCount = returnedCount + 1;
+                    }
+                    returnedIds.close();
+                    Instrumentation.recordStatement(cache.sqlOf(insertStatement), startNanos, returnedCount);
+                    if (returnedCount != chunkRows) throw new SQLException("Expected " + chunkRows + " generated IDs, got " + returnedCount);
+                    Arrays.sort(newIds, rowIndex, rowIndex + chunkRows);
+                }
+
+                chunkIndex = 0;
+                while (chunkIndex < chunkRows)
+                {
+                    recordInsertedValues(statement, tableName, columns, rows[rowIndex + chunkIndex], newIds == null ? -1 : newIds[rowIndex + chunkIndex]);
+                    chunkIndex = chunkIndex + 1;
+                }
+
+                rowIndex = rowIndex + chunkRows;
+            }
+        }
+        catch (SQLException exception)
+        {
+            System.out.println("Error inserting rows into " + tableName + ": " + exception.toString());
+            noteWriteError(exception);
+            return false;
+        }
+
+        return true;
+    }
+
+    // Values are bound as text; the declared column affinity turns numeric text in
+    // INTEGER columns into integers, so no literal type guessing is needed.
+    private static void bindValues(PreparedStatement preparedStatement, String[] values, int parameterOffset) throws SQLException
+    {
+        int valueIndex = 0;
+        while (valueIndex < values.length)
+        {
+            String value = values[valueIndex];
+            if (value == null) preparedStatement.setNull(parameterOffset + valueIndex + 1, Types.NULL);
+            else preparedStatement.setString(parameterOffset + valueIndex + 1, value);
+            valueIndex = valueIndex + 1;
+        }
+    }
+
+    // ----------------------------
+    // Update helpers
+    // ----------------------------
+    public static int updateColumnById(Statement statement, String tableName, String idColumnName, int id, String columnName, String newValue) throws SQLException
+    {
+        // column names cannot be bound, so only accept columns the table really has
+        if (!validInput(columnName, getColumnsForTable(tableName)))
+        {
+            throw new SQLException("Unknown column " + columnName + " for table " + tableName);
+        }
+
+        // a tracked Compute column needs the value being overwritten
+        int stat = StatsEngine.statFor(tableName, columnName);
+        StatsEngine trackingEngine = null;
+        boolean hadOldValue = false;
+        long oldValue = 0;
+        if (stat >= 0 && statsEngine != null && statsEngine.getConnection() == statement.getConnection() && statsEngine.isTracking(stat))
+        {
+            trackingEngine = statsEngine;
+            ResultSet oldValueResultSet = queryById(statement, "SELECT " + columnName + " FROM " + tableName + " WHERE " + idColumnName + " = ?;", id);
+            if (oldValueResultSet.next())
+            {
+                Object oldObject = oldValueResultSet.getObject(1);
+                if (oldObject instanceof Integer || oldObject instanceof Long)
+                {
+                    hadOldValue = true;
+                    oldValue = ((Number) oldObject).longValue();
+                }
+                else if (oldObject != null)
+                {
+                    trackingEngine.invalidate(stat);
+                    trackingEngine = null;
+                }
+            }
+            oldValueResultSet.close();
+        }
+
+        StatementCache cache = getStatementCache(statement);
+        PreparedStatement updateStatement = cache.prepareUpdate(tableName, idColumnName, columnName);
+        if (newValue == null) updateStatement.setNull(1, Types.NULL);
+        else updateStatement.setString(1, newValue);
+        updateStatement.setInt(2, id);
+        int updatedRows = timedUpdate(cache, updateStatement);
+
+        if (trackingEngine != null && updatedRows > 0) trackingEngine.replaced(stat, hadOldValue, oldValue, newValue);
+        if (updatedRows > 0) updateCachedRow(statement, tableName, id, columnName, newValue);
+
+        SalaryBandIndex bands = activeSalaryBandIndex(statement);
+        if (bands != null && updatedRows > 0 && tableName.equals("Salaries"))
+        {
+            if (columnName.equals("SalaryID")) bands.invalidate();
+            else bands.updated(id, columnName, newValue);
+        }
+        return updatedRows;
+    }
+
+    // Recreates the CustomerAgentBook link from the customer's current AgentID and BookID
+    public static void refreshCustomerLink(Statement statement, int customerId) throws SQLException
+    {
+        executeUpdateById(statement, "DELETE FROM CustomerAgentBook WHERE CustomerID = ?;", customerId);
+
+        // {CustomerID, AgentID, BookID, Name, PhoneNumber}
+        String[] customerRow = lookupRow(statement, "Customers", customerId);
+        if (customerRow != null)
+        {
+            int newAgent = linkIdFromColumn(customerRow[1]);
+            int newBook = linkIdFromColumn(customerRow[2]);
+            // insert link even if agent or book is 0 (keeps consistency)
+            String[] linkCols = {"CustomerID", "AgentID", "BookID"};
+            String[] linkVals = {integerToString(customerId), integerToString(newAgent), integerToString(newBook)};
+            insertIntoTable("CustomerAgentBook", linkCols, linkVals, statement);
+        }
+    }
+
+    // Same reading as ResultSet.getInt for the IDs a link can hold: NULL and non-numeric text count as 0
+    private static int linkIdFromColumn(String columnValue)
+    {
+        if (columnValue == null) return 0;
+        try
+        {
+            return Integer.parseInt(columnValue);
+        }
+        catch (NumberFormatException exception)
+        {
+            return 0;
+        }
+    }
+
+    // ----------------------------
+    // Prepared statement helpers
+    // ----------------------------
+    public static StatementCache getStatementCache(Statement statement) throws SQLException
+    {
+        Connection connection = statement.getConnection();
+        if (statementCache == null || statementCache.getConnection() != connection)
+        {
+            closeStatementCache();
+            statementCache = new StatementCache(connection, STATEMENT_CACHE_CAPACITY);
+        }
+        return statementCache;
+    }
+
+    public static void closeStatementCache()
+    {
+        if (statementCache != null)
+        {
+            statementCache.close();
+            statementCache = null;
+        }
+    }
+
+    // ----------------------------
+    // Entity cache helpers
+    // ----------------------------
+    public static EntityCache getEntityCache(Statement statement) throws SQLException
+    {
+        Connection connection = statement.getConnection();
+        if (entityCache == null || entityCache.getConnection() != connection)
+        {
+            entityCache = new EntityCache(connection, ENTITY_CACHE_CAPACITY);
+        }
+        return entityCache;
+    }
+
+    // Read-through lookup of one row of Agents, Books, Authors, Customers or Salaries, in
+    // getColumnsForTable order; null when there is no such row
+    public static String[] lookupRow(Statement statement, String tableName, int id) throws SQLException
+    {
+        int tableIndex = EntityCache.tableIndexOf(tableName);
+        if (tableIndex < 0) throw new SQLException("Table " + tableName + " is not cached");
+
+        EntityCache cache = getEntityCache(statement);
+        String[] row = cache.getRow(tableIndex, id);
+        if (row != null) return row;
+
+        String[] columns = getColumnsForTable(tableName);
+        String sql = "SELECT " + String.join(", ", columns) + " FROM " + tableName + " WHERE " + columns[0] + " = ?;";
+        ResultSet rowResultSet = queryById(statement, sql, id);
+        if (rowResultSet.next())
+        {
+            row = new String[columns.length];
+            int columnIndex = 0;
+            while (columnIndex < columns.length)
+            {
+                row[columnIndex] = rowResultSet.getString(columnIndex + 1);
+                columnIndex = columnIndex + 1;
+            }
+            cache.putRow(tableIndex, id, row);
+        }
+        rowResultSet.close();
+        return row;
+    }
+
+    // The cache for statement's connection if one exists; writes need not create it
+    private static EntityCache activeEntityCache(Statement statement) throws SQLException
+    {
+        if (entityCache == null || entityCache.getConnection() != statement.getConnection()) return null;
+        return entityCache;
+    }
+
+    // Keeps a cached row in step with a successful single-column update
+    private static void updateCachedRow(Statement statement, String tableName, int id, String columnName, String newValue) throws SQLException
+    {
+        EntityCache cache = activeEntityCache(statement);
+        int tableIndex = EntityCache.tableIndexOf(tableName);
+        if (cache == null || tableIndex < 0) return;
+
+        String[] row = cache.peekRow(tableIndex, id);
+        if (row == null) return;
+
+        // store what SQLite will hand back: INTEGER affinity turns "007" into 7; anything
+        // else in a numeric column is simply re-read next time
+        String cachedValue = newValue;
+        if (newValue != null && isNumericColumn(tableName, columnName))
+        {
+            if (!isInteger(newValue) || newValue.length() > 18)
+            {
+                cache.removeRow(tableIndex, id);
+                return;
+            }
+            cachedValue = Long.toString(Long.parseLong(newValue));
+        }
+
+        String[] columns = getColumnsForTable(tableName);
+        String[] updatedRow = row.clone();
+        int columnIndex = 0;
+        while (columnIndex < columns.length)
+        {
+            if (columns[columnIndex].equals(columnName)) updatedRow[columnIndex] = cachedValue;
+            columnIndex = columnIndex + 1;
+        }
+        cache.putRow(tableIndex, id, updatedRow);
+    }
+
+    // Drops whatever a committed cascade deleted or re-pointed
+    private static void forgetPurgedEntities(Statement statement, String entityName, PurgeSelection selection) throws SQLException
+    {
+        SalaryBandIndex bands = activeSalaryBandIndex(statement);
+        if (bands != null && entityName.equals("salary")) bands.removed(selection);
+
+        EntityCache cache = activeEntityCache(statement);
+        if (cache == null) return;
+
+        if (entityName.equals("agent"))
+        {
+            cache.removeRows(EntityCache.tableIndexOf("Agents"), selection);
+            cache.removeAgentFlags(selection);
+            cache.clearTable(EntityCache.tableIndexOf("Customers"));
+        }
+        else if (entityName.equals("book"))
+        {
+            cache.removeRows(EntityCache.tableIndexOf("Books"), selection);
+            cache.clearTable(EntityCache.tableIndexOf("Customers"));
+        }
+        else if (entityName.equals("author"))
+        {
+            cache.removeRows(EntityCache.tableIndexOf("Authors"), selection);
+            cache.clearTable(EntityCache.tableIndexOf("Books"));
+        }
+        else if (entityName.equals("customer"))
+        {
+            cache.removeRows(EntityCache.tableIndexOf("Customers"), selection);
+        }
+        else if (entityName.equals("salary"))
+        {
+            cache.removeRows(EntityCache.tableIndexOf("Salaries"), selection);
+            cache.clearSalaryFlags();
+        }
+    }
+
+    // ----------------------------
+    // Stats engine helpers
+    // ----------------------------
+    public static StatsEngine getStatsEngine(Statement statement) throws SQLException
+    {
+        Connection connection = statement.getConnection();
+        if (statsEngine == null || statsEngine.getConnection() != connection)
+        {
+            statsEngine = new StatsEngine(connection);
+        }
+        return statsEngine;
+    }
+
+    // For writes the caches cannot follow (raw SQL, rolled back transactions, dropped tables)
+    public static void invalidateCaches()
+    {
+        if (statsEngine != null) statsEngine.invalidate();
+        invalidateEntityCache();
+    }
+
+    // For writes the aggregates did see but cached rows, link flags and salary bands did not (bulk imports)
+    public static void invalidateEntityCache()
+    {
+        if (entityCache != null) entityCache.clear();
+        if (salaryBandIndex != null) salaryBandIndex.invalidate();
+    }
+
+    // ----------------------------
+    // Salary band helpers
+    // ----------------------------
+    public static SalaryBandIndex getSalaryBandIndex(Statement statement) throws SQLException
+    {
+        Connection connection = statement.getConnection();
+        if (salaryBandIndex == null || salaryBandIndex.getConnection() != connection)
+        {
+            salaryBandIndex = new SalaryBandIndex(connection);
+        }
+        return salaryBandIndex;
+    }
+
+    // The index for statement's connection if one exists; writes need not create it
+    private static SalaryBandIndex activeSalaryBandIndex(Statement statement) throws SQLException
+    {
+        if (salaryBandIndex == null || salaryBandIndex.getConnection() != statement.getConnection()) return null;
+        return salaryBandIndex;
+    }
+
+    // newId is the row's generated ID, or -1 when the insert did not read it back
+    private static void recordInsertedValues(Statement statement, String tableName, String[] columns, String[] values, int newId) throws SQLException
+    {
+        if (tableName.equals("Salaries") && salaryBandIndex != null && salaryBandIndex.getConnection() == statement.getConnection())
+        {
+            if (newId < 0) salaryBandIndex.invalidate();
+            else salaryBandIndex.added(newId, valueForColumn(columns, values, "Salary"), valueForColumn(columns, values, "Experience"));
+        }
+
+        if (statsEngine == null || statsEngine.getConnection() != statement.getConnection()) return;
+
+        int columnIndex = 0;
+        while (columnIndex < columns.length)
+        {
+            int stat = StatsEngine.statFor(tableName, columns[columnIndex]);
+            if (stat >= 0) statsEngine.added(stat, values[columnIndex]);
+            columnIndex = columnIndex + 1;
+        }
+    }
+
+    private static String valueForColumn(String[] columns, String[] values, String columnName)
+    {
+        int columnIndex = 0;
+        while (columnIndex < columns.length)
+        {
+            if (columns[columnIndex].equals(columnName)) return values[columnIndex];
+            columnIndex = columnIndex + 1;
+        }
+        return null;
+    }
+
+    private static int executeUpdateById(Statement statement, String sql, int id) throws SQLException
+    {
+        StatementCache cache = getStatementCache(statement);
+        PreparedStatement preparedStatement = cache.prepare(sql);
+        preparedStatement.setInt(1, id);
+        return timedUpdate(cache, preparedStatement);
+    }
+
+    private static ResultSet queryById(Statement statement, String sql, int id) throws SQLException
+    {
+        StatementCache cache = getStatementCache(statement);
+        PreparedStatement preparedStatement = cache.prepare(sql);
+        preparedStatement.setInt(1, id);
+        return timedQuery(cache, preparedStatement);
+    }
+
+    // ----------------------------
+    // Timed execution (see Instrumentation); a plain execute while instrumentation is off
+    // ----------------------------
+    private static int timedUpdate(StatementCache cache, PreparedStatement preparedStatement) throws SQLException
+    {
+        long startNanos = Instrumentation.start();
+        if (startNanos == 0) return preparedStatement.executeUpdate();
+        try
+        {
+            int updatedRows = preparedStatement.executeUpdate();
+            Instrumentation.recordStatement(cache.sqlOf(preparedStatement), startNanos, updatedRows);
+            return updatedRows;
+        }
+        catch (SQLException exception)
+        {
+            Instrumentation.recordStatementError(cache.sqlOf(preparedStatement));
+            throw exception;
+        }
+    }
+
+    private static int timedUpdate(Statement statement, String sql) throws SQLException
+    {
+        long startNanos = Instrumentation.start();
+        if (startNanos == 0) return statement.executeUpdate(sql);
+        try
+        {
+            int updatedRows = statement.executeUpdate(sql);
+            Instrumentation.recordStatement(sql, startNanos, updatedRows);
+            return updatedRows;
+        }
+        catch (SQLException exception)
+        {
+            Instrumentation.recordStatementError(sql);
+            throw exception;
+        }
+    }
 
+    // Times the query up to its first row; reading the rest is up to the caller
+    private static ResultSet timedQuery(StatementCache cache, PreparedStatement preparedStatement) throws SQLException
+    {
+        long startNanos = Instrumentation.start();
+        if (startNanos == 0) return preparedStatement.executeQuery();
         try
         {
-            statement.execute(creationSql);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            Instrumentation.recordStatement(cache.sqlOf(preparedStatement), startNanos, -1);
+            return resultSet;
         }
         catch (SQLException exception)
         {
-            System.out.println("Error creating table " + parameters[0] + ": " + exception.toString());
+            Instrumentation.recordStatementError(cache.sqlOf(preparedStatement));
+            throw exception;
         }
     }
 
-    public static void initializeTables(Statement statement)
+    // ----------------------------
+    // Register helpers (one entity at a time)
+    // ----------------------------
+    public static int registerAgent(Statement statement, String name, String phoneNumber, String experienceString)
     {
-        createTable(new String[]{"Agents", "AgentID INTEGER PRIMARY KEY AUTOINCREMENT", "Name TEXT", "PhoneNumber TEXT", "Experience INTEGER"}, statement);
-
-        createTable(new String[]{"Salaries", "SalaryID INTEGER PRIMARY KEY AUTOINCREMENT", "Salary INTEGER", "Experience INTEGER"}, statement);
-
-        createTable(new String[]{"Books", "BookID INTEGER PRIMARY KEY AUTOINCREMENT", "AuthorID INTEGER", "Name TEXT", "Cost INTEGER"}, statement);
-
-        createTable(new String[]{"Authors", "AuthorID INTEGER PRIMARY KEY AUTOINCREMENT", "Name TEXT", "PhoneNumber TEXT", "HourlyCharge INTEGER"}, statement);
-
-        createTable(new String[]{"Customers", "CustomerID INTEGER PRIMARY KEY AUTOINCREMENT", "AgentID INTEGER", "BookID INTEGER", "Name TEXT", "PhoneNumber TEXT"}, statement);
-
-        createTable(new String[]{"WorkBenefits", "BenefitID INTEGER PRIMARY KEY AUTOINCREMENT", "AgentID INTEGER", "SalaryBonus INTEGER", "PaidLeaveDuration INTEGER"}, statement);
-
-        createTable(new String[]{"CustomerAgentBook", "Link INTEGER PRIMARY KEY AUTOINCREMENT", "CustomerID INTEGER", "AgentID INTEGER", "BookID INTEGER"}, statement);
-
-        createTable(new String[]{"AgentSalary", "Link INTEGER PRIMARY KEY AUTOINCREMENT", "AgentID INTEGER", "SalaryID INTEGER"}, statement);
+        String[] columns = {"Name", "PhoneNumber", "Experience"};
+        String[] values = {name, phoneNumber, experienceString};
+        int newAgentId = insertIntoTableAndReturnId("Agents", columns, values, statement);
 
-        createTable(new String[]{"AgentBenefit", "Link INTEGER PRIMARY KEY AUTOINCREMENT", "AgentID INTEGER", "BenefitID INTEGER"}, statement);
-
-        createTable(new String[]{"BookAuthor", "Link INTEGER PRIMARY KEY AUTOINCREMENT", "BookID INTEGER", "AuthorID INTEGER"}, statement);
+        if (newAgentId != -1 && stringToInt(experienceString) >= 10)
+        {
+            addBenefitsToAgent(statement, newAgentId, 0, 14);
+        }
+        return newAgentId;
     }
 
-    public static void dropTable(String tableName, Statement statement)
+    public static int registerBook(Statement statement, String bookName, String authorIdString, String costString)
     {
-        try
+        String[] columns = {"AuthorID", "Name", "Cost"};
+        String[] values = {authorIdString, bookName, costString};
+        int newBookId = insertIntoTableAndReturnId("Books", columns, values, statement);
+
+        if (newBookId != -1 && stringToInt(authorIdString) != 0)
         {
-            statement.execute("DROP TABLE IF EXISTS " + tableName + ";");
+            String[] linkColumns = {"BookID", "AuthorID"};
+            String[] linkValues = {integerToString(newBookId), authorIdString};
+            insertIntoTable("BookAuthor", linkColumns, linkValues, statement);
         }
-        catch (SQLException exception)
+        return newBookId;
+    }
+
+    public static int registerCustomer(Statement statement, String agentIdString, String bookIdString, String customerName, String customerPhone)
+    {
+        String[] columns = {"AgentID", "BookID", "Name", "PhoneNumber"};
+        String[] values = {agentIdString, bookIdString, customerName, customerPhone};
+        int newCustomerId = insertIntoTableAndReturnId("Customers", columns, values, statement);
+
+        if (newCustomerId != -1)
         {
-            System.out.println("Drop table error: " + exception.toString());
+            String[] linkCols = {"CustomerID", "AgentID", "BookID"};
+            String[] linkVals = {integerToString(newCustomerId), agentIdString, bookIdString};
+            insertIntoTable("CustomerAgentBook", linkCols, linkVals, statement);
         }
+        return newCustomerId;
     }
 
-    public static void dropAllTables(Statement statement)
+    public static int registerSalary(Statement statement, String salaryString, String experienceString, String agentIdString)
     {
-        dropTable("CustomerAgentBook", statement);
-        dropTable("AgentSalary", statement);
-        dropTable("AgentBenefit", statement);
-        dropTable("BookAuthor", statement);
+        String[] columns = {"Salary", "Experience"};
+        String[] values = {salaryString, experienceString};
+        int newSalaryId = insertIntoTableAndReturnId("Salaries", columns, values, statement);
 
-        dropTable("Customers", statement);
-        dropTable("Agents", statement);
-        dropTable("Books", statement);
-        dropTable("Authors", statement);
-        dropTable("Salaries", statement);
-        dropTable("WorkBenefits", statement);
+        int linkAgentId = stringToInt(agentIdString);
+        if (newSalaryId != -1 && linkAgentId != 0)
+        {
+            // addAgentSalaryLink will only link if the agent has no existing salary link
+            addAgentSalaryLink(statement, linkAgentId, newSalaryId);
+        }
+        return newSalaryId;
     }
 
     // ----------------------------
-    // Insert helpers
+    // Register helpers (many entities per statement)
+    // Each returns false when the main insert failed so the caller can retry row by row.
     // ----------------------------
-    public static void insertIntoTable(String tableName, String[] columns, String[] values, Statement statement)
+
+    // rows: {Name, PhoneNumber, Experience}
+    public static boolean registerAgents(Statement statement, String[][] rows)
     {
-        if (tableName == null) return;
-        if (columns == null || values == null) return;
-        if (columns.length != values.length) return;
+        String[] columns = {"Name", "PhoneNumber", "Experience"};
+        int[] newAgentIds = insertRowsAndReturnIds("Agents", columns, rows, statement);
+        if (newAgentIds == null) return false;
 
-        String sql = "INSERT INTO " + tableName + " (";
-        int columnIndex = 0;
-        while (columnIndex < columns.length)
-        {
-            sql = sql + columns[columnIndex];
-            if (columnIndex < columns.length - 1) sql = sql + ", ";
-            columnIndex = columnIndex + 1;
-        }
-        sql = sql + ") VALUES (";
-        int valueIndex = 0;
-        while (valueIndex < values.length)
+        int benefitCount = 0;
+        int[] benefitAgentIds = new int[rows.length];
+        int rowIndex = 0;
+        while (rowIndex < rows.length)
         {
-            String value = values[valueIndex];
-            if (value == null) sql = sql + "NULL";
-            else
+            if (stringToInt(rows[rowIndex][2]) >= 10)
             {
-                if (isInteger(value)) sql = sql + value;
-                else sql = sql + "'" + escapeSingleQuotes(value) + "'";
+                benefitAgentIds[benefitCount] = newAgentIds[rowIndex];
+                benefitCount = benefitCount + 1;
             }
-            if (valueIndex < values.length - 1) sql = sql + ", ";
-            valueIndex = valueIndex + 1;
-        }
-        sql = sql + ");";
-
-        try
-        {
-            statement.executeUpdate(sql);
-        }
-        catch (SQLException exception)
-        {
-            System.out.println("Insert error into " + tableName + ": " + exception.toString());
+            rowIndex = rowIndex + 1;
         }
+        addBenefitsToAgents(statement, Arrays.copyOf(benefitAgentIds, benefitCount), 0, 14);
+        return true;
     }
 
-    public static int insertIntoTableAndReturnId(String tableName, String[] columns, String[] values, Statement statement)
+    // rows: {BookName, AuthorID, Cost}
+    public static boolean registerBooks(Statement statement, String[][] rows)
     {
-        if (tableName == null) return -1;
-        if (columns == null || values == null) return -1;
-        if (columns.length != values.length) return -1;
-
-        String insertSql = "INSERT INTO " + tableName + " (";
-
-        int columnIndex = 0;
-
-        while (columnIndex < columns.length)
+        String[] columns = {"AuthorID", "Name", "Cost"};
+        String[][] values = new String[rows.length][];
+        int rowIndex = 0;
+        while (rowIndex < rows.length)
         {
-            insertSql = insertSql + columns[columnIndex];
-            if (columnIndex < columns.length - 1) insertSql = insertSql + ", ";
-            columnIndex = columnIndex + 1;
+            values[rowIndex] = new String[]{rows[rowIndex][1], rows[rowIndex][0], rows[rowIndex][2]};
+            rowIndex = rowIndex + 1;
         }
+        int[] newBookIds = insertRowsAndReturnIds("Books", columns, values, statement);
+        if (newBookIds == null) return false;
 
-        insertSql = insertSql + ") VALUES (";
-
-        int valueIndex = 0;
-
-        while (valueIndex < values.length)
+        ArrayList<String[]> linkRows = new ArrayList<String[]>();
+        rowIndex = 0;
+        while (rowIndex < rows.length)
         {
-            String value = values[valueIndex];
-            if (value == null) insertSql = insertSql + "NULL";
-            else
+            if (stringToInt(rows[rowIndex][1]) != 0)
             {
-                if (isInteger(value)) insertSql = insertSql + value;
-                else insertSql = insertSql + "'" + escapeSingleQuotes(value) + "'";
+                linkRows.add(new String[]{integerToString(newBookIds[rowIndex]), rows[rowIndex][1]});
             }
-
-            if (valueIndex < values.length - 1) insertSql = insertSql + ", ";
-            valueIndex = valueIndex + 1;
+            rowIndex = rowIndex + 1;
         }
+        insertRows("BookAuthor", new String[]{"BookID", "AuthorID"}, linkRows.toArray(new String[0][]), statement);
+        return true;
+    }
 
-        insertSql = insertSql + ");";
+    // rows: {AgentID, BookID, Name, PhoneNumber}
+    public static boolean registerCustomers(Statement statement, String[][] rows)
+    {
+        String[] columns = {"AgentID", "BookID", "Name", "PhoneNumber"};
+        int[] newCustomerIds = insertRowsAndReturnIds("Customers", columns, rows, statement);
+        if (newCustomerIds == null) return false;
 
-        try
+        String[][] linkRows = new String[rows.length][];
+        int rowIndex = 0;
+        while (rowIndex < rows.length)
         {
-            statement.executeUpdate(insertSql);
+            linkRows[rowIndex] = new String[]{integerToString(newCustomerIds[rowIndex]), rows[rowIndex][0], rows[rowIndex][1]};
+            rowIndex = rowIndex + 1;
         }
-        catch (SQLException exception)
+        insertRows("CustomerAgentBook", new String[]{"CustomerID", "AgentID", "BookID"}, linkRows, statement);
+        return true;
+    }
+
+    // rows: {Salary, Experience, AgentID}
+    public static boolean registerSalaries(Statement statement, String[][] rows)
+    {
+        String[] columns = {"Salary", "Experience"};
+        String[][] values = new String[rows.length][];
+        int rowIndex = 0;
+        while (rowIndex < rows.length)
         {
-            System.out.println("Error inserting row: " + exception.toString());
-            return -1;
+            values[rowIndex] = new String[]{rows[rowIndex][0], rows[rowIndex][1]};
+            rowIndex = rowIndex + 1;
         }
+        int[] newSalaryIds = insertRowsAndReturnIds("Salaries", columns, values, statement);
+        if (newSalaryIds == null) return false;
 
-        // Determine primary key column name for this table (uses your existing helper)
-        String primaryKeyColumn = "rowid"; // fallback
-        String[] tableColumns = getColumnsForTable(tableName);
-        if (tableColumns != null && tableColumns.length > 0)
+        // links stay one at a time: the first salary offered to an agent wins
+        rowIndex = 0;
+        while (rowIndex < rows.length)
         {
-            primaryKeyColumn = tableColumns[0];
+            int linkAgentId = stringToInt(rows[rowIndex][2]);
+            if (linkAgentId != 0) addAgentSalaryLink(statement, linkAgentId, newSalaryIds[rowIndex]);
+            rowIndex = rowIndex + 1;
         }
+        return true;
+    }
 
-        int newGeneratedId = -1;
+    // ----------------------------
+    // Benefits helpers
+    // ----------------------------
+    public static void addBenefitsToAgents(Statement statement, int[] agentIds, int salaryBonus, int paidLeaveDays)
+    {
+        if (agentIds.length == 0) return;
 
-        try
+        String[][] benefitRows = new String[agentIds.length][];
+        int agentIndex = 0;
+        while (agentIndex < agentIds.length)
         {
-            String findMaxSql = "SELECT MAX(" + primaryKeyColumn + ") AS maxId FROM " + tableName + ";";
-            ResultSet resultSet = statement.executeQuery(findMaxSql);
-            if (resultSet.next())
-            {
-                newGeneratedId = resultSet.getInt("maxId");
-            }
-            resultSet.close();
+            benefitRows[agentIndex] = new String[]{integerToString(agentIds[agentIndex]), integerToString(salaryBonus), integerToString(paidLeaveDays)};
+            agentIndex = agentIndex + 1;
         }
-        catch (SQLException exception)
+        int[] benefitIds = insertRowsAndReturnIds("WorkBenefits", new String[]{"AgentID", "SalaryBonus", "PaidLeaveDuration"}, benefitRows, statement);
+        if (benefitIds == null) return;
+
+        String[][] linkRows = new String[agentIds.length][];
+        agentIndex = 0;
+        while (agentIndex < agentIds.length)
         {
-            System.out.println("Error retrieving generated id (MAX fallback): " + exception.toString());
+            linkRows[agentIndex] = new String[]{integerToString(agentIds[agentIndex]), integerToString(benefitIds[agentIndex])};
+            agentIndex = agentIndex + 1;
         }
+        if (!insertRows("AgentBenefit", new String[]{"AgentID", "BenefitID"}, linkRows, statement)) return;
 
-        return newGeneratedId;
+        setCachedAgentFlags(statement, agentIds, true, false);
     }
 
-    // ----------------------------
-    // Benefits helpers
-    // ----------------------------
     public static void addBenefitsToAgent(Statement statement, int agentId, int salaryBonus, int paidLeaveDays)
     {
         String[] columns = {"AgentID", "SalaryBonus", "PaidLeaveDuration"};
@@ -937,7 +2070,10 @@ public class Main
         {
             String[] linkColumns = {"AgentID", "BenefitID"};
             String[] linkValues = {integerToString(agentId), integerToString(benefitId)};
-            insertIntoTable("AgentBenefit", linkColumns, linkValues, statement);
+            if (insertIntoTable("AgentBenefit", linkColumns, linkValues, statement))
+            {
+                setCachedAgentFlags(statement, new int[]{agentId}, true, false);
+            }
         }
     }
 
@@ -945,18 +2081,14 @@ public class Main
     {
         try
         {
-            ResultSet benefitResultSet = statement.executeQuery("SELECT BenefitID FROM AgentBenefit WHERE AgentID = " + agentId + ";");
-            while (benefitResultSet.next())
-            {
-                int benefitId = benefitResultSet.getInt("BenefitID");
-                statement.executeUpdate("DELETE FROM WorkBenefits WHERE BenefitID = " + benefitId + ";");
-            }
-            benefitResultSet.close();
-            statement.executeUpdate("DELETE FROM AgentBenefit WHERE AgentID = " + agentId + ";");
+            executeUpdateById(statement, "DELETE FROM WorkBenefits WHERE BenefitID IN (SELECT BenefitID FROM AgentBenefit WHERE AgentID = ?);", agentId);
+            executeUpdateById(statement, "DELETE FROM AgentBenefit WHERE AgentID = ?;", agentId);
+            setCachedAgentFlags(statement, new int[]{agentId}, false, false);
         }
         catch (SQLException exception)
         {
             System.out.println("Error removing benefits for agent " + agentId + ": " + exception.toString());
+            noteWriteError(exception);
         }
     }
 
@@ -964,19 +2096,165 @@ public class Main
     {
         try
         {
-            ResultSet countResultSet = statement.executeQuery("SELECT COUNT(*) FROM AgentBenefit WHERE AgentID = " + agentId + ";");
+            EntityCache cache = getEntityCache(statement);
+            Boolean cachedFlag = cache.getBenefitFlag(agentId);
+            if (cachedFlag != null) return cachedFlag.booleanValue();
+
+            ResultSet countResultSet = queryById(statement, "SELECT COUNT(*) FROM AgentBenefit WHERE AgentID = ?;", agentId);
             int linkCount = 0;
             if (countResultSet.next()) linkCount = countResultSet.getInt(1);
             countResultSet.close();
+            cache.putBenefitFlag(agentId, linkCount > 0);
             if (linkCount > 0) return true;
             return false;
         }
         catch (SQLException exception)
         {
+            // the benefit writes that follow would go by a wrong answer
+            noteWriteError(exception);
             return false;
         }
     }
 
+    // Records a benefit flag (setSalary false) or a salary link (setSalary true) for agents
+    // whose rows were just written, but only in a cache that already exists
+    private static void setCachedAgentFlags(Statement statement, int[] agentIds, boolean hasBenefits, boolean setSalary)
+    {
+        try
+        {
+            EntityCache cache = activeEntityCache(statement);
+            if (cache == null) return;
+            int agentIndex = 0;
+            while (agentIndex < agentIds.length)
+            {
+                if (setSalary) cache.putSalaryFlag(agentIds[agentIndex], true);
+                else cache.putBenefitFlag(agentIds[agentIndex], hasBenefits);
+                agentIndex = agentIndex + 1;
+            }
+        }
+        catch (SQLException exception)
+        {
+            invalidateCaches();
+        }
+    }
+
+    // ----------------------------
+    // Experience rollover
+    // Adds years to every agent (or those matching the filter) and reconciles benefits for all of
+    // them with a handful of set-based statements instead of a read-check-write per agent: agents
+    // now under 10 years lose their WorkBenefits and AgentBenefit rows, agents at 10 or more
+    // without a link get one. Runs in its own transaction, or a savepoint inside a script batch.
+    // Returns {agents rolled over, benefits added, benefits removed}, or null when nothing changed.
+    // ----------------------------
+    public static int[] rolloverExperience(Statement statement, int years, DisplayPage agentFilter)
+    {
+        Connection connection = null;
+        boolean ownsTransaction = false;
+        Savepoint rolloverSavepoint = null;
+        boolean filtered = agentFilter != null && agentFilter.hasFilters();
+
+        try
+        {
+            connection = statement.getConnection();
+            if (connection.getAutoCommit())
+            {
+                connection.setAutoCommit(false);
+                ownsTransaction = true;
+            }
+            else
+            {
+                rolloverSavepoint = connection.setSavepoint();
+            }
+
+            // the filter is applied once, before Experience moves under it
+            String agentSet = "typeof(Experience) = 'integer'";
+            if (filtered)
+            {
+                timedUpdate(statement, "CREATE TEMP TABLE IF NOT EXISTS RolloverAgents (AgentID INTEGER PRIMARY KEY);");
+                timedUpdate(statement, "DELETE FROM temp.RolloverAgents;");
+                timedUpdate(statement, "INSERT INTO temp.RolloverAgents (AgentID) SELECT AgentID FROM Agents WHERE typeof(Experience) = 'integer' AND "
+                        + agentFilter.filterCondition() + ";");
+                agentSet = "AgentID IN (SELECT AgentID FROM temp.RolloverAgents)";
+            }
+
+            int rolledCount = timedUpdate(statement, "UPDATE Agents SET Experience = Experience + " + years + " WHERE " + agentSet + ";");
+
+            String juniorAgents = "SELECT AgentID FROM Agents WHERE Experience < 10 AND " + agentSet;
+            timedUpdate(statement, "DELETE FROM WorkBenefits WHERE BenefitID IN (SELECT BenefitID FROM AgentBenefit WHERE AgentID IN (" + juniorAgents + "));");
+            int removedCount = timedUpdate(statement, "DELETE FROM AgentBenefit WHERE AgentID IN (" + juniorAgents + ");");
+
+            int lastBenefitId = 0;
+            ResultSet lastIdResultSet = statement.executeQuery("SELECT COALESCE(MAX(BenefitID), 0) FROM WorkBenefits;");
+            if (lastIdResultSet.next()) lastBenefitId = lastIdResultSet.getInt(1);
+            lastIdResultSet.close();
+
+            int addedCount = timedUpdate(statement, "INSERT INTO WorkBenefits (AgentID, SalaryBonus, PaidLeaveDuration) SELECT AgentID, 0, 14 FROM Agents WHERE Experience >= 10 AND "
+                    + agentSet + " AND NOT EXISTS (SELECT 1 FROM AgentBenefit WHERE AgentBenefit.AgentID = Agents.AgentID) ORDER BY AgentID;");
+            timedUpdate(statement, "INSERT INTO AgentBenefit (AgentID, BenefitID) SELECT AgentID, BenefitID FROM WorkBenefits WHERE BenefitID > " + lastBenefitId
+                    + " ORDER BY BenefitID;");
+
+            if (filtered) timedUpdate(statement, "DROP TABLE temp.RolloverAgents;");
+
+            if (ownsTransaction) connection.commit();
+            else connection.releaseSavepoint(rolloverSavepoint);
+
+            forgetRolledOverAgents(statement, years, rolledCount, !filtered, addedCount + removedCount > 0);
+            if (rolledCount == 0 && addedCount == 0 && removedCount == 0) return null;
+            return new int[]{rolledCount, addedCount, removedCount};
+        }
+        catch (SQLException exception)
+        {
+            System.out.println("Error rolling over experience: " + exception.toString());
+            noteWriteError(exception);
+            Instrumentation.recordError(Instrumentation.ROLLOVER_COMMAND, exception);
+            try
+            {
+                if (ownsTransaction) connection.rollback();
+                else if (rolloverSavepoint != null) connection.rollback(rolloverSavepoint);
+            }
+            catch (SQLException rollbackException)
+            {
+                System.out.println("Error rolling back experience rollover: " + rollbackException.toString());
+            }
+            return null;
+        }
+        finally
+        {
+            if (ownsTransaction)
+            {
+                try
+                {
+                    connection.setAutoCommit(true);
+                }
+                catch (SQLException exception)
+                {
+                    System.out.println("Error restoring autocommit: " + exception.toString());
+                }
+            }
+        }
+    }
+
+    // The aggregates shift with the agents instead of reloading; cached agent rows and benefit
+    // flags cover agents we cannot name without a query, so they are dropped
+    private static void forgetRolledOverAgents(Statement statement, int years, int rolledCount, boolean everyAgent, boolean benefitsChanged) throws SQLException
+    {
+        if (statsEngine != null && statsEngine.getConnection() == statement.getConnection())
+        {
+            statsEngine.shifted(StatsEngine.AGENT_EXPERIENCE, rolledCount, years, everyAgent);
+        }
+
+        EntityCache cache = activeEntityCache(statement);
+        if (cache == null) return;
+        if (rolledCount > 0) cache.clearTable(EntityCache.tableIndexOf("Agents"));
+        if (benefitsChanged) cache.clearBenefitFlags();
+    }
+
+    private static void printRollover(int years, int[] rolloverCounts)
+    {
+        System.out.println("Rolled over " + rolloverCounts[0] + " agents by " + years + (years == 1 ? " year" : " years")
+                + "; benefits added for " + rolloverCounts[1] + ", removed for " + rolloverCounts[2]);
+    }
+
     // ----------------------------
     // AgentSalary helpers (new behavior: each agent may have only one salary)
     // ----------------------------
@@ -984,14 +2262,20 @@ public class Main
     {
         try
         {
-            ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM AgentSalary WHERE AgentID = " + agentId + ";");
+            EntityCache cache = getEntityCache(statement);
+            Boolean cachedFlag = cache.getSalaryFlag(agentId);
+            if (cachedFlag != null) return cachedFlag.booleanValue();
+
+            ResultSet rs = queryById(statement, "SELECT COUNT(*) FROM AgentSalary WHERE AgentID = ?;", agentId);
             int count = 0;
             if (rs.next()) count = rs.getInt(1);
             rs.close();
+            cache.putSalaryFlag(agentId, count > 0);
             return count > 0;
         }
         catch (SQLException exception)
         {
+            noteWriteError(exception);
             return false;
         }
     }
@@ -1010,7 +2294,8 @@ public class Main
 
             String[] linkColumns = {"AgentID", "SalaryID"};
             String[] linkValues = {integerToString(agentId), integerToString(salaryId)};
-            insertIntoTable("AgentSalary", linkColumns, linkValues, statement);
+            if (!insertIntoTable("AgentSalary", linkColumns, linkValues, statement)) return false;
+            setCachedAgentFlags(statement, new int[]{agentId}, false, true);
             return true;
         }
         catch (Exception exception)
@@ -1023,94 +2308,317 @@ public class Main
     {
         try
         {
-            statement.executeUpdate("DELETE FROM AgentSalary WHERE SalaryID = " + salaryId + ";");
+            executeUpdateById(statement, "DELETE FROM AgentSalary WHERE SalaryID = ?;", salaryId);
+            EntityCache cache = activeEntityCache(statement);
+            if (cache != null) cache.clearSalaryFlags();
         }
         catch (SQLException exception)
         {
             System.out.println("Error removing AgentSalary links for SalaryID " + salaryId + ": " + exception.toString());
+            noteWriteError(exception);
         }
     }
 
-    // ----------------------------
-    // Cascade deletes
-    // ----------------------------
-    public static void cascadeDeleteAgent(Statement statement, int agentId)
+    // Links every agent without a salary to the best salary of the band its Experience has reached
+    // (see SalaryBandIndex): one query finds the unlinked agents, the bands are matched in memory
+    // and the links go in as multi-row inserts, instead of agentHasSalary and an insert per agent.
+    // Runs in its own transaction, or a savepoint inside a script batch.
+    // Returns {agents linked, unlinked agents below every band}, or null when it failed.
+    public static int[] assignSalariesToAgents(Statement statement)
     {
+        Connection connection = null;
+        boolean ownsTransaction = false;
+        Savepoint assignSavepoint = null;
+
         try
         {
-            ResultSet benefitResultSet = statement.executeQuery("SELECT BenefitID FROM AgentBenefit WHERE AgentID = " + agentId + ";");
-            while (benefitResultSet.next())
+            connection = statement.getConnection();
+            if (connection.getAutoCommit())
+            {
+                connection.setAutoCommit(false);
+                ownsTransaction = true;
+            }
+            else
+            {
+                assignSavepoint = connection.setSavepoint();
+            }
+
+            SalaryBandIndex bands = getSalaryBandIndex(statement);
+            StatementCache cache = getStatementCache(statement);
+            PreparedStatement unlinkedStatement = cache.prepare("SELECT AgentID, Experience FROM Agents WHERE typeof(Experience) = 'integer' "
+                    + "AND NOT EXISTS (SELECT 1 FROM AgentSalary WHERE AgentSalary.AgentID = Agents.AgentID) ORDER BY AgentID;");
+
+            int[] linkedAgentIds = new int[64];
+            int[] linkedSalaryIds = new int[64];
+            int linkedCount = 0;
+            int unmatchedCount = 0;
+            ResultSet unlinkedResultSet = timedQuery(cache, unlinkedStatement);
+            while (unlinkedResultSet.next())
+            {
+                int salaryId = bands.bestSalaryFor(unlinkedResultSet.getLong(2));
+                if (salaryId == SalaryBandIndex.NO_SALARY)
+                {
+                    unmatchedCount = unmatchedCount + 1;
+                }
+                else
+                {
+                    if (linkedCount == linkedAgentIds.length)
+                    {
+                        linkedAgentIds = Arrays.copyOf(linkedAgentIds, linkedCount * 2);
+                        linkedSalaryIds = Arrays.copyOf(linkedSalaryIds, linkedCount * 2);
+                    }
+                    linkedAgentIds[linkedCount] = unlinkedResultSet.getInt(1);
+                    linkedSalaryIds[linkedCount] = salaryId;
+                    linkedCount = linkedCount + 1;
+                }
+            }
+            unlinkedResultSet.close();
+
+            String[][] linkRows = new String[linkedCount][];
+            int linkIndex = 0;
+            while (linkIndex < linkedCount)
+            {
+                linkRows[linkIndex] = new String[]{integerToString(linkedAgentIds[linkIndex]), integerToString(linkedSalaryIds[linkIndex])};
+                linkIndex = linkIndex + 1;
+            }
+            if (!insertRows("AgentSalary", new String[]{"AgentID", "SalaryID"}, linkRows, statement))
             {
-                int benefitId = benefitResultSet.getInt("BenefitID");
-                statement.executeUpdate("DELETE FROM WorkBenefits WHERE BenefitID = " + benefitId + ";");
+                throw new SQLException("AgentSalary links were not inserted");
             }
-            benefitResultSet.close();
 
-            statement.executeUpdate("DELETE FROM AgentBenefit WHERE AgentID = " + agentId + ";");
-            statement.executeUpdate("DELETE FROM AgentSalary WHERE AgentID = " + agentId + ";");
-            statement.executeUpdate("DELETE FROM CustomerAgentBook WHERE AgentID = " + agentId + ";");
-            statement.executeUpdate("UPDATE Customers SET AgentID = 0 WHERE AgentID = " + agentId + ";");
-            statement.executeUpdate("DELETE FROM Agents WHERE AgentID = " + agentId + ";");
+            if (ownsTransaction) connection.commit();
+            else connection.releaseSavepoint(assignSavepoint);
+
+            setCachedAgentFlags(statement, Arrays.copyOf(linkedAgentIds, linkedCount), false, true);
+            return new int[]{linkedCount, unmatchedCount};
         }
         catch (SQLException exception)
         {
-            System.out.println("Error deleting agent cascade: " + exception.toString());
+            System.out.println("Error assigning salaries: " + exception.toString());
+            noteWriteError(exception);
+            Instrumentation.recordError(Instrumentation.ASSIGN_SALARIES_COMMAND, exception);
+            try
+            {
+                if (ownsTransaction) connection.rollback();
+                else if (assignSavepoint != null) connection.rollback(assignSavepoint);
+            }
+            catch (SQLException rollbackException)
+            {
+                System.out.println("Error rolling back salary assignment: " + rollbackException.toString());
+            }
+            return null;
+        }
+        finally
+        {
+            if (ownsTransaction)
+            {
+                try
+                {
+                    connection.setAutoCommit(true);
+                }
+                catch (SQLException exception)
+                {
+                    System.out.println("Error restoring autocommit: " + exception.toString());
+                }
+            }
         }
     }
 
+    private static void printSalaryAssignment(int[] assignCounts)
+    {
+        System.out.println("Salaries assigned to " + assignCounts[0] + " agents; " + assignCounts[1] + " agents are below every salary's experience");
+    }
+
+    // ----------------------------
+    // Cascade deletes
+    // Each cascade is a fixed list of set-based statements filtered by the selection, run in
+    // one transaction, so purging a range or list costs the same number of statements as one ID.
+    // ----------------------------
+    public static void cascadeDeleteAgent(Statement statement, int agentId)
+    {
+        cascadeDeleteAgents(statement, PurgeSelection.single(agentId));
+    }
+
+    public static void cascadeDeleteAgents(Statement statement, PurgeSelection selection)
+    {
+        String filter = selection.filter();
+        runCascade(statement, selection, "agent", StatsEngine.AGENT_EXPERIENCE, "AgentID", new String[]{
+                "DELETE FROM WorkBenefits WHERE BenefitID IN (SELECT BenefitID FROM AgentBenefit WHERE AgentID " + filter + ");",
+                "DELETE FROM AgentBenefit WHERE AgentID " + filter + ";",
+                "DELETE FROM AgentSalary WHERE AgentID " + filter + ";",
+                "DELETE FROM CustomerAgentBook WHERE AgentID " + filter + ";",
+                "UPDATE Customers SET AgentID = 0 WHERE AgentID " + filter + ";",
+                "DELETE FROM Agents WHERE AgentID " + filter + ";"
+        });
+    }
+
     public static void cascadeDeleteBook(Statement statement, int bookId)
     {
-        try
-        {
-            statement.executeUpdate("DELETE FROM BookAuthor WHERE BookID = " + bookId + ";");
-            statement.executeUpdate("DELETE FROM CustomerAgentBook WHERE BookID = " + bookId + ";");
-            statement.executeUpdate("UPDATE Customers SET BookID = 0 WHERE BookID = " + bookId + ";");
-            statement.executeUpdate("DELETE FROM Books WHERE BookID = " + bookId + ";");
-        }
-        catch (SQLException exception)
-        {
-            System.out.println("Error deleting book cascade: " + exception.toString());
-        }
+        cascadeDeleteBooks(statement, PurgeSelection.single(bookId));
+    }
+
+    public static void cascadeDeleteBooks(Statement statement, PurgeSelection selection)
+    {
+        String filter = selection.filter();
+        runCascade(statement, selection, "book", StatsEngine.BOOK_COST, "BookID", new String[]{
+                "DELETE FROM BookAuthor WHERE BookID " + filter + ";",
+                "DELETE FROM CustomerAgentBook WHERE BookID " + filter + ";",
+                "UPDATE Customers SET BookID = 0 WHERE BookID " + filter + ";",
+                "DELETE FROM Books WHERE BookID " + filter + ";"
+        });
+    }
+
+    public static void cascadeDeleteAuthor(Statement statement, int authorId)
+    {
+        cascadeDeleteAuthors(statement, PurgeSelection.single(authorId));
+    }
+
+    public static void cascadeDeleteAuthors(Statement statement, PurgeSelection selection)
+    {
+        String filter = selection.filter();
+        runCascade(statement, selection, "author", -1, null, new String[]{
+                "DELETE FROM BookAuthor WHERE AuthorID " + filter + ";",
+                "UPDATE Books SET AuthorID = 0 WHERE AuthorID " + filter + ";",
+                "DELETE FROM Authors WHERE AuthorID " + filter + ";"
+        });
+    }
+
+    public static void cascadeDeleteCustomer(Statement statement, int customerId)
+    {
+        cascadeDeleteCustomers(statement, PurgeSelection.single(customerId));
+    }
+
+    public static void cascadeDeleteCustomers(Statement statement, PurgeSelection selection)
+    {
+        String filter = selection.filter();
+        runCascade(statement, selection, "customer", -1, null, new String[]{
+                "DELETE FROM CustomerAgentBook WHERE CustomerID " + filter + ";",
+                "DELETE FROM Customers WHERE CustomerID " + filter + ";"
+        });
+    }
+
+    public static void cascadeDeleteSalary(Statement statement, int salaryId)
+    {
+        cascadeDeleteSalaries(statement, PurgeSelection.single(salaryId));
     }
 
-    public static void cascadeDeleteAuthor(Statement statement, int authorId)
+    public static void cascadeDeleteSalaries(Statement statement, PurgeSelection selection)
     {
-        try
-        {
-            statement.executeUpdate("DELETE FROM BookAuthor WHERE AuthorID = " + authorId + ";");
-            statement.executeUpdate("UPDATE Books SET AuthorID = 0 WHERE AuthorID = " + authorId + ";");
-            statement.executeUpdate("DELETE FROM Authors WHERE AuthorID = " + authorId + ";");
-        }
-        catch (SQLException exception)
-        {
-            System.out.println("Error deleting author cascade: " + exception.toString());
-        }
+        String filter = selection.filter();
+        runCascade(statement, selection, "salary", StatsEngine.SALARY, "SalaryID", new String[]{
+                "DELETE FROM AgentSalary WHERE SalaryID " + filter + ";",
+                "DELETE FROM Salaries WHERE SalaryID " + filter + ";"
+        });
     }
 
-    public static void cascadeDeleteCustomer(Statement statement, int customerId)
+    // Runs the cascade in its own transaction, or inside a savepoint when the caller already
+    // has one open (script batches), and undoes all of it if any statement fails.
+    // trackedStat (or -1) is the Compute column of the purged table, keyed by idColumnName.
+    private static void runCascade(Statement statement, PurgeSelection selection, String entityName, int trackedStat, String idColumnName, String[] cascadeSql)
     {
+        Connection connection = null;
+        boolean ownsTransaction = false;
+        Savepoint cascadeSavepoint = null;
+        StatsEngine trackingEngine = null;
+        long[] removedStats = null;
+
         try
         {
-            statement.executeUpdate("DELETE FROM CustomerAgentBook WHERE CustomerID = " + customerId + ";");
-            statement.executeUpdate("DELETE FROM Customers WHERE CustomerID = " + customerId + ";");
+            connection = statement.getConnection();
+            if (connection.getAutoCommit())
+            {
+                connection.setAutoCommit(false);
+                ownsTransaction = true;
+            }
+            else
+            {
+                cascadeSavepoint = connection.setSavepoint();
+            }
+
+            StatementCache cache = getStatementCache(statement);
+
+            if (trackedStat >= 0 && statsEngine != null && statsEngine.getConnection() == connection && statsEngine.isTracking(trackedStat))
+            {
+                trackingEngine = statsEngine;
+                removedStats = measureRemovedStats(cache, selection, trackedStat, idColumnName);
+            }
+
+            int sqlIndex = 0;
+            while (sqlIndex < cascadeSql.length)
+            {
+                PreparedStatement cascadeStatement = cache.prepare(cascadeSql[sqlIndex]);
+                selection.bind(cascadeStatement, 1);
+                timedUpdate(cache, cascadeStatement);
+                sqlIndex = sqlIndex + 1;
+            }
+
+            if (ownsTransaction) connection.commit();
+            else connection.releaseSavepoint(cascadeSavepoint);
+
+            if (trackingEngine != null)
+            {
+                if (removedStats == null) trackingEngine.invalidate(trackedStat);
+                else trackingEngine.removed(trackedStat, removedStats[0], removedStats[1], removedStats[2], removedStats[3]);
+            }
+            forgetPurgedEntities(statement, entityName, selection);
         }
         catch (SQLException exception)
         {
-            System.out.println("Error deleting customer cascade: " + exception.toString());
+            System.out.println("Error deleting " + entityName + " cascade: " + exception.toString());
+            noteWriteError(exception);
+            try
+            {
+                if (ownsTransaction) connection.rollback();
+                else if (cascadeSavepoint != null) connection.rollback(cascadeSavepoint);
+            }
+            catch (SQLException rollbackException)
+            {
+                System.out.println("Error rolling back " + entityName + " cascade: " + rollbackException.toString());
+            }
+        }
+        finally
+        {
+            if (ownsTransaction)
+            {
+                try
+                {
+                    connection.setAutoCommit(true);
+                }
+                catch (SQLException exception)
+                {
+                    System.out.println("Error restoring autocommit: " + exception.toString());
+                }
+            }
         }
     }
 
-    public static void cascadeDeleteSalary(Statement statement, int salaryId)
+    // {count, sum, min, max} of the tracked column over the rows about to be purged,
+    // or null when they hold values the stats engine cannot track exactly
+    private static long[] measureRemovedStats(StatementCache cache, PurgeSelection selection, int trackedStat, String idColumnName) throws SQLException
     {
-        try
-        {
-            statement.executeUpdate("DELETE FROM AgentSalary WHERE SalaryID = " + salaryId + ";");
-            statement.executeUpdate("DELETE FROM Salaries WHERE SalaryID = " + salaryId + ";");
-        }
-        catch (SQLException exception)
-        {
-            System.out.println("Error deleting salary cascade: " + exception.toString());
+        String columnName = StatsEngine.getColumnName(trackedStat);
+        String sql = "SELECT COUNT(" + columnName + "), SUM(" + columnName + "), MIN(" + columnName + "), MAX(" + columnName + ") FROM "
+                + StatsEngine.getTableName(trackedStat) + " WHERE " + idColumnName + " " + selection.filter() + ";";
+        PreparedStatement measureStatement = cache.prepare(sql);
+        selection.bind(measureStatement, 1);
+        ResultSet measureResultSet = timedQuery(cache, measureStatement);
+
+        long[] removedStats = null;
+        if (measureResultSet.next())
+        {
+            Object sum = measureResultSet.getObject(2);
+            Object minimum = measureResultSet.getObject(3);
+            Object maximum = measureResultSet.getObject(4);
+            boolean exact = (sum == null || sum instanceof Integer || sum instanceof Long)
+                    && (minimum == null || minimum instanceof Integer || minimum instanceof Long)
+                    && (maximum == null || maximum instanceof Integer || maximum instanceof Long);
+            if (exact)
+            {
+                removedStats = new long[]{measureResultSet.getLong(1), measureResultSet.getLong(2), measureResultSet.getLong(3), measureResultSet.getLong(4)};
+            }
         }
+        measureResultSet.close();
+        return removedStats;
     }
 
     // ----------------------------
@@ -1134,81 +2642,181 @@ public class Main
         return new String[0];
     }
 
+    // Filterable columns of the six displayed tables in DisplayPage order: {key, key header, ID, AgentID, BookID, Experience, Cost}
+    public static String[] getViewColumnsForTable(String tableName)
+    {
+        if (tableName.equals("Agents")) return new String[]{"AgentID", "AgentID", "AgentID", "AgentID", null, "Experience", null};
+        if (tableName.equals("Salaries")) return new String[]{"SalaryID", "SalaryID", "SalaryID", null, null, "Experience", null};
+        if (tableName.equals("Books")) return new String[]{"BookID", "BookID", "BookID", null, "BookID", null, "Cost"};
+        if (tableName.equals("Authors")) return new String[]{"AuthorID", "AuthorID", "AuthorID", null, null, null, null};
+        if (tableName.equals("Customers")) return new String[]{"CustomerID", "CustomerID", "CustomerID", "AgentID", "BookID", null, null};
+        if (tableName.equals("WorkBenefits")) return new String[]{"BenefitID", "BenefitID", "BenefitID", "AgentID", null, null, null};
+
+        return null;
+    }
+
     public static void displayTable(Statement statement, String tableName)
+    {
+        displayTable(statement, tableName, null);
+    }
+
+    // page null shows the whole table; returns the rows shown
+    public static long displayTable(Statement statement, String tableName, DisplayPage page)
     {
         String[] columns = getColumnsForTable(tableName);
 
         if (columns == null || columns.length == 0)
         {
             System.out.println("No columns for table: " + tableName);
-            return;
+            return 0;
         }
 
-        int headerIndex = 0;
-        while (headerIndex < columns.length)
+        Connection readConnection = null;
+        try
+        {
+            readConnection = borrowReadConnection(statement);
+            return renderTable(getResultRenderer(), readConnection, tableName, page);
+        }
+        catch (SQLException exception)
+        {
+            System.out.println("Error displaying table " + tableName + ": " + exception.toString());
+        }
+        catch (IOException exception)
+        {
+            System.out.println("Error writing table " + tableName + ": " + exception.toString());
+        }
+        finally
         {
-            System.out.print(columns[headerIndex]);
-            if (headerIndex < columns.length - 1) System.out.print(" | ");
-            headerIndex = headerIndex + 1;
+            releaseReadConnection(readConnection);
         }
-        System.out.println();
+        return 0;
+    }
 
+    // One page of a name or phone search (see SearchIndex); returns the rows shown
+    public static long searchTable(Statement statement, String tableName, String terms, int page)
+    {
+        Connection readConnection = null;
         try
         {
-            ResultSet resultSet = statement.executeQuery("SELECT * FROM " + tableName + ";");
-            while (resultSet.next())
-            {
-                int columnIndex = 0;
-                while (columnIndex < columns.length)
-                {
-                    String columnName = columns[columnIndex];
-                    String columnValue = null;
-                    try
-                    {
-                        columnValue = resultSet.getString(columnName);
-                    }
-                    catch (Exception exception)
-                    {
-                        try
-                        {
-                            columnValue = resultSet.getString(columnIndex + 1);
-                        }
-                        catch (Exception innerException)
-                        {
-                            columnValue = "NULL";
-                        }
-                    }
-                    if (columnValue == null) columnValue = "NULL";
-                    System.out.print(columnValue);
-                    if (columnIndex < columns.length - 1) System.out.print(" | ");
-                    columnIndex = columnIndex + 1;
-                }
-                System.out.println();
-            }
-            resultSet.close();
+            readConnection = borrowReadConnection(statement);
+            return SearchIndex.render(getResultRenderer(), readConnection, tableName, terms, page);
         }
         catch (SQLException exception)
         {
-            System.out.println("Error displaying table " + tableName + ": " + exception.toString());
+            System.out.println("Error searching " + tableName + ": " + exception.toString());
+            Instrumentation.recordError(Instrumentation.SEARCH_COMMAND, exception);
+        }
+        catch (IOException exception)
+        {
+            System.out.println("Error writing search results for " + tableName + ": " + exception.toString());
+        }
+        finally
+        {
+            releaseReadConnection(readConnection);
+        }
+        return 0;
+    }
+
+    // choice is 1-based, as in the menu
+    public static void renderJoin(Statement statement, int choice) throws SQLException, IOException
+    {
+        renderJoin(statement, choice, null);
+    }
+
+    // page null shows the whole join; returns the rows shown
+    public static long renderJoin(Statement statement, int choice, DisplayPage page) throws SQLException, IOException
+    {
+        Connection readConnection = borrowReadConnection(statement);
+        try
+        {
+            return renderJoin(getResultRenderer(), readConnection, choice, page);
+        }
+        finally
+        {
+            releaseReadConnection(readConnection);
         }
     }
 
+    // Renders with any renderer and connection; the caller has already checked the table name
+    public static long renderTable(ResultRenderer renderer, Connection connection, String tableName) throws SQLException, IOException
+    {
+        return renderTable(renderer, connection, tableName, null);
+    }
+
+    public static long renderTable(ResultRenderer renderer, Connection connection, String tableName, DisplayPage page) throws SQLException, IOException
+    {
+        if (page == null) return renderer.render(connection, "SELECT * FROM " + tableName + ";", getColumnsForTable(tableName));
+        return renderer.render(connection, page.sqlFor("SELECT * FROM " + tableName), page.headersFor(getColumnsForTable(tableName)));
+    }
+
+    public static long renderJoin(ResultRenderer renderer, Connection connection, int choice) throws SQLException, IOException
+    {
+        return renderJoin(renderer, connection, choice, null);
+    }
+
+    public static long renderJoin(ResultRenderer renderer, Connection connection, int choice, DisplayPage page) throws SQLException, IOException
+    {
+        String[] joinQuery = JOIN_QUERIES[choice - 1];
+        String[] headers = Arrays.copyOfRange(joinQuery, 1, joinQuery.length);
+        if (page == null) return renderer.render(connection, joinQuery[0] + ";", headers);
+        return renderer.render(connection, page.sqlFor(joinQuery[0]), page.headersFor(headers));
+    }
+
     // ----------------------------
-    // Simple SQL literal escaping
+    // Read connections
+    // A pooled reader only sees committed rows, so one is used only while the writer has no
+    // transaction open; inside a script batch the read stays on the writer and sees the batch.
     // ----------------------------
-    public static String escapeSingleQuotes(String inputString)
+    public static Connection borrowReadConnection(Statement statement) throws SQLException
     {
-        if (inputString == null) return null;
-        String resultString = "";
-        int charIndex = 0;
-        while (charIndex < inputString.length())
+        Connection writer = statement.getConnection();
+        if (connectionPool == null || connectionPool.getWriter() != writer || connectionPool.getReaderCount() == 0) return writer;
+        if (!writer.getAutoCommit()) return writer;
+        return connectionPool.borrowReader();
+    }
+
+    public static void releaseReadConnection(Connection readConnection)
+    {
+        if (readConnection == null || connectionPool == null || readConnection == connectionPool.getWriter()) return;
+        connectionPool.returnReader(readConnection);
+    }
+
+    // ----------------------------
+    // Result output helpers
+    // ----------------------------
+    public static ResultRenderer getResultRenderer()
+    {
+        if (resultRenderer == null) resultRenderer = ResultRenderer.toConsole(resultFormat, resultFetchSize);
+        return resultRenderer;
+    }
+
+    // outputPath null means the console; a file that cannot be opened leaves the current output in place
+    public static void setResultOutput(String outputPath, int format)
+    {
+        ResultRenderer newRenderer;
+        try
         {
-            char currentChar = inputString.charAt(charIndex);
-            if (currentChar == '\'') resultString = resultString + "''";
-            else resultString = resultString + currentChar;
-            charIndex = charIndex + 1;
+            if (outputPath == null) newRenderer = ResultRenderer.toConsole(format, resultFetchSize);
+            else newRenderer = ResultRenderer.toFile(outputPath, format, resultFetchSize);
+        }
+        catch (IOException exception)
+        {
+            System.out.println("Unable to open output file: " + outputPath);
+            System.out.println(exception.toString());
+            return;
+        }
+        closeResultRenderer();
+        resultFormat = format;
+        resultRenderer = newRenderer;
+    }
+
+    public static void closeResultRenderer()
+    {
+        if (resultRenderer != null)
+        {
+            resultRenderer.close();
+            resultRenderer = null;
         }
-        return resultString;
     }
 
     // ----------------------------
@@ -1228,13 +2836,17 @@ public class Main
             System.out.println("4 - Display");
             System.out.println("5 - Compute");
             System.out.println("6 - Joins");
+            System.out.println("7 - Latency report");
+            System.out.println("8 - Search");
+            System.out.println("9 - Experience rollover");
+            System.out.println("10 - Assign salaries");
             System.out.println("0 - Exit");
 
             userInput = scanner.nextLine();
 
-            if (!validInput(userInput, new String[]{"1","2","3","4","5","6","0"}))
+            if (!validInput(userInput, new String[]{"1","2","3","4","5","6","7","8","9","10","0"}))
             {
-                System.out.println("Enter 0-6:");
+                System.out.println("Enter 0-10:");
                 userInput = scanner.nextLine();
             }
 
@@ -1244,6 +2856,10 @@ public class Main
             if (userInput.equals("4")) displayFunction(statement, scanner);
             if (userInput.equals("5")) computationFunction(statement, scanner);
             if (userInput.equals("6")) displayCombinationFunction(statement, scanner);
+            if (userInput.equals("7")) System.out.println(Instrumentation.report());
+            if (userInput.equals("8")) searchFunction(statement, scanner);
+            if (userInput.equals("9")) rolloverFunction(statement, scanner);
+            if (userInput.equals("10")) assignSalariesFunction(statement);
 
         }
         while (!userInput.equals("0"));
@@ -1282,15 +2898,13 @@ public class Main
                 System.out.println("Enter integer:");
                 experienceString = scanner.nextLine();
             }
-            String[] columns = {"Name","PhoneNumber","Experience"};
-            String[] values = {name, phoneNumber, experienceString};
-            int agentId = insertIntoTableAndReturnId("Agents", columns, values, statement);
+            long startNanos = Instrumentation.start();
+            registerAgent(statement, name, phoneNumber, experienceString);
+            Instrumentation.recordCommand(Instrumentation.registerCommand(1), startNanos, 1);
             System.out.println("Agent registered.");
-            int experienceYears = stringToInt(experienceString);
-            if (experienceYears >= 10)
+            if (stringToInt(experienceString) >= 10)
             {
                 System.out.println("Assigning default work benefits.");
-                addBenefitsToAgent(statement, agentId, 0, 14);
             }
         }
 
@@ -1312,16 +2926,10 @@ public class Main
                 System.out.println("Enter integer:");
                 costString = scanner.nextLine();
             }
-            String[] columns = {"AuthorID","Name","Cost"};
-            String[] values = {authorIdString, bookName, costString};
-            int bookId = insertIntoTableAndReturnId("Books", columns, values, statement);
+            long startNanos = Instrumentation.start();
+            registerBook(statement, bookName, authorIdString, costString);
+            Instrumentation.recordCommand(Instrumentation.registerCommand(2), startNanos, 1);
             System.out.println("Book registered.");
-            if (stringToInt(authorIdString) != 0)
-            {
-                String[] linkColumns = {"BookID","AuthorID"};
-                String[] linkValues = {integerToString(bookId), authorIdString};
-                insertIntoTable("BookAuthor", linkColumns, linkValues, statement);
-            }
         }
 
         if (userChoice.equals("3"))
@@ -1339,7 +2947,9 @@ public class Main
             }
             String[] columns = {"Name","PhoneNumber","HourlyCharge"};
             String[] values = {name, phoneNumber, hourlyChargeString};
+            long startNanos = Instrumentation.start();
             insertIntoTable("Authors", columns, values, statement);
+            Instrumentation.recordCommand(Instrumentation.registerCommand(3), startNanos, 1);
             System.out.println("Author registered.");
         }
 
@@ -1364,13 +2974,9 @@ public class Main
             System.out.println("Enter phone:");
             String customerPhone = scanner.nextLine();
 
-            String[] columns = {"AgentID","BookID","Name","PhoneNumber"};
-            String[] values = {agentIdString, bookIdString, customerName, customerPhone};
-            int customerId = insertIntoTableAndReturnId("Customers", columns, values, statement);
-
-            String[] linkCols = {"CustomerID","AgentID","BookID"};
-            String[] linkVals = {integerToString(customerId), agentIdString, bookIdString};
-            insertIntoTable("CustomerAgentBook", linkCols, linkVals, statement);
+            long startNanos = Instrumentation.start();
+            registerCustomer(statement, agentIdString, bookIdString, customerName, customerPhone);
+            Instrumentation.recordCommand(Instrumentation.registerCommand(4), startNanos, 1);
 
             System.out.println("Customer registered and linked.");
         }
@@ -1401,6 +3007,7 @@ public class Main
 
             String[] columns = {"Salary","Experience"};
             String[] values = {salaryString, experienceString};
+            long startNanos = Instrumentation.start();
             int salaryId = insertIntoTableAndReturnId("Salaries", columns, values, statement);
             System.out.println("Salary registered.");
 
@@ -1417,6 +3024,7 @@ public class Main
                     System.out.println("Salary linked to agent " + agentId + ".");
                 }
             }
+            Instrumentation.recordCommand(Instrumentation.registerCommand(5), startNanos, 1);
         }
     }
 
@@ -1478,13 +3086,10 @@ public class Main
                     newValue = scanner.nextLine();
                 }
             }
-            String updateSql = "UPDATE " + tableName + " SET " + columnName + " = ";
-            if (columnName.equals("Experience")) updateSql = updateSql + newValue;
-            else updateSql = updateSql + "'" + escapeSingleQuotes(newValue) + "'";
-            updateSql = updateSql + " WHERE " + idColumnName + " = " + idString + ";";
+            long startNanos = Instrumentation.start();
             try
             {
-                statement.executeUpdate(updateSql);
+                updateColumnById(statement, tableName, idColumnName, stringToInt(idString), columnName, newValue);
                 System.out.println("Agent updated.");
                 if (columnName.equals("Experience"))
                 {
@@ -1502,7 +3107,12 @@ public class Main
                     }
                 }
             }
-            catch (SQLException exception) { System.out.println("Update error: " + exception.toString()); }
+            catch (SQLException exception)
+            {
+                System.out.println("Update error: " + exception.toString());
+                Instrumentation.recordError(Instrumentation.updateCommand(tableName), exception);
+            }
+            Instrumentation.recordCommand(Instrumentation.updateCommand(tableName), startNanos);
         }
 
         if (tableName.equals("Books"))
@@ -1528,12 +3138,14 @@ public class Main
                     newValue = scanner.nextLine();
                 }
             }
-            String updateSql = "UPDATE " + tableName + " SET " + columnName + " = ";
-            if (columnName.equals("Name")) updateSql = updateSql + "'" + escapeSingleQuotes(newValue) + "'";
-            else updateSql = updateSql + newValue;
-            updateSql = updateSql + " WHERE " + idColumnName + " = " + idString + ";";
-            try { statement.executeUpdate(updateSql); System.out.println("Book updated."); }
-            catch (SQLException exception) { System.out.println("Update error: " + exception.toString()); }
+            long startNanos = Instrumentation.start();
+            try { updateColumnById(statement, tableName, idColumnName, stringToInt(idString), columnName, newValue); System.out.println("Book updated."); }
+            catch (SQLException exception)
+            {
+                System.out.println("Update error: " + exception.toString());
+                Instrumentation.recordError(Instrumentation.updateCommand(tableName), exception);
+            }
+            Instrumentation.recordCommand(Instrumentation.updateCommand(tableName), startNanos);
         }
 
         if (tableName.equals("Authors"))
@@ -1560,12 +3172,14 @@ public class Main
                     newValue = scanner.nextLine();
                 }
             }
-            String updateSql = "UPDATE " + tableName + " SET " + columnName + " = ";
-            if (columnName.equals("HourlyCharge")) updateSql = updateSql + newValue;
-            else updateSql = updateSql + "'" + escapeSingleQuotes(newValue) + "'";
-            updateSql = updateSql + " WHERE " + idColumnName + " = " + idString + ";";
-            try { statement.executeUpdate(updateSql); System.out.println("Author updated."); }
-            catch (SQLException exception) { System.out.println("Update error: " + exception.toString()); }
+            long startNanos = Instrumentation.start();
+            try { updateColumnById(statement, tableName, idColumnName, stringToInt(idString), columnName, newValue); System.out.println("Author updated."); }
+            catch (SQLException exception)
+            {
+                System.out.println("Update error: " + exception.toString());
+                Instrumentation.recordError(Instrumentation.updateCommand(tableName), exception);
+            }
+            Instrumentation.recordCommand(Instrumentation.updateCommand(tableName), startNanos);
         }
 
         if (tableName.equals("Customers"))
@@ -1592,29 +3206,20 @@ public class Main
                     newValue = scanner.nextLine();
                 }
             }
-            String updateSql = "UPDATE " + tableName + " SET " + columnName + " = ";
-            if (columnName.equals("Name") || columnName.equals("PhoneNumber")) updateSql = updateSql + "'" + escapeSingleQuotes(newValue) + "'";
-            else updateSql = updateSql + newValue;
-            updateSql = updateSql + " WHERE " + idColumnName + " = " + idString + ";";
+            long startNanos = Instrumentation.start();
             try
             {
-                statement.executeUpdate(updateSql);
+                updateColumnById(statement, tableName, idColumnName, stringToInt(idString), columnName, newValue);
                 System.out.println("Customer updated.");
                 // keep CustomerAgentBook link in sync
-                int customerId = stringToInt(idString);
-                statement.executeUpdate("DELETE FROM CustomerAgentBook WHERE CustomerID = " + customerId + ";");
-                ResultSet rs = statement.executeQuery("SELECT AgentID, BookID FROM Customers WHERE CustomerID = " + customerId + ";");
-                if (rs.next())
-                {
-                    int newAgent = rs.getInt("AgentID");
-                    int newBook = rs.getInt("BookID");
-                    String[] linkCols = {"CustomerID","AgentID","BookID"};
-                    String[] linkVals = {integerToString(customerId), integerToString(newAgent), integerToString(newBook)};
-                    insertIntoTable("CustomerAgentBook", linkCols, linkVals, statement);
-                }
-                rs.close();
+                refreshCustomerLink(statement, stringToInt(idString));
+            }
+            catch (SQLException exception)
+            {
+                System.out.println("Update error: " + exception.toString());
+                Instrumentation.recordError(Instrumentation.updateCommand(tableName), exception);
             }
-            catch (SQLException exception) { System.out.println("Update error: " + exception.toString()); }
+            Instrumentation.recordCommand(Instrumentation.updateCommand(tableName), startNanos);
         }
 
         if (tableName.equals("Salaries"))
@@ -1636,9 +3241,14 @@ public class Main
                 System.out.println("Enter integer:");
                 newValue = scanner.nextLine();
             }
-            String updateSql = "UPDATE " + tableName + " SET " + columnName + " = " + newValue + " WHERE " + idColumnName + " = " + idString + ";";
-            try { statement.executeUpdate(updateSql); System.out.println("Salary updated."); }
-            catch (SQLException exception) { System.out.println("Update error: " + exception.toString()); }
+            long startNanos = Instrumentation.start();
+            try { updateColumnById(statement, tableName, idColumnName, stringToInt(idString), columnName, newValue); System.out.println("Salary updated."); }
+            catch (SQLException exception)
+            {
+                System.out.println("Update error: " + exception.toString());
+                Instrumentation.recordError(Instrumentation.updateCommand(tableName), exception);
+            }
+            Instrumentation.recordCommand(Instrumentation.updateCommand(tableName), startNanos);
         }
     }
 
@@ -1660,52 +3270,66 @@ public class Main
             userChoice = scanner.nextLine();
         }
 
-        System.out.println("Enter the ID to delete:");
-        String idString = scanner.nextLine();
-        while (!isInteger(idString))
+        System.out.println("Enter the ID to delete (or a range like 100-5000, or a list like 4,8,15):");
+        String idString = scanner.nextLine().trim();
+        PurgeSelection purgeSelection = PurgeSelection.parse(idString);
+        while (purgeSelection == null)
         {
-            System.out.println("Enter integer:");
-            idString = scanner.nextLine();
+            System.out.println("Enter integer, range or list:");
+            idString = scanner.nextLine().trim();
+            purgeSelection = PurgeSelection.parse(idString);
         }
 
+        long startNanos = Instrumentation.start();
         if (userChoice.equals("1"))
         {
-            cascadeDeleteAgent(statement, stringToInt(idString));
-            System.out.println("Agent removed.");
+            cascadeDeleteAgents(statement, purgeSelection);
+            Instrumentation.recordCommand(Instrumentation.purgeCommand(1), startNanos);
+            if (purgeSelection.isSingle()) System.out.println("Agent removed.");
+            else System.out.println("Agents removed (" + purgeSelection.describe() + ").");
             return;
         }
 
         if (userChoice.equals("2"))
         {
-            cascadeDeleteBook(statement, stringToInt(idString));
-            System.out.println("Book removed.");
+            cascadeDeleteBooks(statement, purgeSelection);
+            Instrumentation.recordCommand(Instrumentation.purgeCommand(2), startNanos);
+            if (purgeSelection.isSingle()) System.out.println("Book removed.");
+            else System.out.println("Books removed (" + purgeSelection.describe() + ").");
             return;
         }
 
         if (userChoice.equals("3"))
         {
-            cascadeDeleteAuthor(statement, stringToInt(idString));
-            System.out.println("Author removed.");
+            cascadeDeleteAuthors(statement, purgeSelection);
+            Instrumentation.recordCommand(Instrumentation.purgeCommand(3), startNanos);
+            if (purgeSelection.isSingle()) System.out.println("Author removed.");
+            else System.out.println("Authors removed (" + purgeSelection.describe() + ").");
             return;
         }
 
         if (userChoice.equals("4"))
         {
-            cascadeDeleteCustomer(statement, stringToInt(idString));
-            System.out.println("Customer removed.");
+            cascadeDeleteCustomers(statement, purgeSelection);
+            Instrumentation.recordCommand(Instrumentation.purgeCommand(4), startNanos);
+            if (purgeSelection.isSingle()) System.out.println("Customer removed.");
+            else System.out.println("Customers removed (" + purgeSelection.describe() + ").");
             return;
         }
 
         if (userChoice.equals("5"))
         {
-            cascadeDeleteSalary(statement, stringToInt(idString));
-            System.out.println("Salary removed.");
+            cascadeDeleteSalaries(statement, purgeSelection);
+            Instrumentation.recordCommand(Instrumentation.purgeCommand(5), startNanos);
+            if (purgeSelection.isSingle()) System.out.println("Salary removed.");
+            else System.out.println("Salaries removed (" + purgeSelection.describe() + ").");
             return;
         }
 
         try
         {
-            int rowsDeleted = statement.executeUpdate("DELETE FROM " + userChoice + " WHERE " + userChoice + "ID = " + idString + ";");
+            int rowsDeleted = timedUpdate(statement, "DELETE FROM " + userChoice + " WHERE " + userChoice + "ID = " + idString + ";");
+            invalidateCaches();
             System.out.println("Rows deleted: " + rowsDeleted);
         }
         catch (SQLException exception)
@@ -1725,13 +3349,16 @@ public class Main
         System.out.println("4 - Customers");
         System.out.println("5 - Salaries");
         System.out.println("6 - WorkBenefits");
+        System.out.println(PAGE_HINT);
 
-        String userChoice = scanner.nextLine();
-        if (!validInput(userChoice, new String[]{"1","2","3","4","5","6"}))
+        // "4" or "4|filters|page size", as in a script's 4| line
+        String[] choiceFields = scanner.nextLine().split("\\|", -1);
+        if (!validInput(choiceFields[0], new String[]{"1","2","3","4","5","6"}))
         {
             System.out.println("Enter 1-6:");
-            userChoice = scanner.nextLine();
+            choiceFields = scanner.nextLine().split("\\|", -1);
         }
+        String userChoice = choiceFields[0];
 
         String tableName = null;
         if (userChoice.equals("1")) tableName = "Agents";
@@ -1741,7 +3368,46 @@ public class Main
         if (userChoice.equals("5")) tableName = "Salaries";
         if (userChoice.equals("6")) tableName = "WorkBenefits";
 
-        displayTable(statement, tableName);
+        DisplayPage page = null;
+        if (tableName != null && choiceFields.length > 1)
+        {
+            page = menuDisplayPage(choiceFields, getViewColumnsForTable(tableName));
+            if (page == null) return;
+        }
+
+        while (true)
+        {
+            long startNanos = Instrumentation.start();
+            long rowCount = displayTable(statement, tableName, page);
+            Instrumentation.recordCommand(Instrumentation.DISPLAY_COMMAND, startNanos, rowCount);
+
+            if (!wantsNextPage(page, rowCount, scanner)) return;
+            page = page.after(getResultRenderer().getLastRowKey());
+        }
+    }
+
+    // ----------------------------
+    // Filters and pages for the Display and Joins menus (see DisplayPage)
+    // ----------------------------
+    private static DisplayPage menuDisplayPage(String[] choiceFields, String[] viewColumns)
+    {
+        String pageSizeText = null;
+        String afterKeyText = null;
+        if (choiceFields.length > 2) pageSizeText = choiceFields[2].trim();
+        if (choiceFields.length > 3) afterKeyText = choiceFields[3].trim();
+
+        DisplayPage page = null;
+        if (choiceFields.length <= 4) page = DisplayPage.parse(choiceFields[1], pageSizeText, afterKeyText, viewColumns);
+        if (page == null) System.out.println("Invalid filters or page size, or a filter this view does not have");
+        return page;
+    }
+
+    // Asks after a full page whether to fetch the next one
+    private static boolean wantsNextPage(DisplayPage page, long rowCount, Scanner scanner)
+    {
+        if (page == null || !page.isPaged() || rowCount < page.getPageSize()) return false;
+        System.out.println("n - Next page, anything else to stop");
+        return scanner.nextLine().trim().equalsIgnoreCase("n");
     }
 
     // ----------------------------
@@ -1760,59 +3426,30 @@ public class Main
             userChoice = scanner.nextLine();
         }
 
-        if (userChoice.equals("1"))
+        long startNanos = Instrumentation.start();
+        try
         {
-            String sql = "SELECT MIN(Experience) AS minExp, AVG(Experience) AS avgExp, MAX(Experience) AS maxExp FROM Agents;";
-            try
+            if (userChoice.equals("1"))
             {
-                ResultSet resultSet = statement.executeQuery(sql);
-                if (resultSet.next())
-                {
-                    String min = resultSet.getString("minExp");
-                    String avg = resultSet.getString("avgExp");
-                    String max = resultSet.getString("maxExp");
-                    System.out.println("Agents Experience -> MIN: " + min + "  AVG: " + avg + "  MAX: " + max);
-                }
-                resultSet.close();
+                System.out.println("Agents Experience -> " + getStatsEngine(statement).summary(StatsEngine.AGENT_EXPERIENCE));
             }
-            catch (SQLException exception) { System.out.println("Compute error: " + exception.toString()); }
-        }
 
-        if (userChoice.equals("2"))
-        {
-            String sql = "SELECT MIN(Cost) AS minCost, AVG(Cost) AS avgCost, MAX(Cost) AS maxCost FROM Books;";
-            try
+            if (userChoice.equals("2"))
             {
-                ResultSet resultSet = statement.executeQuery(sql);
-                if (resultSet.next())
-                {
-                    String min = resultSet.getString("minCost");
-                    String avg = resultSet.getString("avgCost");
-                    String max = resultSet.getString("maxCost");
-                    System.out.println("Books Cost -> MIN: " + min + "  AVG: " + avg + "  MAX: " + max);
-                }
-                resultSet.close();
+                System.out.println("Books Cost -> " + getStatsEngine(statement).summary(StatsEngine.BOOK_COST));
             }
-            catch (SQLException exception) { System.out.println("Compute error: " + exception.toString()); }
-        }
 
-        if (userChoice.equals("3"))
-        {
-            String sql = "SELECT MIN(Salary) AS minSal, AVG(Salary) AS avgSal, MAX(Salary) AS maxSal FROM Salaries;";
-            try
+            if (userChoice.equals("3"))
             {
-                ResultSet resultSet = statement.executeQuery(sql);
-                if (resultSet.next())
-                {
-                    String min = resultSet.getString("minSal");
-                    String avg = resultSet.getString("avgSal");
-                    String max = resultSet.getString("maxSal");
-                    System.out.println("Salaries -> MIN: " + min + "  AVG: " + avg + "  MAX: " + max);
-                }
-                resultSet.close();
+                System.out.println("Salaries -> " + getStatsEngine(statement).summary(StatsEngine.SALARY));
             }
-            catch (SQLException exception) { System.out.println("Compute error: " + exception.toString()); }
         }
+        catch (SQLException exception)
+        {
+            System.out.println("Compute error: " + exception.toString());
+            Instrumentation.recordError(Instrumentation.COMPUTE_COMMAND, exception);
+        }
+        Instrumentation.recordCommand(Instrumentation.COMPUTE_COMMAND, startNanos);
     }
 
     // ----------------------------
@@ -1823,118 +3460,125 @@ public class Main
         System.out.println("1 - Customers -> Agents");
         System.out.println("2 - Agents -> WorkBenefits");
         System.out.println("3 - Agents -> Salaries (via AgentSalary)");
+        System.out.println(PAGE_HINT);
 
-        String userChoice = scanner.nextLine();
-        if (!validInput(userChoice, new String[]{"1","2","3"}))
+        String[] choiceFields = scanner.nextLine().split("\\|", -1);
+        if (!validInput(choiceFields[0], new String[]{"1","2","3"}))
         {
             System.out.println("Enter 1-3:");
-            userChoice = scanner.nextLine();
+            choiceFields = scanner.nextLine().split("\\|", -1);
         }
+        String userChoice = choiceFields[0];
 
-        if (userChoice.equals("1"))
+        if (!validInput(userChoice, new String[]{"1","2","3"})) return;
+
+        DisplayPage page = null;
+        if (choiceFields.length > 1)
         {
-            String sql = "SELECT Customers.CustomerID, Customers.Name AS CustomerName, Agents.AgentID, Agents.Name AS AgentName " +
-                    "FROM Customers LEFT JOIN Agents ON Customers.AgentID = Agents.AgentID;";
+            page = menuDisplayPage(choiceFields, JOIN_VIEW_COLUMNS[stringToInt(userChoice) - 1]);
+            if (page == null) return;
+        }
+
+        while (true)
+        {
+            long rowCount = 0;
+            long startNanos = Instrumentation.start();
             try
             {
-                ResultSet resultSet = statement.executeQuery(sql);
-                String[] outputColumns = {"CustomerID","CustomerName","AgentID","AgentName"};
-                int headerIndex = 0;
-                while (headerIndex < outputColumns.length)
-                {
-                    System.out.print(outputColumns[headerIndex]);
-                    if (headerIndex < outputColumns.length - 1) System.out.print(" | ");
-                    headerIndex = headerIndex + 1;
-                }
-                System.out.println();
-
-                while (resultSet.next())
-                {
-                    int columnIndex = 1;
-                    while (columnIndex <= outputColumns.length)
-                    {
-                        String value = resultSet.getString(columnIndex);
-                        if (value == null) value = "NULL";
-                        System.out.print(value);
-                        if (columnIndex < outputColumns.length) System.out.print(" | ");
-                        columnIndex = columnIndex + 1;
-                    }
-                    System.out.println();
-                }
-                resultSet.close();
+                rowCount = renderJoin(statement, stringToInt(userChoice), page);
+            }
+            catch (SQLException | IOException exception)
+            {
+                System.out.println("Join error: " + exception.toString());
+                Instrumentation.recordError(Instrumentation.JOIN_COMMAND, exception);
             }
-            catch (SQLException exception) { System.out.println("Join error: " + exception.toString()); }
+            Instrumentation.recordCommand(Instrumentation.JOIN_COMMAND, startNanos, rowCount);
+
+            if (!wantsNextPage(page, rowCount, scanner)) return;
+            page = page.after(getResultRenderer().getLastRowKey());
         }
+    }
 
-        if (userChoice.equals("2"))
+    // ----------------------------
+    // Search (interactive)
+    // ----------------------------
+    public static void searchFunction(Statement statement, Scanner scanner)
+    {
+        System.out.println("1 - Agents");
+        System.out.println("2 - Books");
+        System.out.println("3 - Authors");
+        System.out.println("4 - Customers");
+
+        String userChoice = scanner.nextLine();
+        if (!validInput(userChoice, new String[]{"1","2","3","4"}))
         {
-            String sql = "SELECT Agents.AgentID, Agents.Name AS AgentName, WorkBenefits.SalaryBonus, WorkBenefits.PaidLeaveDuration " +
-                    "FROM Agents JOIN WorkBenefits ON Agents.AgentID = WorkBenefits.AgentID;";
-            try
-            {
-                ResultSet resultSet = statement.executeQuery(sql);
-                String[] outputColumns = {"AgentID","AgentName","SalaryBonus","PaidLeaveDuration"};
-                int headerIndex = 0;
-                while (headerIndex < outputColumns.length)
-                {
-                    System.out.print(outputColumns[headerIndex]);
-                    if (headerIndex < outputColumns.length - 1) System.out.print(" | ");
-                    headerIndex = headerIndex + 1;
-                }
-                System.out.println();
+            System.out.println("Enter 1-4:");
+            userChoice = scanner.nextLine();
+        }
 
-                while (resultSet.next())
-                {
-                    int columnIndex = 1;
-                    while (columnIndex <= outputColumns.length)
-                    {
-                        String value = resultSet.getString(columnIndex);
-                        if (value == null) value = "NULL";
-                        System.out.print(value);
-                        if (columnIndex < outputColumns.length) System.out.print(" | ");
-                        columnIndex = columnIndex + 1;
-                    }
-                    System.out.println();
-                }
-                resultSet.close();
-            }
-            catch (SQLException exception) { System.out.println("Join error: " + exception.toString()); }
+        if (!validInput(userChoice, new String[]{"1","2","3","4"})) return;
+
+        String[] tableNames = {null, "Agents", "Books", "Authors", "Customers"};
+        String tableName = tableNames[stringToInt(userChoice)];
+
+        System.out.println("Name words (prefixes are fine) or phone digits:");
+        String terms = scanner.nextLine().trim();
+        if (terms.length() == 0) return;
+
+        int page = 1;
+        while (true)
+        {
+            long startNanos = Instrumentation.start();
+            long rowCount = searchTable(statement, tableName, terms, page);
+            Instrumentation.recordCommand(Instrumentation.SEARCH_COMMAND, startNanos, rowCount);
+
+            if (rowCount < SearchIndex.PAGE_SIZE) return;
+            System.out.println("n - Next page, anything else to stop");
+            if (!scanner.nextLine().trim().equalsIgnoreCase("n")) return;
+            page = page + 1;
         }
+    }
 
-        if (userChoice.equals("3"))
+    // ----------------------------
+    // Experience rollover (interactive)
+    // ----------------------------
+    public static void rolloverFunction(Statement statement, Scanner scanner)
+    {
+        System.out.println("Years to add (1-9999):");
+        String yearsString = scanner.nextLine().trim();
+        while (!isInteger(yearsString) || yearsString.length() > 4 || stringToInt(yearsString) < 1)
         {
-            String sql = "SELECT Agents.AgentID, Agents.Name AS AgentName, Salaries.Salary, Salaries.Experience AS SalaryExperience " +
-                    "FROM Agents JOIN AgentSalary ON Agents.AgentID = AgentSalary.AgentID JOIN Salaries ON AgentSalary.SalaryID = Salaries.SalaryID;";
-            try
-            {
-                ResultSet resultSet = statement.executeQuery(sql);
-                String[] outputColumns = {"AgentID","AgentName","Salary","SalaryExperience"};
-                int headerIndex = 0;
-                while (headerIndex < outputColumns.length)
-                {
-                    System.out.print(outputColumns[headerIndex]);
-                    if (headerIndex < outputColumns.length - 1) System.out.print(" | ");
-                    headerIndex = headerIndex + 1;
-                }
-                System.out.println();
+            System.out.println("Enter 1-9999:");
+            yearsString = scanner.nextLine().trim();
+        }
 
-                while (resultSet.next())
-                {
-                    int columnIndex = 1;
-                    while (columnIndex <= outputColumns.length)
-                    {
-                        String value = resultSet.getString(columnIndex);
-                        if (value == null) value = "NULL";
-                        System.out.print(value);
-                        if (columnIndex < outputColumns.length) System.out.print(" | ");
-                        columnIndex = columnIndex + 1;
-                    }
-                    System.out.println();
-                }
-                resultSet.close();
-            }
-            catch (SQLException exception) { System.out.println("Join error: " + exception.toString()); }
+        System.out.println("Filters (e.g. ID=1-500,Experience=5-9), or blank for every agent:");
+        DisplayPage agentFilter = DisplayPage.parse(scanner.nextLine(), null, null, getViewColumnsForTable("Agents"));
+        if (agentFilter == null)
+        {
+            System.out.println("Invalid filters.");
+            return;
         }
+
+        int years = stringToInt(yearsString);
+        long startNanos = Instrumentation.start();
+        int[] rolloverCounts = rolloverExperience(statement, years, agentFilter);
+        Instrumentation.recordCommand(Instrumentation.ROLLOVER_COMMAND, startNanos, rolloverCounts == null ? 0 : rolloverCounts[0]);
+
+        if (rolloverCounts == null) System.out.println("No agents rolled over.");
+        else printRollover(years, rolloverCounts);
+    }
+
+    // ----------------------------
+    // Salary assignment (interactive)
+    // ----------------------------
+    public static void assignSalariesFunction(Statement statement)
+    {
+        long startNanos = Instrumentation.start();
+        int[] assignCounts = assignSalariesToAgents(statement);
+        if (assignCounts == null) return;
+        Instrumentation.recordCommand(Instrumentation.ASSIGN_SALARIES_COMMAND, startNanos, assignCounts[0]);
+        printSalaryAssignment(assignCounts);
     }
 
     // ----------------------------
@@ -0,0 +1,228 @@
+// PipeTokenizer.java  (splits a script line on '|' in one pass without copying the fields)
+import java.nio.CharBuffer;
+
+public class PipeTokenizer
+{
+    private CharSequence line = "";
+
+    // bounds of the line with surrounding spaces removed
+    private int lineStart = 0;
+    private int lineEnd = 0;
+
+    // field i is line[fieldStarts[i], fieldEnds[i]) with its own spaces trimmed
+    private int[] fieldStarts = new int[8];
+    private int[] fieldEnds = new int[8];
+    private int fieldCount = 0;
+
+    // holds the unescaped fields of the last CSV record; reused between records
+    private final StringBuilder csvBuffer = new StringBuilder(256);
+
+    // ----------------------------
+    // Scan
+    // ----------------------------
+    public PipeTokenizer reset(CharSequence newLine)
+    {
+        if (newLine == null) newLine = "";
+        line = newLine;
+        fieldCount = 0;
+
+        lineStart = 0;
+        lineEnd = newLine.length();
+        while (lineStart < lineEnd && newLine.charAt(lineStart) == ' ') lineStart = lineStart + 1;
+        while (lineEnd > lineStart && newLine.charAt(lineEnd - 1) == ' ') lineEnd = lineEnd - 1;
+
+        int fieldStart = lineStart;
+        int charIndex = lineStart;
+        while (charIndex < lineEnd)
+        {
+            if (newLine.charAt(charIndex) == '|')
+            {
+                addField(fieldStart, charIndex);
+                fieldStart = charIndex + 1;
+            }
+            charIndex = charIndex + 1;
+        }
+        addField(fieldStart, lineEnd);
+        return this;
+    }
+
+    // Splits one CSV record instead (RFC 4180 quoting, one record per line). Field views then point
+    // into an internal buffer, because quoted fields have to be unescaped. Unquoted fields are
+    // trimmed like pipe fields; quoted ones are kept exactly.
+    public PipeTokenizer resetCsv(CharSequence newLine)
+    {
+        if (newLine == null) newLine = "";
+        csvBuffer.setLength(0);
+        line = csvBuffer;
+        fieldCount = 0;
+
+        int length = newLine.length();
+        int charIndex = 0;
+        while (true)
+        {
+            int fieldStart = csvBuffer.length();
+            int quoteIndex = charIndex;
+            while (quoteIndex < length && newLine.charAt(quoteIndex) == ' ') quoteIndex = quoteIndex + 1;
+
+            if (quoteIndex < length && newLine.charAt(quoteIndex) == '"')
+            {
+                charIndex = quoteIndex + 1;
+                while (charIndex < length)
+                {
+                    char character = newLine.charAt(charIndex);
+                    if (character == '"')
+                    {
+                        // "" is an escaped quote, a single " closes the field
+                        if (charIndex + 1 < length && newLine.charAt(charIndex + 1) == '"')
+                        {
+                            csvBuffer.append('"');
+                            charIndex = charIndex + 2;
+                            continue;
+                        }
+                        charIndex = charIndex + 1;
+                        break;
+                    }
+                    csvBuffer.append(character);
+                    charIndex = charIndex + 1;
+                }
+                // anything between the closing quote and the next comma is dropped
+                while (charIndex < length && newLine.charAt(charIndex) != ',') charIndex = charIndex + 1;
+                storeField(fieldStart, csvBuffer.length());
+            }
+            else
+            {
+                while (charIndex < length && newLine.charAt(charIndex) != ',')
+                {
+                    csvBuffer.append(newLine.charAt(charIndex));
+                    charIndex = charIndex + 1;
+                }
+                addField(fieldStart, csvBuffer.length());
+            }
+
+            if (charIndex >= length) break;
+            charIndex = charIndex + 1;
+        }
+
+        lineStart = 0;
+        lineEnd = csvBuffer.length();
+        return this;
+    }
+
+    private void addField(int start, int end)
+    {
+        while (start < end && line.charAt(start) == ' ') start = start + 1;
+        while (end > start && line.charAt(end - 1) == ' ') end = end - 1;
+        storeField(start, end);
+    }
+
+    private void storeField(int start, int end)
+    {
+        if (fieldCount == fieldStarts.length)
+        {
+            int[] grownStarts = new int[fieldStarts.length * 2];
+            int[] grownEnds = new int[fieldEnds.length * 2];
+            System.arraycopy(fieldStarts, 0, grownStarts, 0, fieldCount);
+            System.arraycopy(fieldEnds, 0, grownEnds, 0, fieldCount);
+            fieldStarts = grownStarts;
+            fieldEnds = grownEnds;
+        }
+
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        fieldCount = fieldCount + 1;
+    }
+
+    // ----------------------------
+    // Whole-line queries
+    // ----------------------------
+    public boolean isBlank()
+    {
+        return lineStart == lineEnd;
+    }
+
+    public boolean lineStartsWith(String prefix)
+    {
+        if (lineEnd - lineStart < prefix.length()) return false;
+        return regionEquals(lineStart, prefix);
+    }
+
+    // The trimmed line from offset onwards, e.g. the SQL after "SQL|"
+    public String lineFrom(int offset)
+    {
+        int start = lineStart + offset;
+        if (start > lineEnd) start = lineEnd;
+        return line.subSequence(start, lineEnd).toString();
+    }
+
+    // ----------------------------
+    // Field access
+    // ----------------------------
+    public int fieldCount()
+    {
+        return fieldCount;
+    }
+
+    public int fieldLength(int fieldIndex)
+    {
+        return fieldEnds[fieldIndex] - fieldStarts[fieldIndex];
+    }
+
+    // A view over the original line; no characters are copied
+    public CharSequence field(int fieldIndex)
+    {
+        return CharBuffer.wrap(line, fieldStarts[fieldIndex], fieldEnds[fieldIndex]);
+    }
+
+    // Copies the field; only needed when the value has to outlive the line (e.g. bound into SQL)
+    public String fieldString(int fieldIndex)
+    {
+        return line.subSequence(fieldStarts[fieldIndex], fieldEnds[fieldIndex]).toString();
+    }
+
+    public boolean fieldEquals(int fieldIndex, String expected)
+    {
+        if (fieldLength(fieldIndex) != expected.length()) return false;
+        return regionEquals(fieldStarts[fieldIndex], expected);
+    }
+
+    // Same rule as Main.isInteger: one or more digits, no sign
+    public boolean isInteger(int fieldIndex)
+    {
+        int start = fieldStarts[fieldIndex];
+        int end = fieldEnds[fieldIndex];
+        if (start == end) return false;
+        int charIndex = start;
+        while (charIndex < end)
+        {
+            char character = line.charAt(charIndex);
+            if (character < '0' || character > '9') return false;
+            charIndex = charIndex + 1;
+        }
+        return true;
+    }
+
+    // Same rule as Main.stringToInt, read straight from the line
+    public int intField(int fieldIndex)
+    {
+        int number = 0;
+        int charIndex = fieldStarts[fieldIndex];
+        int end = fieldEnds[fieldIndex];
+        while (charIndex < end)
+        {
+            number = number * 10 + (line.charAt(charIndex) - '0');
+            charIndex = charIndex + 1;
+        }
+        return number;
+    }
+
+    private boolean regionEquals(int start, String expected)
+    {
+        int charIndex = 0;
+        while (charIndex < expected.length())
+        {
+            if (line.charAt(start + charIndex) != expected.charAt(charIndex)) return false;
+            charIndex = charIndex + 1;
+        }
+        return true;
+    }
+}
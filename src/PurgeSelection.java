@@ -0,0 +1,163 @@
+// PurgeSelection.java  (the IDs a purge applies to: one ID, a range or a list)
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+public class PurgeSelection
+{
+    private static final int SINGLE = 0;
+    private static final int RANGE = 1;
+    private static final int LIST = 2;
+
+    private final int kind;
+    private final int firstId;
+    private final int lastId;
+
+    // JSON array of the listed IDs, expanded by SQLite's json_each so a list of any
+    // length still binds as one parameter
+    private final String idListJson;
+    private final int listedIdCount;
+
+    private PurgeSelection(int kind, int firstId, int lastId, String idListJson, int listedIdCount)
+    {
+        this.kind = kind;
+        this.firstId = firstId;
+        this.lastId = lastId;
+        this.idListJson = idListJson;
+        this.listedIdCount = listedIdCount;
+    }
+
+    public static PurgeSelection single(int id)
+    {
+        return new PurgeSelection(SINGLE, id, id, null, 1);
+    }
+
+    public static PurgeSelection range(int firstId, int lastId)
+    {
+        return new PurgeSelection(RANGE, firstId, lastId, null, 0);
+    }
+
+    // ----------------------------
+    // Parse "12", "100-5000" or "4,8,15"; returns null when the text is none of these
+    // ----------------------------
+    public static PurgeSelection parse(CharSequence text)
+    {
+        int length = text.length();
+        if (length == 0) return null;
+
+        int dashIndex = -1;
+        int commaCount = 0;
+        int charIndex = 0;
+        while (charIndex < length)
+        {
+            char character = text.charAt(charIndex);
+            if (character == '-')
+            {
+                if (dashIndex >= 0) return null;
+                dashIndex = charIndex;
+            }
+            else if (character == ',')
+            {
+                commaCount = commaCount + 1;
+            }
+            else if (character < '0' || character > '9')
+            {
+                return null;
+            }
+            charIndex = charIndex + 1;
+        }
+
+        if (dashIndex >= 0 && commaCount > 0) return null;
+
+        if (dashIndex >= 0)
+        {
+            if (dashIndex == 0 || dashIndex == length - 1) return null;
+            int firstId = parseDigits(text, 0, dashIndex);
+            int lastId = parseDigits(text, dashIndex + 1, length);
+            if (firstId > lastId) return null;
+            return range(firstId, lastId);
+        }
+
+        if (commaCount == 0)
+        {
+            return single(parseDigits(text, 0, length));
+        }
+
+        // list: every entry must be non-empty
+        StringBuilder idListJson = new StringBuilder(length + 2);
+        idListJson.append('[');
+        int entryStart = 0;
+        charIndex = 0;
+        while (charIndex <= length)
+        {
+            if (charIndex == length || text.charAt(charIndex) == ',')
+            {
+                if (charIndex == entryStart) return null;
+                if (entryStart > 0) idListJson.append(',');
+                idListJson.append(parseDigits(text, entryStart, charIndex));
+                entryStart = charIndex + 1;
+            }
+            charIndex = charIndex + 1;
+        }
+        idListJson.append(']');
+        return new PurgeSelection(LIST, 0, 0, idListJson.toString(), commaCount + 1);
+    }
+
+    private static int parseDigits(CharSequence text, int start, int end)
+    {
+        int number = 0;
+        int charIndex = start;
+        while (charIndex < end)
+        {
+            number = number * 10 + (text.charAt(charIndex) - '0');
+            charIndex = charIndex + 1;
+        }
+        return number;
+    }
+
+    // ----------------------------
+    // SQL
+    // ----------------------------
+    // Goes straight after the ID column, e.g. "WHERE AgentID " + filter()
+    public String filter()
+    {
+        if (kind == RANGE) return "BETWEEN ? AND ?";
+        if (kind == LIST) return "IN (SELECT value FROM json_each(?))";
+        return "= ?";
+    }
+
+    // Binds the filter's parameters starting at parameterIndex; returns the next free index
+    public int bind(PreparedStatement preparedStatement, int parameterIndex) throws SQLException
+    {
+        if (kind == RANGE)
+        {
+            preparedStatement.setInt(parameterIndex, firstId);
+            preparedStatement.setInt(parameterIndex + 1, lastId);
+            return parameterIndex + 2;
+        }
+        if (kind == LIST)
+        {
+            preparedStatement.setString(parameterIndex, idListJson);
+            return parameterIndex + 1;
+        }
+        preparedStatement.setInt(parameterIndex, firstId);
+        return parameterIndex + 1;
+    }
+
+    public boolean isSingle()
+    {
+        return kind == SINGLE;
+    }
+
+    // The ID of a single-ID selection, the first ID of a range
+    public int getFirstId()
+    {
+        return firstId;
+    }
+
+    public String describe()
+    {
+        if (kind == RANGE) return "IDs " + firstId + "-" + lastId;
+        if (kind == LIST) return listedIdCount + " listed IDs";
+        return "ID " + firstId;
+    }
+}
@@ -0,0 +1,281 @@
+// QueryServer.java  (serves script-format commands to local clients over TCP or a Unix socket)
+//
+// Each client gets its own thread and sends one command per line, exactly as in a script
+// ("1|4|...", "2|...", "3|...", "4|...", "5|...", "6|...", "8|..."). Displays, joins and searches
+// stream straight back from a pooled reader connection on the client's thread. Writes and Compute, which rely on
+// the writer's caches and running aggregates, all go through one GroupCommitWriter, so writes
+// from many clients share a commit and each client hears "OK" once its write is committed.
+// Every response ends with a line "OK" or "ERROR <reason>"; "0" ends the session with "BYE".
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class QueryServer
+{
+    // readers opened for a server started without --readers
+    public static final int DEFAULT_READERS = 4;
+
+    private static final int FETCH_SIZE = 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ConnectionPool pool;
+    private final Statement writerStatement;
+
+    // every write and Compute, in the order the client threads submit them
+    private final GroupCommitWriter writer;
+    private final ExecutorService clients = Executors.newCachedThreadPool(runnable ->
+    {
+        Thread thread = new Thread(runnable, "server-client");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Set<SocketChannel> openChannels = ConcurrentHashMap.newKeySet();
+
+    private volatile ServerSocketChannel serverChannel = null;
+    private volatile boolean stopped = false;
+    private Path socketPath = null;
+
+    private final AtomicLong clientCount = new AtomicLong();
+    private final AtomicLong requestCount = new AtomicLong();
+
+    public QueryServer(ConnectionPool pool, Statement writerStatement, int groupWindowMicros, int groupMaxBatchSize) throws SQLException
+    {
+        this.pool = pool;
+        this.writerStatement = writerStatement;
+        this.writer = new GroupCommitWriter(writerStatement, groupWindowMicros, groupMaxBatchSize);
+    }
+
+    // ----------------------------
+    // Accept loop
+    // ----------------------------
+    // address is a port on the loopback interface or the path of a Unix socket. Blocks until stop().
+    public void serve(String address) throws IOException
+    {
+        ServerSocketChannel channel;
+        if (Main.isInteger(address))
+        {
+            channel = ServerSocketChannel.open();
+            channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), Main.stringToInt(address)));
+        }
+        else
+        {
+            socketPath = Path.of(address);
+            channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.bind(UnixDomainSocketAddress.of(socketPath));
+        }
+        serverChannel = channel;
+        System.out.println("Serving on " + channel.getLocalAddress() + " with " + pool.getReaderCount() + " readers");
+
+        try
+        {
+            while (!stopped)
+            {
+                SocketChannel clientChannel = channel.accept();
+                clientCount.incrementAndGet();
+                openChannels.add(clientChannel);
+                clients.execute(() -> handleClient(clientChannel));
+            }
+        }
+        catch (IOException exception)
+        {
+            // stop() closed the channel
+            if (!stopped) throw exception;
+        }
+        finally
+        {
+            shutDown();
+        }
+    }
+
+    // Safe from any thread, e.g. a shutdown hook; serve() returns once the writer has drained
+    public void stop()
+    {
+        stopped = true;
+        try
+        {
+            ServerSocketChannel channel = serverChannel;
+            if (channel != null) channel.close();
+        }
+        catch (IOException exception)
+        {
+            System.out.println("Error closing server socket: " + exception.toString());
+        }
+    }
+
+    public String describe()
+    {
+        return "Server: " + clientCount.get() + " clients, " + requestCount.get() + " requests";
+    }
+
+    private void shutDown()
+    {
+        for (SocketChannel clientChannel : openChannels) closeQuietly(clientChannel);
+        clients.shutdownNow();
+
+        // writes already submitted are committed, so every "OK" a client got is in the database
+        writer.close();
+
+        try
+        {
+            if (socketPath != null) Files.deleteIfExists(socketPath);
+        }
+        catch (IOException exception)
+        {
+            System.out.println("Error removing socket file: " + exception.toString());
+        }
+        System.out.println(describe());
+        System.out.println(writer.describe());
+        if (Instrumentation.isEnabled()) System.out.println(Instrumentation.report());
+    }
+
+    // ----------------------------
+    // One client
+    // ----------------------------
+    private void handleClient(SocketChannel clientChannel)
+    {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(clientChannel), StandardCharsets.UTF_8), BUFFER_SIZE);
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(clientChannel), StandardCharsets.UTF_8), BUFFER_SIZE))
+        {
+            PipeTokenizer tokenizer = new PipeTokenizer();
+            ResultRenderer renderer = ResultRenderer.toWriter(out, ResultRenderer.FORMAT_PIPE, FETCH_SIZE);
+            while (!stopped)
+            {
+                String line = in.readLine();
+                if (line == null) break;
+
+                requestCount.incrementAndGet();
+                if (!handleRequest(line, tokenizer, renderer, out)) break;
+                out.flush();
+            }
+        }
+        catch (IOException exception)
+        {
+            // the client went away
+        }
+        finally
+        {
+            openChannels.remove(clientChannel);
+            closeQuietly(clientChannel);
+        }
+    }
+
+    // Writes the response to one request line; returns false once the client ends the session
+    private boolean handleRequest(String line, PipeTokenizer tokenizer, ResultRenderer renderer, BufferedWriter out) throws IOException
+    {
+        ScriptCommand scriptCommand = Main.parseScriptLine(tokenizer, line);
+        if (scriptCommand == null || scriptCommand.command >= ScriptCommand.RAW_SQL)
+        {
+            // blank lines, invalid commands, raw SQL and script directives
+            writeLine(out, "ERROR unsupported or invalid command");
+            return true;
+        }
+
+        if (scriptCommand.command == ScriptCommand.STOP)
+        {
+            writeLine(out, "BYE");
+            out.flush();
+            return false;
+        }
+
+        try
+        {
+            if (scriptCommand.command == ScriptCommand.DISPLAY || scriptCommand.command == ScriptCommand.JOIN || scriptCommand.command == ScriptCommand.SEARCH)
+            {
+                render(scriptCommand, renderer);
+            }
+            else
+            {
+                String result = submitWrite(scriptCommand).get();
+                if (result != null) writeLine(out, result);
+            }
+            writeLine(out, "OK");
+        }
+        catch (ExecutionException exception)
+        {
+            writeLine(out, "ERROR " + exception.getCause());
+        }
+        catch (InterruptedException exception)
+        {
+            Thread.currentThread().interrupt();
+            writeLine(out, "ERROR interrupted");
+            return false;
+        }
+        catch (SQLException exception)
+        {
+            writeLine(out, "ERROR " + exception.toString());
+        }
+        return true;
+    }
+
+    // Streams a display, join or search from a reader, so it never waits for the writer
+    private void render(ScriptCommand scriptCommand, ResultRenderer renderer) throws SQLException, IOException
+    {
+        Connection reader = pool.borrowReader();
+        try
+        {
+            if (scriptCommand.command == ScriptCommand.DISPLAY) Main.renderTable(renderer, reader, scriptCommand.values[0], scriptCommand.displayPage);
+            else if (scriptCommand.command == ScriptCommand.SEARCH) SearchIndex.render(renderer, reader, scriptCommand.values[0], scriptCommand.values[1], scriptCommand.id);
+            else Main.renderJoin(renderer, reader, scriptCommand.subtype, scriptCommand.displayPage);
+        }
+        finally
+        {
+            pool.returnReader(reader);
+        }
+    }
+
+    // Runs on the writer thread; the result is a line to send before "OK", or null
+    private Future<String> submitWrite(ScriptCommand scriptCommand)
+    {
+        return writer.submit(statement ->
+        {
+            if (scriptCommand.command == ScriptCommand.COMPUTE)
+            {
+                if (scriptCommand.subtype == 1) return "Agents Experience -> " + Main.getStatsEngine(statement).summary(StatsEngine.AGENT_EXPERIENCE);
+                return "Books Cost -> " + Main.getStatsEngine(statement).summary(StatsEngine.BOOK_COST);
+            }
+            // throws on a failed write, so the client hears ERROR instead of OK
+            Main.executeCheckedWrite(scriptCommand, statement);
+            return null;
+        });
+    }
+
+    private static void writeLine(BufferedWriter out, String line) throws IOException
+    {
+        out.write(line);
+        out.write('\n');
+    }
+
+    private static void closeQuietly(SocketChannel channel)
+    {
+        try
+        {
+            channel.close();
+        }
+        catch (IOException exception)
+        {
+            // already closed
+        }
+    }
+}
@@ -0,0 +1,372 @@
+// ResultRenderer.java  (streams query results to the console or a file as pipe text, CSV or JSON Lines)
+//
+// Column positions are resolved once per query from ResultSetMetaData and every cell is written
+// straight into one large buffered writer, so a display costs no per-cell lookups or prints.
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+
+public class ResultRenderer
+{
+    public static final int FORMAT_PIPE = 0;
+    public static final int FORMAT_CSV = 1;
+    public static final int FORMAT_JSON_LINES = 2;
+
+    private static final String[] FORMAT_NAMES = {"pipe", "csv", "jsonl"};
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final Writer out;
+    private final int format;
+    private final int fetchSize;
+
+    // null for the console
+    private final String filePath;
+
+    private long renderedRowCount = 0;
+
+    // first column of the last row written, where a paged display keeps its key
+    private String lastRowKey = null;
+
+    private ResultRenderer(Writer out, int format, int fetchSize, String filePath)
+    {
+        this.out = out;
+        this.format = format;
+        this.fetchSize = fetchSize;
+        this.filePath = filePath;
+    }
+
+    public static ResultRenderer toConsole(int format, int fetchSize)
+    {
+        return new ResultRenderer(new BufferedWriter(new OutputStreamWriter(System.out), BUFFER_SIZE), format, fetchSize, null);
+    }
+
+    // Appends, so several displays can be collected into one file
+    public static ResultRenderer toFile(String path, int format, int fetchSize) throws IOException
+    {
+        Writer fileWriter = new OutputStreamWriter(new FileOutputStream(path, true), StandardCharsets.UTF_8);
+        return new ResultRenderer(new BufferedWriter(fileWriter, BUFFER_SIZE), format, fetchSize, path);
+    }
+
+    // Writes into a stream the caller owns, such as a server connection; close() only flushes it
+    public static ResultRenderer toWriter(Writer out, int format, int fetchSize)
+    {
+        return new ResultRenderer(out, format, fetchSize, null);
+    }
+
+    // FORMAT_* for "pipe", "csv" or "jsonl"; -1 for anything else
+    public static int formatFor(String formatName)
+    {
+        int formatIndex = 0;
+        while (formatIndex < FORMAT_NAMES.length)
+        {
+            if (FORMAT_NAMES[formatIndex].equalsIgnoreCase(formatName)) return formatIndex;
+            formatIndex = formatIndex + 1;
+        }
+        return -1;
+    }
+
+    public boolean isFileOutput()
+    {
+        return filePath != null;
+    }
+
+    public int getFormat()
+    {
+        return format;
+    }
+
+    public int getFetchSize()
+    {
+        return fetchSize;
+    }
+
+    public long getRenderedRowCount()
+    {
+        return renderedRowCount;
+    }
+
+    public String getLastRowKey()
+    {
+        return lastRowKey;
+    }
+
+    public String describe()
+    {
+        String target = "console";
+        if (filePath != null) target = filePath;
+        return "Result output: " + target + " (" + FORMAT_NAMES[format] + ", fetch size " + fetchSize + "), " + renderedRowCount + " rows rendered";
+    }
+
+    // ----------------------------
+    // Render
+    // ----------------------------
+    // Runs sql and writes every row under the given headers. A header is matched to the result
+    // column with the same label, otherwise to the column at the same position; a header with
+    // neither renders as NULL. Returns the number of rows written.
+    public long render(Connection connection, String sql, String[] headers) throws SQLException, IOException
+    {
+        return render(connection, sql, null, headers);
+    }
+
+    // As above with sql's ? placeholders bound to parameters in order (null for none)
+    public long render(Connection connection, String sql, String[] parameters, String[] headers) throws SQLException, IOException
+    {
+        long rowCount = 0;
+        long startNanos = Instrumentation.start();
+        lastRowKey = null;
+        try
+        {
+            writeHeader(headers);
+            try (PreparedStatement queryStatement = connection.prepareStatement(sql))
+            {
+                queryStatement.setFetchSize(fetchSize);
+                int parameterIndex = 0;
+                while (parameters != null && parameterIndex < parameters.length)
+                {
+                    queryStatement.setString(parameterIndex + 1, parameters[parameterIndex]);
+                    parameterIndex = parameterIndex + 1;
+                }
+                try (ResultSet resultSet = queryStatement.executeQuery())
+                {
+                    ResultSetMetaData metaData = resultSet.getMetaData();
+                    int[] columnIndexes = resolveColumns(metaData, headers);
+                    boolean[] numericColumns = numericColumns(metaData, columnIndexes);
+
+                    while (resultSet.next())
+                    {
+                        writeRow(resultSet, headers, columnIndexes, numericColumns);
+                        rowCount = rowCount + 1;
+                    }
+                }
+            }
+        }
+        finally
+        {
+            // keeps the output in order with anything printed straight to System.out
+            renderedRowCount = renderedRowCount + rowCount;
+            out.flush();
+            Instrumentation.recordStatement(sql, startNanos, rowCount);
+        }
+        return rowCount;
+    }
+
+    public void close()
+    {
+        try
+        {
+            out.flush();
+            if (filePath != null) out.close();
+        }
+        catch (IOException exception)
+        {
+            System.out.println("Error closing result output: " + exception.toString());
+        }
+    }
+
+    // ----------------------------
+    // Column resolution
+    // ----------------------------
+    private static int[] resolveColumns(ResultSetMetaData metaData, String[] headers) throws SQLException
+    {
+        int columnCount = metaData.getColumnCount();
+        int[] columnIndexes = new int[headers.length];
+        int headerIndex = 0;
+        while (headerIndex < headers.length)
+        {
+            int resolvedIndex = 0;
+            int columnIndex = 1;
+            while (columnIndex <= columnCount && resolvedIndex == 0)
+            {
+                if (headers[headerIndex].equalsIgnoreCase(metaData.getColumnLabel(columnIndex))) resolvedIndex = columnIndex;
+                columnIndex = columnIndex + 1;
+            }
+            if (resolvedIndex == 0 && headerIndex < columnCount) resolvedIndex = headerIndex + 1;
+            columnIndexes[headerIndex] = resolvedIndex;
+            headerIndex = headerIndex + 1;
+        }
+        return columnIndexes;
+    }
+
+    // Declared INTEGER/REAL columns may be written to JSON unquoted (each value is still checked)
+    private boolean[] numericColumns(ResultSetMetaData metaData, int[] columnIndexes) throws SQLException
+    {
+        boolean[] numericColumns = new boolean[columnIndexes.length];
+        if (format != FORMAT_JSON_LINES) return numericColumns;
+
+        int headerIndex = 0;
+        while (headerIndex < columnIndexes.length)
+        {
+            if (columnIndexes[headerIndex] > 0)
+            {
+                String typeName = metaData.getColumnTypeName(columnIndexes[headerIndex]);
+                numericColumns[headerIndex] = typeName != null && (typeName.equalsIgnoreCase("INTEGER") || typeName.equalsIgnoreCase("REAL"));
+            }
+            headerIndex = headerIndex + 1;
+        }
+        return numericColumns;
+    }
+
+    // ----------------------------
+    // Writers
+    // ----------------------------
+    private void writeHeader(String[] headers) throws IOException
+    {
+        if (format == FORMAT_JSON_LINES) return;
+
+        int headerIndex = 0;
+        while (headerIndex < headers.length)
+        {
+            if (headerIndex > 0) writeSeparator();
+            if (format == FORMAT_CSV) writeCsvField(headers[headerIndex]);
+            else out.write(headers[headerIndex]);
+            headerIndex = headerIndex + 1;
+        }
+        out.write(System.lineSeparator());
+    }
+
+    private void writeRow(ResultSet resultSet, String[] headers, int[] columnIndexes, boolean[] numericColumns) throws SQLException, IOException
+    {
+        if (format == FORMAT_JSON_LINES) out.write('{');
+
+        int headerIndex = 0;
+        while (headerIndex < headers.length)
+        {
+            String value = null;
+            if (columnIndexes[headerIndex] > 0) value = resultSet.getString(columnIndexes[headerIndex]);
+            if (headerIndex == 0) lastRowKey = value;
+
+            if (format == FORMAT_JSON_LINES)
+            {
+                if (headerIndex > 0) out.write(',');
+                writeJsonString(headers[headerIndex]);
+                out.write(':');
+                if (value == null) out.write("null");
+                else if (numericColumns[headerIndex] && isJsonNumber(value)) out.write(value);
+                else writeJsonString(value);
+            }
+            else
+            {
+                if (headerIndex > 0) writeSeparator();
+                if (format == FORMAT_CSV)
+                {
+                    // an empty field is NULL, a quoted empty field is the empty string
+                    if (value != null) writeCsvField(value);
+                }
+                else
+                {
+                    if (value == null) value = "NULL";
+                    out.write(value);
+                }
+            }
+            headerIndex = headerIndex + 1;
+        }
+
+        if (format == FORMAT_JSON_LINES) out.write('}');
+        out.write(System.lineSeparator());
+    }
+
+    private void writeSeparator() throws IOException
+    {
+        if (format == FORMAT_CSV) out.write(',');
+        else out.write(" | ");
+    }
+
+    // RFC 4180: quote when the field holds a comma, quote or line break, or is empty
+    private void writeCsvField(String value) throws IOException
+    {
+        boolean needsQuotes = value.length() == 0;
+        int charIndex = 0;
+        while (charIndex < value.length() && !needsQuotes)
+        {
+            char character = value.charAt(charIndex);
+            if (character == ',' || character == '"' || character == '\n' || character == '\r') needsQuotes = true;
+            charIndex = charIndex + 1;
+        }
+
+        if (!needsQuotes)
+        {
+            out.write(value);
+            return;
+        }
+
+        out.write('"');
+        charIndex = 0;
+        while (charIndex < value.length())
+        {
+            char character = value.charAt(charIndex);
+            if (character == '"') out.write('"');
+            out.write(character);
+            charIndex = charIndex + 1;
+        }
+        out.write('"');
+    }
+
+    private void writeJsonString(String value) throws IOException
+    {
+        out.write('"');
+        int charIndex = 0;
+        while (charIndex < value.length())
+        {
+            char character = value.charAt(charIndex);
+            if (character == '"' || character == '\\')
+            {
+                out.write('\\');
+                out.write(character);
+            }
+            else if (character == '\n') out.write("\\n");
+            else if (character == '\r') out.write("\\r");
+            else if (character == '\t') out.write("\\t");
+            else if (character < 0x20)
+            {
+                out.write("\\u00");
+                out.write(Character.forDigit(character >> 4, 16));
+                out.write(Character.forDigit(character & 0xf, 16));
+            }
+            else out.write(character);
+            charIndex = charIndex + 1;
+        }
+        out.write('"');
+    }
+
+    // -?digits[.digits][e[+-]digits], i.e. text JSON accepts as a number as-is
+    private static boolean isJsonNumber(String value)
+    {
+        int length = value.length();
+        int charIndex = 0;
+        if (charIndex < length && value.charAt(charIndex) == '-') charIndex = charIndex + 1;
+
+        int digitStart = charIndex;
+        while (charIndex < length && isAsciiDigit(value.charAt(charIndex))) charIndex = charIndex + 1;
+        int integerDigits = charIndex - digitStart;
+        if (integerDigits == 0) return false;
+        if (integerDigits > 1 && value.charAt(digitStart) == '0') return false;
+
+        if (charIndex < length && value.charAt(charIndex) == '.')
+        {
+            charIndex = charIndex + 1;
+            int fractionStart = charIndex;
+            while (charIndex < length && isAsciiDigit(value.charAt(charIndex))) charIndex = charIndex + 1;
+            if (charIndex == fractionStart) return false;
+        }
+
+        if (charIndex < length && (value.charAt(charIndex) == 'e' || value.charAt(charIndex) == 'E'))
+        {
+            charIndex = charIndex + 1;
+            if (charIndex < length && (value.charAt(charIndex) == '+' || value.charAt(charIndex) == '-')) charIndex = charIndex + 1;
+            int exponentStart = charIndex;
+            while (charIndex < length && isAsciiDigit(value.charAt(charIndex))) charIndex = charIndex + 1;
+            if (charIndex == exponentStart) return false;
+        }
+        return charIndex == length;
+    }
+
+    private static boolean isAsciiDigit(char character)
+    {
+        return character >= '0' && character <= '9';
+    }
+}
@@ -0,0 +1,223 @@
+// SalaryBandIndex.java  (Salaries sorted by Experience, for matching agents to the salary band they have reached)
+//
+// A salary's Experience is where its band starts; the band runs up to the next higher Experience,
+// so the best salary for an agent is the last entry at or below the agent's years, found with one
+// binary search. Entries with the same Experience are ordered by Salary and then by descending
+// SalaryID, so the last of them is the best paid one and the oldest on a tie. The entries live in
+// parallel primitive arrays, loaded from the table the first time a lookup needs them and then
+// shifted in place by each register, update and purge; anything the index cannot follow (raw
+// SQL, imports, rollbacks) drops it back to a reload.
+import java.sql.*;
+import java.util.Arrays;
+
+public class SalaryBandIndex
+{
+    private static final int INITIAL_CAPACITY = 64;
+
+    public static final int NO_SALARY = -1;
+
+    private final Connection connection;
+
+    // until the first lookup, and again after invalidate(), writes are not tracked
+    private boolean loaded = false;
+
+    // entries 0..size-1 sorted by (Experience, Salary, SalaryID descending); rows whose Salary or
+    // Experience is not an integer have no band and are left out
+    private int size = 0;
+    private long[] experiences = new long[INITIAL_CAPACITY];
+    private long[] salaries = new long[INITIAL_CAPACITY];
+    private int[] salaryIds = new int[INITIAL_CAPACITY];
+
+    private long loadCount = 0;
+
+    public SalaryBandIndex(Connection connection)
+    {
+        this.connection = connection;
+    }
+
+    public Connection getConnection()
+    {
+        return connection;
+    }
+
+    // ----------------------------
+    // Lookups
+    // ----------------------------
+    // The SalaryID whose band holds experienceYears, or NO_SALARY when every band starts above it
+    public int bestSalaryFor(long experienceYears) throws SQLException
+    {
+        ensureLoaded();
+
+        // first entry starting above the agent's years; the one before it is the best match
+        int low = 0;
+        int high = size;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (experiences[middle] <= experienceYears) low = middle + 1;
+            else high = middle;
+        }
+        if (low == 0) return NO_SALARY;
+        return salaryIds[low - 1];
+    }
+
+    public int size() throws SQLException
+    {
+        ensureLoaded();
+        return size;
+    }
+
+    public String describe()
+    {
+        return "Salary bands: " + size + " salaries, " + loadCount + " loads";
+    }
+
+    // ----------------------------
+    // Write notifications
+    // Values arrive as the validated script/menu text, as for StatsEngine.
+    // ----------------------------
+    public void added(int salaryId, String salaryText, String experienceText)
+    {
+        if (!loaded || salaryId < 0) return;
+        if (!isStoredAsInteger(salaryText) || !isStoredAsInteger(experienceText)) return;
+        insertEntry(salaryId, Long.parseLong(salaryText), Long.parseLong(experienceText));
+    }
+
+    // columnName is Salary or Experience
+    public void updated(int salaryId, String columnName, String newValueText)
+    {
+        if (!loaded) return;
+
+        int entryIndex = indexOfSalary(salaryId);
+        if (entryIndex < 0)
+        {
+            // the row had no band before, and the new value may give it one
+            invalidate();
+            return;
+        }
+
+        long salary = salaries[entryIndex];
+        long experienceYears = experiences[entryIndex];
+        removeEntry(entryIndex);
+
+        if (!isStoredAsInteger(newValueText)) return;
+        if (columnName.equals("Salary")) salary = Long.parseLong(newValueText);
+        else experienceYears = Long.parseLong(newValueText);
+        insertEntry(salaryId, salary, experienceYears);
+    }
+
+    public void removed(PurgeSelection selection)
+    {
+        if (!loaded) return;
+
+        if (selection.isSingle())
+        {
+            int entryIndex = indexOfSalary(selection.getFirstId());
+            if (entryIndex >= 0) removeEntry(entryIndex);
+        }
+        else
+        {
+            invalidate();
+        }
+    }
+
+    public void invalidate()
+    {
+        loaded = false;
+        size = 0;
+    }
+
+    // ----------------------------
+    // Internal
+    // ----------------------------
+    private void ensureLoaded() throws SQLException
+    {
+        if (loaded) return;
+
+        loadCount = loadCount + 1;
+        size = 0;
+        String sql = "SELECT SalaryID, Salary, Experience FROM Salaries WHERE typeof(Salary) = 'integer' AND typeof(Experience) = 'integer' "
+                + "ORDER BY Experience, Salary, SalaryID DESC;";
+        long startNanos = Instrumentation.start();
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(sql))
+        {
+            while (resultSet.next())
+            {
+                ensureCapacity(size + 1);
+                salaryIds[size] = resultSet.getInt(1);
+                salaries[size] = resultSet.getLong(2);
+                experiences[size] = resultSet.getLong(3);
+                size = size + 1;
+            }
+        }
+        Instrumentation.recordStatement(sql, startNanos, size);
+        loaded = true;
+    }
+
+    private void insertEntry(int salaryId, long salary, long experienceYears)
+    {
+        // first entry that sorts after the new one
+        int low = 0;
+        int high = size;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (sortsAfter(middle, salaryId, salary, experienceYears)) high = middle;
+            else low = middle + 1;
+        }
+
+        ensureCapacity(size + 1);
+        System.arraycopy(experiences, low, experiences, low + 1, size - low);
+        System.arraycopy(salaries, low, salaries, low + 1, size - low);
+        System.arraycopy(salaryIds, low, salaryIds, low + 1, size - low);
+        experiences[low] = experienceYears;
+        salaries[low] = salary;
+        salaryIds[low] = salaryId;
+        size = size + 1;
+    }
+
+    private void removeEntry(int entryIndex)
+    {
+        int movedCount = size - entryIndex - 1;
+        System.arraycopy(experiences, entryIndex + 1, experiences, entryIndex, movedCount);
+        System.arraycopy(salaries, entryIndex + 1, salaries, entryIndex, movedCount);
+        System.arraycopy(salaryIds, entryIndex + 1, salaryIds, entryIndex, movedCount);
+        size = size - 1;
+    }
+
+    private boolean sortsAfter(int entryIndex, int salaryId, long salary, long experienceYears)
+    {
+        if (experiences[entryIndex] != experienceYears) return experiences[entryIndex] > experienceYears;
+        if (salaries[entryIndex] != salary) return salaries[entryIndex] > salary;
+        return salaryIds[entryIndex] < salaryId;
+    }
+
+    // Entries are sorted by Experience, not ID, so this is a scan; it runs once per single-row write
+    private int indexOfSalary(int salaryId)
+    {
+        int entryIndex = 0;
+        while (entryIndex < size)
+        {
+            if (salaryIds[entryIndex] == salaryId) return entryIndex;
+            entryIndex = entryIndex + 1;
+        }
+        return -1;
+    }
+
+    private void ensureCapacity(int neededSize)
+    {
+        if (neededSize <= salaryIds.length) return;
+
+        int newCapacity = salaryIds.length * 2;
+        while (newCapacity < neededSize) newCapacity = newCapacity * 2;
+        experiences = Arrays.copyOf(experiences, newCapacity);
+        salaries = Arrays.copyOf(salaries, newCapacity);
+        salaryIds = Arrays.copyOf(salaryIds, newCapacity);
+    }
+
+    // What SQLite keeps as an INTEGER in these columns: digits that fit in a long
+    private static boolean isStoredAsInteger(String valueText)
+    {
+        return Main.isInteger(valueText) && valueText.length() <= 18;
+    }
+}
@@ -0,0 +1,105 @@
+// SchemaVersion.java  (the schema version a persistent database is at, and the steps that bring it up to date)
+//
+// A persistent start keeps the existing tables. It reads the stored version and runs only the
+// migration steps after it, each in the same transaction as the new version number.
+import java.sql.*;
+
+public class SchemaVersion
+{
+    // version 1: the ten tables and managed indexes of initializeTables, plus the script watermark
+    // version 2: the name search indexes and phone expression indexes of SearchIndex
+    public static final int CURRENT_VERSION = 2;
+
+    private SchemaVersion()
+    {
+    }
+
+    // Brings the database up to CURRENT_VERSION and returns the version it was at (0 for a new file)
+    public static int migrate(Statement statement) throws SQLException
+    {
+        Main.createTableOrThrow(new String[]{"SchemaVersion", "Version INTEGER NOT NULL"}, statement);
+        int storedVersion = readVersion(statement);
+        if (storedVersion > CURRENT_VERSION)
+        {
+            throw new SQLException("Database schema version " + storedVersion + " is newer than this program's " + CURRENT_VERSION);
+        }
+
+        Connection connection = statement.getConnection();
+        boolean wasAutoCommit = connection.getAutoCommit();
+        int version = storedVersion;
+        try
+        {
+            connection.setAutoCommit(false);
+            while (version < CURRENT_VERSION)
+            {
+                version = version + 1;
+                applyStep(version, statement);
+                statement.executeUpdate("DELETE FROM SchemaVersion;");
+                statement.executeUpdate("INSERT INTO SchemaVersion (Version) VALUES (" + version + ");");
+                connection.commit();
+                System.out.println("Migrated database schema to version " + version);
+            }
+        }
+        catch (SQLException exception)
+        {
+            connection.rollback();
+            throw exception;
+        }
+        finally
+        {
+            connection.setAutoCommit(wasAutoCommit);
+        }
+        return storedVersion;
+    }
+
+    // True when any of the ten tables of initializeTables holds a row
+    public static boolean holdsRows(Statement statement) throws SQLException
+    {
+        int tableIndex = 0;
+        while (tableIndex < ColumnarSnapshot.TABLES.length)
+        {
+            try (ResultSet resultSet = statement.executeQuery("SELECT EXISTS (SELECT 1 FROM " + ColumnarSnapshot.TABLES[tableIndex] + ");"))
+            {
+                if (resultSet.next() && resultSet.getInt(1) != 0) return true;
+            }
+            tableIndex = tableIndex + 1;
+        }
+        return false;
+    }
+
+    // A non-persistent start rebuilds everything, so neither the version nor any watermark holds anymore
+    public static void forget(Statement statement)
+    {
+        Main.dropTable("ScriptWatermark", statement);
+        Main.dropTable("SchemaVersion", statement);
+    }
+
+    // ----------------------------
+    // Migration steps; add new ones at the end and raise CURRENT_VERSION.
+    // Steps use the throwing variants of the create helpers, so a failed CREATE rolls the step
+    // back in migrate() instead of being printed and recorded as done.
+    // ----------------------------
+    private static void applyStep(int version, Statement statement) throws SQLException
+    {
+        if (version == 1)
+        {
+            // CREATE ... IF NOT EXISTS throughout, so tables from a start without --persistent are kept
+            Main.initializeTablesOrThrow(statement);
+            ScriptWatermark.createTableOrThrow(statement);
+        }
+        else if (version == 2)
+        {
+            // fills the name indexes from the rows already there
+            SearchIndex.createSearchIndexesOrThrow(statement);
+        }
+    }
+
+    private static int readVersion(Statement statement) throws SQLException
+    {
+        try (ResultSet resultSet = statement.executeQuery("SELECT MAX(Version) FROM SchemaVersion;"))
+        {
+            if (resultSet.next()) return resultSet.getInt(1);
+            return 0;
+        }
+    }
+}
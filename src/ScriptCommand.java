@@ -0,0 +1,72 @@
+// ScriptCommand.java  (one validated script line, ready for the writer to apply)
+public class ScriptCommand
+{
+    // command codes follow the first field of a script line; the rest are script-only forms
+    public static final int STOP = 0;
+    public static final int REGISTER = 1;
+    public static final int UPDATE = 2;
+    public static final int PURGE = 3;
+    public static final int DISPLAY = 4;
+    public static final int COMPUTE = 5;
+    public static final int JOIN = 6;
+    public static final int SEARCH = 8;
+    public static final int ROLLOVER = 9;
+    public static final int ASSIGN_SALARIES = 10;
+    public static final int RAW_SQL = 100;
+    public static final int BATCH_DIRECTIVE = 101;
+    public static final int OUTPUT_DIRECTIVE = 102;
+    public static final int IMPORT_DIRECTIVE = 103;
+    public static final int EXPORT_DIRECTIVE = 104;
+    public static final int RESTORE_DIRECTIVE = 105;
+    public static final int PROFILE_DIRECTIVE = 106;
+
+    public final int command;
+
+    // second field of the line (register subtype, table token, compute/join choice); the result
+    // format for an output directive and the table's register subtype for an import directive
+    public final int subtype;
+
+    // row ID for update/purge, page for a search, years for a rollover, new batch size for a batch directive, file format for an import directive
+    public final int id;
+
+    // String values exactly as they will be bound:
+    //   register 1 {Name, PhoneNumber, Experience}       register 2 {BookName, AuthorID, Cost}
+    //   register 3 {Name, PhoneNumber, HourlyCharge}     register 4 {AgentID, BookID, Name, PhoneNumber}
+    //   register 5 {Salary, Experience, AgentID}
+    //   update {TableName, IdColumnName, ColumnName, NewValue}    display {TableName}    raw SQL {Sql}
+    //   search {TableName, Terms}
+    //   output directive {FilePath, or null for the console}    import/export/restore directive {FilePath}
+    //   profile directive {ProfileName}
+    public final String[] values;
+
+    // IDs a purge applies to (one ID, a range or a list); null for every other command
+    public final PurgeSelection purgeSelection;
+
+    // filters and page of a display or join, or the agents a rollover applies to; null for all rows
+    public final DisplayPage displayPage;
+
+    public ScriptCommand(int command, int subtype, int id, String[] values)
+    {
+        this(command, subtype, id, values, null, null);
+    }
+
+    public ScriptCommand(int command, int subtype, int id, String[] values, PurgeSelection purgeSelection)
+    {
+        this(command, subtype, id, values, purgeSelection, null);
+    }
+
+    public ScriptCommand(int command, int subtype, int id, String[] values, PurgeSelection purgeSelection, DisplayPage displayPage)
+    {
+        this.command = command;
+        this.subtype = subtype;
+        this.id = id;
+        this.values = values;
+        this.purgeSelection = purgeSelection;
+        this.displayPage = displayPage;
+    }
+
+    public boolean isRegister(int registerSubtype)
+    {
+        return command == REGISTER && subtype == registerSubtype;
+    }
+}
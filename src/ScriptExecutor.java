@@ -0,0 +1,350 @@
+// ScriptExecutor.java  (applies parsed script lines on the writer connection, in batches)
+import java.sql.*;
+import java.util.ArrayList;
+
+public class ScriptExecutor
+{
+    private final Connection connection;
+    private final Statement statement;
+    private final boolean silentMode;
+
+    // batchSize > 1 groups that many lines into one transaction; every line runs inside
+    // its own savepoint so a failing line is rolled back alone and the batch carries on.
+    private int batchSize;
+    private int linesInBatch = 0;
+
+    private int executedLineCount = 0;
+    private final long startNanos = System.nanoTime();
+
+    // consecutive register lines of one subtype are buffered and inserted together
+    private int pendingRegisterSubtype = 0;
+    private final ArrayList<String[]> pendingRegisterRows = new ArrayList<String[]>();
+
+    // persistent starts only: stored with every commit, so the position never gets ahead of or
+    // behind the rows. Lines then always run in a transaction, committed when the batch is full
+    // or the watermark's checkpoint interval is up, so batch size 1 no longer commits every line.
+    private final ScriptWatermark watermark;
+
+    public ScriptExecutor(Statement statement, boolean silentMode, int batchSize) throws SQLException
+    {
+        this(statement, silentMode, batchSize, null);
+    }
+
+    public ScriptExecutor(Statement statement, boolean silentMode, int batchSize, ScriptWatermark watermark) throws SQLException
+    {
+        this.connection = statement.getConnection();
+        this.statement = statement;
+        this.silentMode = silentMode;
+        this.batchSize = batchSize;
+        this.watermark = watermark;
+        setBatchMode(isTransactional());
+    }
+
+    // ----------------------------
+    // Apply one line read from the script at [lineStart, lineEnd); scriptCommand is null for lines
+    // that parse to nothing. Returns false once the script asks to stop.
+    // ----------------------------
+    public boolean applyLine(ScriptCommand scriptCommand, long lineNumber, long lineStart, long lineEnd, String rawLine)
+    {
+        if (watermark == null) return scriptCommand == null || apply(scriptCommand);
+
+        if (scriptCommand == null)
+        {
+            watermark.advance(lineNumber, lineStart, lineEnd, rawLine);
+            return true;
+        }
+
+        // a stop line is never passed, so every restart stops at it again
+        if (scriptCommand.command == ScriptCommand.STOP) return apply(scriptCommand);
+
+        if (scriptCommand.command == ScriptCommand.IMPORT_DIRECTIVE || scriptCommand.command == ScriptCommand.RESTORE_DIRECTIVE)
+        {
+            // these commit on their own, so the watermark moves past them only once they are done
+            boolean running = apply(scriptCommand);
+            watermark.advance(lineNumber, lineStart, lineEnd, rawLine);
+            commitBatch();
+            return running;
+        }
+
+        watermark.advance(lineNumber, lineStart, lineEnd, rawLine);
+        return apply(scriptCommand);
+    }
+
+    // ----------------------------
+    // Apply one line; returns false once the script asks to stop
+    // ----------------------------
+    public boolean apply(ScriptCommand scriptCommand)
+    {
+        if (scriptCommand.command == ScriptCommand.BATCH_DIRECTIVE)
+        {
+            // commit what is pending and switch to the new batch size
+            flushRegisterRun();
+            commitBatch();
+            linesInBatch = 0;
+            batchSize = scriptCommand.id;
+            setBatchMode(isTransactional());
+            return true;
+        }
+
+        if (scriptCommand.command == ScriptCommand.IMPORT_DIRECTIVE)
+        {
+            // the import commits in its own large transactions, so finish the current batch first
+            flushRegisterRun();
+            commitBatch();
+            linesInBatch = 0;
+            try
+            {
+                new BulkImporter(statement).importFile(scriptCommand.subtype, scriptCommand.values[0], scriptCommand.id);
+            }
+            catch (SQLException exception)
+            {
+                System.out.println("Error starting import: " + exception.toString());
+            }
+            setBatchMode(isTransactional());
+            return true;
+        }
+
+        if (scriptCommand.command == ScriptCommand.EXPORT_DIRECTIVE || scriptCommand.command == ScriptCommand.RESTORE_DIRECTIVE)
+        {
+            // a snapshot covers committed rows only, and a restore runs in its own transaction
+            flushRegisterRun();
+            commitBatch();
+            linesInBatch = 0;
+            if (scriptCommand.command == ScriptCommand.EXPORT_DIRECTIVE) Main.exportSnapshot(statement, scriptCommand.values[0]);
+            else Main.restoreSnapshot(statement, scriptCommand.values[0]);
+            setBatchMode(isTransactional());
+            return true;
+        }
+
+        if (scriptCommand.command == ScriptCommand.PROFILE_DIRECTIVE)
+        {
+            // pragmas such as journal_mode only change between transactions
+            flushRegisterRun();
+            commitBatch();
+            linesInBatch = 0;
+            Main.applyConnectionProfile(statement, ConnectionProfile.forName(scriptCommand.values[0]), false);
+            setBatchMode(isTransactional());
+            return true;
+        }
+
+        if (scriptCommand.command == ScriptCommand.OUTPUT_DIRECTIVE)
+        {
+            // displays already written stay where they went; later ones follow the directive
+            flushRegisterRun();
+            Main.setResultOutput(scriptCommand.values[0], scriptCommand.subtype);
+            return true;
+        }
+
+        if (scriptCommand.command == ScriptCommand.RAW_SQL)
+        {
+            flushRegisterRun();
+            try
+            {
+                Main.executeScriptCommand(scriptCommand, statement, silentMode);
+            }
+            catch (Exception exception)
+            {
+                // suppressed in silent script mode
+            }
+            // raw SQL can change anything the running aggregates and entity cache cover
+            Main.invalidateCaches();
+            return true;
+        }
+
+        executedLineCount = executedLineCount + 1;
+
+        // anything other than another register line of the same subtype ends the pending run
+        if (!pendingRegisterRows.isEmpty() && !scriptCommand.isRegister(pendingRegisterSubtype))
+        {
+            flushRegisterRun();
+        }
+
+        if (scriptCommand.command == ScriptCommand.STOP)
+        {
+            return false;
+        }
+
+        Savepoint lineSavepoint = null;
+
+        try
+        {
+            if (batchSize > 1 && scriptCommand.command == ScriptCommand.REGISTER && scriptCommand.subtype != 3)
+            {
+                pendingRegisterSubtype = scriptCommand.subtype;
+                pendingRegisterRows.add(scriptCommand.values);
+            }
+            else
+            {
+                if (isTransactional()) lineSavepoint = connection.setSavepoint();
+                Main.executeScriptCommand(scriptCommand, statement, silentMode);
+            }
+        }
+        catch (Exception exception)
+        {
+            // suppressed for script execution; undo whatever part of the line already ran
+            rollbackToSavepoint(lineSavepoint);
+            lineSavepoint = null;
+        }
+        finally
+        {
+            if (lineSavepoint != null) releaseSavepoint(lineSavepoint);
+
+            if (isTransactional())
+            {
+                linesInBatch = linesInBatch + 1;
+                boolean batchFull = batchSize > 1 && linesInBatch >= batchSize;
+                if (batchFull || (watermark != null && watermark.isCheckpointDue()))
+                {
+                    flushRegisterRun();
+                    commitBatch();
+                    linesInBatch = 0;
+                }
+            }
+        }
+        return true;
+    }
+
+    // ----------------------------
+    // Flush, commit and report once the script is done
+    // ----------------------------
+    public void finish()
+    {
+        flushRegisterRun();
+        commitBatch();
+        setBatchMode(false);
+
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long elapsedMillis = elapsedNanos / 1000000;
+        long linesPerSecond = 0;
+        if (elapsedNanos > 0) linesPerSecond = (long) executedLineCount * 1000000000L / elapsedNanos;
+        System.out.println("Script finished: " + executedLineCount + " lines in " + elapsedMillis + " ms (" + linesPerSecond + " lines/sec)");
+        try
+        {
+            System.out.println(Main.getStatementCache(statement).describe());
+            System.out.println(Main.getEntityCache(statement).describe());
+            if (watermark != null) System.out.println(watermark.describe());
+        }
+        catch (SQLException exception)
+        {
+            // nothing to report without a cache
+        }
+        if (Instrumentation.isEnabled()) System.out.println(Instrumentation.report());
+    }
+
+    public int getExecutedLineCount()
+    {
+        return executedLineCount;
+    }
+
+    // ----------------------------
+    // Transaction helpers
+    // ----------------------------
+    private boolean isTransactional()
+    {
+        return batchSize > 1 || watermark != null;
+    }
+
+    private void setBatchMode(boolean batchMode)
+    {
+        try
+        {
+            if (connection.getAutoCommit() == batchMode) connection.setAutoCommit(!batchMode);
+        }
+        catch (SQLException exception)
+        {
+            System.out.println("Error switching batch mode: " + exception.toString());
+        }
+    }
+
+    // Registers every buffered row of one subtype with bulk inserts. If the bulk insert fails
+    // it is rolled back and the rows are retried one by one, so a bad row only loses itself.
+    private void flushRegisterRun()
+    {
+        if (pendingRegisterRows.isEmpty()) return;
+
+        String[][] rows = pendingRegisterRows.toArray(new String[0][]);
+        pendingRegisterRows.clear();
+
+        Savepoint runSavepoint = null;
+        boolean registered = false;
+        long startNanos = Instrumentation.start();
+        try
+        {
+            runSavepoint = connection.setSavepoint();
+            if (pendingRegisterSubtype == 1) registered = Main.registerAgents(statement, rows);
+            else if (pendingRegisterSubtype == 2) registered = Main.registerBooks(statement, rows);
+            else if (pendingRegisterSubtype == 4) registered = Main.registerCustomers(statement, rows);
+            else if (pendingRegisterSubtype == 5) registered = Main.registerSalaries(statement, rows);
+            if (registered) connection.releaseSavepoint(runSavepoint);
+        }
+        catch (SQLException exception)
+        {
+            registered = false;
+            Instrumentation.recordError(Instrumentation.registerBatchCommand(pendingRegisterSubtype), exception);
+        }
+
+        if (registered)
+        {
+            Instrumentation.recordCommand(Instrumentation.registerBatchCommand(pendingRegisterSubtype), startNanos, rows.length);
+            return;
+        }
+
+        rollbackToSavepoint(runSavepoint);
+
+        int rowIndex = 0;
+        while (rowIndex < rows.length)
+        {
+            String[] row = rows[rowIndex];
+            if (pendingRegisterSubtype == 1) Main.registerAgent(statement, row[0], row[1], row[2]);
+            else if (pendingRegisterSubtype == 2) Main.registerBook(statement, row[0], row[1], row[2]);
+            else if (pendingRegisterSubtype == 4) Main.registerCustomer(statement, row[0], row[1], row[2], row[3]);
+            else if (pendingRegisterSubtype == 5) Main.registerSalary(statement, row[0], row[1], row[2]);
+            rowIndex = rowIndex + 1;
+        }
+    }
+
+    private void commitBatch()
+    {
+        try
+        {
+            if (!connection.getAutoCommit())
+            {
+                if (watermark != null) watermark.store();
+                connection.commit();
+            }
+        }
+        catch (SQLException exception)
+        {
+            Main.invalidateCaches();
+            System.out.println("Error committing script batch: " + exception.toString());
+        }
+    }
+
+    private void rollbackToSavepoint(Savepoint savepoint)
+    {
+        if (savepoint == null) return;
+        // writes undone here may already be reflected in the running aggregates and entity cache
+        Main.invalidateCaches();
+        try
+        {
+            connection.rollback(savepoint);
+            connection.releaseSavepoint(savepoint);
+        }
+        catch (SQLException exception)
+        {
+            System.out.println("Error rolling back script line: " + exception.toString());
+        }
+    }
+
+    private void releaseSavepoint(Savepoint savepoint)
+    {
+        try
+        {
+            connection.releaseSavepoint(savepoint);
+        }
+        catch (SQLException exception)
+        {
+            System.out.println("Error releasing savepoint: " + exception.toString());
+        }
+    }
+}
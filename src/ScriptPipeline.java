@@ -0,0 +1,225 @@
+// ScriptPipeline.java  (reader thread -> parser workers -> single writer, in script order)
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+public class ScriptPipeline
+{
+    // lines handed to a parser worker at a time
+    private static final int CHUNK_SIZE = 512;
+
+    // parsed chunks that may wait for the writer before the reader blocks
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    // marks the end of the script in the queue
+    private static final Future<ParsedChunk> END_OF_SCRIPT = CompletableFuture.completedFuture(new ParsedChunk(new ArrayList<String>(), new long[0], 0));
+
+    // consecutive script lines, where each one ends in the script, and their parsed commands
+    private static final class ParsedChunk
+    {
+        final ArrayList<String> lines;
+
+        // lineOffsets[i] is where line i starts, lineOffsets[i + 1] where it ends
+        final long[] lineOffsets;
+        final long firstLineNumber;
+        ScriptCommand[] scriptCommands;
+
+        ParsedChunk(ArrayList<String> lines, long[] lineOffsets, long firstLineNumber)
+        {
+            this.lines = lines;
+            this.lineOffsets = lineOffsets;
+            this.firstLineNumber = firstLineNumber;
+        }
+    }
+
+    private final ScriptSource scriptSource;
+    private final int workerCount;
+
+    private volatile boolean stopped = false;
+
+    public ScriptPipeline(ScriptSource scriptSource, int workerCount)
+    {
+        this.scriptSource = scriptSource;
+        this.workerCount = Math.max(1, workerCount);
+    }
+
+    // ----------------------------
+    // Run the whole script
+    // Parsing and validation run on the workers. Everything that touches SQLite stays on the
+    // calling thread, which applies chunks strictly in the order they were read, so an update
+    // followed by a purge of the same row behaves exactly as in the sequential executor.
+    // ----------------------------
+    public void execute(Statement statement, boolean silentMode, int batchSize)
+    {
+        execute(statement, silentMode, batchSize, null);
+    }
+
+    public void execute(Statement statement, boolean silentMode, int batchSize, ScriptWatermark watermark)
+    {
+        ScriptExecutor executor;
+        try
+        {
+            executor = new ScriptExecutor(statement, silentMode, batchSize, watermark);
+        }
+        catch (SQLException exception)
+        {
+            System.out.println("Script error: " + exception.toString());
+            return;
+        }
+
+        ExecutorService parsers = Executors.newFixedThreadPool(workerCount, runnable ->
+        {
+            Thread thread = new Thread(runnable, "script-parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ArrayBlockingQueue<Future<ParsedChunk>> parsedChunks = new ArrayBlockingQueue<Future<ParsedChunk>>(workerCount * CHUNKS_PER_WORKER);
+
+        Thread reader = new Thread(() -> readChunks(parsers, parsedChunks), "script-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        try
+        {
+            boolean running = true;
+            while (running)
+            {
+                Future<ParsedChunk> parsedChunkFuture = parsedChunks.take();
+                if (parsedChunkFuture == END_OF_SCRIPT) break;
+
+                ParsedChunk parsedChunk = parsedChunkFuture.get();
+                ScriptCommand[] scriptCommands = parsedChunk.scriptCommands;
+                int commandIndex = 0;
+                while (running && commandIndex < scriptCommands.length)
+                {
+                    running = executor.applyLine(scriptCommands[commandIndex], parsedChunk.firstLineNumber + commandIndex,
+                            parsedChunk.lineOffsets[commandIndex], parsedChunk.lineOffsets[commandIndex + 1], parsedChunk.lines.get(commandIndex));
+                    commandIndex = commandIndex + 1;
+                }
+            }
+        }
+        catch (InterruptedException exception)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException exception)
+        {
+            System.out.println("Script parse error: " + exception.getCause());
+        }
+        finally
+        {
+            // let the reader see the stop and get out of a blocked put
+            stopped = true;
+            parsedChunks.clear();
+            reader.interrupt();
+            parsers.shutdownNow();
+
+            // the caller closes the source next, and ScriptSource is not safe to close under a read
+            joinReader(reader);
+        }
+
+        executor.finish();
+    }
+
+    // ----------------------------
+    // Reader stage
+    // ----------------------------
+    private void readChunks(ExecutorService parsers, ArrayBlockingQueue<Future<ParsedChunk>> parsedChunks)
+    {
+        try
+        {
+            while (!stopped)
+            {
+                ArrayList<String> lines = new ArrayList<String>(CHUNK_SIZE);
+                long[] lineOffsets = new long[CHUNK_SIZE + 1];
+                lineOffsets[0] = scriptSource.getByteOffset();
+                long firstLineNumber = scriptSource.getLineNumber() + 1;
+                while (lines.size() < CHUNK_SIZE && !stopped)
+                {
+                    String rawLine = readLine();
+                    if (rawLine == null) break;
+                    lines.add(rawLine);
+                    lineOffsets[lines.size()] = scriptSource.getByteOffset();
+                }
+
+                if (!lines.isEmpty())
+                {
+                    Future<ParsedChunk> parsedChunk = parsers.submit(parseChunk(new ParsedChunk(lines, lineOffsets, firstLineNumber)));
+                    parsedChunks.put(parsedChunk);
+                }
+
+                if (lines.size() < CHUNK_SIZE) break;
+            }
+            if (!stopped) parsedChunks.put(END_OF_SCRIPT);
+        }
+        catch (InterruptedException exception)
+        {
+            // the writer has stopped
+        }
+        catch (RejectedExecutionException exception)
+        {
+            // the writer has stopped and shut the parsers down
+        }
+    }
+
+    private String readLine()
+    {
+        try
+        {
+            return scriptSource.nextLine();
+        }
+        catch (IOException exception)
+        {
+            System.out.println("Unable to read script " + scriptSource.getName() + " after line " + scriptSource.getLineNumber() + ": " + exception.toString());
+            return null;
+        }
+    }
+
+    // Waits out the reader even if this thread is interrupted meanwhile, then restores the interrupt
+    private static void joinReader(Thread reader)
+    {
+        boolean interrupted = false;
+        while (reader.isAlive())
+        {
+            try
+            {
+                reader.join();
+            }
+            catch (InterruptedException exception)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    // ----------------------------
+    // Parser stage: one tokenizer per chunk, nothing shared between workers
+    // ----------------------------
+    private static Callable<ParsedChunk> parseChunk(ParsedChunk chunk)
+    {
+        return () ->
+        {
+            ArrayList<String> lines = chunk.lines;
+            PipeTokenizer tokenizer = new PipeTokenizer();
+            ScriptCommand[] scriptCommands = new ScriptCommand[lines.size()];
+            int lineIndex = 0;
+            while (lineIndex < lines.size())
+            {
+                scriptCommands[lineIndex] = Main.parseScriptLine(tokenizer, lines.get(lineIndex));
+                lineIndex = lineIndex + 1;
+            }
+            chunk.scriptCommands = scriptCommands;
+            return chunk;
+        };
+    }
+}
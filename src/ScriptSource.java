@@ -0,0 +1,148 @@
+// ScriptSource.java  (streams a script one line at a time from a file, a gzip file or stdin)
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+public class ScriptSource
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String name;
+    private final InputStream input;
+    private final boolean closeInput;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferLength = 0;
+    private int bufferPosition = 0;
+
+    // grows to the longest line seen, then gets reused for every line
+    private byte[] lineBytes = new byte[256];
+
+    private long byteOffset = 0;
+    private long lineNumber = 0;
+
+    private ScriptSource(String name, InputStream input, boolean closeInput)
+    {
+        this.name = name;
+        this.input = input;
+        this.closeInput = closeInput;
+    }
+
+    // "-" reads stdin; gzip input is recognised by its magic bytes, whatever the file is called
+    public static ScriptSource open(String path) throws IOException
+    {
+        if (path.equals("-"))
+        {
+            return new ScriptSource("stdin", unwrapGzip(new BufferedInputStream(System.in, BUFFER_SIZE)), false);
+        }
+        return new ScriptSource(path, unwrapGzip(new BufferedInputStream(new FileInputStream(path), BUFFER_SIZE)), true);
+    }
+
+    private static InputStream unwrapGzip(BufferedInputStream input) throws IOException
+    {
+        input.mark(2);
+        int first = input.read();
+        int second = input.read();
+        input.reset();
+
+        if (first == 0x1f && second == 0x8b) return new GZIPInputStream(input, BUFFER_SIZE);
+        return input;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    // Bytes of (decompressed) script consumed so far, i.e. where the next line starts
+    public long getByteOffset()
+    {
+        return byteOffset;
+    }
+
+    public long getLineNumber()
+    {
+        return lineNumber;
+    }
+
+    // Returns the next line without its line terminator, or null at end of input.
+    public String nextLine() throws IOException
+    {
+        int lineLength = 0;
+        boolean sawAnyByte = false;
+
+        while (true)
+        {
+            if (bufferPosition >= bufferLength)
+            {
+                bufferLength = input.read(buffer, 0, buffer.length);
+                bufferPosition = 0;
+                if (bufferLength <= 0)
+                {
+                    bufferLength = 0;
+                    if (!sawAnyByte) return null;
+                    break;
+                }
+            }
+
+            byte currentByte = buffer[bufferPosition];
+            bufferPosition = bufferPosition + 1;
+            byteOffset = byteOffset + 1;
+            sawAnyByte = true;
+
+            if (currentByte == '\n') break;
+
+            if (lineLength == lineBytes.length) lineBytes = Arrays.copyOf(lineBytes, lineBytes.length * 2);
+            lineBytes[lineLength] = currentByte;
+            lineLength = lineLength + 1;
+        }
+
+        if (lineLength > 0 && lineBytes[lineLength - 1] == '\r') lineLength = lineLength - 1;
+
+        lineNumber = lineNumber + 1;
+        return new String(lineBytes, 0, lineLength, StandardCharsets.UTF_8);
+    }
+
+    // Moves forward to targetOffset without decoding lines; the caller supplies the number of lines
+    // that end before it. Plain files seek, gzip and stdin read through. Returns false at end of input.
+    public boolean skipTo(long targetOffset, long linesBefore) throws IOException
+    {
+        long bufferedSkip = Math.min(bufferLength - bufferPosition, targetOffset - byteOffset);
+        if (bufferedSkip > 0)
+        {
+            bufferPosition = bufferPosition + (int) bufferedSkip;
+            byteOffset = byteOffset + bufferedSkip;
+        }
+
+        while (byteOffset < targetOffset)
+        {
+            long skipped = input.skip(targetOffset - byteOffset);
+            if (skipped <= 0)
+            {
+                // skip() may refuse; one byte read tells a slow stream from the end of input
+                if (input.read() < 0) return false;
+                skipped = 1;
+            }
+            byteOffset = byteOffset + skipped;
+        }
+        lineNumber = linesBefore;
+        return true;
+    }
+
+    public void close()
+    {
+        if (!closeInput) return;
+        try
+        {
+            input.close();
+        }
+        catch (IOException exception)
+        {
+            System.out.println("Error closing script " + name + ": " + exception.toString());
+        }
+    }
+}
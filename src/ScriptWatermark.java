@@ -0,0 +1,157 @@
+// ScriptWatermark.java  (how far a script has been applied, stored with the rows it produced)
+//
+// The position of the last line read through is written in the same transaction as that line's
+// writes, so after a crash or restart the stored position is exactly what the tables hold. On
+// restart the script is skipped to the start of that line, the line is read again and compared
+// with its stored hash, and replay carries on after it. The executor commits such a checkpoint
+// every checkpointLines lines or checkpointSeconds seconds, whichever comes first.
+import java.io.IOException;
+import java.sql.*;
+
+public class ScriptWatermark
+{
+    public static final int DEFAULT_CHECKPOINT_LINES = 1000;
+    public static final int DEFAULT_CHECKPOINT_SECONDS = 5;
+
+    private final Statement statement;
+    private final String scriptName;
+
+    // last line read through: its number, where it starts and ends, and its text
+    private long lineNumber;
+    private long lineStart;
+    private long lineEnd;
+    private String line;
+
+    // the fields above differ from what is stored
+    private boolean changed = false;
+
+    private int checkpointLines = DEFAULT_CHECKPOINT_LINES;
+    private long checkpointNanos = DEFAULT_CHECKPOINT_SECONDS * 1000000000L;
+    private int linesSinceCheckpoint = 0;
+    private long lastCheckpointNanos = System.nanoTime();
+    private long checkpointCount = 0;
+
+    private ScriptWatermark(Statement statement, String scriptName, long lineNumber, long lineStart, long lineEnd)
+    {
+        this.statement = statement;
+        this.scriptName = scriptName;
+        this.lineNumber = lineNumber;
+        this.lineStart = lineStart;
+        this.lineEnd = lineEnd;
+    }
+
+    // Created by SchemaVersion's migration, which must see a failure
+    public static void createTableOrThrow(Statement statement) throws SQLException
+    {
+        Main.createTableOrThrow(new String[]{"ScriptWatermark", "ScriptName TEXT PRIMARY KEY", "LineNumber INTEGER", "LineStart INTEGER", "LineEnd INTEGER", "LineHash INTEGER"}, statement);
+    }
+
+    public long getLineNumber()
+    {
+        return lineNumber;
+    }
+
+    public void setCheckpointInterval(int checkpointLines, int checkpointSeconds)
+    {
+        this.checkpointLines = Math.max(1, checkpointLines);
+        this.checkpointNanos = Math.max(0, checkpointSeconds) * 1000000000L;
+    }
+
+    // Enough lines or time have gone by since the last store that the next commit should happen now
+    public boolean isCheckpointDue()
+    {
+        if (linesSinceCheckpoint >= checkpointLines) return true;
+        return linesSinceCheckpoint > 0 && System.nanoTime() - lastCheckpointNanos >= checkpointNanos;
+    }
+
+    public String describe()
+    {
+        return "Script watermark: line " + lineNumber + ", " + checkpointCount + " checkpoints (every " + checkpointLines + " lines or "
+                + (checkpointNanos / 1000000000L) + " s)";
+    }
+
+    // ----------------------------
+    // Resume
+    // ----------------------------
+    // Positions source just after the stored watermark for its script (or leaves it at the start
+    // when there is none). Returns null when the script no longer matches what was applied, in
+    // which case none of it should run.
+    public static ScriptWatermark resume(Statement statement, ScriptSource source) throws SQLException, IOException
+    {
+        PreparedStatement selectStatement = Main.getStatementCache(statement).prepare(
+                "SELECT LineNumber, LineStart, LineEnd, LineHash FROM ScriptWatermark WHERE ScriptName = ?;");
+        selectStatement.setString(1, source.getName());
+        ResultSet resultSet = selectStatement.executeQuery();
+        if (!resultSet.next())
+        {
+            resultSet.close();
+            return new ScriptWatermark(statement, source.getName(), 0, 0, 0);
+        }
+        long storedLineNumber = resultSet.getLong(1);
+        long storedLineStart = resultSet.getLong(2);
+        long storedLineEnd = resultSet.getLong(3);
+        long storedHash = resultSet.getLong(4);
+        resultSet.close();
+
+        long startNanos = System.nanoTime();
+        String storedLine = null;
+        if (source.skipTo(storedLineStart, storedLineNumber - 1)) storedLine = source.nextLine();
+
+        if (storedLine == null || source.getByteOffset() != storedLineEnd || hashLine(storedLine) != storedHash)
+        {
+            System.out.println("Script " + source.getName() + " does not match what was applied up to line " + storedLineNumber + "; not replaying it");
+            return null;
+        }
+
+        System.out.println("Resuming script " + source.getName() + " after line " + storedLineNumber + " (" + storedLineEnd + " bytes skipped in "
+                + (System.nanoTime() - startNanos) / 1000000 + " ms)");
+        return new ScriptWatermark(statement, source.getName(), storedLineNumber, storedLineStart, storedLineEnd);
+    }
+
+    // ----------------------------
+    // Advance and store
+    // ----------------------------
+    public void advance(long lineNumber, long lineStart, long lineEnd, String line)
+    {
+        this.lineNumber = lineNumber;
+        this.lineStart = lineStart;
+        this.lineEnd = lineEnd;
+        this.line = line;
+        this.changed = true;
+        linesSinceCheckpoint = linesSinceCheckpoint + 1;
+    }
+
+    // Call inside the transaction that holds the writes of every line up to the watermark
+    public void store() throws SQLException
+    {
+        if (!changed) return;
+
+        PreparedStatement storeStatement = Main.getStatementCache(statement).prepare(
+                "INSERT INTO ScriptWatermark (ScriptName, LineNumber, LineStart, LineEnd, LineHash) VALUES (?, ?, ?, ?, ?) "
+                        + "ON CONFLICT (ScriptName) DO UPDATE SET LineNumber = excluded.LineNumber, LineStart = excluded.LineStart, "
+                        + "LineEnd = excluded.LineEnd, LineHash = excluded.LineHash;");
+        storeStatement.setString(1, scriptName);
+        storeStatement.setLong(2, lineNumber);
+        storeStatement.setLong(3, lineStart);
+        storeStatement.setLong(4, lineEnd);
+        storeStatement.setLong(5, hashLine(line));
+        storeStatement.executeUpdate();
+        changed = false;
+        linesSinceCheckpoint = 0;
+        lastCheckpointNanos = System.nanoTime();
+        checkpointCount = checkpointCount + 1;
+    }
+
+    // 64-bit FNV-1a over the line's chars
+    private static long hashLine(String line)
+    {
+        long hash = 0xcbf29ce484222325L;
+        int charIndex = 0;
+        while (charIndex < line.length())
+        {
+            hash = (hash ^ line.charAt(charIndex)) * 0x100000001b3L;
+            charIndex = charIndex + 1;
+        }
+        return hash;
+    }
+}
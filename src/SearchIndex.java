@@ -0,0 +1,286 @@
+// SearchIndex.java  (word-prefix name search and phone lookups for Agents, Books, Authors and Customers)
+//
+// Each searchable table has an FTS5 index on Name (AgentsSearch, BooksSearch, ...) that keeps
+// no copy of the names; it reads them back from the table by ID. Triggers on the table update
+// it inside whatever statement inserts, renames or deletes a row, so the register, update and
+// cascade-delete helpers (and raw SQL, imports and restores) never leave it behind. A search
+// matches every word as a prefix ("ali joh" finds Alice Johnson), best match first (bm25).
+// Phone numbers are searched by their digits through an expression index that strips the usual
+// punctuation, so "555 01" finds 555-0101 with a range scan instead of a table scan.
+import java.io.IOException;
+import java.sql.*;
+
+public class SearchIndex
+{
+    public static final int PAGE_SIZE = 20;
+
+    // {table, ID column}; the index is named table + "Search"
+    private static final String[][] SEARCHABLE_TABLES = {
+            {"Agents", "AgentID"},
+            {"Books", "BookID"},
+            {"Authors", "AuthorID"},
+            {"Customers", "CustomerID"}
+    };
+
+    private static final String[] PHONE_TABLES = {"Agents", "Authors", "Customers"};
+
+    // characters left out of an indexed phone number; phoneDigits() must strip exactly the same ones
+    private static final String PHONE_PUNCTUATION = "-() .+";
+    private static final String PHONE_DIGITS_EXPRESSION =
+            "replace(replace(replace(replace(replace(replace(PhoneNumber, '-', ''), '(', ''), ')', ''), ' ', ''), '.', ''), '+', '')";
+
+    private SearchIndex()
+    {
+    }
+
+    // ----------------------------
+    // Index maintenance
+    // ----------------------------
+    // Creates whatever is missing; an FTS index whose triggers were dropped is rebuilt from its table
+    public static void createSearchIndexes(Statement statement)
+    {
+        int tableIndex = 0;
+        while (tableIndex < SEARCHABLE_TABLES.length)
+        {
+            try
+            {
+                createSearchIndex(statement, SEARCHABLE_TABLES[tableIndex][0], SEARCHABLE_TABLES[tableIndex][1]);
+            }
+            catch (SQLException exception)
+            {
+                System.out.println("Error creating search index on " + SEARCHABLE_TABLES[tableIndex][0] + ": " + exception.toString());
+            }
+            tableIndex = tableIndex + 1;
+        }
+
+        tableIndex = 0;
+        while (tableIndex < PHONE_TABLES.length)
+        {
+            try
+            {
+                createPhoneIndex(statement, PHONE_TABLES[tableIndex]);
+            }
+            catch (SQLException exception)
+            {
+                System.out.println("Error creating phone index on " + PHONE_TABLES[tableIndex] + ": " + exception.toString());
+            }
+            tableIndex = tableIndex + 1;
+        }
+    }
+
+    // The same for SchemaVersion's migration step, which must stop at the first failure
+    public static void createSearchIndexesOrThrow(Statement statement) throws SQLException
+    {
+        int tableIndex = 0;
+        while (tableIndex < SEARCHABLE_TABLES.length)
+        {
+            createSearchIndex(statement, SEARCHABLE_TABLES[tableIndex][0], SEARCHABLE_TABLES[tableIndex][1]);
+            tableIndex = tableIndex + 1;
+        }
+
+        tableIndex = 0;
+        while (tableIndex < PHONE_TABLES.length)
+        {
+            createPhoneIndex(statement, PHONE_TABLES[tableIndex]);
+            tableIndex = tableIndex + 1;
+        }
+    }
+
+    private static void createSearchIndex(Statement statement, String tableName, String idColumnName) throws SQLException
+    {
+        String searchName = searchTableOf(tableName);
+        statement.execute("CREATE VIRTUAL TABLE IF NOT EXISTS " + searchName + " USING fts5(Name, content='" + tableName
+                + "', content_rowid='" + idColumnName + "', prefix='2 3', tokenize='unicode61 remove_diacritics 2');");
+
+        boolean triggersMissing = !triggerExists(statement, searchName + "_insert");
+        statement.execute("CREATE TRIGGER IF NOT EXISTS " + searchName + "_insert AFTER INSERT ON " + tableName + " BEGIN "
+                + "INSERT INTO " + searchName + " (rowid, Name) VALUES (new." + idColumnName + ", new.Name); END;");
+        statement.execute("CREATE TRIGGER IF NOT EXISTS " + searchName + "_delete AFTER DELETE ON " + tableName + " BEGIN "
+                + "INSERT INTO " + searchName + " (" + searchName + ", rowid, Name) VALUES ('delete', old." + idColumnName + ", old.Name); END;");
+        statement.execute("CREATE TRIGGER IF NOT EXISTS " + searchName + "_update AFTER UPDATE OF " + idColumnName + ", Name ON " + tableName + " BEGIN "
+                + "INSERT INTO " + searchName + " (" + searchName + ", rowid, Name) VALUES ('delete', old." + idColumnName + ", old.Name); "
+                + "INSERT INTO " + searchName + " (rowid, Name) VALUES (new." + idColumnName + ", new.Name); END;");
+
+        // one pass over the table instead of an index update per row loaded without triggers
+        if (triggersMissing) statement.execute("INSERT INTO " + searchName + " (" + searchName + ") VALUES ('rebuild');");
+    }
+
+    private static void createPhoneIndex(Statement statement, String tableName) throws SQLException
+    {
+        statement.execute("CREATE INDEX IF NOT EXISTS " + phoneIndexOf(tableName) + " ON " + tableName + " (" + PHONE_DIGITS_EXPRESSION + ");");
+    }
+
+    // For bulk loads, like Main.dropManagedIndexes: the FTS indexes stay but stop following the
+    // tables until createSearchIndexes rebuilds them
+    public static void dropSearchTriggers(Statement statement)
+    {
+        try
+        {
+            int tableIndex = 0;
+            while (tableIndex < SEARCHABLE_TABLES.length)
+            {
+                String searchName = searchTableOf(SEARCHABLE_TABLES[tableIndex][0]);
+                statement.execute("DROP TRIGGER IF EXISTS " + searchName + "_insert;");
+                statement.execute("DROP TRIGGER IF EXISTS " + searchName + "_delete;");
+                statement.execute("DROP TRIGGER IF EXISTS " + searchName + "_update;");
+                tableIndex = tableIndex + 1;
+            }
+
+            tableIndex = 0;
+            while (tableIndex < PHONE_TABLES.length)
+            {
+                statement.execute("DROP INDEX IF EXISTS " + phoneIndexOf(PHONE_TABLES[tableIndex]) + ";");
+                tableIndex = tableIndex + 1;
+            }
+        }
+        catch (SQLException exception)
+        {
+            System.out.println("Drop search index error: " + exception.toString());
+        }
+    }
+
+    // The triggers and phone indexes go with their tables; the FTS tables have to be dropped themselves
+    public static void dropSearchTables(Statement statement)
+    {
+        int tableIndex = 0;
+        while (tableIndex < SEARCHABLE_TABLES.length)
+        {
+            Main.dropTable(searchTableOf(SEARCHABLE_TABLES[tableIndex][0]), statement);
+            tableIndex = tableIndex + 1;
+        }
+    }
+
+    private static boolean triggerExists(Statement statement, String triggerName) throws SQLException
+    {
+        try (ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM sqlite_master WHERE type = 'trigger' AND name = '" + triggerName + "';"))
+        {
+            return resultSet.next() && resultSet.getInt(1) > 0;
+        }
+    }
+
+    private static String searchTableOf(String tableName)
+    {
+        return tableName + "Search";
+    }
+
+    private static String phoneIndexOf(String tableName)
+    {
+        return "idx_" + tableName + "_PhoneDigits";
+    }
+
+    // ----------------------------
+    // Searching
+    // ----------------------------
+    public static boolean isSearchable(String tableName)
+    {
+        return idColumnOf(tableName) != null;
+    }
+
+    // Terms made only of digits and phone punctuation search a table's phone numbers instead of names
+    public static boolean isPhoneSearch(String tableName, String terms)
+    {
+        if (!hasPhoneNumber(tableName)) return false;
+
+        boolean sawDigit = false;
+        int charIndex = 0;
+        while (charIndex < terms.length())
+        {
+            char character = terms.charAt(charIndex);
+            if (character >= '0' && character <= '9') sawDigit = true;
+            else if (PHONE_PUNCTUATION.indexOf(character) < 0) return false;
+            charIndex = charIndex + 1;
+        }
+        return sawDigit;
+    }
+
+    // Writes one page (1-based) of matches with the table's usual columns; returns the rows written
+    public static long render(ResultRenderer renderer, Connection connection, String tableName, String terms, int page) throws SQLException, IOException
+    {
+        String idColumnName = idColumnOf(tableName);
+        String[] columns = Main.getColumnsForTable(tableName);
+        String pageClause = " LIMIT " + PAGE_SIZE + " OFFSET " + ((long) (Math.max(page, 1) - 1) * PAGE_SIZE);
+
+        if (isPhoneSearch(tableName, terms))
+        {
+            // ordered by the indexed expression (then rowid), so the index also gives the order
+            String digits = phoneDigits(terms);
+            String sql = "SELECT * FROM " + tableName + " WHERE " + PHONE_DIGITS_EXPRESSION + " >= ? AND " + PHONE_DIGITS_EXPRESSION + " < ? ORDER BY "
+                    + PHONE_DIGITS_EXPRESSION + ", " + idColumnName + pageClause + ";";
+            return renderer.render(connection, sql, new String[]{digits, prefixUpperBound(digits)}, columns);
+        }
+
+        String matchExpression = matchExpressionOf(terms);
+        if (matchExpression == null) return renderer.render(connection, "SELECT * FROM " + tableName + " WHERE 0;", columns);
+
+        // every match is ranked, and FTS5 keeps only the best ones up to this page while it scans; the
+        // page is picked before the table is read, so only its rows are looked up
+        String searchName = searchTableOf(tableName);
+        String sql = "SELECT " + tableName + ".* FROM (SELECT rowid, rank AS Score FROM " + searchName + " WHERE " + searchName
+                + " MATCH ? ORDER BY rank, rowid" + pageClause + ") AS Hits JOIN " + tableName + " ON " + tableName + "." + idColumnName
+                + " = Hits.rowid ORDER BY Hits.Score, Hits.rowid;";
+        return renderer.render(connection, sql, new String[]{matchExpression}, columns);
+    }
+
+    // Every word as a quoted prefix term ("ali joh" -> "ali"* "joh"*), or null when no word is left
+    public static String matchExpressionOf(String terms)
+    {
+        StringBuilder expression = new StringBuilder();
+        String[] words = terms.trim().split("\\s+");
+        int wordIndex = 0;
+        while (wordIndex < words.length)
+        {
+            String word = words[wordIndex].replace("\"", "");
+            if (word.length() > 0)
+            {
+                if (expression.length() > 0) expression.append(' ');
+                expression.append('"').append(word).append("\"*");
+            }
+            wordIndex = wordIndex + 1;
+        }
+        if (expression.length() == 0) return null;
+        return expression.toString();
+    }
+
+    // The phone number as the expression index stores it
+    public static String phoneDigits(String phoneNumber)
+    {
+        StringBuilder digits = new StringBuilder(phoneNumber.length());
+        int charIndex = 0;
+        while (charIndex < phoneNumber.length())
+        {
+            char character = phoneNumber.charAt(charIndex);
+            if (PHONE_PUNCTUATION.indexOf(character) < 0) digits.append(character);
+            charIndex = charIndex + 1;
+        }
+        return digits.toString();
+    }
+
+    // The smallest string greater than every string starting with prefix (prefix is non-empty digits)
+    private static String prefixUpperBound(String prefix)
+    {
+        char lastCharacter = prefix.charAt(prefix.length() - 1);
+        return prefix.substring(0, prefix.length() - 1) + (char) (lastCharacter + 1);
+    }
+
+    private static String idColumnOf(String tableName)
+    {
+        int tableIndex = 0;
+        while (tableIndex < SEARCHABLE_TABLES.length)
+        {
+            if (SEARCHABLE_TABLES[tableIndex][0].equals(tableName)) return SEARCHABLE_TABLES[tableIndex][1];
+            tableIndex = tableIndex + 1;
+        }
+        return null;
+    }
+
+    private static boolean hasPhoneNumber(String tableName)
+    {
+        int tableIndex = 0;
+        while (tableIndex < PHONE_TABLES.length)
+        {
+            if (PHONE_TABLES[tableIndex].equals(tableName)) return true;
+            tableIndex = tableIndex + 1;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,229 @@
+// SqliteRealFormat.java  (renders a double the way SQLite turns a REAL into text)
+//
+// Used where a value SQLite would have computed (e.g. AVG) is now computed in Java, so the
+// printed text stays identical. SQLite's "%!.15g" decodes the double with 80-bit long double
+// arithmetic on x86-64, rounds to 15 significant digits, drops trailing zeros and keeps ".0"
+// on whole numbers. The long double steps are reproduced here with a 64-bit mantissa.
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+public class SqliteRealFormat
+{
+    private static final int SIGNIFICANT_DIGITS = 15;
+
+    // long double constants as {mantissa, binary exponent}; mantissa is unsigned with its top bit set
+    private static final long[] TEN_POW_119 = longDouble("1e119");
+    private static final long[] TEN_POW_29 = longDouble("1e29");
+    private static final long[] TEN_POW_19 = longDouble("1e19");
+    private static final long[] TEN_POW_17 = longDouble("1e17");
+    private static final long[] TEN_POW_7 = longDouble("1e7");
+    private static final long[] TEN_POW_MINUS_97 = longDouble("1e-97");
+    private static final long[] TEN_POW_100 = longDouble("1e100");
+    private static final long[] TEN_POW_10 = longDouble("1e10");
+    private static final long[] TEN = longDouble("10");
+    private static final long[] TEN_POW_MINUS_100 = longDouble("1e-100");
+    private static final long[] TEN_POW_MINUS_10 = longDouble("1e-10");
+    private static final long[] TEN_POW_MINUS_1 = longDouble("1e-1");
+
+    // ----------------------------
+    // Format
+    // ----------------------------
+    public static String format(double value)
+    {
+        if (value == 0) return "0.0";
+        if (Double.isNaN(value)) return null;
+        if (Double.isInfinite(value)) return value > 0 ? "Inf" : "-Inf";
+
+        boolean negative = value < 0;
+        if (negative) value = -value;
+
+        // scale into [1e17, 1e19) so the integer part carries every digit we need
+        long[] scaled = fromDouble(value);
+        int decimalExponent = 0;
+        if (compare(scaled, TEN_POW_19) >= 0)
+        {
+            while (compare(scaled, TEN_POW_119) >= 0) { decimalExponent = decimalExponent + 100; scaled = multiply(scaled, TEN_POW_MINUS_100); }
+            while (compare(scaled, TEN_POW_29) >= 0) { decimalExponent = decimalExponent + 10; scaled = multiply(scaled, TEN_POW_MINUS_10); }
+            while (compare(scaled, TEN_POW_19) >= 0) { decimalExponent = decimalExponent + 1; scaled = multiply(scaled, TEN_POW_MINUS_1); }
+        }
+        else
+        {
+            while (compare(scaled, TEN_POW_MINUS_97) < 0) { decimalExponent = decimalExponent - 100; scaled = multiply(scaled, TEN_POW_100); }
+            while (compare(scaled, TEN_POW_7) < 0) { decimalExponent = decimalExponent - 10; scaled = multiply(scaled, TEN_POW_10); }
+            while (compare(scaled, TEN_POW_17) < 0) { decimalExponent = decimalExponent - 1; scaled = multiply(scaled, TEN); }
+        }
+
+        long integerPart = scaled[0];
+        if (scaled[1] < 0) integerPart = scaled[0] >>> (int) -scaled[1];
+        String allDigits = Long.toUnsignedString(integerPart);
+
+        // digits[0] is spare room for a carry out of the leading digit
+        char[] digits = new char[allDigits.length() + 1];
+        digits[0] = '0';
+        allDigits.getChars(0, allDigits.length(), digits, 1);
+        int firstDigit = 1;
+        int digitCount = allDigits.length();
+        int decimalPoint = digitCount + decimalExponent;
+
+        if (SIGNIFICANT_DIGITS < digitCount)
+        {
+            if (digits[firstDigit + SIGNIFICANT_DIGITS] >= '5')
+            {
+                int roundIndex = firstDigit + SIGNIFICANT_DIGITS - 1;
+                while (true)
+                {
+                    digits[roundIndex] = (char) (digits[roundIndex] + 1);
+                    if (digits[roundIndex] <= '9') break;
+                    digits[roundIndex] = '0';
+                    if (roundIndex == firstDigit)
+                    {
+                        firstDigit = firstDigit - 1;
+                        digits[firstDigit] = '1';
+                        decimalPoint = decimalPoint + 1;
+                        break;
+                    }
+                    roundIndex = roundIndex - 1;
+                }
+            }
+            digitCount = SIGNIFICANT_DIGITS;
+            if (firstDigit == 0) digitCount = digitCount + 1;
+        }
+        while (digitCount > 1 && digits[firstDigit + digitCount - 1] == '0') digitCount = digitCount - 1;
+
+        return render(negative, digits, firstDigit, digitCount, decimalPoint);
+    }
+
+    // %g layout: exponent form outside [1e-4, 1e15), otherwise plain with at least one decimal
+    private static String render(boolean negative, char[] digits, int firstDigit, int digitCount, int decimalPoint)
+    {
+        StringBuilder text = new StringBuilder(digitCount + 8);
+        if (negative) text.append('-');
+
+        int exponent = decimalPoint - 1;
+        if (exponent < -4 || exponent >= SIGNIFICANT_DIGITS)
+        {
+            text.append(digits[firstDigit]).append('.');
+            if (digitCount > 1) text.append(digits, firstDigit + 1, digitCount - 1);
+            else text.append('0');
+            text.append('e').append(exponent < 0 ? '-' : '+');
+            int absoluteExponent = Math.abs(exponent);
+            if (absoluteExponent < 10) text.append('0');
+            text.append(absoluteExponent);
+        }
+        else if (decimalPoint <= 0)
+        {
+            text.append("0.");
+            int zeroIndex = 0;
+            while (zeroIndex < -decimalPoint)
+            {
+                text.append('0');
+                zeroIndex = zeroIndex + 1;
+            }
+            text.append(digits, firstDigit, digitCount);
+        }
+        else if (digitCount <= decimalPoint)
+        {
+            text.append(digits, firstDigit, digitCount);
+            int zeroIndex = digitCount;
+            while (zeroIndex < decimalPoint)
+            {
+                text.append('0');
+                zeroIndex = zeroIndex + 1;
+            }
+            text.append(".0");
+        }
+        else
+        {
+            text.append(digits, firstDigit, decimalPoint).append('.').append(digits, firstDigit + decimalPoint, digitCount - decimalPoint);
+        }
+        return text.toString();
+    }
+
+    // ----------------------------
+    // 64-bit mantissa arithmetic
+    // ----------------------------
+    private static long[] fromDouble(double value)
+    {
+        long bits = Double.doubleToRawLongBits(value);
+        long fraction = bits & 0xfffffffffffffL;
+        int biasedExponent = (int) ((bits >>> 52) & 0x7ff);
+        if (biasedExponent == 0) return normalize(fraction, -1074);
+        return normalize(fraction | 0x10000000000000L, biasedExponent - 1075);
+    }
+
+    private static long[] normalize(long mantissa, long exponent)
+    {
+        int shift = Long.numberOfLeadingZeros(mantissa);
+        return new long[]{mantissa << shift, exponent - shift};
+    }
+
+    // Product rounded to nearest, ties to even, like an x87 multiply
+    private static long[] multiply(long[] left, long[] right)
+    {
+        long low = left[0] * right[0];
+        long high = Math.multiplyHigh(left[0], right[0]) + ((left[0] >> 63) & right[0]) + ((right[0] >> 63) & left[0]);
+        long exponent = left[1] + right[1] + 64;
+
+        long roundBit;
+        long stickyBits;
+        if (high >= 0)
+        {
+            // top bit of the 128-bit product is bit 126: shift one more bit out of the low half
+            high = (high << 1) | (low >>> 63);
+            low = low << 1;
+            exponent = exponent - 1;
+        }
+        roundBit = low & 0x8000000000000000L;
+        stickyBits = low & 0x7fffffffffffffffL;
+
+        if (roundBit != 0 && (stickyBits != 0 || (high & 1) != 0))
+        {
+            high = high + 1;
+            if (high == 0)
+            {
+                high = 0x8000000000000000L;
+                exponent = exponent + 1;
+            }
+        }
+        return new long[]{high, exponent};
+    }
+
+    private static int compare(long[] left, long[] right)
+    {
+        if (left[1] != right[1]) return Long.compare(left[1], right[1]);
+        return Long.compareUnsigned(left[0], right[0]);
+    }
+
+    // Nearest long double to a decimal constant, e.g. what the C literal 1.0e-100L compiles to
+    private static long[] longDouble(String decimal)
+    {
+        BigDecimal exact = new BigDecimal(decimal);
+        BigInteger numerator = exact.unscaledValue();
+        BigInteger denominator = BigInteger.ONE;
+        if (exact.scale() > 0) denominator = BigInteger.TEN.pow(exact.scale());
+        else numerator = numerator.multiply(BigInteger.TEN.pow(-exact.scale()));
+
+        // 66 significant bits plus a sticky bit, then round to 64
+        int shift = 66 - numerator.bitLength() + denominator.bitLength();
+        BigInteger[] quotient = (shift >= 0 ? numerator.shiftLeft(shift) : numerator.shiftRight(-shift)).divideAndRemainder(denominator);
+        BigInteger bits = quotient[0];
+        boolean sticky = quotient[1].signum() != 0;
+
+        int extraBits = bits.bitLength() - 64;
+        long exponent = -shift + extraBits;
+        BigInteger mantissa = bits.shiftRight(extraBits);
+        BigInteger dropped = bits.subtract(mantissa.shiftLeft(extraBits));
+        BigInteger half = BigInteger.ONE.shiftLeft(extraBits - 1);
+        int halfComparison = dropped.compareTo(half);
+        if (halfComparison > 0 || (halfComparison == 0 && (sticky || mantissa.testBit(0))))
+        {
+            mantissa = mantissa.add(BigInteger.ONE);
+            if (mantissa.bitLength() > 64)
+            {
+                mantissa = mantissa.shiftRight(1);
+                exponent = exponent + 1;
+            }
+        }
+        return new long[]{mantissa.longValue(), exponent};
+    }
+}
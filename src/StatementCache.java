@@ -0,0 +1,224 @@
+// StatementCache.java  (reusable PreparedStatements so SQLite parses each statement shape once)
+import java.sql.*;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class StatementCache
+{
+    private final Connection connection;
+    private final int capacity;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+    // the SQL each cached statement was prepared from, for Instrumentation
+    private final IdentityHashMap<PreparedStatement, String> sqlByStatement = new IdentityHashMap<PreparedStatement, String>();
+
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    public StatementCache(Connection connection, int capacity)
+    {
+        this.connection = connection;
+        this.capacity = capacity;
+        // access order = true keeps the least recently used statement at the head
+        this.statements = new LinkedHashMap<String, PreparedStatement>(capacity * 2, 0.75f, true);
+    }
+
+    public Connection getConnection()
+    {
+        return connection;
+    }
+
+    // ----------------------------
+    // Lookups keyed by (operation, table, columns)
+    // ----------------------------
+    public PreparedStatement prepareInsert(String tableName, String[] columns) throws SQLException
+    {
+        String key = buildKey("INSERT", tableName, columns);
+        PreparedStatement cached = lookup(key);
+        if (cached != null) return cached;
+
+        String sql = "INSERT INTO " + tableName + " (" + joinColumns(columns) + ") VALUES (" + placeholders(columns.length) + ");";
+        return store(key, sql);
+    }
+
+    // Single-row insert that hands back the new rowid through getGeneratedKeys()
+    public PreparedStatement prepareInsertReturningId(String tableName, String[] columns) throws SQLException
+    {
+        String key = buildKey("INSERT_ID", tableName, columns);
+        PreparedStatement cached = lookup(key);
+        if (cached != null) return cached;
+
+        String sql = "INSERT INTO " + tableName + " (" + joinColumns(columns) + ") VALUES (" + placeholders(columns.length) + ");";
+        missCount = missCount + 1;
+        return remember(key, sql, connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS));
+    }
+
+    // INSERT ... VALUES (...),(...) for rowCount rows; returningColumn may be null
+    public PreparedStatement prepareMultiRowInsert(String tableName, String[] columns, int rowCount, String returningColumn) throws SQLException
+    {
+        String operation = "INSERT_ROWS_" + rowCount;
+        if (returningColumn != null) operation = operation + "_RETURNING_" + returningColumn;
+        String key = buildKey(operation, tableName, columns);
+        PreparedStatement cached = lookup(key);
+        if (cached != null) return cached;
+
+        String rowPlaceholders = "(" + placeholders(columns.length) + ")";
+        StringBuilder sql = new StringBuilder();
+        sql.append("INSERT INTO ").append(tableName).append(" (").append(joinColumns(columns)).append(") VALUES ");
+        int rowIndex = 0;
+        while (rowIndex < rowCount)
+        {
+            sql.append(rowPlaceholders);
+            if (rowIndex < rowCount - 1) sql.append(", ");
+            rowIndex = rowIndex + 1;
+        }
+        if (returningColumn != null) sql.append(" RETURNING ").append(returningColumn);
+        sql.append(';');
+        return store(key, sql.toString());
+    }
+
+    public PreparedStatement prepareUpdate(String tableName, String idColumnName, String columnName) throws SQLException
+    {
+        String key = buildKey("UPDATE", tableName, new String[]{columnName, idColumnName});
+        PreparedStatement cached = lookup(key);
+        if (cached != null) return cached;
+
+        String sql = "UPDATE " + tableName + " SET " + columnName + " = ? WHERE " + idColumnName + " = ?;";
+        return store(key, sql);
+    }
+
+    // Fixed statements (cascades, link checks) are keyed by their own SQL text.
+    public PreparedStatement prepare(String sql) throws SQLException
+    {
+        PreparedStatement cached = lookup(sql);
+        if (cached != null) return cached;
+        return store(sql, sql);
+    }
+
+    // The SQL a statement from this cache was prepared from, or null
+    public String sqlOf(PreparedStatement preparedStatement)
+    {
+        return sqlByStatement.get(preparedStatement);
+    }
+
+    // ----------------------------
+    // Counters
+    // ----------------------------
+    public long getHitCount()
+    {
+        return hitCount;
+    }
+
+    public long getMissCount()
+    {
+        return missCount;
+    }
+
+    public long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+    public String describe()
+    {
+        return "Statement cache: " + statements.size() + "/" + capacity + " statements, " + hitCount + " hits, " + missCount + " misses, " + evictionCount + " evictions";
+    }
+
+    public void close()
+    {
+        Iterator<PreparedStatement> iterator = statements.values().iterator();
+        while (iterator.hasNext())
+        {
+            closeQuietly(iterator.next());
+        }
+        statements.clear();
+        sqlByStatement.clear();
+    }
+
+    // ----------------------------
+    // Internal helpers
+    // ----------------------------
+    private PreparedStatement lookup(String key)
+    {
+        PreparedStatement cached = statements.get(key);
+        if (cached != null) hitCount = hitCount + 1;
+        return cached;
+    }
+
+    private PreparedStatement store(String key, String sql) throws SQLException
+    {
+        missCount = missCount + 1;
+        return remember(key, sql, connection.prepareStatement(sql));
+    }
+
+    private PreparedStatement remember(String key, String sql, PreparedStatement preparedStatement)
+    {
+        statements.put(key, preparedStatement);
+        sqlByStatement.put(preparedStatement, sql);
+
+        if (statements.size() > capacity)
+        {
+            Iterator<Map.Entry<String, PreparedStatement>> iterator = statements.entrySet().iterator();
+            Map.Entry<String, PreparedStatement> eldest = iterator.next();
+            closeQuietly(eldest.getValue());
+            sqlByStatement.remove(eldest.getValue());
+            iterator.remove();
+            evictionCount = evictionCount + 1;
+        }
+
+        return preparedStatement;
+    }
+
+    private static String buildKey(String operation, String tableName, String[] columns)
+    {
+        StringBuilder key = new StringBuilder(operation.length() + tableName.length() + columns.length * 12);
+        key.append(operation).append('|').append(tableName).append('|');
+        int columnIndex = 0;
+        while (columnIndex < columns.length)
+        {
+            key.append(columns[columnIndex]).append(',');
+            columnIndex = columnIndex + 1;
+        }
+        return key.toString();
+    }
+
+    private static String joinColumns(String[] columns)
+    {
+        StringBuilder joined = new StringBuilder();
+        int columnIndex = 0;
+        while (columnIndex < columns.length)
+        {
+            joined.append(columns[columnIndex]);
+            if (columnIndex < columns.length - 1) joined.append(", ");
+            columnIndex = columnIndex + 1;
+        }
+        return joined.toString();
+    }
+
+    private static String placeholders(int count)
+    {
+        StringBuilder marks = new StringBuilder();
+        int markIndex = 0;
+        while (markIndex < count)
+        {
+            marks.append('?');
+            if (markIndex < count - 1) marks.append(", ");
+            markIndex = markIndex + 1;
+        }
+        return marks.toString();
+    }
+
+    private static void closeQuietly(PreparedStatement preparedStatement)
+    {
+        try
+        {
+            preparedStatement.close();
+        }
+        catch (SQLException exception)
+        {
+            // statement is being discarded anyway
+        }
+    }
+}
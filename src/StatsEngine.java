@@ -0,0 +1,273 @@
+// StatsEngine.java  (running count/sum/min/max for the Compute columns, kept in step with every write)
+import java.sql.*;
+
+public class StatsEngine
+{
+    // tracked columns
+    public static final int AGENT_EXPERIENCE = 0;
+    public static final int BOOK_COST = 1;
+    public static final int SALARY = 2;
+
+    private static final String[] TABLES = {"Agents", "Books", "Salaries"};
+    private static final String[] COLUMNS = {"Experience", "Cost", "Salary"};
+
+    private final Connection connection;
+
+    // a column is loaded from the database the first time it is asked for; until then, and again
+    // after invalidate(), writes are not tracked because the next load picks them up anyway
+    private final boolean[] loaded = new boolean[TABLES.length];
+
+    // min/max are only rebuilt when the current extreme may have been deleted or overwritten
+    private final boolean[] extremesStale = new boolean[TABLES.length];
+
+    private final long[] counts = new long[TABLES.length];
+    private final long[] sums = new long[TABLES.length];
+    private final long[] minimums = new long[TABLES.length];
+    private final long[] maximums = new long[TABLES.length];
+
+    private long loadCount = 0;
+    private long extremeRebuildCount = 0;
+
+    public StatsEngine(Connection connection)
+    {
+        this.connection = connection;
+    }
+
+    public Connection getConnection()
+    {
+        return connection;
+    }
+
+    // Tracked column index for table.column, or -1
+    public static int statFor(String tableName, String columnName)
+    {
+        int statIndex = 0;
+        while (statIndex < TABLES.length)
+        {
+            if (TABLES[statIndex].equals(tableName) && COLUMNS[statIndex].equals(columnName)) return statIndex;
+            statIndex = statIndex + 1;
+        }
+        return -1;
+    }
+
+    public static String getTableName(int stat)
+    {
+        return TABLES[stat];
+    }
+
+    public static String getColumnName(int stat)
+    {
+        return COLUMNS[stat];
+    }
+
+    // ----------------------------
+    // Write notifications
+    // Values arrive as the validated script/menu text; anything that does not fit a long
+    // simply drops the column back to a reload.
+    // ----------------------------
+    public void added(int stat, String valueText)
+    {
+        if (!loaded[stat]) return;
+
+        long value = parse(valueText, stat);
+        if (!loaded[stat]) return;
+
+        if (!addToSum(stat, value, 1)) return;
+        if (counts[stat] == 1 || value < minimums[stat]) minimums[stat] = value;
+        if (counts[stat] == 1 || value > maximums[stat]) maximums[stat] = value;
+    }
+
+    // removedCount rows with the given sum/min/max were deleted (as measured just before the delete)
+    public void removed(int stat, long removedCount, long removedSum, long removedMin, long removedMax)
+    {
+        if (!loaded[stat] || removedCount == 0) return;
+
+        if (!addToSum(stat, -removedSum, -removedCount)) return;
+        if (removedMin <= minimums[stat] || removedMax >= maximums[stat]) extremesStale[stat] = true;
+    }
+
+    // one row changed from oldValue to newValueText; hadOldValue is false when the old value was NULL
+    public void replaced(int stat, boolean hadOldValue, long oldValue, String newValueText)
+    {
+        if (!loaded[stat]) return;
+
+        if (hadOldValue) removed(stat, 1, oldValue, oldValue, oldValue);
+        added(stat, newValueText);
+    }
+
+    // rowCount rows each had delta added; everyRow says they were all the column's values, so the
+    // extremes move with them instead of being rebuilt
+    public void shifted(int stat, long rowCount, long delta, boolean everyRow)
+    {
+        if (!loaded[stat] || rowCount == 0) return;
+
+        try
+        {
+            if (!addToSum(stat, Math.multiplyExact(rowCount, delta), 0)) return;
+            if (everyRow)
+            {
+                minimums[stat] = Math.addExact(minimums[stat], delta);
+                maximums[stat] = Math.addExact(maximums[stat], delta);
+            }
+            else
+            {
+                extremesStale[stat] = true;
+            }
+        }
+        catch (ArithmeticException exception)
+        {
+            invalidate(stat);
+        }
+    }
+
+    // Writes only need reporting for columns that are currently loaded
+    public boolean isTracking(int stat)
+    {
+        return loaded[stat];
+    }
+
+    public void invalidate()
+    {
+        int statIndex = 0;
+        while (statIndex < TABLES.length)
+        {
+            invalidate(statIndex);
+            statIndex = statIndex + 1;
+        }
+    }
+
+    public void invalidate(int stat)
+    {
+        loaded[stat] = false;
+    }
+
+    // ----------------------------
+    // Queries
+    // ----------------------------
+    // "MIN: a  AVG: b  MAX: c" with the same text SQLite's MIN/AVG/MAX would have produced
+    public String summary(int stat) throws SQLException
+    {
+        if (!ensureLoaded(stat)) return summaryFromDatabase(stat);
+
+        String minimumText = null;
+        String averageText = null;
+        String maximumText = null;
+        if (counts[stat] > 0)
+        {
+            minimumText = Long.toString(minimums[stat]);
+            averageText = SqliteRealFormat.format((double) sums[stat] / (double) counts[stat]);
+            maximumText = Long.toString(maximums[stat]);
+        }
+        return "MIN: " + minimumText + "  AVG: " + averageText + "  MAX: " + maximumText;
+    }
+
+    public String describe()
+    {
+        return "Stats engine: " + loadCount + " loads, " + extremeRebuildCount + " min/max rebuilds";
+    }
+
+    // ----------------------------
+    // Internal
+    // ----------------------------
+    // Returns false when the column holds values that cannot be tracked exactly (e.g. REAL or
+    // TEXT written through a raw SQL line); such a column is answered by SQL every time.
+    private boolean ensureLoaded(int stat) throws SQLException
+    {
+        if (!loaded[stat])
+        {
+            loadCount = loadCount + 1;
+            String sql = "SELECT COUNT(" + COLUMNS[stat] + "), SUM(" + COLUMNS[stat] + "), MIN(" + COLUMNS[stat] + "), MAX(" + COLUMNS[stat] + ") FROM " + TABLES[stat] + ";";
+            return readAggregates(stat, sql, true);
+        }
+        if (extremesStale[stat])
+        {
+            extremeRebuildCount = extremeRebuildCount + 1;
+            String sql = "SELECT MIN(" + COLUMNS[stat] + "), MAX(" + COLUMNS[stat] + ") FROM " + TABLES[stat] + ";";
+            return readAggregates(stat, sql, false);
+        }
+        return true;
+    }
+
+    private boolean readAggregates(int stat, String sql, boolean withCountAndSum) throws SQLException
+    {
+        boolean exact;
+        long startNanos = Instrumentation.start();
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(sql))
+        {
+            resultSet.next();
+            int columnIndex = 1;
+            if (withCountAndSum)
+            {
+                counts[stat] = resultSet.getLong(1);
+                sums[stat] = resultSet.getLong(2);
+                columnIndex = 3;
+            }
+            minimums[stat] = resultSet.getLong(columnIndex);
+            maximums[stat] = resultSet.getLong(columnIndex + 1);
+
+            exact = isIntegerColumn(resultSet, columnIndex) && isIntegerColumn(resultSet, columnIndex + 1);
+            if (withCountAndSum) exact = exact && isIntegerColumn(resultSet, 2);
+        }
+        Instrumentation.recordStatement(sql, startNanos, 1);
+        loaded[stat] = exact;
+        extremesStale[stat] = false;
+        return exact;
+    }
+
+    private String summaryFromDatabase(int stat) throws SQLException
+    {
+        String sql = "SELECT MIN(" + COLUMNS[stat] + "), AVG(" + COLUMNS[stat] + "), MAX(" + COLUMNS[stat] + ") FROM " + TABLES[stat] + ";";
+        long startNanos = Instrumentation.start();
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(sql))
+        {
+            resultSet.next();
+            Instrumentation.recordStatement(sql, startNanos, 1);
+            return "MIN: " + resultSet.getString(1) + "  AVG: " + resultSet.getString(2) + "  MAX: " + resultSet.getString(3);
+        }
+    }
+
+    private static boolean isIntegerColumn(ResultSet resultSet, int columnIndex) throws SQLException
+    {
+        Object value = resultSet.getObject(columnIndex);
+        return value == null || value instanceof Integer || value instanceof Long;
+    }
+
+    private boolean addToSum(int stat, long sumDelta, long countDelta)
+    {
+        try
+        {
+            sums[stat] = Math.addExact(sums[stat], sumDelta);
+            counts[stat] = counts[stat] + countDelta;
+            return true;
+        }
+        catch (ArithmeticException exception)
+        {
+            invalidate(stat);
+            return false;
+        }
+    }
+
+    // Same digits-only rule the script validates with; too long for a long means reload
+    private long parse(String valueText, int stat)
+    {
+        if (valueText == null || valueText.length() == 0 || valueText.length() > 18)
+        {
+            invalidate(stat);
+            return 0;
+        }
+        long value = 0;
+        int charIndex = 0;
+        while (charIndex < valueText.length())
+        {
+            char character = valueText.charAt(charIndex);
+            if (character < '0' || character > '9')
+            {
+                invalidate(stat);
+                return 0;
+            }
+            value = value * 10 + (character - '0');
+            charIndex = charIndex + 1;
+        }
+        return value;
+    }
+}